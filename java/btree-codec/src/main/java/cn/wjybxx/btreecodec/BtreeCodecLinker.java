@@ -51,12 +51,16 @@ public class BtreeCodecLinker {
         @DsonCodecLinker(props = @DsonSerializable)
         private ActiveSelector<?> activeSelector;
         @DsonCodecLinker(props = @DsonSerializable)
+        private DynamicJoin<?> dynamicJoin;
+        @DsonCodecLinker(props = @DsonSerializable)
         private FixedSwitch<?> fixedSwitch;
         @DsonCodecLinker(props = @DsonSerializable)
         private Foreach<?> foreachTask;
         @DsonCodecLinker(props = @DsonSerializable)
         private Join<?> join;
         @DsonCodecLinker(props = @DsonSerializable)
+        private KeyedSwitch<?> keyedSwitch;
+        @DsonCodecLinker(props = @DsonSerializable)
         private Selector<?> selector;
         @DsonCodecLinker(props = @DsonSerializable)
         private SelectorN<?> selectorN;
@@ -68,10 +72,18 @@ public class BtreeCodecLinker {
         private SimpleParallel<?> simpleParallel;
         @DsonCodecLinker(props = @DsonSerializable)
         private Switch<?> switchTask;
+        @DsonCodecLinker(props = @DsonSerializable)
+        private UtilitySelector<?> utilitySelector;
+        @DsonCodecLinker(props = @DsonSerializable)
+        private WeightedRandomSelector<?> weightedRandomSelector;
     }
 
     @DsonCodecLinkerGroup(outputPackage = "cn.wjybxx.btreecodec.branch.join")
     private static class JoinPolicyLinker {
+        @DsonCodecLinker(props = @DsonSerializable(singleton = "getInstance"))
+        private DynamicJoinSequence<?> dynamicJoinSequence;
+        @DsonCodecLinker(props = @DsonSerializable(singleton = "getInstance"))
+        private DynamicJoinWaitAll<?> dynamicJoinWaitAll;
         @DsonCodecLinker(props = @DsonSerializable(singleton = "getInstance"))
         private JoinAnyOf<?> joinAnyOf;
         @DsonCodecLinker(props = @DsonSerializable(singleton = "getInstance"))
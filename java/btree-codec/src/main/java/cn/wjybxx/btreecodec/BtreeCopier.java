@@ -0,0 +1,383 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btreecodec;
+
+import cn.wjybxx.btree.Task;
+import cn.wjybxx.btree.loader.ObjectCopier;
+import cn.wjybxx.btree.loader.PrototypeShared;
+import cn.wjybxx.dsoncodec.annotations.DsonSerializable;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 行为树的对象拷贝器 -- 不经过序列化，直接拷贝配置字段和子节点结构
+ * <p>
+ * 1.需要拷贝的类型和生成Codec的类型一致：通过{@link #registerLinker(Class)}注册Linker中声明的所有类型，
+ * 默认注册了{@link BtreeCodecLinker}；运行时可见的{@link DsonSerializable}类型和{@link Task}子类会自动注册。
+ * 2.只拷贝非static、非transient字段 -- 与Codec的序列化范围一致，transient字段由构造方法初始化；
+ * 实现了{@link PrototypeShared}的对象在拷贝后引用原型上的共享数据。
+ * 3.类型提供了静态的getInstance方法(或通过{@link DsonSerializable#singleton()}指定)时视为单例，拷贝时共享。
+ * 4.基本类型、字符串、枚举共享引用；List、Set、Map和数组进行深拷贝；Lambda视为无状态对象，共享引用。
+ * 5.其它未注册的类型在拷贝时抛出异常，避免可变对象在副本之间共享；不可变的配置类型可通过{@link #registerImmutable(Class)}注册。
+ * 6.同一个对象(Task除外)在原型中被多次引用时，拷贝后仍然是同一个对象。
+ * 7.每个类型只在注册时反射一次，之后通过{@link MethodHandle}创建对象和拷贝字段。
+ * 8.非核心模块的类型需要对该模块开放(opens)，否则无法访问私有字段。
+ *
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+public final class BtreeCopier implements ObjectCopier {
+
+    private static final MethodType TYPE_NEW_INSTANCE = MethodType.methodType(Object.class);
+    private static final MethodType TYPE_GETTER = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType TYPE_SETTER = MethodType.methodType(void.class, Object.class, Object.class);
+    private static final MethodType TYPE_FIELD_COPIER = MethodType.methodType(void.class, Object.class, Object.class);
+    private static final MethodType TYPE_COPY_VALUE = MethodType.methodType(Object.class, Object.class, IdentityHashMap.class);
+
+    private static final Set<Class<?>> immutableTypes = Set.of(
+            Boolean.class, Byte.class, Short.class, Character.class,
+            Integer.class, Long.class, Float.class, Double.class,
+            String.class, Class.class);
+
+    /** 不可变类型也存储在该Map中，以使每个对象只需查询一次 */
+    private final ConcurrentHashMap<Class<?>, ClassCopier> copierMap = new ConcurrentHashMap<>(64);
+
+    public BtreeCopier() {
+        for (Class<?> type : immutableTypes) {
+            copierMap.put(type, ClassCopier.IMMUTABLE);
+        }
+        registerLinker(BtreeCodecLinker.class);
+    }
+
+    // region register
+
+    /**
+     * 注册Linker中声明的所有类型
+     * 会递归扫描Linker的字段和嵌套类的字段，以字段的类型作为要拷贝的类型。
+     */
+    public BtreeCopier registerLinker(Class<?> linkerClass) {
+        for (Field field : linkerClass.getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers())) {
+                continue;
+            }
+            register(field.getType());
+        }
+        for (Class<?> nestedClass : linkerClass.getDeclaredClasses()) {
+            registerLinker(nestedClass);
+        }
+        return this;
+    }
+
+    /** 注册需要深拷贝的类型 */
+    public BtreeCopier register(Class<?> clazz) {
+        getOrRegister(clazz);
+        return this;
+    }
+
+    /** 注册单例类型，拷贝时总是返回给定的实例 */
+    public BtreeCopier registerSingleton(Class<?> clazz, Object instance) {
+        if (!clazz.isInstance(instance)) {
+            throw new IllegalArgumentException("instance is not an instance of " + clazz.getName());
+        }
+        copierMap.put(clazz, new ClassCopier(instance));
+        return this;
+    }
+
+    /**
+     * 注册不可变类型，拷贝时共享引用
+     * 注意：只应该注册真正不可变的类型，否则修改副本会影响原型。
+     */
+    public BtreeCopier registerImmutable(Class<?> clazz) {
+        ClassCopier existing = copierMap.putIfAbsent(clazz, ClassCopier.IMMUTABLE);
+        if (existing != null && existing != ClassCopier.IMMUTABLE) {
+            throw new IllegalArgumentException("type is registered as copyable, type: " + clazz.getName());
+        }
+        return this;
+    }
+
+    private ClassCopier getOrRegister(Class<?> clazz) {
+        ClassCopier copier = copierMap.get(clazz);
+        if (copier == null) {
+            copier = copierMap.computeIfAbsent(clazz, this::newClassCopier);
+        }
+        return copier;
+    }
+
+    private ClassCopier newClassCopier(Class<?> clazz) {
+        if (clazz.isInterface() || clazz.isArray() || Modifier.isAbstract(clazz.getModifiers())) {
+            throw new IllegalArgumentException("unsupported type: " + clazz.getName());
+        }
+        try {
+            Object singleton = findSingleton(clazz);
+            if (singleton != null) {
+                return new ClassCopier(singleton);
+            }
+            final MethodHandles.Lookup lookup = MethodHandles.lookup();
+            Constructor<?> constructor = clazz.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            MethodHandle newInstance = lookup.unreflectConstructor(constructor).asType(TYPE_NEW_INSTANCE);
+
+            // (value, copiedMap) -> copiedValue
+            MethodHandle copyValue = lookup.findVirtual(BtreeCopier.class, "copyValue", TYPE_COPY_VALUE).bindTo(this);
+            List<MethodHandle> fieldCopiers = new ArrayList<>();
+            List<MethodHandle> refFieldCopiers = new ArrayList<>();
+            for (Class<?> type = clazz; type != Object.class; type = type.getSuperclass()) {
+                for (Field field : type.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)) {
+                        continue;
+                    }
+                    field.setAccessible(true);
+                    MethodHandle getter = lookup.unreflectGetter(field);
+                    MethodHandle setter = lookup.unreflectSetter(field);
+                    if (isImmutableType(field.getType())) {
+                        // (dest, src) -> dest.field = src.field，基础类型不装箱
+                        fieldCopiers.add(MethodHandles.filterArguments(setter, 1, getter)
+                                .asType(TYPE_FIELD_COPIER));
+                    } else {
+                        // (dest, src, copiedMap) -> dest.field = copyValue(src.field, copiedMap)
+                        MethodHandle copyField = MethodHandles.filterArguments(copyValue, 0, getter.asType(TYPE_GETTER));
+                        refFieldCopiers.add(MethodHandles.collectArguments(setter.asType(TYPE_SETTER), 1, copyField));
+                    }
+                }
+            }
+            // 将创建对象和拷贝不可变字段合并为一个方法：(src) -> dest，减少动态调用的次数
+            MethodHandle creator = MethodHandles.dropArguments(MethodHandles.identity(Object.class), 1, Object.class);
+            for (int idx = fieldCopiers.size() - 1; idx >= 0; idx--) {
+                creator = MethodHandles.foldArguments(creator, fieldCopiers.get(idx));
+            }
+            creator = MethodHandles.foldArguments(creator, newInstance);
+            // 需要深拷贝的字段同样合并为一个方法：(dest, src, copiedMap) -> void
+            MethodHandle refFieldsCopier = null;
+            if (!refFieldCopiers.isEmpty()) {
+                refFieldsCopier = refFieldCopiers.get(refFieldCopiers.size() - 1);
+                for (int idx = refFieldCopiers.size() - 2; idx >= 0; idx--) {
+                    refFieldsCopier = MethodHandles.foldArguments(refFieldsCopier, refFieldCopiers.get(idx));
+                }
+            }
+            return new ClassCopier(creator, refFieldsCopier);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException("no-arg constructor is absent, type: " + clazz.getName(), e);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            throw new IllegalArgumentException("unsupported type: " + clazz.getName(), e);
+        }
+    }
+
+    private static Object findSingleton(Class<?> clazz) throws ReflectiveOperationException {
+        String methodName = "getInstance";
+        DsonSerializable annotation = clazz.getAnnotation(DsonSerializable.class);
+        if (annotation != null && !annotation.singleton().isBlank()) {
+            methodName = annotation.singleton();
+        }
+        Method method;
+        try {
+            method = clazz.getDeclaredMethod(methodName);
+        } catch (NoSuchMethodException ignore) {
+            return null;
+        }
+        if (!Modifier.isStatic(method.getModifiers()) || !clazz.isAssignableFrom(method.getReturnType())) {
+            return null;
+        }
+        method.setAccessible(true);
+        return Objects.requireNonNull(method.invoke(null), "singleton");
+    }
+
+    private static boolean isImmutableType(Class<?> type) {
+        return type.isPrimitive() || type.isEnum() || immutableTypes.contains(type);
+    }
+
+    // endregion
+
+    // region copy
+
+    @Override
+    public Object copy(Object prototype) {
+        Objects.requireNonNull(prototype, "prototype");
+        return copyValue(prototype, new IdentityHashMap<>());
+    }
+
+    private Object copyValue(Object value, IdentityHashMap<Object, Object> copiedMap) {
+        if (value == null) {
+            return null;
+        }
+        final Class<?> type = value.getClass();
+        ClassCopier classCopier = copierMap.get(type);
+        if (classCopier == ClassCopier.IMMUTABLE) {
+            return value;
+        }
+        // Task只能有一个父节点，不会被共享，因此不记录Task
+        final boolean isTask = value instanceof Task<?>;
+        if (!isTask) {
+            Object copied = copiedMap.get(value);
+            if (copied != null) {
+                return copied;
+            }
+        }
+        if (classCopier == null) {
+            if (value instanceof List<?> list) {
+                return copyList(list, copiedMap);
+            }
+            if (value instanceof Set<?> set) {
+                return copySet(set, copiedMap);
+            }
+            if (value instanceof Map<?, ?> map) {
+                return copyMap(map, copiedMap);
+            }
+            if (type.isArray()) {
+                return copyArray(value, copiedMap);
+            }
+            if (value instanceof Enum<?> || type.isHidden()) {
+                // 枚举不可变；Lambda无法序列化，视为无状态对象
+                copierMap.putIfAbsent(type, ClassCopier.IMMUTABLE);
+                return value;
+            }
+            if (!isTask && !type.isAnnotationPresent(DsonSerializable.class)) {
+                throw new IllegalArgumentException("unregistered type: " + type.getName()
+                        + ", call register or registerImmutable first");
+            }
+            classCopier = getOrRegister(type);
+        }
+        if (classCopier.singleton != null) {
+            return classCopier.singleton;
+        }
+        try {
+            Object instance = (Object) classCopier.creator.invokeExact(value);
+            if (!isTask) {
+                copiedMap.put(value, instance);
+            }
+            if (classCopier.refFieldsCopier != null) {
+                classCopier.refFieldsCopier.invokeExact(instance, value, copiedMap);
+            }
+            if (instance instanceof PrototypeShared shared) {
+                shared.shareFrom(value);
+            }
+            return instance;
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("copy failed, type: " + type.getName(), e);
+        }
+    }
+
+    private List<Object> copyList(List<?> list, IdentityHashMap<Object, Object> copiedMap) {
+        final int size = list.size();
+        ArrayList<Object> result = new ArrayList<>(size);
+        // 子节点列表不会被共享，不记录 -- 行为树中绝大多数列表都是子节点列表
+        if (size == 0 || !(list.get(0) instanceof Task<?>)) {
+            copiedMap.put(list, result);
+        }
+        for (int idx = 0; idx < size; idx++) {
+            result.add(copyValue(list.get(idx), copiedMap));
+        }
+        return result;
+    }
+
+    /** 有序集合保持比较器，其它集合保持迭代顺序 */
+    @SuppressWarnings("unchecked")
+    private Set<Object> copySet(Set<?> set, IdentityHashMap<Object, Object> copiedMap) {
+        Set<Object> result;
+        if (set instanceof SortedSet<?> sortedSet) {
+            result = new TreeSet<>((Comparator<Object>) sortedSet.comparator());
+        } else {
+            result = new LinkedHashSet<>(set.size() * 4 / 3 + 1);
+        }
+        copiedMap.put(set, result);
+        for (Object element : set) {
+            result.add(copyValue(element, copiedMap));
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<Object, Object> copyMap(Map<?, ?> map, IdentityHashMap<Object, Object> copiedMap) {
+        Map<Object, Object> result;
+        if (map instanceof SortedMap<?, ?> sortedMap) {
+            result = new TreeMap<>((Comparator<Object>) sortedMap.comparator());
+        } else {
+            result = new LinkedHashMap<>(map.size() * 4 / 3 + 1);
+        }
+        copiedMap.put(map, result);
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            result.put(copyValue(entry.getKey(), copiedMap), copyValue(entry.getValue(), copiedMap));
+        }
+        return result;
+    }
+
+    private Object copyArray(Object array, IdentityHashMap<Object, Object> copiedMap) {
+        final int length = Array.getLength(array);
+        Class<?> componentType = array.getClass().getComponentType();
+        if (isImmutableType(componentType)) {
+            Object result = Array.newInstance(componentType, length);
+            System.arraycopy(array, 0, result, 0, length);
+            copiedMap.put(array, result);
+            return result;
+        }
+        Object[] src = (Object[]) array;
+        Object[] result = (Object[]) Array.newInstance(componentType, length);
+        copiedMap.put(array, result);
+        for (int idx = 0; idx < length; idx++) {
+            result[idx] = copyValue(src[idx], copiedMap);
+        }
+        return result;
+    }
+
+    // endregion
+
+    private static class ClassCopier {
+
+        /** 不可变类型的标记 */
+        static final ClassCopier IMMUTABLE = new ClassCopier(new Object());
+
+        final Object singleton;
+        /** 创建对象并拷贝不可变字段 -- (src) -> dest */
+        final MethodHandle creator;
+        /** 拷贝需要深拷贝的字段 -- (dest, src, copiedMap)，没有这样的字段时为null */
+        final MethodHandle refFieldsCopier;
+
+        ClassCopier(Object singleton) {
+            this.singleton = singleton;
+            this.creator = null;
+            this.refFieldsCopier = null;
+        }
+
+        ClassCopier(MethodHandle creator, MethodHandle refFieldsCopier) {
+            this.singleton = null;
+            this.creator = creator;
+            this.refFieldsCopier = refFieldsCopier;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btreecodec.bundle;
+
+import cn.wjybxx.dson.io.DsonOutput;
+import cn.wjybxx.dson.io.DsonOutputs;
+
+import java.util.Arrays;
+
+/**
+ * 可扩容的二进制输出 -- Dson默认的输出基于定长数组，空间不足时直接抛出异常
+ * 1.每次写入前按照该类型编码后的最大长度检查空间，空间不足时扩容，因此底层输出永远不会越界。
+ * 2.只能修改已写入的区间，因此{@link #setPosition(int)}等方法不需要扩容。
+ * 3.可通过{@link #reset()}重用缓冲区。
+ *
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+final class GrowableDsonOutput implements DsonOutput {
+
+    /** varint编码的最大长度 -- 负的int32也按照int64编码 */
+    private static final int MAX_VARINT_SIZE = 10;
+    private static final int MAX_VARINT32_SIZE = 5;
+
+    private final int maxCapacity;
+    private byte[] buffer;
+    private DsonOutput output;
+
+    GrowableDsonOutput(int initialCapacity, int maxCapacity) {
+        if (initialCapacity <= 0 || initialCapacity > maxCapacity) {
+            throw new IllegalArgumentException("initialCapacity: %d, maxCapacity: %d".formatted(initialCapacity, maxCapacity));
+        }
+        this.maxCapacity = maxCapacity;
+        this.buffer = new byte[initialCapacity];
+        this.output = DsonOutputs.newInstance(buffer);
+    }
+
+    /** 丢弃已写入的内容 */
+    public void reset() {
+        output.setPosition(0);
+    }
+
+    /** 拷贝已写入的内容 */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, output.getPosition());
+    }
+
+    public int capacity() {
+        return buffer.length;
+    }
+
+    private void ensureWritable(long size) {
+        final int position = output.getPosition();
+        if (position + size <= buffer.length) {
+            return;
+        }
+        if (position + size > maxCapacity) {
+            throw new IllegalStateException("output is too large, maxCapacity: %d, position: %d, size: %d"
+                    .formatted(maxCapacity, position, size));
+        }
+        int newCapacity = (int) Math.min(maxCapacity, Math.max(buffer.length * 2L, position + size));
+        buffer = Arrays.copyOf(buffer, newCapacity);
+        output = DsonOutputs.newInstance(buffer);
+        output.setPosition(position);
+    }
+
+    // region write
+
+    @Override
+    public void writeRawByte(byte value) {
+        ensureWritable(1);
+        output.writeRawByte(value);
+    }
+
+    @Override
+    public void writeInt32(int value) {
+        ensureWritable(MAX_VARINT_SIZE);
+        output.writeInt32(value);
+    }
+
+    @Override
+    public void writeUint32(int value) {
+        ensureWritable(MAX_VARINT32_SIZE);
+        output.writeUint32(value);
+    }
+
+    @Override
+    public void writeSint32(int value) {
+        ensureWritable(MAX_VARINT32_SIZE);
+        output.writeSint32(value);
+    }
+
+    @Override
+    public void writeFixed32(int value) {
+        ensureWritable(4);
+        output.writeFixed32(value);
+    }
+
+    @Override
+    public void writeInt64(long value) {
+        ensureWritable(MAX_VARINT_SIZE);
+        output.writeInt64(value);
+    }
+
+    @Override
+    public void writeUint64(long value) {
+        ensureWritable(MAX_VARINT_SIZE);
+        output.writeUint64(value);
+    }
+
+    @Override
+    public void writeSint64(long value) {
+        ensureWritable(MAX_VARINT_SIZE);
+        output.writeSint64(value);
+    }
+
+    @Override
+    public void writeFixed64(long value) {
+        ensureWritable(8);
+        output.writeFixed64(value);
+    }
+
+    @Override
+    public void writeFloat(float value) {
+        ensureWritable(4);
+        output.writeFloat(value);
+    }
+
+    @Override
+    public void writeDouble(double value) {
+        ensureWritable(8);
+        output.writeDouble(value);
+    }
+
+    @Override
+    public void writeBool(boolean value) {
+        ensureWritable(1);
+        output.writeBool(value);
+    }
+
+    /** utf8编码后每个char最多3个字节 */
+    @Override
+    public void writeString(String value) {
+        ensureWritable(MAX_VARINT32_SIZE + value.length() * 3L);
+        output.writeString(value);
+    }
+
+    @Override
+    public void writeRawBytes(byte[] data, int offset, int length) {
+        ensureWritable(length);
+        output.writeRawBytes(data, offset, length);
+    }
+
+    // endregion
+
+    @Override
+    public int spaceLeft() {
+        return maxCapacity - output.getPosition();
+    }
+
+    @Override
+    public int getPosition() {
+        return output.getPosition();
+    }
+
+    @Override
+    public void setPosition(int value) {
+        output.setPosition(value);
+    }
+
+    @Override
+    public void setByte(int pos, byte value) {
+        output.setByte(pos, value);
+    }
+
+    @Override
+    public void setFixedInt32(int pos, int value) {
+        output.setFixedInt32(pos, value);
+    }
+
+    @Override
+    public void flush() {
+
+    }
+
+    @Override
+    public void close() {
+
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btreecodec.bundle;
+
+import cn.wjybxx.btree.TreeLoader;
+import cn.wjybxx.dson.DsonBinaryWriter;
+import cn.wjybxx.dson.DsonValue;
+import cn.wjybxx.dson.Dsons;
+import cn.wjybxx.dsoncodec.Converter;
+import cn.wjybxx.dsoncodec.DsonConverter;
+import cn.wjybxx.dsoncodec.TypeInfo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * 行为树包的编译器 -- 构建时将编辑器导出的文件编译为二进制包
+ * 1.入口对象在添加时立即编码为二进制Dson，因此不会持有入口对象。
+ * 2.名字和guid在整个包中必须唯一。
+ * 3.运行时通过{@link TreeBundleLoader}加载。
+ *
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+public final class TreeBundleCompiler {
+
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_BUFFER_SIZE = 1 << 30;
+
+    private final DsonConverter converter;
+    /**
+     * 编码缓冲区 -- {@link Converter#write(Object, TypeInfo)}的缓冲区只有1KB，且定长的缓冲区无法预知需要的大小，
+     * 因此先编码为{@link DsonValue}，再写入可扩容的输出
+     */
+    private final GrowableDsonOutput output = new GrowableDsonOutput(INITIAL_BUFFER_SIZE, MAX_BUFFER_SIZE);
+    private final List<Record> records = new ArrayList<>();
+    private final Set<String> keySet = new HashSet<>();
+    private int dataLength;
+
+    public TreeBundleCompiler(DsonConverter converter) {
+        this.converter = Objects.requireNonNull(converter, "converter");
+    }
+
+    /**
+     * 添加文件中的所有入口
+     * 通过过滤器收集入口，过滤器总是返回false，因此Loader不会拷贝入口对象。
+     *
+     * @param loader   编辑器文件的加载器
+     * @param fileName 文件名
+     */
+    public TreeBundleCompiler addFile(TreeLoader loader, String fileName) {
+        loader.loadManyFromFile(fileName, true, entry -> {
+            addEntry(fileName, entry);
+            return false;
+        });
+        return this;
+    }
+
+    /**
+     * 添加一个入口
+     *
+     * @param fileName 入口所属的文件，用于运行时按文件加载
+     * @param entry    入口对象
+     */
+    public TreeBundleCompiler addEntry(String fileName, TreeLoader.IEntry entry) {
+        String name = Objects.requireNonNull(entry.getName(), "name");
+        String guid = entry.getGuid();
+        if (keySet.contains(name) || (guid != null && keySet.contains(guid))) {
+            throw new IllegalArgumentException("duplicate entry, name: %s, guid: %s".formatted(name, guid));
+        }
+        byte[] data = encode(Objects.requireNonNull(entry.getRoot(), "root"));
+        if (data.length > Integer.MAX_VALUE - dataLength) {
+            throw new IllegalStateException("bundle is too large");
+        }
+        records.add(new Record(name, guid, fileName, entry.getType(), entry.getFlags(), dataLength, data));
+        keySet.add(name);
+        if (guid != null) {
+            keySet.add(guid);
+        }
+        dataLength += data.length;
+        return this;
+    }
+
+    public int getEntryCount() {
+        return records.size();
+    }
+
+    public byte[] toByteArray() {
+        try {
+            ByteArrayOutputStream index = new ByteArrayOutputStream(records.size() * 64);
+            DataOutputStream indexOutput = new DataOutputStream(index);
+            for (Record record : records) {
+                writeString(indexOutput, record.name);
+                writeString(indexOutput, record.guid);
+                writeString(indexOutput, record.fileName);
+                indexOutput.writeInt(record.type);
+                indexOutput.writeInt(record.flags);
+                indexOutput.writeInt(record.dataOffset);
+                indexOutput.writeInt(record.data.length);
+            }
+            indexOutput.flush();
+
+            ByteArrayOutputStream result = new ByteArrayOutputStream(TreeBundleFormat.HEADER_LENGTH + index.size() + dataLength);
+            DataOutputStream output = new DataOutputStream(result);
+            output.writeInt(TreeBundleFormat.MAGIC);
+            output.writeInt(TreeBundleFormat.VERSION);
+            output.writeInt(records.size());
+            output.writeInt(index.size());
+            index.writeTo(output);
+            for (Record record : records) {
+                output.write(record.data);
+            }
+            output.flush();
+            return result.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // 内存流不会抛出该异常
+        }
+    }
+
+    /** 写入文件 -- 先写入临时文件再移动，避免运行中的进程读取到不完整的文件 */
+    public void writeTo(Path path) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        Path tempFile = Files.createTempFile(parent, path.getFileName().toString(), ".tmp");
+        try {
+            Files.write(tempFile, toByteArray());
+            Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /** 写入可扩容的输出，不会因为缓冲区不足而失败 */
+    private byte[] encode(Object root) {
+        DsonValue value = converter.writeAsDsonValue(root, TypeInfo.OBJECT);
+        output.reset();
+        try (DsonBinaryWriter writer = new DsonBinaryWriter(converter.options().binWriterSettings, output)) {
+            Dsons.writeTopDsonValue(writer, value);
+            writer.flush();
+        }
+        return output.toByteArray();
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        byte[] bytes = TreeBundleFormat.encodeString(value);
+        if (bytes == null) {
+            output.writeShort(-1);
+        } else {
+            output.writeShort(bytes.length);
+            output.write(bytes);
+        }
+    }
+
+    private static class Record {
+
+        final String name;
+        final String guid;
+        final String fileName;
+        final int type;
+        final int flags;
+        final int dataOffset;
+        final byte[] data;
+
+        Record(String name, String guid, String fileName, int type, int flags, int dataOffset, byte[] data) {
+            this.name = name;
+            this.guid = guid;
+            this.fileName = fileName;
+            this.type = type;
+            this.flags = flags;
+            this.dataOffset = dataOffset;
+            this.data = data;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btreecodec.bundle;
+
+import cn.wjybxx.btree.TreeLoader;
+
+/**
+ * 行为树包中的入口
+ * 入口只包含元数据，{@link #getRoot()}每次调用都会从包中解码出新的对象。
+ *
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+public final class TreeBundleEntry implements TreeLoader.IEntry {
+
+    private final TreeBundleLoader loader;
+    private final String name;
+    private final String guid;
+    private final String fileName;
+    private final int type;
+    private final int flags;
+    final int dataOffset;
+    final int dataLength;
+
+    TreeBundleEntry(TreeBundleLoader loader, String name, String guid, String fileName,
+                    int type, int flags, int dataOffset, int dataLength) {
+        this.loader = loader;
+        this.name = name;
+        this.guid = guid;
+        this.fileName = fileName;
+        this.type = type;
+        this.flags = flags;
+        this.dataOffset = dataOffset;
+        this.dataLength = dataLength;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getGuid() {
+        return guid;
+    }
+
+    /** 入口所属的文件 */
+    public String getFileName() {
+        return fileName;
+    }
+
+    @Override
+    public int getType() {
+        return type;
+    }
+
+    @Override
+    public int getFlags() {
+        return flags;
+    }
+
+    /** 编码后的数据长度 */
+    public int getDataLength() {
+        return dataLength;
+    }
+
+    @Override
+    public Object getRoot() {
+        return loader.decode(this);
+    }
+
+    @Override
+    public String toString() {
+        return "TreeBundleEntry{" +
+                "name='" + name + '\'' +
+                ", guid='" + guid + '\'' +
+                ", fileName='" + fileName + '\'' +
+                ", type=" + type +
+                ", flags=" + flags +
+                '}';
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btreecodec.bundle;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 行为树包的文件格式（大端编码）
+ * <pre>{@code
+ *  header: magic(4) version(4) entryCount(4) indexLength(4)
+ *  index:  [name guid fileName type(4) flags(4) dataOffset(4) dataLength(4)] * entryCount
+ *  data:   [binary dson] * entryCount
+ * }</pre>
+ * 1.字符串以2字节的长度前缀加UTF8编码写入，null的长度为-1。
+ * 2.dataOffset是相对于data段起始位置的偏移。
+ *
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+final class TreeBundleFormat {
+
+    /** 'BTRB' */
+    static final int MAGIC = 0x42545242;
+    static final int VERSION = 1;
+    static final int HEADER_LENGTH = 16;
+    /** 索引中每个入口的最小长度 -- 3个字符串的长度前缀和4个int */
+    static final int MIN_INDEX_ENTRY_LENGTH = 3 * 2 + 4 * 4;
+
+    private TreeBundleFormat() {
+    }
+
+    static byte[] encodeString(String value) {
+        if (value == null) {
+            return null;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("string is too long: " + value.substring(0, 32) + "...");
+        }
+        return bytes;
+    }
+
+    static String readString(ByteBuffer buffer) {
+        int length = buffer.getShort();
+        if (length < 0) {
+            if (length != -1) {
+                throw new IllegalArgumentException("corrupted string length: " + length);
+            }
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
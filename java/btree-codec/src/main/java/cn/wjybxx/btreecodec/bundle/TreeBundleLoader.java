@@ -0,0 +1,175 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btreecodec.bundle;
+
+import cn.wjybxx.btree.TreeLoader;
+import cn.wjybxx.dsoncodec.Converter;
+import cn.wjybxx.dsoncodec.TypeInfo;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Predicate;
+
+/**
+ * 行为树包的加载器
+ * 1.通过{@link FileChannel#map}映射文件，打开时只解析索引，入口对象在请求时才解码。
+ * 2.映射的内存由操作系统的页缓存提供，同一台机器上的多个进程可共享。
+ * 3.每次加载都会解码出新的对象，如果需要缓存，可使用{@link cn.wjybxx.btree.loader.CachingTreeLoader}包装。
+ * 4.该实现是线程安全的 -- 只使用绝对位置读取映射的内存。
+ *
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+public final class TreeBundleLoader implements TreeLoader {
+
+    private final Converter converter;
+    private final ByteBuffer buffer;
+    private final int dataStart;
+    private final List<TreeBundleEntry> entries;
+    /** name和guid到入口的映射 */
+    private final Map<String, TreeBundleEntry> entryMap;
+    private final Map<String, List<TreeBundleEntry>> fileMap;
+
+    private TreeBundleLoader(Converter converter, ByteBuffer buffer) {
+        this.converter = Objects.requireNonNull(converter, "converter");
+        this.buffer = buffer;
+
+        ByteBuffer header = buffer.duplicate();
+        if (header.remaining() < TreeBundleFormat.HEADER_LENGTH || header.getInt() != TreeBundleFormat.MAGIC) {
+            throw new IllegalArgumentException("not a tree bundle");
+        }
+        int version = header.getInt();
+        if (version != TreeBundleFormat.VERSION) {
+            throw new IllegalArgumentException("unsupported bundle version: " + version);
+        }
+        int entryCount = header.getInt();
+        int indexLength = header.getInt();
+        if (indexLength < 0 || (long) TreeBundleFormat.HEADER_LENGTH + indexLength > buffer.limit()
+                || entryCount < 0 || entryCount > indexLength / TreeBundleFormat.MIN_INDEX_ENTRY_LENGTH) {
+            throw new IllegalArgumentException("corrupted bundle header, entryCount: %d, indexLength: %d".formatted(entryCount, indexLength));
+        }
+        this.dataStart = TreeBundleFormat.HEADER_LENGTH + indexLength;
+        header.limit(dataStart);
+
+        List<TreeBundleEntry> entries = new ArrayList<>(entryCount);
+        Map<String, TreeBundleEntry> entryMap = new HashMap<>(entryCount * 2);
+        Map<String, List<TreeBundleEntry>> fileMap = new HashMap<>();
+        try {
+            for (int i = 0; i < entryCount; i++) {
+                String name = TreeBundleFormat.readString(header);
+                String guid = TreeBundleFormat.readString(header);
+                String fileName = TreeBundleFormat.readString(header);
+                int type = header.getInt();
+                int flags = header.getInt();
+                int dataOffset = header.getInt();
+                int dataLength = header.getInt();
+                if (name == null || dataOffset < 0 || dataLength < 0 || (long) dataStart + dataOffset + dataLength > buffer.limit()) {
+                    throw new IllegalArgumentException("corrupted bundle, entry: " + name);
+                }
+                TreeBundleEntry entry = new TreeBundleEntry(this, name, guid, fileName, type, flags, dataOffset, dataLength);
+                entries.add(entry);
+                entryMap.put(name, entry);
+                if (guid != null) {
+                    entryMap.put(guid, entry);
+                }
+                if (fileName != null) {
+                    fileMap.computeIfAbsent(fileName, k -> new ArrayList<>()).add(entry);
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("corrupted bundle index", e);
+        }
+        if (header.position() != dataStart) {
+            throw new IllegalArgumentException("corrupted bundle index");
+        }
+        this.entries = Collections.unmodifiableList(entries);
+        this.entryMap = entryMap;
+        this.fileMap = fileMap;
+    }
+
+    /** 映射并打开给定的包文件 */
+    public static TreeBundleLoader open(Path path, Converter converter) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("bundle is too large: " + size);
+            }
+            // 关闭Channel不影响已映射的内存
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return new TreeBundleLoader(converter, buffer);
+        }
+    }
+
+    /** 从内存中的数据打开包 */
+    public static TreeBundleLoader wrap(byte[] bytes, Converter converter) {
+        return new TreeBundleLoader(converter, ByteBuffer.wrap(bytes).asReadOnlyBuffer());
+    }
+
+    // region load
+
+    @Nullable
+    @Override
+    public Object tryLoadObject(String nameOrGuid) {
+        TreeBundleEntry entry = entryMap.get(nameOrGuid);
+        return entry == null ? null : decode(entry);
+    }
+
+    @Nullable
+    @Override
+    public TreeBundleEntry tryLoadEntry(String nameOrGuid) {
+        return entryMap.get(nameOrGuid);
+    }
+
+    @Override
+    public List<Object> loadManyFromFile(String fileName, boolean sharable, @Nullable Predicate<? super IEntry> filter) {
+        List<TreeBundleEntry> fileEntries = fileMap.getOrDefault(fileName, List.of());
+        List<Object> result = new ArrayList<>(fileEntries.size());
+        for (TreeBundleEntry entry : fileEntries) {
+            if (filter == null || filter.test(entry)) {
+                result.add(decode(entry));
+            }
+        }
+        return result;
+    }
+
+    Object decode(TreeBundleEntry entry) {
+        byte[] bytes = new byte[entry.dataLength];
+        buffer.get(dataStart + entry.dataOffset, bytes);
+        return converter.read(bytes, TypeInfo.OBJECT);
+    }
+
+    // endregion
+
+    /** 包中的所有入口，按照编译时添加的顺序 */
+    public List<TreeBundleEntry> getEntries() {
+        return entries;
+    }
+
+    public int getEntryCount() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btreecodec.stream;
+
+import cn.wjybxx.btree.TreeLoader;
+
+/**
+ * 行为树文件中的入口
+ * 1.扫描得到的入口只包含元数据和入口在文件中的区间，过滤时{@link #getRoot()}返回null -- 这正是跳过解码的前提。
+ * 2.{@link DsonTreeScanner}返回的已解码入口，{@link #getRoot()}总是返回同一个对象。
+ * 3.{@link StreamingTreeLoader}返回的入口，{@link #getRoot()}每次调用都会从文件中解码出新的对象。
+ *
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+public final class DsonTreeEntry implements TreeLoader.IEntry {
+
+    String name;
+    String guid;
+    int type;
+    int flags;
+    /** 入口对象在文件中的区间 */
+    int offset;
+    int length;
+    /** 已解码的root */
+    Object root;
+    /** 入口所属的文件，由Loader建立索引时设置 */
+    StreamingTreeLoader.IndexedFile file;
+
+    DsonTreeEntry() {
+    }
+
+    /** 是否匹配给定的名字或guid */
+    boolean matches(String nameOrGuid) {
+        return nameOrGuid.equals(name) || nameOrGuid.equals(guid);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getGuid() {
+        return guid;
+    }
+
+    @Override
+    public int getType() {
+        return type;
+    }
+
+    @Override
+    public int getFlags() {
+        return flags;
+    }
+
+    /** 入口对象在文件中的偏移 */
+    public int getOffset() {
+        return offset;
+    }
+
+    /** 入口对象编码后的长度 */
+    public int getLength() {
+        return length;
+    }
+
+    /** 入口所属的文件，不是通过Loader获得的入口返回null */
+    public String getFileName() {
+        return file == null ? null : file.fileName;
+    }
+
+    @Override
+    public Object getRoot() {
+        if (root == null && file != null) {
+            return file.decode(this);
+        }
+        return root;
+    }
+
+    @Override
+    public String toString() {
+        return "DsonTreeEntry{" +
+                "name='" + name + '\'' +
+                ", guid='" + guid + '\'' +
+                ", type=" + type +
+                ", flags=" + flags +
+                ", offset=" + offset +
+                ", length=" + length +
+                '}';
+    }
+}
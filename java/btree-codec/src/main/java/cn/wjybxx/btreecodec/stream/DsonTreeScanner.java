@@ -0,0 +1,183 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btreecodec.stream;
+
+import cn.wjybxx.btree.TaskEntry;
+import cn.wjybxx.btree.TreeLoader;
+import cn.wjybxx.dson.DsonBinaryReader;
+import cn.wjybxx.dson.DsonReader;
+import cn.wjybxx.dson.DsonReaderSettings;
+import cn.wjybxx.dson.DsonType;
+import cn.wjybxx.dson.io.DsonChunk;
+import cn.wjybxx.dson.io.DsonInput;
+import cn.wjybxx.dson.io.DsonInputs;
+import cn.wjybxx.dsoncodec.Converter;
+import cn.wjybxx.dsoncodec.TypeInfo;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Predicate;
+
+/**
+ * 行为树文件的扫描器
+ * <pre>{@code
+ *  file:  [entry] *
+ * }</pre>
+ * 1.文件由连续的顶层二进制Dson对象构成，每个对象是通过{@link Converter#write(Object, TypeInfo)}导出的入口对象，
+ * 可以是{@link TaskEntry}或用户实现的{@link TreeLoader.IEntry}。
+ * 2.扫描时只读取入口的name、guid、type、flags字段，其它字段(包括root)通过{@link DsonReader#skipValue()}跳过，不会创建任何对象；
+ * 同时记录入口在文件中的区间，之后可以只解码该区间。
+ * 3.解码时返回入口绑定的root：{@link TreeLoader.IEntry#getRoot()}或{@link TaskEntry#getRootTask()}。
+ * 4.该类是无状态的，可在多线程下使用。
+ *
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+public final class DsonTreeScanner {
+
+    public static final String NAME = "name";
+    public static final String GUID = "guid";
+    public static final String TYPE = "type";
+    public static final String FLAGS = "flags";
+
+    private final Converter converter;
+
+    public DsonTreeScanner(Converter converter) {
+        this.converter = Objects.requireNonNull(converter, "converter");
+    }
+
+    public Converter getConverter() {
+        return converter;
+    }
+
+    /**
+     * 只读取所有入口的元数据和区间，不解码root
+     * 返回的入口{@link DsonTreeEntry#getRoot()}为null，可通过{@link #decode(byte[], DsonTreeEntry)}解码。
+     */
+    public List<DsonTreeEntry> scanEntries(byte[] data) {
+        return scan(data, entry -> true, Integer.MAX_VALUE, false);
+    }
+
+    /**
+     * 查找第一个名字或guid匹配的入口，找到后立即停止扫描
+     *
+     * @return 匹配的入口，root已解码；不存在时返回null
+     */
+    @Nullable
+    public DsonTreeEntry find(byte[] data, String nameOrGuid) {
+        Objects.requireNonNull(nameOrGuid, "nameOrGuid");
+        List<DsonTreeEntry> result = scan(data, entry -> entry.matches(nameOrGuid), 1, true);
+        return result.isEmpty() ? null : result.get(0);
+    }
+
+    /**
+     * 解码过滤器接受的所有入口
+     * 过滤器测试时入口只有元数据，{@link DsonTreeEntry#getRoot()}返回null。
+     *
+     * @param filter 过滤器，为null则解码全部入口
+     * @return 匹配的入口，root已解码
+     */
+    public List<DsonTreeEntry> decodeMany(byte[] data, @Nullable Predicate<? super TreeLoader.IEntry> filter) {
+        return scan(data, filter == null ? entry -> true : filter, Integer.MAX_VALUE, true);
+    }
+
+    /** 解码扫描得到的入口，返回入口绑定的root */
+    public Object decode(byte[] data, DsonTreeEntry entry) {
+        return decode(data, entry.offset, entry.length);
+    }
+
+    /**
+     * 解码给定区间的入口对象，返回入口绑定的root
+     *
+     * @param offset 入口对象在data中的偏移
+     * @param length 入口对象的长度
+     */
+    public Object decode(byte[] data, int offset, int length) {
+        Object value = converter.read(new DsonChunk(data, offset, length), TypeInfo.OBJECT);
+        if (value instanceof TreeLoader.IEntry entry) {
+            return entry.getRoot();
+        }
+        if (value instanceof TaskEntry<?> taskEntry) {
+            return taskEntry.getRootTask();
+        }
+        throw new IllegalArgumentException("unsupported entry type: " + (value == null ? null : value.getClass().getName()));
+    }
+
+    private List<DsonTreeEntry> scan(byte[] data, Predicate<? super DsonTreeEntry> filter, int limit, boolean decode) {
+        List<DsonTreeEntry> result = new ArrayList<>();
+        DsonInput input = DsonInputs.newInstance(data);
+        try (DsonReader reader = new DsonBinaryReader(DsonReaderSettings.DEFAULT, input)) {
+            int offset = input.getPosition();
+            DsonType dsonType;
+            while ((dsonType = reader.readDsonType()) != DsonType.END_OF_OBJECT) {
+                if (dsonType != DsonType.OBJECT) {
+                    throw new IllegalArgumentException("entry must be an object, type: %s, offset: %d".formatted(dsonType, offset));
+                }
+                DsonTreeEntry entry = readMetadata(reader);
+                if (entry.name == null) {
+                    throw new IllegalArgumentException("entry name is absent, offset: " + offset);
+                }
+                entry.offset = offset;
+                entry.length = input.getPosition() - offset;
+                offset = input.getPosition();
+                if (filter.test(entry)) {
+                    if (decode) {
+                        entry.root = decode(data, entry.offset, entry.length);
+                    }
+                    result.add(entry);
+                    if (result.size() >= limit) {
+                        break;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private static DsonTreeEntry readMetadata(DsonReader reader) {
+        DsonTreeEntry entry = new DsonTreeEntry();
+        DsonType dsonType;
+        reader.readStartObject();
+        while ((dsonType = reader.readDsonType()) != DsonType.END_OF_OBJECT) {
+            if (dsonType == DsonType.HEADER) { // 对象头没有名字
+                reader.skipValue();
+                continue;
+            }
+            String name = reader.readName();
+            switch (name) {
+                case NAME -> entry.name = dsonType == DsonType.STRING ? reader.readString(name) : skip(reader);
+                case GUID -> entry.guid = dsonType == DsonType.STRING ? reader.readString(name) : skip(reader);
+                case TYPE -> entry.type = dsonType == DsonType.INT32 ? reader.readInt32(name) : skipInt(reader);
+                case FLAGS -> entry.flags = dsonType == DsonType.INT32 ? reader.readInt32(name) : skipInt(reader);
+                default -> reader.skipValue();
+            }
+        }
+        reader.readEndObject();
+        return entry;
+    }
+
+    private static String skip(DsonReader reader) {
+        reader.skipValue();
+        return null;
+    }
+
+    private static int skipInt(DsonReader reader) {
+        reader.skipValue();
+        return 0;
+    }
+}
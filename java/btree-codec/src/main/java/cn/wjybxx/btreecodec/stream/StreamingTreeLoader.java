@@ -0,0 +1,262 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btreecodec.stream;
+
+import cn.wjybxx.btree.TreeLoader;
+import cn.wjybxx.dsoncodec.Converter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * 直接从行为树文件中加载对象的加载器
+ * 1.文件格式见{@link DsonTreeScanner}，即导出的入口对象直接拼接而成的文件，不需要预先编译。
+ * 2.索引是延迟建立的：按名字加载时按照文件的添加顺序依次扫描未索引的文件，找到后立即停止；
+ * 每个文件只扫描一次，之后的查询只访问内存中的name/guid到区间的索引。
+ * 3.索引只保存元数据和区间，不持有文件内容；加载时只读取和解码目标入口的区间。
+ * 4.名字或guid重复时，先添加的文件优先。
+ * 5.文件修改后需要调用{@link #invalidate()}重建索引；解码时会检查文件长度，长度变化时抛出异常。
+ * 6.每次加载都会解码出新的对象，如果需要缓存，可使用{@link cn.wjybxx.btree.loader.CachingTreeLoader}包装；
+ * 运行时频繁加载建议编译为{@link cn.wjybxx.btreecodec.bundle.TreeBundleLoader}。
+ * 7.文件读取或扫描失败时会记录错误并跳过该文件，不影响后续文件的索引；按文件名访问失败的文件时抛出记录的异常，
+ * 修复文件后需要调用{@link #invalidate()}。
+ * 8.该实现是线程安全的。
+ *
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+public final class StreamingTreeLoader implements TreeLoader {
+
+    private static final Logger logger = LoggerFactory.getLogger(StreamingTreeLoader.class);
+
+    private final DsonTreeScanner scanner;
+    /** 文件名到路径的映射 */
+    private final Map<String, Path> fileMap;
+    private final List<String> fileNames;
+
+    private final Object lock = new Object();
+    private volatile Index index = new Index();
+
+    /**
+     * @param converter 编解码器
+     * @param fileMap   文件名到文件路径的映射，扫描顺序与Map的迭代顺序一致
+     */
+    public StreamingTreeLoader(Converter converter, Map<String, Path> fileMap) {
+        this.scanner = new DsonTreeScanner(converter);
+        this.fileMap = new LinkedHashMap<>(fileMap);
+        this.fileNames = List.copyOf(this.fileMap.keySet());
+    }
+
+    @Nullable
+    @Override
+    public Object tryLoadObject(String nameOrGuid) {
+        DsonTreeEntry entry = tryLoadEntry(nameOrGuid);
+        return entry == null ? null : entry.getRoot();
+    }
+
+    @Nullable
+    @Override
+    public DsonTreeEntry tryLoadEntry(String nameOrGuid) {
+        Index index = this.index;
+        DsonTreeEntry entry = index.entryMap.get(nameOrGuid);
+        if (entry != null || index.indexedCount == fileNames.size()) {
+            return entry;
+        }
+        synchronized (lock) {
+            index = this.index;
+            while ((entry = index.entryMap.get(nameOrGuid)) == null && index.indexedCount < fileNames.size()) {
+                indexNextFile(index);
+            }
+            return entry;
+        }
+    }
+
+    @Override
+    public List<Object> loadManyFromFile(String fileName, boolean sharable, @Nullable Predicate<? super IEntry> filter) {
+        IndexedFile file = getIndexedFile(fileName);
+        if (file == null) {
+            return new ArrayList<>();
+        }
+        List<DsonTreeEntry> matched = new ArrayList<>();
+        for (DsonTreeEntry entry : file.entries) {
+            if (filter == null || filter.test(entry)) {
+                matched.add(entry);
+            }
+        }
+        return file.decodeMany(matched);
+    }
+
+    /** 获取文件中的所有入口，文件未索引时会建立索引 */
+    public List<DsonTreeEntry> getEntries(String fileName) {
+        IndexedFile file = getIndexedFile(fileName);
+        return file == null ? List.of() : file.entries;
+    }
+
+    /** 丢弃所有索引，文件修改后调用 */
+    public void invalidate() {
+        synchronized (lock) {
+            index = new Index();
+        }
+    }
+
+    public DsonTreeScanner getScanner() {
+        return scanner;
+    }
+
+    // region index
+
+    /** 为了保持文件的优先级，总是按顺序建立索引 */
+    private IndexedFile getIndexedFile(String fileName) {
+        if (!fileMap.containsKey(fileName)) {
+            return null;
+        }
+        IndexedFile file = index.fileIndex.get(fileName);
+        if (file != null) {
+            return file;
+        }
+        synchronized (lock) {
+            Index index = this.index;
+            RuntimeException error = null;
+            while ((file = index.fileIndex.get(fileName)) == null
+                    && (error = index.fileErrors.get(fileName)) == null) {
+                indexNextFile(index);
+            }
+            if (file == null) {
+                throw new IllegalStateException("index file failed, fileName: " + fileName, error);
+            }
+            return file;
+        }
+    }
+
+    /** 索引失败的文件会记录错误并跳过，避免阻塞后续文件 */
+    private void indexNextFile(Index index) {
+        String fileName = fileNames.get(index.indexedCount);
+        Path path = fileMap.get(fileName);
+        byte[] data;
+        List<DsonTreeEntry> entries;
+        try {
+            data = readFile(path);
+            entries = scanner.scanEntries(data);
+        } catch (RuntimeException e) {
+            logger.warn("index file caught exception, fileName: " + fileName, e);
+            index.fileErrors.put(fileName, e);
+            index.indexedCount++;
+            return;
+        }
+        IndexedFile file = new IndexedFile(this, fileName, path, data.length, entries);
+        for (DsonTreeEntry entry : entries) {
+            entry.file = file;
+            index.entryMap.putIfAbsent(entry.name, entry);
+            if (entry.guid != null) {
+                index.entryMap.putIfAbsent(entry.guid, entry);
+            }
+        }
+        index.fileIndex.put(fileName, file);
+        index.indexedCount++;
+    }
+
+    private static byte[] readFile(Path path) {
+        try {
+            return Files.readAllBytes(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static class Index {
+
+        /** name和guid到入口的映射 */
+        final Map<String, DsonTreeEntry> entryMap = new ConcurrentHashMap<>();
+        final Map<String, IndexedFile> fileIndex = new ConcurrentHashMap<>();
+        /** 索引失败的文件 -- 只在锁内访问 */
+        final Map<String, RuntimeException> fileErrors = new HashMap<>();
+        /** 已建立索引的文件数 -- 只在锁内修改 */
+        volatile int indexedCount;
+    }
+
+    /** 已建立索引的文件 */
+    static final class IndexedFile {
+
+        final StreamingTreeLoader loader;
+        final String fileName;
+        final Path path;
+        final long fileSize;
+        final List<DsonTreeEntry> entries;
+
+        IndexedFile(StreamingTreeLoader loader, String fileName, Path path, long fileSize, List<DsonTreeEntry> entries) {
+            this.loader = loader;
+            this.fileName = fileName;
+            this.path = path;
+            this.fileSize = fileSize;
+            this.entries = Collections.unmodifiableList(entries);
+        }
+
+        Object decode(DsonTreeEntry entry) {
+            byte[] bytes = readRange(entry.offset, entry.length);
+            return loader.scanner.decode(bytes, 0, bytes.length);
+        }
+
+        /** 一次读取所有入口覆盖的区间，再逐个解码 */
+        List<Object> decodeMany(List<DsonTreeEntry> entries) {
+            List<Object> result = new ArrayList<>(entries.size());
+            if (entries.isEmpty()) {
+                return result;
+            }
+            int start = entries.get(0).offset;
+            DsonTreeEntry last = entries.get(entries.size() - 1);
+            byte[] bytes = readRange(start, last.offset + last.length - start);
+            for (DsonTreeEntry entry : entries) {
+                result.add(loader.scanner.decode(bytes, entry.offset - start, entry.length));
+            }
+            return result;
+        }
+
+        private byte[] readRange(int offset, int length) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                if (channel.size() != fileSize) {
+                    throw new IllegalStateException("file is modified, call invalidate first, path: " + path);
+                }
+                ByteBuffer buffer = ByteBuffer.allocate(length);
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, offset + buffer.position()) < 0) {
+                        throw new IllegalStateException("unexpected end of file, path: " + path);
+                    }
+                }
+                return buffer.array();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    // endregion
+}
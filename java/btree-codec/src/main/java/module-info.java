@@ -12,6 +12,8 @@ module wjybxx.btree.codec {
     requires wjybxx.dson.codec;
 
     exports cn.wjybxx.btreecodec;
+    exports cn.wjybxx.btreecodec.bundle;
+    exports cn.wjybxx.btreecodec.stream;
     exports cn.wjybxx.btreecodec.fsm; // 以下目录编译时生成
     exports cn.wjybxx.btreecodec.decorator;
     exports cn.wjybxx.btreecodec.branch;
@@ -19,6 +21,8 @@ module wjybxx.btree.codec {
     exports cn.wjybxx.btreecodec.leaf;
 
     opens cn.wjybxx.btreecodec;
+    opens cn.wjybxx.btreecodec.bundle;
+    opens cn.wjybxx.btreecodec.stream;
     opens cn.wjybxx.btreecodec.fsm;
     opens cn.wjybxx.btreecodec.decorator;
     opens cn.wjybxx.btreecodec.branch;
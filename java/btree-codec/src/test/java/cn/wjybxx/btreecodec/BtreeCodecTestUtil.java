@@ -0,0 +1,151 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btreecodec;
+
+import cn.wjybxx.btree.Task;
+import cn.wjybxx.btree.TaskEntry;
+import cn.wjybxx.btree.branch.Selector;
+import cn.wjybxx.btree.branch.Sequence;
+import cn.wjybxx.btree.decorator.Inverter;
+import cn.wjybxx.btree.leaf.Failure;
+import cn.wjybxx.btree.leaf.Success;
+import cn.wjybxx.btree.leaf.WaitFrame;
+import cn.wjybxx.dson.io.DsonChunk;
+import cn.wjybxx.dson.text.ObjectStyle;
+import cn.wjybxx.dsoncodec.ConverterOptions;
+import cn.wjybxx.dsoncodec.DefaultDsonConverter;
+import cn.wjybxx.dsoncodec.DsonCodec;
+import cn.wjybxx.dsoncodec.DsonConverter;
+import cn.wjybxx.dsoncodec.TypeInfo;
+import cn.wjybxx.dsoncodec.TypeMeta;
+import cn.wjybxx.dsoncodec.TypeMetaRegistries;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+class BtreeCodecTestUtil {
+
+    /** Linker分组到生成代码的包名 */
+    private static final Map<String, String> groupPackages = Map.of(
+            "BtreeCodecLinker", "cn.wjybxx.btreecodec",
+            "FsmLinker", "cn.wjybxx.btreecodec.fsm",
+            "BranchLinker", "cn.wjybxx.btreecodec.branch",
+            "JoinPolicyLinker", "cn.wjybxx.btreecodec.branch.join",
+            "DecoratorLinker", "cn.wjybxx.btreecodec.decorator",
+            "LeafLinker", "cn.wjybxx.btreecodec.leaf");
+
+    /** {@link BtreeCodecLinker}中声明的所有类型 */
+    static List<Class<?>> linkedTypes() {
+        List<Class<?>> result = new ArrayList<>();
+        collectLinkedTypes(BtreeCodecLinker.class, result);
+        return result;
+    }
+
+    private static void collectLinkedTypes(Class<?> linkerClass, List<Class<?>> result) {
+        for (Field field : linkerClass.getDeclaredFields()) {
+            if (!Modifier.isStatic(field.getModifiers())) {
+                result.add(field.getType());
+            }
+        }
+        for (Class<?> nestedClass : linkerClass.getDeclaredClasses()) {
+            collectLinkedTypes(nestedClass, result);
+        }
+    }
+
+    /** 创建支持所有内置类型和{@link TestTreeEntry}的转换器，类名使用简单类名 */
+    static DsonConverter newConverter() {
+        List<TypeMeta> typeMetas = new ArrayList<>();
+        List<DsonCodec<?>> codecs = new ArrayList<>();
+        collectCodecs(BtreeCodecLinker.class, typeMetas, codecs);
+        typeMetas.add(TypeMeta.of(TestTreeEntry.class, ObjectStyle.INDENT, "TestTreeEntry"));
+        codecs.add(new TestTreeEntryCodec());
+        return DefaultDsonConverter.newInstance(TypeMetaRegistries.fromMetas(typeMetas), codecs, ConverterOptions.DEFAULT);
+    }
+
+    private static void collectCodecs(Class<?> linkerClass, List<TypeMeta> typeMetas, List<DsonCodec<?>> codecs) {
+        String packageName = groupPackages.get(linkerClass.getSimpleName());
+        for (Field field : linkerClass.getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers())) {
+                continue;
+            }
+            Class<?> type = field.getType();
+            typeMetas.add(TypeMeta.of(type, ObjectStyle.INDENT, type.getSimpleName()));
+            try {
+                Class<?> codecClass = Class.forName(packageName + "." + type.getSimpleName() + "Codec");
+                codecs.add((DsonCodec<?>) codecClass.getConstructor().newInstance());
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("codec is absent, type: " + type.getName(), e);
+            }
+        }
+        for (Class<?> nestedClass : linkerClass.getDeclaredClasses()) {
+            collectCodecs(nestedClass, typeMetas, codecs);
+        }
+    }
+
+    /** 编码对象 -- {@link DsonConverter#write(Object, TypeInfo)}的缓冲区只有1KB */
+    static byte[] encode(DsonConverter converter, Object value) {
+        DsonChunk chunk = new DsonChunk(new byte[1024 * 1024]);
+        converter.write(value, TypeInfo.OBJECT, chunk);
+        return chunk.usedPayload();
+    }
+
+    /**
+     * 创建随机的树
+     *
+     * @param nodeCount 期望的节点数，实际节点数会略多一些
+     */
+    static Task<Object> newRandomTree(Random random, int nodeCount) {
+        Sequence<Object> root = new Sequence<>();
+        int count = 1;
+        List<Task<Object>> branches = new ArrayList<>();
+        branches.add(root);
+        while (count < nodeCount) {
+            Task<Object> parent = branches.get(random.nextInt(branches.size()));
+            Task<Object> child = switch (random.nextInt(6)) {
+                case 0 -> new Sequence<>();
+                case 1 -> new Selector<>();
+                case 2 -> new Inverter<>(new Success<>());
+                case 3 -> new Failure<>();
+                default -> new WaitFrame<>(random.nextInt(5));
+            };
+            if (random.nextInt(8) == 0) {
+                child.setGuard(new Inverter<>(new Failure<>()));
+                count += 2;
+            }
+            parent.addChild(child);
+            count += child.getChildCount() + 1;
+            if (child instanceof Sequence<?> || child instanceof Selector<?>) {
+                branches.add(child);
+            }
+        }
+        return root;
+    }
+
+    static TaskEntry<Object> newEntry(String name, Task<Object> rootTask, int type, int flags) {
+        TaskEntry<Object> entry = new TaskEntry<>(name, rootTask, null, null, null);
+        entry.setType(type);
+        entry.setFlags(flags);
+        return entry;
+    }
+}
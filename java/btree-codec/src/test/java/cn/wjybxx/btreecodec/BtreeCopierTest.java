@@ -0,0 +1,373 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btreecodec;
+
+import cn.wjybxx.btree.Task;
+import cn.wjybxx.btree.TaskEntry;
+import cn.wjybxx.btree.branch.DynamicJoinPolicy;
+import cn.wjybxx.btree.branch.DynamicJoinSource;
+import cn.wjybxx.btree.branch.JoinPolicy;
+import cn.wjybxx.btree.branch.KeyedSwitch;
+import cn.wjybxx.btree.branch.ObservedScorer;
+import cn.wjybxx.btree.branch.Selector;
+import cn.wjybxx.btree.branch.SwitchKeySelector;
+import cn.wjybxx.btree.branch.UtilityScorer;
+import cn.wjybxx.btree.branch.UtilitySelector;
+import cn.wjybxx.btree.branch.join.DynamicJoinWaitAll;
+import cn.wjybxx.btree.branch.join.JoinSelectorN;
+import cn.wjybxx.btree.fsm.ChangeStateTask;
+import cn.wjybxx.btree.leaf.Failure;
+import cn.wjybxx.btree.leaf.Success;
+import cn.wjybxx.btree.leaf.WaitFrame;
+import cn.wjybxx.dsoncodec.DsonConverter;
+import cn.wjybxx.dsoncodec.TypeInfo;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * 拷贝器测试
+ *
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+public class BtreeCopierTest {
+
+    private static final BtreeCopier copier = new BtreeCopier()
+            .register(TestScorer.class);
+
+    /** 每个类型的所有字段都被拷贝，且可变对象不共享 */
+    @Test
+    void testCopyAllLinkedTypes() throws Exception {
+        for (Class<?> type : BtreeCodecTestUtil.linkedTypes()) {
+            Object prototype = newFilledInstance(type, false);
+            Object copied = copier.copy(prototype);
+            if (isSingletonType(type)) {
+                Assertions.assertSame(prototype, copied, type.getName());
+            } else {
+                assertDeepCopied(prototype, copied, type.getSimpleName());
+            }
+        }
+    }
+
+    /** 拷贝的对象与原型序列化后相同 */
+    @Test
+    void testCopyRoundTrip() throws Exception {
+        DsonConverter converter = BtreeCodecTestUtil.newConverter();
+        for (Class<?> type : BtreeCodecTestUtil.linkedTypes()) {
+            Object prototype = newFilledInstance(type, true);
+            Object copied = copier.copy(prototype);
+            Assertions.assertArrayEquals(BtreeCodecTestUtil.encode(converter, prototype),
+                    BtreeCodecTestUtil.encode(converter, copied), type.getName());
+        }
+    }
+
+    /** 修改副本不影响原型 */
+    @Test
+    void testIndependence() {
+        Random random = new Random(1);
+        TaskEntry<Object> prototype = BtreeCodecTestUtil.newEntry("main",
+                BtreeCodecTestUtil.newRandomTree(random, 300), 1, 0);
+        DsonConverter converter = BtreeCodecTestUtil.newConverter();
+        String dson = converter.writeAsDson(prototype);
+
+        @SuppressWarnings("unchecked") TaskEntry<Object> copied = (TaskEntry<Object>) copier.copy(prototype);
+        Assertions.assertEquals(dson, converter.writeAsDson(copied));
+        copied.getRootTask().addChild(new Success<>());
+        copied.getRootTask().getChild(0).setGuard(new Success<>());
+        copied.setName("copied");
+        copied.getRootTask().setFlags(Task.MASK_SLOW_START);
+        Assertions.assertEquals(dson, converter.writeAsDson(prototype));
+
+        // 副本可以独立运行
+        copied.setBlackboard(new Object());
+        for (int frame = 0; frame < 100 && !copied.isCompleted(); frame++) {
+            copied.update(frame);
+        }
+        Assertions.assertTrue(copied.isCompleted());
+        Assertions.assertEquals(dson, converter.writeAsDson(prototype));
+    }
+
+    /** 同一原型的副本共享自适应顺序的统计数据，不同原型的统计数据相互独立 */
+    @Test
+    void testSharedOrderStats() {
+        Selector<Object> prototype = newAdaptiveSelector();
+        @SuppressWarnings("unchecked") Selector<Object> first = (Selector<Object>) copier.copy(prototype);
+        TaskEntry<Object> firstEntry = new TaskEntry<>("first", first, new Object(), null, null);
+        for (int frame = 0; frame < 500; frame++) {
+            firstEntry.update(frame);
+        }
+
+        @SuppressWarnings("unchecked") Selector<Object> second = (Selector<Object>) copier.copy(prototype);
+        TaskEntry<Object> secondEntry = new TaskEntry<>("second", second, new Object(), null, null);
+        secondEntry.update(0);
+        Assertions.assertTrue(secondEntry.isSucceeded());
+        Assertions.assertEquals(1, second.getCompletedCount());
+
+        @SuppressWarnings("unchecked") Selector<Object> other = (Selector<Object>) copier.copy(newAdaptiveSelector());
+        TaskEntry<Object> otherEntry = new TaskEntry<>("other", other, new Object(), null, null);
+        otherEntry.update(0);
+        Assertions.assertTrue(otherEntry.isSucceeded());
+        Assertions.assertEquals(2, other.getCompletedCount());
+    }
+
+    private static Selector<Object> newAdaptiveSelector() {
+        Selector<Object> selector = new Selector<>(new Failure<>(), new Success<>());
+        selector.setAdaptiveOrder(true);
+        return selector;
+    }
+
+    /** 副本共享原型上构建的分派表 */
+    @Test
+    void testSharedDispatchTable() throws Exception {
+        KeyedSwitch<Object> prototype = new KeyedSwitch<>();
+        prototype.setKeySelector(task -> 2);
+        prototype.setKeys(new int[]{1, 2, 1_000_000});
+        for (int i = 0; i < 3; i++) {
+            prototype.addChild(new Success<>());
+        }
+        KeyedSwitch<?> first = (KeyedSwitch<?>) copier.copy(prototype);
+        KeyedSwitch<?> second = (KeyedSwitch<?>) copier.copy(prototype);
+        Field tableField = KeyedSwitch.class.getDeclaredField("table");
+        tableField.setAccessible(true);
+        Object table = tableField.get(prototype);
+        Assertions.assertNotNull(table);
+        Assertions.assertSame(table, tableField.get(first));
+        Assertions.assertSame(table, tableField.get(second));
+        Assertions.assertEquals(1, first.indexOfKey(2));
+
+        second.setKeys(new int[]{2, 1, 3});
+        Assertions.assertEquals(0, second.indexOfKey(2));
+        Assertions.assertEquals(1, first.indexOfKey(2));
+        Assertions.assertSame(table, tableField.get(prototype));
+    }
+
+    /** 未注册的可变类型不能被共享 */
+    @Test
+    void testUnknownType() {
+        ChangeStateTask<Object> prototype = new ChangeStateTask<>();
+        prototype.setStateProps(new StringBuilder("props"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> copier.copy(prototype));
+
+        BtreeCopier copier2 = new BtreeCopier().registerImmutable(StringBuilder.class);
+        ChangeStateTask<?> copied = (ChangeStateTask<?>) copier2.copy(prototype);
+        Assertions.assertSame(prototype.getStateProps(), copied.getStateProps());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> copier2.registerImmutable(WaitFrame.class));
+    }
+
+    /** 拷贝与解码的耗时对比 -- 基准测试，默认不运行，通过{@code -Dgroups=benchmark -DexcludedGroups=}运行 */
+    @Tag("benchmark")
+    @Test
+    void testCopyTime() {
+        Random random = new Random(1);
+        Task<Object> prototype = BtreeCodecTestUtil.newRandomTree(random, 300);
+        DsonConverter converter = BtreeCodecTestUtil.newConverter();
+        byte[] bytes = BtreeCodecTestUtil.encode(converter, prototype);
+
+        final int copyLoop = 20000;
+        final int decodeLoop = 1000;
+        long copyNanos = 0;
+        long decodeNanos = 0;
+        for (int round = 0; round < 3; round++) { // 前两轮为预热
+            long startTime = System.nanoTime();
+            for (int i = 0; i < copyLoop; i++) {
+                copier.copy(prototype);
+            }
+            copyNanos = (System.nanoTime() - startTime) / copyLoop;
+
+            startTime = System.nanoTime();
+            for (int i = 0; i < decodeLoop; i++) {
+                converter.read(bytes, TypeInfo.OBJECT);
+            }
+            decodeNanos = (System.nanoTime() - startTime) / decodeLoop;
+        }
+        Assertions.assertTrue(copyNanos * 5 < decodeNanos,
+                "nodes: %d, copy: %dns, decode: %dns".formatted(countNodes(prototype), copyNanos, decodeNanos));
+    }
+
+    // region util
+
+    private static int countNodes(Task<?> task) {
+        int count = 1;
+        if (task.getGuard() != null) {
+            count += countNodes(task.getGuard());
+        }
+        for (int idx = 0; idx < task.getChildCount(); idx++) {
+            count += countNodes(task.getChild(idx));
+        }
+        return count;
+    }
+
+    private static boolean isSingletonType(Class<?> type) {
+        try {
+            Method method = type.getDeclaredMethod("getInstance");
+            return Modifier.isStatic(method.getModifiers());
+        } catch (NoSuchMethodException ignore) {
+            return false;
+        }
+    }
+
+    /**
+     * 创建对象并为所有需要拷贝的字段赋予非默认值
+     *
+     * @param serializable 是否只使用可序列化的值
+     */
+    private static Object newFilledInstance(Class<?> type, boolean serializable) throws Exception {
+        if (isSingletonType(type)) {
+            return type.getDeclaredMethod("getInstance").invoke(null);
+        }
+        Object instance = type.getConstructor().newInstance();
+        for (Class<?> clazz = type; clazz != Object.class; clazz = clazz.getSuperclass()) {
+            for (Field field : clazz.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)) {
+                    continue;
+                }
+                field.setAccessible(true);
+                field.set(instance, newFieldValue(field, serializable));
+            }
+        }
+        return instance;
+    }
+
+    private static Object newFieldValue(Field field, boolean serializable) {
+        Class<?> type = field.getType();
+        if (type == boolean.class) return true;
+        if (type == int.class) return 3;
+        if (type == float.class) return 0.5f;
+        if (type == String.class) return field.getName() + "Value";
+        if (type.isEnum()) return type.getEnumConstants()[type.getEnumConstants().length - 1];
+        if (type == int[].class) return new int[]{1, 2, 3};
+        if (type == float[].class) return new float[]{0.5f, 1.5f};
+        if (type == Task.class) return new WaitFrame<>(2);
+        if (type == JoinPolicy.class) {
+            JoinSelectorN<Object> policy = new JoinSelectorN<>();
+            policy.setRequired(2);
+            return policy;
+        }
+        if (type == DynamicJoinPolicy.class) return DynamicJoinWaitAll.getInstance();
+        if (type == DynamicJoinSource.class) {
+            return serializable ? null : (DynamicJoinSource<Object>) task -> Collections.emptyIterator();
+        }
+        if (type == SwitchKeySelector.class) {
+            return serializable ? null : (SwitchKeySelector<Object>) task -> 1;
+        }
+        if (type == Object.class) {
+            if (serializable) return null;
+            Map<String, Object> props = new LinkedHashMap<>();
+            props.put("speed", 2);
+            props.put("path", new ArrayList<>(List.of(1, 2, 3)));
+            props.put("tags", new TreeSet<>(List.of("b", "a")));
+            return props;
+        }
+        if (type == List.class) {
+            Type elementType = ((ParameterizedType) field.getGenericType()).getActualTypeArguments()[0];
+            if (elementType instanceof ParameterizedType parameterizedType) {
+                elementType = parameterizedType.getRawType();
+            }
+            if (elementType == Task.class) return new ArrayList<>(List.of(new Success<>(), new WaitFrame<>(1)));
+            if (elementType == String.class) return new ArrayList<>(List.of("a", "b"));
+            if (elementType == UtilityScorer.class) {
+                return serializable ? null : new ArrayList<>(List.of(new TestScorer(), new TestScorer()));
+            }
+        }
+        throw new AssertionError("unsupported field: " + field);
+    }
+
+    private static void assertDeepCopied(Object expected, Object actual, String path) throws Exception {
+        if (expected == null) {
+            Assertions.assertNull(actual, path);
+            return;
+        }
+        Assertions.assertNotNull(actual, path);
+        Class<?> type = expected.getClass();
+        Assertions.assertSame(type, actual.getClass(), path);
+        if (type.isPrimitive() || type.isEnum() || type.isHidden() || expected instanceof Number
+                || expected instanceof String || expected instanceof Boolean || isSingletonType(type)) {
+            if (type.isHidden() || isSingletonType(type)) {
+                Assertions.assertSame(expected, actual, path);
+            } else {
+                Assertions.assertEquals(expected, actual, path);
+            }
+            return;
+        }
+        Assertions.assertNotSame(expected, actual, path);
+        if (type.isArray()) {
+            Assertions.assertEquals(Array.getLength(expected), Array.getLength(actual), path);
+            for (int idx = 0; idx < Array.getLength(expected); idx++) {
+                assertDeepCopied(Array.get(expected, idx), Array.get(actual, idx), path + "[" + idx + "]");
+            }
+            return;
+        }
+        if (expected instanceof List<?> || expected instanceof Set<?>) {
+            Iterator<?> itr1 = ((Iterable<?>) expected).iterator();
+            Iterator<?> itr2 = ((Iterable<?>) actual).iterator();
+            for (int idx = 0; itr1.hasNext(); idx++) {
+                Assertions.assertTrue(itr2.hasNext(), path);
+                assertDeepCopied(itr1.next(), itr2.next(), path + "[" + idx + "]");
+            }
+            Assertions.assertFalse(itr2.hasNext(), path);
+            return;
+        }
+        if (expected instanceof Map<?, ?> map) {
+            Assertions.assertEquals(map.size(), ((Map<?, ?>) actual).size(), path);
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                assertDeepCopied(entry.getValue(), ((Map<?, ?>) actual).get(entry.getKey()), path + "." + entry.getKey());
+            }
+            return;
+        }
+        for (Class<?> clazz = type; clazz != Object.class; clazz = clazz.getSuperclass()) {
+            for (Field field : clazz.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)) {
+                    continue;
+                }
+                field.setAccessible(true);
+                assertDeepCopied(field.get(expected), field.get(actual), path + "." + field.getName());
+            }
+        }
+    }
+
+    // endregion
+
+    public static class TestScorer extends ObservedScorer<Object> {
+
+        public TestScorer() {
+            super(new ArrayList<>(List.of("hp")), null);
+        }
+
+        @Override
+        public float score(UtilitySelector<Object> selector, int index) {
+            return index;
+        }
+    }
+}
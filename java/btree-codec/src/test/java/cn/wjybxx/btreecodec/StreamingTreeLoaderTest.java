@@ -0,0 +1,312 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btreecodec;
+
+import cn.wjybxx.btree.Task;
+import cn.wjybxx.btree.TaskEntry;
+import cn.wjybxx.btree.TreeLoader;
+import cn.wjybxx.btree.leaf.WaitFrame;
+import cn.wjybxx.btreecodec.stream.DsonTreeEntry;
+import cn.wjybxx.btreecodec.stream.DsonTreeScanner;
+import cn.wjybxx.btreecodec.stream.StreamingTreeLoader;
+import cn.wjybxx.dsoncodec.DsonConverter;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * 行为树文件的流式扫描测试
+ *
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+public class StreamingTreeLoaderTest {
+
+    private static final DsonConverter converter = BtreeCodecTestUtil.newConverter();
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testScanEntries() {
+        List<Object> entries = newEntries("a", 20, new Random(1));
+        byte[] data = encodeAll(entries);
+        DsonTreeScanner scanner = new DsonTreeScanner(converter);
+        List<DsonTreeEntry> scanned = scanner.scanEntries(data);
+
+        Assertions.assertEquals(entries.size(), scanned.size());
+        int offset = 0;
+        for (int idx = 0; idx < entries.size(); idx++) {
+            DsonTreeEntry entry = scanned.get(idx);
+            assertMetadata(entries.get(idx), entry);
+            Assertions.assertNull(entry.getRoot());
+            Assertions.assertEquals(offset, entry.getOffset());
+            offset += entry.getLength();
+            // 只解码区间
+            Assertions.assertEquals(converter.writeAsDson(rootOf(entries.get(idx))),
+                    converter.writeAsDson(scanner.decode(data, entry)));
+        }
+        Assertions.assertEquals(data.length, offset);
+    }
+
+    @Test
+    void testFindAndDecodeMany() {
+        List<Object> entries = newEntries("a", 20, new Random(2));
+        byte[] data = encodeAll(entries);
+        DsonTreeScanner scanner = new DsonTreeScanner(converter);
+
+        DsonTreeEntry byName = scanner.find(data, "a-7");
+        Assertions.assertNotNull(byName);
+        Assertions.assertEquals(converter.writeAsDson(rootOf(entries.get(7))), converter.writeAsDson(byName.getRoot()));
+        DsonTreeEntry byGuid = scanner.find(data, "guid-a-8");
+        Assertions.assertNotNull(byGuid);
+        Assertions.assertEquals("a-8", byGuid.getName());
+        Assertions.assertNull(scanner.find(data, "absent"));
+
+        List<DsonTreeEntry> matched = scanner.decodeMany(data, entry -> {
+            Assertions.assertNull(entry.getRoot()); // 过滤时不解码
+            return entry.getType() == 1;
+        });
+        Assertions.assertEquals(entries.stream().filter(e -> typeOf(e) == 1).count(), matched.size());
+        matched.forEach(entry -> Assertions.assertInstanceOf(Task.class, entry.getRoot()));
+    }
+
+    @Test
+    void testLoad() throws IOException {
+        Map<String, Path> fileMap = new LinkedHashMap<>();
+        fileMap.put("a", writeFile("a", newEntries("a", 10, new Random(3))));
+        fileMap.put("b", writeFile("b", newEntries("b", 10, new Random(4))));
+        fileMap.put("missing", tempDir.resolve("missing.bin"));
+        StreamingTreeLoader loader = new StreamingTreeLoader(converter, fileMap);
+
+        // 找到后即停止扫描，不会读取之后的文件
+        Assertions.assertInstanceOf(Task.class, loader.tryLoadObject("b-3"));
+        Assertions.assertInstanceOf(Task.class, loader.tryLoadObject("guid-a-4"));
+        Assertions.assertNotSame(loader.tryLoadObject("a-4"), loader.tryLoadObject("a-4"));
+        Assertions.assertEquals("a-4", loader.tryLoadEntry("guid-a-4").getName());
+        Assertions.assertEquals("b", loader.tryLoadEntry("b-3").getFileName());
+        Assertions.assertNull(loader.tryLoadObject("absent"));
+
+        List<Object> loaded = loader.loadManyFromFile("b", false, entry -> entry.getType() == 1);
+        Assertions.assertEquals(5, loaded.size());
+        Assertions.assertEquals(List.of(), loader.loadManyFromFile("c", false, null));
+        // 读取失败的文件记录了错误
+        IllegalStateException ex = Assertions.assertThrows(IllegalStateException.class, () -> loader.loadManyFromFile("missing", false, null));
+        Assertions.assertInstanceOf(UncheckedIOException.class, ex.getCause());
+    }
+
+    @Test
+    void testBrokenFile() throws IOException {
+        Map<String, Path> fileMap = new LinkedHashMap<>();
+        fileMap.put("missing", tempDir.resolve("missing.bin"));
+        byte[] data = encodeAll(newEntries("b", 2, new Random(11)));
+        fileMap.put("broken", Files.write(tempDir.resolve("broken.bin"), Arrays.copyOf(data, data.length - 3))); // 截断
+        fileMap.put("a", writeFile("a", newEntries("a", 4, new Random(9))));
+        StreamingTreeLoader loader = new StreamingTreeLoader(converter, fileMap);
+
+        // 失败的文件被跳过，不会阻塞之后的文件
+        Assertions.assertNotNull(loader.tryLoadObject("a-3"));
+        Assertions.assertNull(loader.tryLoadObject("absent"));
+        Assertions.assertEquals(4, loader.getEntries("a").size());
+        Assertions.assertThrows(IllegalStateException.class, () -> loader.getEntries("missing"));
+        Assertions.assertThrows(IllegalStateException.class, () -> loader.getEntries("broken"));
+
+        // 按文件名访问时也不会阻塞
+        StreamingTreeLoader loader2 = new StreamingTreeLoader(converter, fileMap);
+        Assertions.assertEquals(4, loader2.getEntries("a").size());
+        Assertions.assertNotNull(loader2.tryLoadObject("a-0"));
+
+        // 修复后重建索引
+        Files.write(fileMap.get("missing"), encodeAll(newEntries("m", 2, new Random(10))));
+        loader.invalidate();
+        Assertions.assertNotNull(loader.tryLoadObject("m-1"));
+        Assertions.assertEquals(2, loader.getEntries("missing").size());
+    }
+
+    @Test
+    void testLoadLast() throws IOException {
+        List<Object> entries = newEntries("a", 50, new Random(8));
+        Path path = writeFile("a", entries);
+        DsonTreeScanner scanner = new DsonTreeScanner(converter);
+        List<DsonTreeEntry> all = scanner.decodeMany(Files.readAllBytes(path), null);
+
+        // 流式加载与全量解码的结果一致
+        StreamingTreeLoader loader = new StreamingTreeLoader(converter, Map.of("a", path));
+        for (int idx = entries.size() - 1; idx >= 0; idx--) {
+            String expected = converter.writeAsDson(all.get(idx).getRoot());
+            Assertions.assertEquals(expected, converter.writeAsDson(loader.tryLoadObject("a-" + idx)));
+            Assertions.assertEquals(expected, converter.writeAsDson(rootOf(entries.get(idx))));
+        }
+    }
+
+    @Test
+    void testIndexReuse() throws IOException {
+        Path path = writeFile("a", newEntries("a", 10, new Random(5)));
+        StreamingTreeLoader loader = new StreamingTreeLoader(converter, Map.of("a", path));
+        Assertions.assertNotNull(loader.tryLoadObject("a-9"));
+
+        // 查询只访问索引，不会重新扫描文件
+        Files.delete(path);
+        Assertions.assertNotNull(loader.tryLoadEntry("a-0"));
+        Assertions.assertEquals(10, loader.getEntries("a").size());
+        Assertions.assertThrows(UncheckedIOException.class, () -> loader.tryLoadObject("a-0"));
+    }
+
+    @Test
+    void testModifiedFile() throws IOException {
+        Path path = writeFile("a", newEntries("a", 4, new Random(6)));
+        StreamingTreeLoader loader = new StreamingTreeLoader(converter, Map.of("a", path));
+        Assertions.assertNotNull(loader.tryLoadObject("a-0"));
+
+        Files.write(path, encodeAll(newEntries("x", 1, new Random(7))), StandardOpenOption.APPEND);
+        Assertions.assertThrows(IllegalStateException.class, () -> loader.tryLoadObject("a-0"));
+        Assertions.assertNull(loader.tryLoadEntry("x-0"));
+
+        loader.invalidate();
+        Assertions.assertNotNull(loader.tryLoadObject("a-0"));
+        Assertions.assertNotNull(loader.tryLoadObject("x-0"));
+    }
+
+    @Test
+    void testDuplicateName() throws IOException {
+        List<Object> first = List.of(new TestTreeEntry("same", null, 0, 0, new WaitFrame<>(1)));
+        List<Object> second = List.of(new TestTreeEntry("same", null, 0, 0, new WaitFrame<>(2)));
+        Map<String, Path> fileMap = new LinkedHashMap<>();
+        fileMap.put("first", writeFile("first", first));
+        fileMap.put("second", writeFile("second", second));
+
+        // 先添加的文件优先，即使后面的文件先建立索引
+        StreamingTreeLoader loader = new StreamingTreeLoader(converter, fileMap);
+        Assertions.assertEquals(1, loader.getEntries("second").size());
+        Assertions.assertEquals("first", loader.tryLoadEntry("same").getFileName());
+        Assertions.assertEquals(1, ((WaitFrame<?>) loader.tryLoadObject("same")).getRequired());
+    }
+
+    /** 与全量解码的耗时对比 -- 基准测试，默认不运行，通过{@code -Dgroups=benchmark -DexcludedGroups=}运行 */
+    @Tag("benchmark")
+    @Test
+    void testLoadTime() throws IOException {
+        final int entryCount = 500;
+        List<Object> entries = new ArrayList<>(entryCount);
+        Random random = new Random(8);
+        for (int idx = 0; idx < entryCount; idx++) {
+            Task<Object> rootTask = BtreeCodecTestUtil.newRandomTree(random, 40);
+            entries.add(new TestTreeEntry("e-" + idx, "guid-e-" + idx, idx % 2, 0, rootTask));
+        }
+        Path path = writeFile("big", entries);
+        String target = "e-" + (entryCount - 1);
+        DsonTreeScanner scanner = new DsonTreeScanner(converter);
+
+        final int loop = 20;
+        long fullNanos = 0;
+        long coldNanos = 0;
+        long warmNanos = 0;
+        StreamingTreeLoader warmLoader = new StreamingTreeLoader(converter, Map.of("big", path));
+        for (int round = 0; round < 3; round++) { // 前两轮为预热
+            long startTime = System.nanoTime();
+            for (int i = 0; i < loop; i++) {
+                List<DsonTreeEntry> all = scanner.decodeMany(Files.readAllBytes(path), null);
+                Assertions.assertEquals(target, all.stream().filter(e -> e.getName().equals(target)).findFirst().orElseThrow().getName());
+            }
+            fullNanos = (System.nanoTime() - startTime) / loop;
+
+            startTime = System.nanoTime();
+            for (int i = 0; i < loop; i++) {
+                StreamingTreeLoader loader = new StreamingTreeLoader(converter, Map.of("big", path));
+                Assertions.assertNotNull(loader.tryLoadObject(target));
+            }
+            coldNanos = (System.nanoTime() - startTime) / loop;
+
+            startTime = System.nanoTime();
+            for (int i = 0; i < loop; i++) {
+                Assertions.assertNotNull(warmLoader.tryLoadObject(target));
+            }
+            warmNanos = (System.nanoTime() - startTime) / loop;
+        }
+        String message = "entries: %d, size: %dKB, full decode: %dns, streaming(cold): %dns, streaming(indexed): %dns"
+                .formatted(entryCount, Files.size(path) / 1024, fullNanos, coldNanos, warmNanos);
+        Assertions.assertTrue(coldNanos < fullNanos, message);
+        Assertions.assertTrue(warmNanos < coldNanos, message);
+    }
+
+    // region util
+
+    /** 交替生成TaskEntry和TestTreeEntry，TaskEntry没有guid */
+    private static List<Object> newEntries(String prefix, int count, Random random) {
+        List<Object> entries = new ArrayList<>(count);
+        for (int idx = 0; idx < count; idx++) {
+            Task<Object> rootTask = BtreeCodecTestUtil.newRandomTree(random, 10);
+            String name = prefix + "-" + idx;
+            if (idx % 2 == 0) {
+                entries.add(new TestTreeEntry(name, "guid-" + name, 1, idx, rootTask));
+            } else {
+                entries.add(BtreeCodecTestUtil.newEntry(name, rootTask, 2, idx));
+            }
+        }
+        return entries;
+    }
+
+    private static byte[] encodeAll(List<Object> entries) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        for (Object entry : entries) {
+            output.writeBytes(BtreeCodecTestUtil.encode(converter, entry));
+        }
+        return output.toByteArray();
+    }
+
+    private Path writeFile(String fileName, List<Object> entries) throws IOException {
+        return Files.write(tempDir.resolve(fileName + ".bin"), encodeAll(entries));
+    }
+
+    private static Object rootOf(Object entry) {
+        return entry instanceof TreeLoader.IEntry e ? e.getRoot() : ((TaskEntry<?>) entry).getRootTask();
+    }
+
+    private static int typeOf(Object entry) {
+        return entry instanceof TreeLoader.IEntry e ? e.getType() : ((TaskEntry<?>) entry).getType();
+    }
+
+    private static void assertMetadata(Object expected, DsonTreeEntry actual) {
+        if (expected instanceof TestTreeEntry e) {
+            Assertions.assertEquals(e.getName(), actual.getName());
+            Assertions.assertEquals(e.getGuid(), actual.getGuid());
+            Assertions.assertEquals(e.getType(), actual.getType());
+            Assertions.assertEquals(e.getFlags(), actual.getFlags());
+        } else {
+            TaskEntry<?> e = (TaskEntry<?>) expected;
+            Assertions.assertEquals(e.getName(), actual.getName());
+            Assertions.assertNull(actual.getGuid());
+            Assertions.assertEquals(e.getType(), actual.getType());
+            Assertions.assertEquals(e.getFlags(), actual.getFlags());
+        }
+    }
+
+    // endregion
+}
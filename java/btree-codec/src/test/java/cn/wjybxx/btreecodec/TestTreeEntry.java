@@ -0,0 +1,91 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btreecodec;
+
+import cn.wjybxx.btree.TreeLoader;
+import cn.wjybxx.dsoncodec.annotations.DsonSerializable;
+
+/**
+ * 测试用的入口，root不是最后一个字段
+ *
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+@DsonSerializable
+public class TestTreeEntry implements TreeLoader.IEntry {
+
+    private String name;
+    private Object root;
+    private String guid;
+    private int type;
+    private int flags;
+
+    public TestTreeEntry() {
+    }
+
+    public TestTreeEntry(String name, String guid, int type, int flags, Object root) {
+        this.name = name;
+        this.guid = guid;
+        this.type = type;
+        this.flags = flags;
+        this.root = root;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public String getGuid() {
+        return guid;
+    }
+
+    public void setGuid(String guid) {
+        this.guid = guid;
+    }
+
+    @Override
+    public int getType() {
+        return type;
+    }
+
+    public void setType(int type) {
+        this.type = type;
+    }
+
+    @Override
+    public int getFlags() {
+        return flags;
+    }
+
+    public void setFlags(int flags) {
+        this.flags = flags;
+    }
+
+    @Override
+    public Object getRoot() {
+        return root;
+    }
+
+    public void setRoot(Object root) {
+        this.root = root;
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btreecodec;
+
+import cn.wjybxx.btree.Task;
+import cn.wjybxx.btree.TreeLoader;
+import cn.wjybxx.btree.branch.Sequence;
+import cn.wjybxx.btreecodec.bundle.TreeBundleCompiler;
+import cn.wjybxx.btreecodec.bundle.TreeBundleEntry;
+import cn.wjybxx.btreecodec.bundle.TreeBundleLoader;
+import cn.wjybxx.btreecodec.stream.StreamingTreeLoader;
+import cn.wjybxx.dsoncodec.DsonConverter;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * 行为树包测试
+ *
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+public class TreeBundleTest {
+
+    private static final DsonConverter converter = BtreeCodecTestUtil.newConverter();
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testRoundTrip() throws IOException {
+        List<TestTreeEntry> entries = newEntries(10, new Random(1));
+        TreeBundleCompiler compiler = new TreeBundleCompiler(converter);
+        for (TestTreeEntry entry : entries) {
+            compiler.addEntry(entry.getType() == 1 ? "odd" : "even", entry);
+        }
+        Path path = tempDir.resolve("main.bundle");
+        compiler.writeTo(path);
+        Assertions.assertArrayEquals(compiler.toByteArray(), Files.readAllBytes(path));
+
+        TreeBundleLoader loader = TreeBundleLoader.open(path, converter);
+        Assertions.assertEquals(entries.size(), loader.getEntryCount());
+        Assertions.assertTrue(loader.getEntries().get(0).getDataLength() > 64 * 1024); // 编码时扩容
+        for (int idx = 0; idx < entries.size(); idx++) {
+            TestTreeEntry expected = entries.get(idx);
+            TreeBundleEntry entry = loader.getEntries().get(idx);
+            Assertions.assertEquals(expected.getName(), entry.getName());
+            Assertions.assertEquals(expected.getGuid(), entry.getGuid());
+            Assertions.assertEquals(expected.getType(), entry.getType());
+            Assertions.assertEquals(expected.getFlags(), entry.getFlags());
+            Assertions.assertSame(entry, loader.tryLoadEntry(expected.getName()));
+
+            String dson = converter.writeAsDson(expected.getRoot());
+            Assertions.assertEquals(dson, converter.writeAsDson(loader.tryLoadObject(expected.getName())));
+            if (expected.getGuid() != null) {
+                Assertions.assertEquals(dson, converter.writeAsDson(loader.tryLoadObject(expected.getGuid())));
+            }
+        }
+        Assertions.assertNotSame(loader.tryLoadObject("e-0"), loader.tryLoadObject("e-0"));
+        Assertions.assertNull(loader.tryLoadObject("absent"));
+        Assertions.assertEquals(5, loader.loadManyFromFile("odd", false, null).size());
+        Assertions.assertEquals(2, loader.loadManyFromFile("even", false, entry -> entry.getFlags() < 4).size());
+        Assertions.assertEquals(List.of(), loader.loadManyFromFile("absent", false, null));
+    }
+
+    /** 从编辑器导出的文件编译 */
+    @Test
+    void testCompileFiles() throws IOException {
+        List<TestTreeEntry> entries = newEntries(6, new Random(2));
+        Path source = tempDir.resolve("source.bin");
+        Files.write(source, encodeAll(entries));
+        StreamingTreeLoader sourceLoader = new StreamingTreeLoader(converter, Map.of("source", source));
+
+        TreeBundleCompiler compiler = new TreeBundleCompiler(converter).addFile(sourceLoader, "source");
+        Assertions.assertEquals(entries.size(), compiler.getEntryCount());
+        TreeBundleLoader loader = TreeBundleLoader.wrap(compiler.toByteArray(), converter);
+        for (TestTreeEntry expected : entries) {
+            Assertions.assertEquals("source", loader.tryLoadEntry(expected.getName()).getFileName());
+            Assertions.assertEquals(converter.writeAsDson(expected.getRoot()),
+                    converter.writeAsDson(loader.tryLoadObject(expected.getName())));
+        }
+    }
+
+    @Test
+    void testCorruptedHeader() {
+        byte[] bytes = compile(newEntries(3, new Random(3)));
+        int indexLength = ByteBuffer.wrap(bytes).getInt(12);
+        int dataStart = 16 + indexLength;
+        // 截断在头部、索引、数据中
+        for (int length : new int[]{0, 3, 8, 15, 16, 20, dataStart - 1, dataStart, bytes.length - 1}) {
+            byte[] truncated = Arrays.copyOf(bytes, length);
+            Assertions.assertThrows(IllegalArgumentException.class, () -> TreeBundleLoader.wrap(truncated, converter),
+                    "length: " + length);
+        }
+
+        byte[] badMagic = bytes.clone();
+        badMagic[0] ^= 1;
+        Assertions.assertThrows(IllegalArgumentException.class, () -> TreeBundleLoader.wrap(badMagic, converter));
+
+        byte[] badCount = bytes.clone();
+        ByteBuffer.wrap(badCount).putInt(8, Integer.MAX_VALUE);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> TreeBundleLoader.wrap(badCount, converter));
+
+        byte[] badIndexLength = bytes.clone();
+        ByteBuffer.wrap(badIndexLength).putInt(12, -1);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> TreeBundleLoader.wrap(badIndexLength, converter));
+
+        byte[] badStringLength = bytes.clone();
+        ByteBuffer.wrap(badStringLength).putShort(16, (short) -2);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> TreeBundleLoader.wrap(badStringLength, converter));
+    }
+
+    @Test
+    void testVersionMismatch() {
+        byte[] bytes = compile(newEntries(1, new Random(4)));
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        buffer.putInt(4, buffer.getInt(4) + 1);
+        IllegalArgumentException e = Assertions.assertThrows(IllegalArgumentException.class,
+                () -> TreeBundleLoader.wrap(bytes, converter));
+        Assertions.assertTrue(e.getMessage().contains("version"), e.getMessage());
+    }
+
+    @Test
+    void testDuplicateEntry() {
+        Random random = new Random(5);
+        TreeBundleCompiler compiler = new TreeBundleCompiler(converter);
+        compiler.addEntry("main", new TestTreeEntry("a", "guid-a", 0, 0, BtreeCodecTestUtil.newRandomTree(random, 5)));
+        compiler.addEntry("main", new TestTreeEntry("b", null, 0, 0, BtreeCodecTestUtil.newRandomTree(random, 5)));
+
+        List<TreeLoader.IEntry> duplicates = List.of(
+                new TestTreeEntry("a", null, 0, 0, BtreeCodecTestUtil.newRandomTree(random, 5)), // 名字重复
+                new TestTreeEntry("c", "guid-a", 0, 0, BtreeCodecTestUtil.newRandomTree(random, 5)), // guid重复
+                new TestTreeEntry("guid-a", null, 0, 0, BtreeCodecTestUtil.newRandomTree(random, 5)), // 名字与guid重复
+                new TestTreeEntry("d", "b", 0, 0, BtreeCodecTestUtil.newRandomTree(random, 5))); // guid与名字重复
+        for (TreeLoader.IEntry entry : duplicates) {
+            Assertions.assertThrows(IllegalArgumentException.class, () -> compiler.addEntry("main", entry), entry.getName());
+        }
+        Assertions.assertEquals(2, compiler.getEntryCount());
+        TreeBundleLoader loader = TreeBundleLoader.wrap(compiler.toByteArray(), converter);
+        Assertions.assertEquals(2, loader.getEntryCount());
+        Assertions.assertEquals("a", loader.tryLoadEntry("guid-a").getName());
+    }
+
+    // region util
+
+    /** 第一项是超过64KB的大树，偶数项有guid */
+    private static List<TestTreeEntry> newEntries(int count, Random random) {
+        List<TestTreeEntry> entries = new ArrayList<>(count);
+        for (int idx = 0; idx < count; idx++) {
+            Task<Object> rootTask;
+            if (idx == 0) {
+                rootTask = new Sequence<>();
+                for (int i = 0; i < 30; i++) { // 避免嵌套层次过深
+                    rootTask.addChild(BtreeCodecTestUtil.newRandomTree(random, 100));
+                }
+            } else {
+                rootTask = BtreeCodecTestUtil.newRandomTree(random, 20);
+            }
+            String guid = idx % 2 == 0 ? "guid-e-" + idx : null;
+            entries.add(new TestTreeEntry("e-" + idx, guid, idx % 2, idx, rootTask));
+        }
+        return entries;
+    }
+
+    private static byte[] compile(List<TestTreeEntry> entries) {
+        TreeBundleCompiler compiler = new TreeBundleCompiler(converter);
+        for (TestTreeEntry entry : entries) {
+            compiler.addEntry("main", entry);
+        }
+        return compiler.toByteArray();
+    }
+
+    private static byte[] encodeAll(List<TestTreeEntry> entries) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        for (TestTreeEntry entry : entries) {
+            output.writeBytes(BtreeCodecTestUtil.encode(converter, entry));
+        }
+        return output.toByteArray();
+    }
+
+    // endregion
+}
@@ -101,6 +101,17 @@ public abstract class BranchTask<T> extends Task<T> {
         Collections.shuffle(children);
     }
 
+    /**
+     * 预取子树 -- 通知直接子节点提前加载
+     * 子类在进入时检查{@link #isPrefetchSubtree()}后调用
+     */
+    protected final void prefetchSubtrees() {
+        final TreeLoader treeLoader = taskEntry.getTreeLoader();
+        for (int idx = 0, size = children.size(); idx < size; idx++) {
+            children.get(idx).prefetch(treeLoader);
+        }
+    }
+
     // endregion
 
     // region child
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btree;
+
+import cn.wjybxx.concurrent.CancelTokenListener;
+import cn.wjybxx.concurrent.ICancelToken;
+import cn.wjybxx.sequential.UniCancelTokenSource;
+import cn.wjybxx.sequential.UniScheduledExecutor;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 子节点的取消域
+ * 1.为子节点分配可独立取消的令牌，令牌在子节点完成后重置并放回池中复用，避免每次进入都创建令牌。
+ * 2.父令牌上只注册一个监听器（该对象自身），父令牌取消时将取消码传递给池中所有的令牌，因此不需要为每个子令牌注册监听。
+ * 3.池中空闲的令牌也会被取消，这是安全的 -- 分配时总是先重置，并检查父令牌的状态。
+ * 4.取消子令牌不影响父令牌和其它子令牌。
+ *
+ * <h3>使用方式</h3>
+ * <pre>{@code
+ *  enter:          scope.open(cancelToken);
+ *  bind child:     child.setCancelToken(scope.acquire());
+ *  child complete: scope.release(child.getCancelToken()); child.setCancelToken(null);
+ *  exit:           scope.close();
+ * }</pre>
+ *
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+public final class ChildCancelScope implements CancelTokenListener {
+
+    /** 父令牌 -- 关闭时为null */
+    private UniCancelTokenSource parent;
+    /** 分配过的所有令牌 */
+    private final List<UniCancelTokenSource> tokens = new ArrayList<>();
+    /** 空闲的令牌 */
+    private final List<UniCancelTokenSource> freeTokens = new ArrayList<>();
+
+    public ChildCancelScope() {
+    }
+
+    /** 是否已绑定父令牌 */
+    public boolean isOpen() {
+        return parent != null;
+    }
+
+    /**
+     * 绑定父令牌
+     * 如果当前已绑定父令牌，则先关闭。
+     */
+    public void open(UniCancelTokenSource parent) {
+        if (this.parent != null) {
+            close();
+        }
+        this.parent = parent;
+        parent.thenNotify(this);
+    }
+
+    /**
+     * 解除父令牌的绑定，并回收所有的令牌
+     * 被stop的子节点不会通知父节点，因此这里统一回收；子节点下次运行前会重新分配。
+     */
+    public void close() {
+        if (parent == null) {
+            return;
+        }
+        parent.unregister(this);
+        parent = null;
+        freeTokens.clear();
+        for (UniCancelTokenSource token : tokens) {
+            token.reset();
+            freeTokens.add(token);
+        }
+    }
+
+    /** 分配一个子令牌 */
+    public UniCancelTokenSource acquire() {
+        final UniCancelTokenSource parent = this.parent;
+        if (parent == null) {
+            throw new IllegalStateException("scope is not open");
+        }
+        UniCancelTokenSource token;
+        if (freeTokens.isEmpty()) {
+            token = new UniCancelTokenSource(parent.getExecutor());
+            tokens.add(token);
+        } else {
+            token = freeTokens.remove(freeTokens.size() - 1);
+            token.reset();
+        }
+        if (parent.isCancelling()) {
+            token.cancel(parent.cancelCode());
+        }
+        return token;
+    }
+
+    /** 回收子令牌 -- 令牌会被重置 */
+    public void release(@Nullable UniCancelTokenSource token) {
+        if (token == null || parent == null) {
+            return; // 关闭时已回收
+        }
+        token.reset();
+        freeTokens.add(token);
+    }
+
+    /** 迁移时重新绑定executor */
+    public void setExecutor(@Nullable UniScheduledExecutor executor) {
+        for (UniCancelTokenSource token : tokens) {
+            token.setExecutor(executor);
+        }
+    }
+
+    /** 分配过的令牌数 */
+    public int getTokenCount() {
+        return tokens.size();
+    }
+
+    @Override
+    public void onCancelRequested(ICancelToken cancelToken) {
+        final int cancelCode = cancelToken.cancelCode();
+        // 取消子令牌可能触发子节点完成，回收和分配令牌都不会改变已有令牌的位置
+        final List<UniCancelTokenSource> tokens = this.tokens;
+        for (int idx = 0, size = tokens.size(); idx < size; idx++) {
+            tokens.get(idx).cancel(cancelCode);
+        }
+    }
+}
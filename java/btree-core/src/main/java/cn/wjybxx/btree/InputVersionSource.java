@@ -0,0 +1,59 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btree;
+
+import java.util.List;
+
+/**
+ * 输入的版本号来源
+ * 1.黑板或实体实现该接口后，{@link ObservedCondition}等可以通过版本号判断输入是否变化。
+ * 2.key的值被修改时，其版本号必须递增（不可以减小），通常使用一个全局的计数器即可。
+ * 3.不存在的key也需要返回稳定的版本号，在写入时递增。
+ *
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+public interface InputVersionSource {
+
+    /**
+     * @param key 黑板的键或实体的属性名
+     * @return key当前的版本号
+     */
+    long getInputVersion(Object key);
+
+
+    /**
+     * 计算一组key的版本号
+     * 版本号为各个key的版本号之和 -- key的版本号只增不减，因此任一key变化都会导致和变化。
+     *
+     * @param source 黑板或实体
+     * @param keys   依赖的key，为null或空时返回0
+     * @return 版本号，如果source不支持版本号则返回-1
+     */
+    static long sumInputVersion(Object source, List<String> keys) {
+        if (keys == null || keys.isEmpty()) {
+            return 0;
+        }
+        if (!(source instanceof InputVersionSource versionSource)) {
+            return -1;
+        }
+        long version = 0;
+        for (String key : keys) {
+            version += versionSource.getInputVersion(key);
+        }
+        return version & Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btree;
+
+import java.util.List;
+
+/**
+ * 声明了输入的条件节点
+ * 1.条件节点声明依赖的黑板键和实体属性，如果输入的版本号未变化，则测试结果也不会变化，控制节点可以复用上次的结果。
+ * 2.条件的结果必须只依赖声明的输入 -- 如果读取了未声明的数据，则可能错过变化。
+ * 3.黑板和实体需要实现{@link InputVersionSource}，否则视为不支持脏检查，每次都重新测试。
+ * 4.两个列表都为null时表示未声明输入，每次都重新测试；声明为空列表则表示条件是常量。
+ * 5.目前由{@link cn.wjybxx.btree.branch.ActiveSelector}使用。
+ *
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+public abstract class ObservedCondition<T> extends ConditionTask<T> {
+
+    /** 依赖的黑板键 */
+    private List<String> blackboardKeys;
+    /** 依赖的实体属性 */
+    private List<String> entityKeys;
+
+    public ObservedCondition() {
+    }
+
+    public ObservedCondition(List<String> blackboardKeys, List<String> entityKeys) {
+        this.blackboardKeys = blackboardKeys;
+        this.entityKeys = entityKeys;
+    }
+
+    /**
+     * 计算输入的版本号
+     * 1.子类可以重写该方法以实现其它的版本计算方式。
+     * 2.版本号为各个输入的版本号之和 -- 输入的版本号只增不减，因此任一输入变化都会导致和变化。
+     *
+     * @param context 测试条件的上下文，即条件的控制节点
+     * @return 版本号，如果不支持脏检查则返回-1
+     */
+    public long getInputVersion(Task<T> context) {
+        if (getGuard() != null) {
+            return -1; // 条件的条件不在声明中
+        }
+        if (blackboardKeys == null && entityKeys == null) {
+            return -1;
+        }
+        // 预设的黑板优先
+        Object blackboard = getBlackboard() != null ? getBlackboard() : context.getBlackboard();
+        long bbVersion = InputVersionSource.sumInputVersion(blackboard, blackboardKeys);
+        if (bbVersion < 0) {
+            return -1;
+        }
+        long entityVersion = InputVersionSource.sumInputVersion(context.getEntity(), entityKeys);
+        if (entityVersion < 0) {
+            return -1;
+        }
+        return (bbVersion + entityVersion) & Long.MAX_VALUE;
+    }
+
+    //
+
+    public List<String> getBlackboardKeys() {
+        return blackboardKeys;
+    }
+
+    public void setBlackboardKeys(List<String> blackboardKeys) {
+        this.blackboardKeys = blackboardKeys;
+    }
+
+    public List<String> getEntityKeys() {
+        return entityKeys;
+    }
+
+    public void setEntityKeys(List<String> entityKeys) {
+        this.entityKeys = entityKeys;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btree;
+
+/**
+ * 可并行计算的行为节点
+ * 1.将一帧的逻辑拆分为两个阶段：{@link #compute(Task)}只做计算，可在其它线程执行；{@link #applyResult()}在心跳线程提交结果。
+ * 2.{@link cn.wjybxx.btree.branch.Join}开启并行模式时，会在执行子节点前将本帧待执行的子节点的计算提交到ForkJoin线程池，
+ * 等待全部完成后再在心跳线程按子节点顺序正常执行 -- 因此完成通知仍然是单线程且有序的。
+ * 3.未被并行调度时（或被其它控制节点驱动），计算在{@link #execute()}中同步执行，行为不变。
+ *
+ * <h3>线程安全约束</h3>
+ * 1.并行计算期间心跳线程处于阻塞状态，因此compute可以只读访问黑板、实体等共享数据，但不可以修改它们。
+ * 2.compute只可以写入自身的字段，不可以修改任务状态，不可以访问取消令牌，不可以发布事件。
+ * 3.compute可能在{@link #beforeEnter()}和{@link #enter(int)}之前调用（Join并行模式的首帧），
+ * 因此计算依赖的数据应当从context获取，且不要在beforeEnter/enter中清理计算结果。
+ *
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+public abstract class ParallelLeafTask<T> extends LeafTask<T> {
+
+    /** 是否存在预先计算的结果 */
+    private transient boolean computed;
+    /** 预先计算时的帧号 -- 计算后未执行（如guard失败）的结果不可以跨帧使用 */
+    private transient int computedFrame;
+
+    /**
+     * 预先计算 -- 由并行调度的控制节点在工作线程调用，用户不应该直接调用该方法。
+     *
+     * @param context 即将执行该任务的控制节点，用于获取黑板等数据
+     */
+    public final void parallelCompute(Task<T> context) {
+        computed = false;
+        compute(context);
+        computedFrame = context.getCurFrame();
+        computed = true;
+    }
+
+    @Override
+    protected final void execute() {
+        if (!computed || computedFrame != getCurFrame()) {
+            compute(getControl());
+        }
+        computed = false;
+
+        int reentryId = getReentryId();
+        int status = applyResult();
+        if (isExited(reentryId)) {
+            return;
+        }
+        switch (status) {
+            case TaskStatus.NEW -> throw new IllegalStateException("Illegal action status: " + status);
+            case TaskStatus.RUNNING -> {}
+            case TaskStatus.SUCCESS -> setSuccess();
+            case TaskStatus.CANCELLED -> setCancelled();
+            default -> setFailed(status);
+        }
+    }
+
+    @Override
+    public void resetForRestart() {
+        super.resetForRestart();
+        computed = false;
+    }
+
+    /**
+     * 计算本帧的结果并保存在自身的字段中
+     * 注意：该方法可能在其它线程执行，需遵守类文档中的线程安全约束。
+     *
+     * @param context 执行该任务的控制节点；获取黑板等数据应当通过context，而不是this
+     */
+    protected abstract void compute(Task<T> context);
+
+    /**
+     * 在心跳线程使用计算结果，返回任务状态 -- 与{@link ActionTask#executeImpl()}的返回值含义相同
+     */
+    protected abstract int applyResult();
+
+}
@@ -19,6 +19,7 @@ import cn.wjybxx.base.MathCommon;
 import cn.wjybxx.concurrent.CancelTokenListener;
 import cn.wjybxx.concurrent.ICancelToken;
 import cn.wjybxx.sequential.UniCancelTokenSource;
+import cn.wjybxx.sequential.UniScheduledExecutor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -53,6 +54,8 @@ public abstract class Task<T> implements CancelTokenListener {
     private static final int MASK_PREV_STATUS = (63) << 4;
     /** 前一次运行结果的存储偏移量 */
     private static final int OFFSET_PREV_STATUS = 4;
+    /** 运行时数据在上次快照之后是否有变化 */
+    private static final int MASK_DIRTY = 1 << 10;
 
     private static final int MASK_ENTER_EXECUTE = 1 << 11;
     private static final int MASK_EXECUTING = 1 << 12;
@@ -76,6 +79,7 @@ public abstract class Task<T> implements CancelTokenListener {
     public static final int MASK_DISABLE_AUTO_CHECK_CANCEL = 1 << 26;
     public static final int MASK_AUTO_LISTEN_CANCEL = 1 << 27;
     public static final int MASK_AUTO_RESET_CHILDREN = 1 << 28;
+    public static final int MASK_PREFETCH_SUBTREE = 1 << 29;
     public static final int MASK_CONTROL_FLOW_FLAGS = 0xFF00_0000;
 
     /** 任务树的入口(缓存以避免递归查找) */
@@ -198,11 +202,13 @@ public abstract class Task<T> implements CancelTokenListener {
     /** 慎重调用 */
     public void setEnterFrame(int enterFrame) {
         this.enterFrame = enterFrame;
+        ctl |= MASK_DIRTY;
     }
 
     /** 慎重调用 */
     public void setExitFrame(int exitFrame) {
         this.exitFrame = exitFrame;
+        ctl |= MASK_DIRTY;
     }
     // endregion
 
@@ -302,7 +308,7 @@ public abstract class Task<T> implements CancelTokenListener {
 
     public final void setPrevStatus(int prevStatus) {
         prevStatus = MathCommon.clamp(prevStatus, 0, TaskStatus.MAX_PREV_STATUS);
-        ctl |= (prevStatus << OFFSET_PREV_STATUS);
+        ctl |= (prevStatus << OFFSET_PREV_STATUS) | MASK_DIRTY;
     }
 
     // endregion
@@ -407,7 +413,7 @@ public abstract class Task<T> implements CancelTokenListener {
             this.reentryId++;
 
             this.status = status;
-            ctl |= MASK_STILLBORN;
+            ctl |= (MASK_STILLBORN | MASK_DIRTY);
         }
         if (checkImmediateNotifyMask(ctl) && control != null) {
             ctl |= MASK_NOTIFIED;
@@ -493,7 +499,7 @@ public abstract class Task<T> implements CancelTokenListener {
             status = TaskStatus.CANCELLED;
             template_exit(MASK_STOP_EXIT);
         } else if (status != TaskStatus.NEW) {
-            ctl |= MASK_STOP_EXIT; // 可能是一个先将自己更新为完成状态，又执行了逻辑的子节点；
+            ctl |= (MASK_STOP_EXIT | MASK_DIRTY); // 可能是一个先将自己更新为完成状态，又执行了逻辑的子节点；
         }
     }
 
@@ -535,7 +541,7 @@ public abstract class Task<T> implements CancelTokenListener {
             unsetControl();
         }
         status = 0;
-        ctl &= MASK_OVERRIDES; // 保留Overrides信息
+        ctl = (ctl & MASK_OVERRIDES) | MASK_DIRTY; // 保留Overrides信息
         enterFrame = 0;
         exitFrame = 0;
         reentryId++; // 上下文变动，和之前的执行分开
@@ -551,10 +557,32 @@ public abstract class Task<T> implements CancelTokenListener {
             Task<T> child = getChild(idx);
             if (child.status != TaskStatus.NEW) {
                 child.resetForRestart();
+            } else {
+                child.onIdleRestart(taskEntry);
             }
         }
     }
 
+    /**
+     * 父节点重启而当前节点未运行时调用
+     * 1.当前节点为NEW状态，通常未绑定Entry，因此由父节点传入Entry。
+     * 2.如果修改了子节点，需要通过{@link #onStructureChanged(TaskEntry)}通知Entry。
+     *
+     * @param taskEntry 父节点所属的Entry
+     */
+    protected void onIdleRestart(@Nullable TaskEntry<T> taskEntry) {
+
+    }
+
+    /**
+     * 预取运行需要的数据 -- 父节点启用{@link #MASK_PREFETCH_SUBTREE}时，在父节点进入时调用
+     * 1.当前节点未运行，可能还未绑定Entry，因此由父节点提供加载器。
+     * 2.不可以在该方法中修改子节点。
+     */
+    protected void prefetch(TreeLoader treeLoader) {
+
+    }
+
     /**
      * 检查取消
      *
@@ -721,6 +749,20 @@ public abstract class Task<T> implements CancelTokenListener {
         return (ctl & MASK_AUTO_RESET_CHILDREN) != 0;
     }
 
+    /**
+     * 告知分支节点是否在进入时预取子树 -- {@link #prefetch(TreeLoader)}
+     * 1.默认值由{@link #flags}中的信息指定，默认不启用
+     * 2.要覆盖默认值应当在{@link #beforeEnter()}方法中调用
+     * 3.只对直接子节点生效，且只有部分分支节点支持
+     */
+    public final void setPrefetchSubtree(boolean enable) {
+        setCtlBit(MASK_PREFETCH_SUBTREE, enable);
+    }
+
+    public final boolean isPrefetchSubtree() {
+        return (ctl & MASK_PREFETCH_SUBTREE) != 0;
+    }
+
     /**
      * 是否禁用延迟通知
      * 1.默认值由{@link #flags}中的信息指定，默认不禁用（即默认延迟通知）
@@ -745,7 +787,7 @@ public abstract class Task<T> implements CancelTokenListener {
 
     /** enter方法不暴露，否则以后难以改动 */
     final void template_enterExecute(final Task<T> control, int initMask) {
-        initMask |= (ctl & MASK_OVERRIDES); // 方法实现bits
+        initMask |= (ctl & MASK_OVERRIDES) | MASK_DIRTY; // 方法实现bits
         initMask |= (flags & MASK_CONTROL_FLOW_FLAGS); // 控制流bits
         if (control != null) {
             initMask |= captureContext(control);
@@ -860,9 +902,7 @@ public abstract class Task<T> implements CancelTokenListener {
     }
 
     private void template_exit(int extraMask) {
-        if (extraMask != 0) {
-            ctl |= extraMask;
-        }
+        ctl |= (extraMask | MASK_DIRTY);
         exitFrame = taskEntry.getCurFrame();
         if (isAutoListenCancel()) {
             cancelToken.unregister(this);
@@ -1047,6 +1087,7 @@ public abstract class Task<T> implements CancelTokenListener {
      */
     public final int addChild(final Task<T> task) {
         checkAddChild(task);
+        onStructureChanged();
         return addChildImpl(task);
     }
 
@@ -1058,6 +1099,7 @@ public abstract class Task<T> implements CancelTokenListener {
      */
     public final Task<T> setChild(int index, Task<T> newTask) {
         checkAddChild(newTask);
+        onStructureChanged();
         return setChildImpl(index, newTask);
     }
 
@@ -1084,6 +1126,7 @@ public abstract class Task<T> implements CancelTokenListener {
         // child未启动的情况下，control可能尚未赋值，因此不能检查control来判别
         int index = indexChild(task);
         if (index > 0) {
+            onStructureChanged();
             removeChildImpl(index);
             task.unsetControl();
             return true;
@@ -1093,6 +1136,7 @@ public abstract class Task<T> implements CancelTokenListener {
 
     /** 删除指定索引的child */
     public final Task<T> removeChild(int index) {
+        onStructureChanged();
         Task<T> child = removeChildImpl(index);
         child.unsetControl();
         return child;
@@ -1100,11 +1144,26 @@ public abstract class Task<T> implements CancelTokenListener {
 
     /** 删除所有的child -- 不是个常用方法 */
     public void removeAllChild() {
+        onStructureChanged();
         for (int idx = 0, size = getChildCount(); idx < size; idx++) {
             removeChildImpl(idx).unsetControl();
         }
     }
 
+    /** 运行时增删子节点会导致快照中的节点索引变化，需要通知Entry */
+    private void onStructureChanged() {
+        if (taskEntry != null) {
+            taskEntry.incStructureVersion();
+        }
+    }
+
+    /** 未绑定Entry的节点增删子节点时，需要通过该方法通知节点所属的Entry */
+    protected static void onStructureChanged(@Nullable TaskEntry<?> taskEntry) {
+        if (taskEntry != null) {
+            taskEntry.incStructureVersion();
+        }
+    }
+
     /** @return index or -1 */
     public int indexChild(Task<?> task) {
         for (int idx = 0, size = getChildCount(); idx < size; idx++) {
@@ -1149,7 +1208,7 @@ public abstract class Task<T> implements CancelTokenListener {
         if ((mask & ctl) != 0) {
             throw new IllegalStateException("Lock reentry is not supported, lock: " + lockId);
         }
-        ctl |= mask;
+        ctl |= (mask | MASK_DIRTY);
     }
 
     public final boolean tryLock(int lockId) {
@@ -1157,7 +1216,7 @@ public abstract class Task<T> implements CancelTokenListener {
         if ((mask & ctl) != 0) {
             return false;
         }
-        ctl |= mask;
+        ctl |= (mask | MASK_DIRTY);
         return true;
     }
 
@@ -1166,7 +1225,7 @@ public abstract class Task<T> implements CancelTokenListener {
         if ((mask & ctl) == 0) {
             throw new IllegalStateException("You do not own the lock: " + lockId);
         }
-        ctl &= ~mask;
+        ctl = (ctl & ~mask) | MASK_DIRTY;
     }
 
     public final boolean isLocked(int lockId) {
@@ -1209,9 +1268,9 @@ public abstract class Task<T> implements CancelTokenListener {
 
     private void setCtlBit(int mask, boolean enable) {
         if (enable) {
-            ctl |= mask;
+            ctl |= (mask | MASK_DIRTY);
         } else {
-            ctl &= ~mask;
+            ctl = (ctl & ~mask) | MASK_DIRTY;
         }
     }
 
@@ -1221,6 +1280,144 @@ public abstract class Task<T> implements CancelTokenListener {
 
     // endregion
 
+    // region 快照
+
+    /**
+     * 写入运行时快照数据
+     * 1.只写入自身的运行时数据，子节点和guard的数据由框架单独写入。
+     * 2.有运行时数据的Task都应该重写该方法，重写时应先调用super。
+     */
+    protected void writeSnapshot(TaskSnapshotWriter writer) {
+
+    }
+
+    /**
+     * 读取运行时快照数据
+     * 1.调用该方法时，自身的状态和control已恢复，但运行上下文（黑板、取消令牌等）尚未恢复。
+     * 2.子节点在该方法之后恢复，因此运行时加载的子节点（如子树引用）应在这里挂载。
+     * 3.重写时应先调用super。
+     */
+    protected void readSnapshot(TaskSnapshotReader reader) {
+
+    }
+
+    /**
+     * 快照恢复完成时调用（自顶向下，仅运行中的Task）
+     * 1.调用该方法时，自身的上下文已恢复，子节点的上下文尚未恢复。
+     * 2.由control分配给子节点的上下文（如独立的取消令牌）需要在这里重新分配。
+     */
+    protected void onSnapshotRestored() {
+
+    }
+
+    /**
+     * 标记运行时数据已变化，以便写入增量快照
+     * 1.状态、帧号、重入id、控制标记的变化由框架自动标记。
+     * 2.子类在{@link #writeSnapshot(TaskSnapshotWriter)}中写入的数据变化时，需要调用该方法。
+     */
+    protected final void markDirty() {
+        ctl |= MASK_DIRTY;
+    }
+
+    /** 运行时数据在上次快照之后是否有变化 */
+    public final boolean isDirty() {
+        return (ctl & MASK_DIRTY) != 0;
+    }
+
+    final void clearDirty() {
+        ctl &= ~MASK_DIRTY;
+    }
+
+    /** 是否需要写入快照 -- 重置过的任务也需要写入，以保留重入id */
+    final boolean isSnapshotRequired() {
+        return status != TaskStatus.NEW || reentryId != 0;
+    }
+
+    final void writeSnapshotCore(TaskSnapshotWriter writer) {
+        if ((ctl & MASK_EXECUTING) != 0) {
+            throw new IllegalStateException("Cannot snapshot an executing task: " + getClass().getName());
+        }
+        writer.writeUInt(status);
+        writer.writeUInt(ctl & ~(MASK_OVERRIDES | MASK_DIRTY));
+        writer.writeInt(enterFrame);
+        writer.writeInt(exitFrame - enterFrame);
+        writer.writeInt(reentryId);
+    }
+
+    final void readSnapshotCore(TaskSnapshotReader reader) {
+        status = reader.readUInt();
+        ctl = (reader.readUInt() & ~(MASK_OVERRIDES | MASK_DIRTY | MASK_ENTER_EXECUTE | MASK_EXECUTING))
+                | (ctl & MASK_OVERRIDES);
+        enterFrame = reader.readInt();
+        exitFrame = enterFrame + reader.readInt();
+        reentryId = (short) reader.readInt();
+    }
+
+    /** 恢复运行中任务自动继承的上下文，以及自动监听 */
+    final void restoreContext() {
+        assert status == TaskStatus.RUNNING;
+        final int ctl = this.ctl;
+        if (control != null) {
+            if ((ctl & MASK_INHERITED_BLACKBOARD) != 0) {
+                blackboard = control.blackboard;
+            }
+            if ((ctl & MASK_INHERITED_CANCEL_TOKEN) != 0) {
+                cancelToken = control.cancelToken;
+            }
+            if ((ctl & MASK_INHERITED_PROPS) != 0) {
+                sharedProps = control.sharedProps;
+            }
+        }
+        if (blackboard == null || cancelToken == null) {
+            throw new IllegalStateException("Context of the task is not restored: " + getClass().getName());
+        }
+        registerAutoListen();
+    }
+
+    // endregion
+
+    // region 迁移
+
+    /**
+     * 行为树迁移到新的线程（或分片）时调用
+     * 1.调用该方法时，自身的帧号已调整，取消令牌已绑定到新的executor。
+     * 2.Task自身持有的帧号和取消令牌需要在这里调整，比如：缓存的帧号，未分配给子节点的取消令牌。
+     *
+     * @param executor   新的executor，可能为null
+     * @param frameDelta 新旧帧号的差值
+     */
+    protected void onMigrated(@Nullable UniScheduledExecutor executor, int frameDelta) {
+
+    }
+
+    /** 调整帧号并重新绑定取消令牌 */
+    final void migrate(@Nullable UniScheduledExecutor executor, int frameDelta) {
+        if (status != TaskStatus.NEW && frameDelta != 0) {
+            enterFrame += frameDelta;
+            exitFrame += frameDelta;
+            ctl |= MASK_DIRTY;
+        }
+        if (cancelToken != null) {
+            cancelToken.setExecutor(executor);
+        }
+        onMigrated(executor, frameDelta);
+    }
+
+    /** 慢启动的任务在enter时不会注册监听，这里保持一致 */
+    final void registerAutoListen() {
+        if (isAutoListenCancel() && !isSlowStart()) {
+            cancelToken.thenNotify(this);
+        }
+    }
+
+    final void unregisterAutoListen() {
+        if (isAutoListenCancel() && !isSlowStart()) {
+            cancelToken.unregister(this);
+        }
+    }
+
+    // endregion
+
     // region 序列化
 
     public final Task<T> getGuard() {
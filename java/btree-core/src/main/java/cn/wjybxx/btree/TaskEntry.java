@@ -19,9 +19,13 @@ import cn.wjybxx.btree.fsm.StateMachineTask;
 import cn.wjybxx.concurrent.ICancelToken;
 import cn.wjybxx.concurrent.ICancelTokenSource;
 import cn.wjybxx.sequential.UniCancelTokenSource;
+import cn.wjybxx.sequential.UniScheduledExecutor;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.util.Objects;
+import java.util.SplittableRandom;
+import java.util.random.RandomGenerator;
 import java.util.stream.Stream;
 
 /**
@@ -46,6 +50,8 @@ public class TaskEntry<T> extends Task<T> {
     private Task<T> rootTask;
     /** 行为树的类型 -- 表示用途 */
     private int type;
+    /** 行为树定义的版本号 -- 由加载器维护，用于热更新时判断实例是否过期 */
+    private transient int treeVersion;
 
     /** 行为树绑定的实体 -- 最好也存储在黑板里；这里的字段本是为了提高性能 */
     private transient Object entity;
@@ -55,6 +61,14 @@ public class TaskEntry<T> extends Task<T> {
     private transient int curFrame;
     /** 用于Entry的事件驱动 */
     private transient TaskEntryHandler<T> handler;
+    /** 结构版本号 -- 运行时增删子节点时递增，用于判断是否可以写入增量快照 */
+    private transient int structureVersion;
+    /** 上次快照时的结构版本号，-1表示没有可用的基础快照 */
+    private transient int snapshotVersion = -1;
+    /** 行为树使用的随机数生成器 -- 为null时首次使用时创建；指定种子可以使随机行为可重现 */
+    private transient RandomGenerator random;
+    /** 是否已从驱动线程分离 -- volatile保证分离前的修改对attach的线程可见 */
+    private transient volatile boolean detached;
 
     public TaskEntry() {
         this(null, null, null, null, null);
@@ -86,6 +100,9 @@ public class TaskEntry<T> extends Task<T> {
     }
 
     public void setRootTask(Task<T> rootTask) {
+        if (this.rootTask != rootTask) {
+            incStructureVersion();
+        }
         this.rootTask = rootTask;
     }
 
@@ -97,6 +114,14 @@ public class TaskEntry<T> extends Task<T> {
         this.type = type;
     }
 
+    public int getTreeVersion() {
+        return treeVersion;
+    }
+
+    public void setTreeVersion(int treeVersion) {
+        this.treeVersion = treeVersion;
+    }
+
     public void setEntity(Object entity) {
         this.entity = entity;
     }
@@ -117,6 +142,18 @@ public class TaskEntry<T> extends Task<T> {
         this.treeLoader = Objects.requireNonNullElse(treeLoader, TreeLoader.nullLoader());
     }
 
+    /** 获取行为树的随机数生成器 -- 随机类节点应当使用该对象，而不是共享的静态对象 */
+    public final RandomGenerator getRandom() {
+        if (random == null) {
+            random = new SplittableRandom();
+        }
+        return random;
+    }
+
+    public final void setRandom(RandomGenerator random) {
+        this.random = random;
+    }
+
     @Override
     public final Object getEntity() {
         return entity;
@@ -145,7 +182,11 @@ public class TaskEntry<T> extends Task<T> {
      * 用户需要在每一帧调用该方法以驱动心跳逻辑
      */
     public void update(int curFrame) {
+        if (detached) {
+            throw new IllegalStateException("taskEntry is detached");
+        }
         this.curFrame = curFrame;
+        markDirty();
         if (getStatus() == TaskStatus.RUNNING) {
             template_execute();
         } else {
@@ -175,6 +216,9 @@ public class TaskEntry<T> extends Task<T> {
 
     @Override
     public boolean canHandleEvent(@Nonnull Object event) {
+        if (detached) {
+            return false;
+        }
         if (isRunning()) {
             return true;
         }
@@ -193,12 +237,122 @@ public class TaskEntry<T> extends Task<T> {
         curFrame = 0;
     }
 
+    @Override
+    protected void writeSnapshot(TaskSnapshotWriter writer) {
+        super.writeSnapshot(writer);
+        writer.writeInt(curFrame);
+    }
+
+    @Override
+    protected void readSnapshot(TaskSnapshotReader reader) {
+        super.readSnapshot(reader);
+        curFrame = reader.readInt();
+    }
+
+    final void incStructureVersion() {
+        structureVersion++;
+    }
+
+    final int getStructureVersion() {
+        return structureVersion;
+    }
+
+    final int getSnapshotVersion() {
+        return snapshotVersion;
+    }
+
+    final void setSnapshotVersion(int snapshotVersion) {
+        this.snapshotVersion = snapshotVersion;
+    }
+
     final boolean isInited() {
         return rootTask != null && blackboard != null && cancelToken != null && treeLoader != null;
     }
 
     // endregion
 
+    // region 迁移
+
+    /** 是否已从驱动线程分离 */
+    public final boolean isDetached() {
+        return detached;
+    }
+
+    /**
+     * 将行为树从当前的驱动线程分离，以便在其它线程（或分片）继续运行
+     * 1.只能在驱动线程的心跳之外调用，即两次{@link #update(int)}之间。
+     * 2.分离时会解除自动监听的取消注册，分离期间的取消请求将在{@link #attach(UniScheduledExecutor, int)}时响应。
+     * 3.分离期间不可以调用{@link #update(int)}，事件将被忽略。
+     * 4.{@link UniCancelTokenSource#cancelAfter(int, long)}创建的定时任务无法迁移，迁移前需要确保没有未触发的定时任务。
+     */
+    public final void detach() {
+        if (detached) {
+            throw new IllegalStateException("taskEntry is already detached");
+        }
+        if (isExecuting()) {
+            throw new IllegalStateException("taskEntry is executing");
+        }
+        if (isRunning()) {
+            unregisterAutoListen(this);
+        }
+        detached = true;
+    }
+
+    /**
+     * 在新的驱动线程上恢复行为树，恢复后通过{@link #update(int)}继续运行，不会重新启动
+     * 1.所有Task的帧号会被调整到新的帧号体系下，以保持运行帧数不变。
+     * 2.行为树的取消令牌会绑定到新的executor。
+     *
+     * @param executor 新线程的executor，可以为null
+     * @param curFrame 新线程的当前帧号，下次update时通常传入curFrame + 1
+     */
+    public final void attach(@Nullable UniScheduledExecutor executor, int curFrame) {
+        if (!detached) {
+            throw new IllegalStateException("taskEntry is not detached");
+        }
+        final int frameDelta = curFrame - this.curFrame;
+        this.curFrame = curFrame;
+        migrate(this, executor, frameDelta);
+        detached = false;
+        // 注册时可能立即响应分离期间的取消请求，因此最后执行
+        if (isRunning()) {
+            registerAutoListen(this);
+        }
+    }
+
+    private static void migrate(Task<?> task, UniScheduledExecutor executor, int frameDelta) {
+        task.migrate(executor, frameDelta);
+        if (task.getGuard() != null) {
+            migrate(task.getGuard(), executor, frameDelta);
+        }
+        for (int idx = 0, n = task.getChildCount(); idx < n; idx++) {
+            migrate(task.getChild(idx), executor, frameDelta);
+        }
+    }
+
+    private static void unregisterAutoListen(Task<?> task) {
+        task.unregisterAutoListen();
+        for (int idx = 0, n = task.getChildCount(); idx < n; idx++) {
+            Task<?> child = task.getChild(idx);
+            if (child.isRunning()) {
+                unregisterAutoListen(child);
+            }
+        }
+    }
+
+    /** 注册时可能触发取消，因此每次都需要重新检查子节点的状态 */
+    private static void registerAutoListen(Task<?> task) {
+        task.registerAutoListen();
+        for (int idx = 0; idx < task.getChildCount(); idx++) {
+            Task<?> child = task.getChild(idx);
+            if (child.isRunning()) {
+                registerAutoListen(child);
+            }
+        }
+    }
+
+    // endregion
+
     // region child
 
     @Override
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btree;
+
+import javax.annotation.Nullable;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 运行时快照的读取器
+ * 1.读取顺序必须和{@link TaskSnapshotWriter}的写入顺序一致。
+ * 2.每个Task的数据是独立的记录，越界读取会抛出异常，少读则自动跳过剩余数据。
+ *
+ * @author wjybxx
+ * date - 2024/6/3
+ */
+public final class TaskSnapshotReader {
+
+    private final byte[] buffer;
+    private int position;
+    private int limit;
+    /** 正在恢复的行为树 */
+    private TaskEntry<?> taskEntry;
+
+    TaskSnapshotReader(byte[] buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.position = offset;
+        this.limit = offset + length;
+    }
+
+    /** 获取正在恢复的行为树 -- 用于加载运行时挂载的子节点 */
+    public TaskEntry<?> getTaskEntry() {
+        return taskEntry;
+    }
+
+    void setTaskEntry(TaskEntry<?> taskEntry) {
+        this.taskEntry = taskEntry;
+    }
+
+    // region read
+
+    public int readInt() {
+        int n = readUInt();
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    public int readUInt() {
+        final byte[] buffer = this.buffer;
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            checkAvailable(1);
+            byte b = buffer[position++];
+            result |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+        throw new IllegalStateException("malformed varint");
+    }
+
+    public long readLong() {
+        final byte[] buffer = this.buffer;
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            checkAvailable(1);
+            byte b = buffer[position++];
+            result |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return (result >>> 1) ^ -(result & 1);
+            }
+        }
+        throw new IllegalStateException("malformed varint");
+    }
+
+    public boolean readBool() {
+        checkAvailable(1);
+        return buffer[position++] != 0;
+    }
+
+    @Nullable
+    public String readString() {
+        int length = readInt();
+        if (length < 0) {
+            return null;
+        }
+        checkAvailable(length);
+        String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+        position += length;
+        return value;
+    }
+
+    @Nullable
+    public int[] readIntArray() {
+        int length = readInt();
+        if (length < 0) {
+            return null;
+        }
+        checkAvailable(length); // 每个元素至少1字节
+        int[] values = new int[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = readInt();
+        }
+        return values;
+    }
+
+    // endregion
+
+    // region internal
+
+    boolean hasRemaining() {
+        return position < limit;
+    }
+
+    int getPosition() {
+        return position;
+    }
+
+    int getLimit() {
+        return limit;
+    }
+
+    /** 限制可读取的范围 -- 用于读取单条记录 */
+    void setRange(int position, int limit) {
+        if (position < 0 || limit > buffer.length || position > limit) {
+            throw new IllegalStateException("invalid range, position: %d, limit: %d".formatted(position, limit));
+        }
+        this.position = position;
+        this.limit = limit;
+    }
+
+    byte[] getBuffer() {
+        return buffer;
+    }
+
+    private void checkAvailable(int required) {
+        if (limit - position < required) {
+            throw new IllegalStateException("unexpected end of snapshot record");
+        }
+    }
+    // endregion
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btree;
+
+import javax.annotation.Nullable;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 运行时快照的写入器
+ * 1.整数采用varint编码，有符号数使用zigzag编码 -- 运行时数据大多是小整数。
+ * 2.Task只写入自身的运行时数据，不要写入子节点的数据，子节点会单独写入。
+ * 3.写入的顺序必须和{@link TaskSnapshotReader}读取的顺序一致。
+ *
+ * @author wjybxx
+ * date - 2024/6/3
+ */
+public final class TaskSnapshotWriter {
+
+    private byte[] buffer;
+    private int position;
+
+    TaskSnapshotWriter(int initCapacity) {
+        this.buffer = new byte[Math.max(16, initCapacity)];
+    }
+
+    // region write
+
+    public void writeInt(int value) {
+        writeUInt((value << 1) ^ (value >> 31));
+    }
+
+    /** 写入一个无符号整数 -- 负数将占用5个字节 */
+    public void writeUInt(int value) {
+        ensureCapacity(5);
+        final byte[] buffer = this.buffer;
+        int pos = this.position;
+        while ((value & ~0x7F) != 0) {
+            buffer[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[pos++] = (byte) value;
+        this.position = pos;
+    }
+
+    public void writeLong(long value) {
+        value = (value << 1) ^ (value >> 63);
+        ensureCapacity(10);
+        final byte[] buffer = this.buffer;
+        int pos = this.position;
+        while ((value & ~0x7FL) != 0) {
+            buffer[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[pos++] = (byte) value;
+        this.position = pos;
+    }
+
+    public void writeBool(boolean value) {
+        ensureCapacity(1);
+        buffer[position++] = (byte) (value ? 1 : 0);
+    }
+
+    /** 字符串以长度前缀写入，null写入-1 */
+    public void writeString(@Nullable String value) {
+        if (value == null) {
+            writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeInt(bytes.length);
+        writeRawBytes(bytes, 0, bytes.length);
+    }
+
+    /** 数组以长度前缀写入，null写入-1 */
+    public void writeIntArray(@Nullable int[] values) {
+        if (values == null) {
+            writeInt(-1);
+            return;
+        }
+        writeInt(values.length);
+        for (int value : values) {
+            writeInt(value);
+        }
+    }
+
+    // endregion
+
+    // region internal
+
+    void writeRawBytes(byte[] bytes, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(bytes, offset, buffer, position, length);
+        position += length;
+    }
+
+    /** 将另一个writer的内容以长度前缀写入 */
+    void writeRecord(TaskSnapshotWriter other) {
+        writeUInt(other.position);
+        writeRawBytes(other.buffer, 0, other.position);
+    }
+
+    int size() {
+        return position;
+    }
+
+    void reset() {
+        position = 0;
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(buffer, position);
+    }
+
+    private void ensureCapacity(int required) {
+        if (position + required > buffer.length) {
+            int newCapacity = Math.max(buffer.length * 2, position + required);
+            buffer = Arrays.copyOf(buffer, newCapacity);
+        }
+    }
+    // endregion
+}
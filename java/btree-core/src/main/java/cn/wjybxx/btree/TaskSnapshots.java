@@ -0,0 +1,313 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btree;
+
+import java.util.Objects;
+
+/**
+ * 行为树运行时快照工具类
+ * 用于停服、迁移和崩溃恢复时保存运行中的行为树，恢复后可以从保存时的位置继续运行。
+ *
+ * <h3>格式</h3>
+ * 0.头部为版本号和快照类型（全量或增量）。
+ * 1.节点按照先序遍历编号：先节点自身，然后是guard，最后是子节点。
+ * 2.只写入运行过的节点，每条记录为：[index + 1][classCheck][length][payload]，0表示记录结束。
+ * 3.classCheck为节点类名hash的低16位，用于在读取节点数据前检测快照和行为树是否匹配。
+ * 4.尾部为节点数量和结构hash，用于检测快照和行为树是否匹配。
+ *
+ * <h3>增量快照</h3>
+ * 1.增量快照只包含上次快照之后数据有变化（dirty）的节点，需要通过{@link #merge(byte[], byte[])}合并到基础快照上。
+ * 2.如果上次快照之后行为树的结构发生了变化（运行时增删了子节点），节点的索引将失效，此时将写入全量快照。
+ * 3.每次快照（包括恢复）都会成为下一次增量快照的基础，因此增量快照需要按顺序合并。
+ *
+ * <h3>限制</h3>
+ * 1.快照只包含运行时数据，不包含黑板、实体等用户数据，恢复前由用户自行设置。
+ * 2.只能在心跳之外创建快照，即不能有正在执行的任务。
+ * 3.恢复的目标必须是与快照结构相同的新树（未运行过），通常通过{@link TreeLoader}重新加载。
+ * 4.钩子任务（非child和guard）不在快照中，其状态将丢失。
+ * 5.恢复失败时目标树处于不确定状态，应当丢弃。
+ *
+ * @author wjybxx
+ * date - 2024/6/3
+ */
+public final class TaskSnapshots {
+
+    private static final int VERSION = 1;
+    private static final int KIND_FULL = 0;
+    private static final int KIND_DELTA = 1;
+
+    private TaskSnapshots() {
+    }
+
+    /**
+     * 创建快照
+     *
+     * @param taskEntry 要保存的行为树
+     * @return 快照数据
+     */
+    public static byte[] snapshot(TaskEntry<?> taskEntry) {
+        Objects.requireNonNull(taskEntry, "taskEntry");
+        return write(taskEntry, false);
+    }
+
+    /**
+     * 创建增量快照
+     * 如果没有基础快照，或行为树的结构发生了变化，则返回全量快照 -- 可通过{@link #isDelta(byte[])}区分。
+     *
+     * @param taskEntry 要保存的行为树
+     * @return 快照数据
+     */
+    public static byte[] snapshotDelta(TaskEntry<?> taskEntry) {
+        Objects.requireNonNull(taskEntry, "taskEntry");
+        boolean delta = taskEntry.getSnapshotVersion() >= 0
+                && taskEntry.getSnapshotVersion() == taskEntry.getStructureVersion();
+        return write(taskEntry, delta);
+    }
+
+    /** 查询快照是否是增量快照 */
+    public static boolean isDelta(byte[] data) {
+        TaskSnapshotReader in = new TaskSnapshotReader(data, 0, data.length);
+        return readHeader(in) == KIND_DELTA;
+    }
+
+    /**
+     * 将增量快照合并到基础快照上
+     * 如果delta是全量快照，则直接返回delta。
+     *
+     * @param base  全量快照
+     * @param delta 基于base创建的快照
+     * @return 合并后的全量快照
+     */
+    public static byte[] merge(byte[] base, byte[] delta) {
+        Objects.requireNonNull(base, "base");
+        Objects.requireNonNull(delta, "delta");
+        TaskSnapshotReader baseIn = new TaskSnapshotReader(base, 0, base.length);
+        TaskSnapshotReader deltaIn = new TaskSnapshotReader(delta, 0, delta.length);
+        if (readHeader(baseIn) != KIND_FULL) {
+            throw new IllegalArgumentException("base is not a full snapshot");
+        }
+        if (readHeader(deltaIn) == KIND_FULL) {
+            return delta;
+        }
+        TaskSnapshotWriter out = new TaskSnapshotWriter(base.length + delta.length);
+        out.writeUInt(VERSION);
+        out.writeUInt(KIND_FULL);
+        // 两边的记录都是按索引递增排列的，归并即可；索引相同时使用delta的记录
+        int baseIndex = baseIn.readUInt();
+        int deltaIndex = deltaIn.readUInt();
+        while (baseIndex != 0 || deltaIndex != 0) {
+            if (deltaIndex != 0 && (baseIndex == 0 || deltaIndex <= baseIndex)) {
+                if (deltaIndex == baseIndex) {
+                    skipRecord(baseIn);
+                    baseIndex = baseIn.readUInt();
+                }
+                out.writeUInt(deltaIndex);
+                copyRecord(deltaIn, out);
+                deltaIndex = deltaIn.readUInt();
+            } else {
+                out.writeUInt(baseIndex);
+                copyRecord(baseIn, out);
+                baseIndex = baseIn.readUInt();
+            }
+        }
+        out.writeUInt(0);
+        // 结构不同的快照不能合并
+        int nodeCount = baseIn.readUInt();
+        int structureHash = baseIn.readInt();
+        if (nodeCount != deltaIn.readUInt() || structureHash != deltaIn.readInt()) {
+            throw new IllegalArgumentException("snapshot structure mismatch, delta is not based on the base");
+        }
+        out.writeUInt(nodeCount);
+        out.writeInt(structureHash);
+        return out.toByteArray();
+    }
+
+    /**
+     * 从快照恢复行为树
+     * 注意：恢复前需要设置好黑板、实体、加载器等数据，以及{@link Task#onSnapshotRestored()}依赖的数据。
+     *
+     * @param taskEntry 未运行过的新树
+     * @param data      快照数据
+     */
+    public static <T> void restore(TaskEntry<T> taskEntry, byte[] data) {
+        Objects.requireNonNull(taskEntry, "taskEntry");
+        Objects.requireNonNull(data, "data");
+        if (taskEntry.getStatus() != TaskStatus.NEW || !taskEntry.isInited()) {
+            throw new IllegalStateException("taskEntry must be a new inited tree");
+        }
+        TaskSnapshotReader in = new TaskSnapshotReader(data, 0, data.length);
+        in.setTaskEntry(taskEntry);
+        if (readHeader(in) != KIND_FULL) {
+            throw new IllegalArgumentException("delta snapshot must be merged into a full snapshot before restore");
+        }
+        // 1.读取数据并挂载运行时加载的子节点
+        ReadContext ctx = new ReadContext(in, data.length);
+        ctx.nextIndex = in.readUInt() - 1;
+        readTask(ctx, taskEntry, null, false);
+        if (ctx.nextIndex != -1) {
+            throw new IllegalStateException("snapshot structure mismatch, unread record: " + ctx.nextIndex);
+        }
+        int nodeCount = in.readUInt();
+        int structureHash = in.readInt();
+        if (nodeCount != ctx.nodeCount || structureHash != ctx.structureHash) {
+            throw new IllegalStateException("snapshot structure mismatch, expected nodeCount: %d, actual: %d"
+                    .formatted(nodeCount, ctx.nodeCount));
+        }
+        // 2.自顶向下恢复上下文
+        if (taskEntry.isRunning()) {
+            restoreContext(taskEntry);
+        }
+        // 恢复的快照即是下一次增量快照的基础
+        taskEntry.setSnapshotVersion(taskEntry.getStructureVersion());
+    }
+
+    // region internal
+
+    private static byte[] write(TaskEntry<?> taskEntry, boolean delta) {
+        WriteContext ctx = new WriteContext(delta);
+        ctx.out.writeUInt(VERSION);
+        ctx.out.writeUInt(delta ? KIND_DELTA : KIND_FULL);
+        writeTask(ctx, taskEntry);
+        ctx.out.writeUInt(0);
+        ctx.out.writeUInt(ctx.nodeCount);
+        ctx.out.writeInt(ctx.structureHash);
+        taskEntry.setSnapshotVersion(taskEntry.getStructureVersion());
+        return ctx.out.toByteArray();
+    }
+
+    private static int readHeader(TaskSnapshotReader in) {
+        int version = in.readUInt();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("unsupported snapshot version: " + version);
+        }
+        int kind = in.readUInt();
+        if (kind != KIND_FULL && kind != KIND_DELTA) {
+            throw new IllegalArgumentException("unsupported snapshot kind: " + kind);
+        }
+        return kind;
+    }
+
+    private static void skipRecord(TaskSnapshotReader in) {
+        in.readUInt(); // classCheck
+        int length = in.readUInt();
+        in.setRange(in.getPosition() + length, in.getLimit());
+    }
+
+    private static void copyRecord(TaskSnapshotReader in, TaskSnapshotWriter out) {
+        out.writeUInt(in.readUInt()); // classCheck
+        int length = in.readUInt();
+        out.writeUInt(length);
+        out.writeRawBytes(in.getBuffer(), in.getPosition(), length);
+        in.setRange(in.getPosition() + length, in.getLimit());
+    }
+
+    private static void writeTask(WriteContext ctx, Task<?> task) {
+        final int index = ctx.nodeCount++;
+        ctx.structureHash = 31 * ctx.structureHash + task.getClass().getName().hashCode();
+        if (task.isSnapshotRequired() && (!ctx.delta || task.isDirty())) {
+            TaskSnapshotWriter record = ctx.record;
+            record.reset();
+            task.writeSnapshotCore(record);
+            task.writeSnapshot(record);
+            ctx.out.writeUInt(index + 1);
+            ctx.out.writeUInt(classCheck(task));
+            ctx.out.writeRecord(record);
+        }
+        task.clearDirty();
+        if (task.getGuard() != null) {
+            writeTask(ctx, task.getGuard());
+        }
+        for (int idx = 0, n = task.getChildCount(); idx < n; idx++) {
+            writeTask(ctx, task.getChild(idx));
+        }
+    }
+
+    private static <T> void readTask(ReadContext ctx, Task<T> task, Task<T> control, boolean guard) {
+        final int index = ctx.nodeCount++;
+        ctx.structureHash = 31 * ctx.structureHash + task.getClass().getName().hashCode();
+        if (index == ctx.nextIndex) {
+            final TaskSnapshotReader in = ctx.in;
+            if (in.readUInt() != classCheck(task)) {
+                throw new IllegalStateException("snapshot structure mismatch, index: %d, task: %s"
+                        .formatted(index, task.getClass().getName()));
+            }
+            final int length = in.readUInt();
+            final int start = in.getPosition();
+            final int end = start + length;
+            in.setRange(start, end);
+            task.readSnapshotCore(in);
+            // guard在检查结束后会清理control；control未运行时子节点也不会有上下文
+            if (!guard && control != null && task.getStatus() != TaskStatus.NEW
+                    && control.getTaskEntry() != null) {
+                task.setControl(control);
+            }
+            task.readSnapshot(in);
+            in.setRange(end, ctx.totalLength);
+            ctx.nextIndex = in.readUInt() - 1;
+        }
+        if (task.getGuard() != null) {
+            readTask(ctx, task.getGuard(), task, true);
+        }
+        // 子节点数量需要在readSnapshot之后获取
+        for (int idx = 0; idx < task.getChildCount(); idx++) {
+            readTask(ctx, task.getChild(idx), task, guard);
+        }
+    }
+
+    private static int classCheck(Task<?> task) {
+        return task.getClass().getName().hashCode() & 0xFFFF;
+    }
+
+    /** 未运行的任务不会有运行中的子节点，因此只需要处理运行中的节点 */
+    private static void restoreContext(Task<?> task) {
+        task.restoreContext();
+        task.onSnapshotRestored();
+        for (int idx = 0, n = task.getChildCount(); idx < n; idx++) {
+            Task<?> child = task.getChild(idx);
+            if (child.isRunning()) {
+                restoreContext(child);
+            }
+        }
+    }
+
+    private static class WriteContext {
+
+        final boolean delta;
+        final TaskSnapshotWriter out = new TaskSnapshotWriter(256);
+        final TaskSnapshotWriter record = new TaskSnapshotWriter(64);
+        int nodeCount;
+        int structureHash = 1;
+
+        WriteContext(boolean delta) {
+            this.delta = delta;
+        }
+    }
+
+    private static class ReadContext {
+
+        final TaskSnapshotReader in;
+        final int totalLength;
+        int nodeCount;
+        int structureHash = 1;
+        int nextIndex;
+
+        ReadContext(TaskSnapshotReader in, int totalLength) {
+            this.in = in;
+            this.totalLength = totalLength;
+        }
+    }
+    // endregion
+}
@@ -18,6 +18,7 @@ package cn.wjybxx.btree;
 import javax.annotation.Nullable;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Predicate;
 
 /**
@@ -50,6 +51,18 @@ public interface TreeLoader {
         return result;
     }
 
+    /**
+     * 尝试加载入口对象
+     * 1.该方法是可选的，默认返回null；实现该方法可以让缓存同时按照名字和guid进行缓存。
+     * 2.返回的Entry是共享的，不要修改Entry对象的数据。
+     *
+     * @param nameOrGuid 入口的名字或guid
+     */
+    @Nullable
+    default IEntry tryLoadEntry(String nameOrGuid) {
+        return null;
+    }
+
     /**
      * 批量加载指定文件中的对象
      *
@@ -88,6 +101,38 @@ public interface TreeLoader {
         return (Task<T>) result;
     }
 
+    /**
+     * 异步加载对象
+     * 1.默认实现在调用线程同步加载，返回已完成的Future；实现类应当在后台线程解码，以避免阻塞心跳线程。
+     * 2.Future可以在任意线程完成，调用者需要自行切换回心跳线程 -- Task通常在心跳中轮询Future。
+     * 3.目标对象不存在时，Future以{@link IllegalArgumentException}失败。
+     *
+     * @param nameOrGuid 行为树的名字或guid
+     */
+    default CompletableFuture<Object> loadObjectAsync(String nameOrGuid) {
+        try {
+            return CompletableFuture.completedFuture(loadObject(nameOrGuid));
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * 异步加载行为树的根节点
+     *
+     * @param treeName 行为树的名字或guid
+     * @see #loadObjectAsync(String)
+     */
+    @SuppressWarnings("unchecked")
+    default <T> CompletableFuture<Task<T>> loadRootTaskAsync(String treeName) {
+        return loadObjectAsync(treeName).thenApply(result -> {
+            if (!(result instanceof Task<?>)) {
+                throw new IllegalArgumentException("target object is not a task, name: " + treeName);
+            }
+            return (Task<T>) result;
+        });
+    }
+
     default <T> TaskEntry<T> loadTree(String treeName) {
         final Task<T> rootTask = loadRootTask(treeName);
         return new TaskEntry<>(treeName, rootTask, null, null, this);
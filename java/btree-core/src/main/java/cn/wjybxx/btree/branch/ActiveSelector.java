@@ -15,6 +15,7 @@
  */
 package cn.wjybxx.btree.branch;
 
+import cn.wjybxx.btree.ObservedCondition;
 import cn.wjybxx.btree.Task;
 import cn.wjybxx.btree.TaskStatus;
 
@@ -24,12 +25,18 @@ import java.util.List;
  * 主动选择节点
  * 每次运行时都会重新测试节点的运行条件，选择一个新的可运行节点。
  * 如果新选择的运行节点与之前的运行节点不同，则取消之前的任务。
+ * <p>
+ * 脏检查：如果运行中的节点及其之前的节点的条件都是{@link ObservedCondition}（或没有条件），
+ * 则在条件的输入版本号都未变化时复用上次的选择，不重新测试条件。
  *
  * @author wjybxx
  * date - 2023/11/26
  */
 public class ActiveSelector<T> extends SingleRunningChildBranch<T> {
 
+    /** 上次测试时各个条件的输入版本号，-1表示不支持脏检查 */
+    private transient long[] guardVersions;
+
     public ActiveSelector() {
     }
 
@@ -39,12 +46,24 @@ public class ActiveSelector<T> extends SingleRunningChildBranch<T> {
 
     @Override
     protected void execute() {
+        if (runningChild != null && !isInputChanged()) {
+            template_runChildDirectly(runningChild);
+            return;
+        }
+        long[] guardVersions = this.guardVersions;
+        if (guardVersions == null || guardVersions.length != children.size()) {
+            this.guardVersions = guardVersions = new long[children.size()];
+        }
+
         Task<T> childToRun = null;
         int childIndex = -1;
         for (int idx = 0; idx < children.size(); idx++) {
             Task<T> child = children.get(idx);
+            guardVersions[idx] = inputVersion(child.getGuard()); // 在测试之前记录，测试期间的修改下次生效
             if (!template_checkGuard(child.getGuard())) {
-                child.setGuardFailed(null); // 不接收通知
+                if (child != runningChild) { // 运行中的child在下面取消
+                    child.setGuardFailed(null); // 不接收通知
+                }
                 continue;
             }
             childToRun = child;
@@ -64,11 +83,39 @@ public class ActiveSelector<T> extends SingleRunningChildBranch<T> {
             return;
         }
 
+        if (runningIndex != childIndex) {
+            markDirty();
+        }
         this.runningChild = childToRun;
         this.runningIndex = childIndex;
         template_runChildDirectly(childToRun);
     }
 
+    /** 运行中的节点及其之前的节点的条件输入是否变化 */
+    private boolean isInputChanged() {
+        long[] guardVersions = this.guardVersions;
+        if (guardVersions == null || guardVersions.length != children.size()) {
+            return true;
+        }
+        for (int idx = 0; idx <= runningIndex; idx++) {
+            long version = guardVersions[idx];
+            if (version < 0 || version != inputVersion(children.get(idx).getGuard())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private long inputVersion(Task<T> guard) {
+        if (guard == null) {
+            return 0;
+        }
+        if (guard instanceof ObservedCondition<T> observedCondition) {
+            return observedCondition.getInputVersion(this);
+        }
+        return -1;
+    }
+
     @Override
     protected void onChildCompleted(Task<T> child) {
         runningChild = null;
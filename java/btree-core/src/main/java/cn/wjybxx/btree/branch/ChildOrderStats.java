@@ -0,0 +1,265 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btree.branch;
+
+import cn.wjybxx.btree.loader.PrototypeShared;
+
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 子节点的执行统计，用于自适应调整子节点的执行顺序
+ * 1.统计每个子节点的运行次数、成功次数和执行耗时（子节点在心跳中占用的时间，不含等待的帧）。
+ * 2.按照【单次成功的期望耗时】（平均耗时 / 成功率）升序排列，即廉价且容易成功的子节点优先；未运行过的子节点优先。
+ * 3.统计数据挂在原型上 -- 拷贝器通过{@link PrototypeShared}使副本引用原型的统计数据，原型被淘汰或重新加载后随之释放。
+ * 4.记录结果不加锁：计数器按线程分段，每个分段每记录{@link #reorderInterval}次结果，合并所有分段并更新一次顺序。
+ * 5.执行顺序使用两个预分配的数组交替发布，更新顺序时不分配内存；读取不加锁，通过版本号检测并发的更新，冲突时加锁重新读取。
+ * 6.子节点数量变化时统计数据将被重置。
+ *
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+public final class ChildOrderStats {
+
+    /** 分段数，2的幂 */
+    private static final int STRIPE_COUNT = Integer.highestOneBit(Math.min(8, Runtime.getRuntime().availableProcessors()));
+    /** 每个子节点的计数：运行次数，成功次数，耗时 */
+    private static final int SLOT_RUN = 0;
+    private static final int SLOT_SUCCESS = 1;
+    private static final int SLOT_COST = 2;
+    private static final int SLOT_COUNT = 3;
+
+    /** 更新顺序的间隔（每个分段的记录次数） */
+    private final int reorderInterval;
+    private volatile State state;
+
+    public ChildOrderStats() {
+        this(32);
+    }
+
+    public ChildOrderStats(int reorderInterval) {
+        if (reorderInterval <= 0) {
+            throw new IllegalArgumentException("reorderInterval: " + reorderInterval);
+        }
+        this.reorderInterval = reorderInterval;
+        this.state = new State(0);
+    }
+
+    /** 确保统计数据与子节点数量匹配，不匹配时重置 */
+    public void ensureChildCount(int childCount) {
+        if (state.childCount == childCount) {
+            return;
+        }
+        synchronized (this) {
+            if (state.childCount != childCount) {
+                state = new State(childCount);
+            }
+        }
+    }
+
+    /**
+     * 拷贝当前的执行顺序
+     *
+     * @param dest 长度需要等于子节点数量
+     */
+    public void copyOrder(int[] dest) {
+        final State state = this.state;
+        if (dest.length != state.childCount) {
+            throw new IllegalArgumentException("dest.length: %d, childCount: %d".formatted(dest.length, state.childCount));
+        }
+        state.copyOrder(dest);
+    }
+
+    /**
+     * 记录子节点的执行结果
+     *
+     * @param index     子节点的索引
+     * @param succeeded 是否成功
+     * @param costNanos 子节点本次运行的耗时
+     */
+    public void record(int index, boolean succeeded, long costNanos) {
+        final State state = this.state;
+        if (index < 0 || index >= state.childCount) {
+            return; // 结构已变化
+        }
+        final AtomicLongArray stripe = state.stripes[(int) Thread.currentThread().threadId() & (STRIPE_COUNT - 1)];
+        final int base = index * SLOT_COUNT;
+        stripe.getAndIncrement(base + SLOT_RUN);
+        if (succeeded) {
+            stripe.getAndIncrement(base + SLOT_SUCCESS);
+        }
+        stripe.getAndAdd(base + SLOT_COST, costNanos);
+        // 分段的最后一个元素是分段的记录次数
+        if (stripe.incrementAndGet(state.childCount * SLOT_COUNT) % reorderInterval == 0) {
+            reorder(state);
+        }
+    }
+
+    /** 立即更新执行顺序 */
+    public void reorder() {
+        reorder(state);
+    }
+
+    private void reorder(State state) {
+        synchronized (state) {
+            final long[] counts = state.counts;
+            state.mergeStripes();
+            // 在未发布的数组上排序 -- 该数组可能仍在被之前的读取者读取，因此先递增版本号使其读取失效
+            final int[] front = state.order;
+            final int[] order = front == state.order0 ? state.order1 : state.order0;
+            state.version++;
+            VarHandle.storeStoreFence();
+            System.arraycopy(front, 0, order, 0, order.length);
+            final double[] sortKeys = state.sortKeys;
+            for (int i = 0; i < order.length; i++) {
+                sortKeys[i] = expectedCost(counts, i);
+            }
+            // 插入排序：子节点数量通常较少，且顺序变化不大，接近线性；稳定排序可以避免相同期望耗时的子节点抖动
+            for (int i = 1; i < order.length; i++) {
+                int index = order[i];
+                double key = sortKeys[index];
+                int j = i - 1;
+                while (j >= 0 && sortKeys[order[j]] > key) {
+                    order[j + 1] = order[j];
+                    j--;
+                }
+                order[j + 1] = index;
+            }
+            state.order = order;
+            state.version++;
+        }
+    }
+
+    /** 单次成功的期望耗时 -- 成功率使用拉普拉斯平滑，避免未成功过的子节点期望耗时无穷大 */
+    private static double expectedCost(long[] counts, int index) {
+        final int base = index * SLOT_COUNT;
+        long runCount = counts[base + SLOT_RUN];
+        if (runCount == 0) {
+            return -1; // 未运行过的子节点优先，以获取统计数据
+        }
+        double avgCost = (double) counts[base + SLOT_COST] / runCount;
+        double successRate = (counts[base + SLOT_SUCCESS] + 1.0) / (runCount + 2.0);
+        return avgCost / successRate;
+    }
+
+    // region 统计信息
+
+    public int getChildCount() {
+        return state.childCount;
+    }
+
+    public long getRunCount(int index) {
+        return state.sum(index, SLOT_RUN);
+    }
+
+    public long getSuccessCount(int index) {
+        return state.sum(index, SLOT_SUCCESS);
+    }
+
+    public long getCostNanos(int index) {
+        return state.sum(index, SLOT_COST);
+    }
+
+    public int getReorderInterval() {
+        return reorderInterval;
+    }
+
+    @Override
+    public String toString() {
+        final State state = this.state;
+        long[] runCounts = new long[state.childCount];
+        long[] successCounts = new long[state.childCount];
+        int[] order = new int[state.childCount];
+        state.copyOrder(order);
+        for (int i = 0; i < state.childCount; i++) {
+            runCounts[i] = state.sum(i, SLOT_RUN);
+            successCounts[i] = state.sum(i, SLOT_SUCCESS);
+        }
+        return "ChildOrderStats{" +
+                "order=" + Arrays.toString(order) +
+                ", runCounts=" + Arrays.toString(runCounts) +
+                ", successCounts=" + Arrays.toString(successCounts) +
+                '}';
+    }
+
+    // endregion
+
+    /** 子节点数量对应的统计数据，数量变化时整体替换 */
+    private static final class State {
+
+        final int childCount;
+        /** 每个分段的计数：[运行次数, 成功次数, 耗时] * childCount + [记录次数] */
+        final AtomicLongArray[] stripes;
+        /** 交替使用的两个顺序数组，由State的锁保护 */
+        final int[] order0;
+        final int[] order1;
+        /** 当前发布的执行顺序，为order0或order1 */
+        volatile int[] order;
+        /** 写入顺序数组期间为奇数 -- 只在锁内修改 */
+        volatile int version;
+        /** 合并后的计数和排序用的键 -- 由State的锁保护，预分配以避免排序时分配内存 */
+        final long[] counts;
+        final double[] sortKeys;
+
+        State(int childCount) {
+            this.childCount = childCount;
+            this.stripes = new AtomicLongArray[STRIPE_COUNT];
+            for (int i = 0; i < STRIPE_COUNT; i++) {
+                stripes[i] = new AtomicLongArray(childCount * SLOT_COUNT + 1);
+            }
+            this.counts = new long[childCount * SLOT_COUNT];
+            this.sortKeys = new double[childCount];
+            this.order0 = new int[childCount];
+            this.order1 = new int[childCount];
+            for (int i = 0; i < childCount; i++) {
+                order0[i] = i;
+            }
+            this.order = order0;
+        }
+
+        /** 乐观读：版本号为奇数或读取期间发生变化时，数组可能正在被写入，加锁重新读取 */
+        void copyOrder(int[] dest) {
+            final int version = this.version;
+            System.arraycopy(order, 0, dest, 0, childCount);
+            VarHandle.acquireFence();
+            if ((version & 1) != 0 || version != this.version) {
+                synchronized (this) {
+                    System.arraycopy(order, 0, dest, 0, childCount);
+                }
+            }
+        }
+
+        void mergeStripes() {
+            Arrays.fill(counts, 0);
+            for (AtomicLongArray stripe : stripes) {
+                for (int i = 0; i < counts.length; i++) {
+                    counts[i] += stripe.get(i);
+                }
+            }
+        }
+
+        long sum(int index, int slot) {
+            Objects.checkIndex(index, childCount);
+            long sum = 0;
+            for (AtomicLongArray stripe : stripes) {
+                sum += stripe.get(index * SLOT_COUNT + slot);
+            }
+            return sum;
+        }
+    }
+}
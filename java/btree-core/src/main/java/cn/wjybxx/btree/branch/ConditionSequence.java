@@ -0,0 +1,75 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btree.branch;
+
+import cn.wjybxx.btree.BranchTask;
+import cn.wjybxx.btree.Task;
+
+import javax.annotation.Nonnull;
+import java.util.List;
+
+/**
+ * 条件序列 -- 多个条件节点的合取
+ * 1.子节点必须是条件节点（一帧内完成），在当前Task的上下文中按顺序测试，遇到失败的条件时以该条件的状态失败。
+ * 2.与由条件节点组成的{@link Sequence}等价，但子节点不通知父节点，也不经过运行子节点的模板方法，开销更小。
+ * 3.子节点不应该有guard，guard失败时子节点不会运行，其状态是无效的。
+ * 4.通常由{@link cn.wjybxx.btree.loader.TreeOptimizer}生成。
+ *
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+public class ConditionSequence<T> extends BranchTask<T> {
+
+    public ConditionSequence() {
+    }
+
+    public ConditionSequence(List<Task<T>> children) {
+        super(children);
+    }
+
+    @Override
+    protected void execute() {
+        final List<Task<T>> children = this.children;
+        for (int idx = 0, size = children.size(); idx < size; idx++) {
+            Task<T> condition = children.get(idx);
+            if (!template_checkGuard(condition)) {
+                setFailed(condition.getStatus());
+                return;
+            }
+        }
+        setSuccess();
+    }
+
+    @Override
+    protected void onChildRunning(Task<T> child) {
+
+    }
+
+    @Override
+    protected void onChildCompleted(Task<T> child) {
+
+    }
+
+    @Override
+    public boolean canHandleEvent(@Nonnull Object event) {
+        return false;
+    }
+
+    @Override
+    protected void onEventImpl(@Nonnull Object event) {
+
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btree.branch;
+
+import cn.wjybxx.btree.Task;
+import cn.wjybxx.btree.TaskSnapshotReader;
+import cn.wjybxx.btree.TaskSnapshotWriter;
+import cn.wjybxx.btree.branch.join.DynamicJoinWaitAll;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * 动态Join -- 为数据源中的每一项数据运行一次子树
+ * 1.子树通过{@link #subtreeName}从{@link cn.wjybxx.btree.TreeLoader}加载，加载器负责从原型拷贝实例。
+ * 2.最多同时运行{@link #maxConcurrency}个子树，每个并发槽位持有一个子树实例；子树完成后立即复用于下一项数据，
+ *   因此实例数和内存占用只与并发数相关，与数据量无关。
+ * 3.children就是槽位中的实例，在首次需要时创建；重启时复用，不会重新加载。
+ * 4.子节点完成时立即将结果通知给{@link #policy}，不保存每一项的结果。
+ * 5.子节点在当前帧完成时，槽位会在当前帧继续运行下一项数据（与Join在一帧内运行所有子节点的行为一致）。
+ * 6.子节点共享DynamicJoin的上下文（黑板、取消令牌），数据通过{@link DynamicJoinSource#bind}绑定。
+ * 7.数据源的迭代位置无法保存，因此运行中不支持快照 -- 写入或恢复运行中的DynamicJoin将抛出异常。
+ *
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+public class DynamicJoin<T> extends Parallel<T> {
+
+    /** 数据源 */
+    private DynamicJoinSource<T> source;
+    /** 子树的名字或guid */
+    private String subtreeName;
+    /** 最大并发数 */
+    private int maxConcurrency = 8;
+    /** 完成策略 */
+    private DynamicJoinPolicy<T> policy;
+
+    /** 数据的迭代器 */
+    private transient Iterator<?> iterator;
+    /** 数据源是否已耗尽 */
+    private transient boolean exhausted;
+    /** 槽位上正在处理的数据 */
+    private transient Object[] slotItems;
+    /** 运行中的子节点数 */
+    private transient int runningCount;
+    /** 已开始处理的数据数 */
+    private transient int startedCount;
+    /** 已完成的数据数 */
+    private transient int completedCount;
+    /** 成功完成的数据数 */
+    private transient int succeededCount;
+
+    @Override
+    public void resetForRestart() {
+        super.resetForRestart();
+        resetCounters();
+        if (policy != null) {
+            policy.resetForRestart();
+        }
+    }
+
+    @Override
+    protected void beforeEnter() {
+        if (policy == null) {
+            policy = DynamicJoinWaitAll.getInstance();
+        }
+        resetCounters();
+        policy.beforeEnter(this);
+    }
+
+    private void resetCounters() {
+        iterator = null;
+        exhausted = false;
+        runningCount = 0;
+        startedCount = 0;
+        completedCount = 0;
+        succeededCount = 0;
+    }
+
+    @Override
+    protected void enter(int reentryId) {
+        if (source == null) {
+            throw new IllegalStateException("source is null");
+        }
+        if (maxConcurrency < 1) {
+            throw new IllegalStateException("maxConcurrency must be greater than 0, maxConcurrency: " + maxConcurrency);
+        }
+        if (slotItems == null || slotItems.length != maxConcurrency) {
+            slotItems = new Object[maxConcurrency];
+        }
+        iterator = source.open(this);
+        exhausted = iterator == null || !iterator.hasNext();
+        policy.enter(this);
+    }
+
+    @Override
+    protected void execute() {
+        final int reentryId = getReentryId();
+        for (int slot = 0; slot < maxConcurrency; slot++) {
+            // 子节点在当前帧完成时，槽位继续处理下一项数据
+            while (true) {
+                Task<T> child = slot < children.size() ? children.get(slot) : null;
+                if (child == null || !child.isRunning()) {
+                    child = startNext(slot);
+                    if (child == null) {
+                        break;
+                    }
+                }
+                template_runChild(child);
+                if (checkCancel(reentryId)) { // 得出结果或被取消
+                    return;
+                }
+                if (child.isRunning()) {
+                    break;
+                }
+            }
+            if (exhausted && slot >= children.size()) {
+                break;
+            }
+        }
+        if (runningCount == 0) { // 数据全部处理完，但没得出结果
+            throw new IllegalStateException("numItems: %d, policy: %s".formatted(completedCount, policy));
+        }
+    }
+
+    /** @return 如果没有更多的数据则返回null */
+    private Task<T> startNext(int slot) {
+        if (exhausted) {
+            return null;
+        }
+        if (!iterator.hasNext()) {
+            exhausted = true;
+            return null;
+        }
+        Object item = iterator.next();
+        Task<T> child;
+        if (slot < children.size()) {
+            child = children.get(slot);
+        } else {
+            assert slot == children.size();
+            child = getTaskEntry().getTreeLoader().loadRootTask(subtreeName);
+            addChild(child);
+        }
+        slotItems[slot] = item;
+        startedCount++;
+        runningCount++;
+        markDirty();
+        source.bind(this, child, item);
+        return child;
+    }
+
+    @Override
+    protected void onChildCompleted(Task<T> child) {
+        markDirty();
+        int slot = indexChild(child);
+        Object item = slotItems[slot];
+        slotItems[slot] = null;
+        source.unbind(this, child, item);
+
+        runningCount--;
+        completedCount++;
+        if (child.isSucceeded()) {
+            succeededCount++;
+        }
+        if (!exhausted && !iterator.hasNext()) {
+            exhausted = true;
+        }
+        policy.onChildCompleted(this, child, item);
+    }
+
+    @Override
+    protected void exit() {
+        // 被停止的子节点不会通知，在这里解除绑定
+        final Object[] slotItems = this.slotItems;
+        for (int slot = 0; slot < children.size(); slot++) {
+            if (slotItems[slot] != null) {
+                source.unbind(this, children.get(slot), slotItems[slot]);
+            }
+        }
+        Arrays.fill(slotItems, null);
+        iterator = null;
+        runningCount = 0;
+    }
+
+    @Override
+    protected void writeSnapshot(TaskSnapshotWriter writer) {
+        if (isRunning()) {
+            throw new IllegalStateException("running DynamicJoin does not support snapshot, subtree: " + subtreeName);
+        }
+        super.writeSnapshot(writer);
+    }
+
+    @Override
+    protected void readSnapshot(TaskSnapshotReader reader) {
+        if (isRunning()) {
+            throw new IllegalStateException("running DynamicJoin does not support snapshot, subtree: " + subtreeName);
+        }
+        super.readSnapshot(reader);
+    }
+
+    @Override
+    protected void onEventImpl(@Nonnull Object event) {
+        policy.onEvent(this, event);
+    }
+
+    // region
+
+    /** 数据是否已全部处理完成 */
+    public boolean isAllItemCompleted() {
+        return exhausted && runningCount == 0;
+    }
+
+    @Override
+    public boolean isAllChildCompleted() {
+        return isAllItemCompleted();
+    }
+
+    /** 数据是否全部成功 */
+    public boolean isAllItemSucceeded() {
+        return isAllItemCompleted() && succeededCount == completedCount;
+    }
+
+    public int getRunningCount() {
+        return runningCount;
+    }
+
+    public int getStartedCount() {
+        return startedCount;
+    }
+
+    public int getCompletedCount() {
+        return completedCount;
+    }
+
+    public int getSucceededCount() {
+        return succeededCount;
+    }
+    // endregion
+
+    public DynamicJoinSource<T> getSource() {
+        return source;
+    }
+
+    public void setSource(DynamicJoinSource<T> source) {
+        this.source = source;
+    }
+
+    public String getSubtreeName() {
+        return subtreeName;
+    }
+
+    public void setSubtreeName(String subtreeName) {
+        this.subtreeName = subtreeName;
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public void setMaxConcurrency(int maxConcurrency) {
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    public DynamicJoinPolicy<T> getPolicy() {
+        return policy;
+    }
+
+    public void setPolicy(DynamicJoinPolicy<T> policy) {
+        this.policy = policy;
+    }
+}
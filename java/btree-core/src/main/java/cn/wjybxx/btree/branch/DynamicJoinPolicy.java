@@ -0,0 +1,54 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btree.branch;
+
+import cn.wjybxx.btree.Task;
+
+/**
+ * {@link DynamicJoin}的完成策略
+ * 1.结果是流式聚合的 -- 子节点完成后立即通知策略，之后子节点会被复用，不会保留。
+ * 2.不要在Policy上缓存DynamicJoin的child。
+ *
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+public interface DynamicJoinPolicy<T> {
+
+    /** 重置自身数据 */
+    void resetForRestart();
+
+    /** 启动前初始化 */
+    void beforeEnter(DynamicJoin<T> join);
+
+    /** 启动 -- 数据源已打开，没有数据时需要在这里结束 */
+    void enter(DynamicJoin<T> join);
+
+    /**
+     * DynamicJoin在调用该方法前更新了完成计数和成功计数
+     *
+     * @param child 进入完成状态的child
+     * @param item  child处理的数据
+     */
+    void onChildCompleted(DynamicJoin<T> join, Task<T> child, Object item);
+
+    /**
+     * DynamicJoin收到外部事件
+     *
+     * @param event 收到的事件
+     */
+    void onEvent(DynamicJoin<T> join, Object event);
+
+}
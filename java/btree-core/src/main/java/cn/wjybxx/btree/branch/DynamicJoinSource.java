@@ -0,0 +1,54 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btree.branch;
+
+import cn.wjybxx.btree.Task;
+
+import javax.annotation.Nullable;
+import java.util.Iterator;
+
+/**
+ * {@link DynamicJoin}的数据源
+ * 1.通常从黑板中读取一个集合，也可以是按需生成数据的迭代器 -- 迭代器是惰性读取的，不要求数据全部在内存中。
+ * 2.数据源是配置，不要在数据源上缓存运行时数据。
+ *
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+public interface DynamicJoinSource<T> {
+
+    /**
+     * 开始运行时获取数据
+     *
+     * @return 数据的迭代器，返回null表示没有数据
+     */
+    @Nullable
+    Iterator<?> open(DynamicJoin<T> join);
+
+    /**
+     * 将数据绑定到子节点，在子节点运行前调用
+     * 默认存储为子节点的controlData，子节点可通过{@link Task#getControlData()}读取；
+     * 如果子节点拥有独立的黑板，也可以写入黑板。
+     */
+    default void bind(DynamicJoin<T> join, Task<T> child, Object item) {
+        child.setControlData(item);
+    }
+
+    /** 子节点完成（或被停止）后解除绑定 */
+    default void unbind(DynamicJoin<T> join, Task<T> child, Object item) {
+        child.setControlData(null);
+    }
+}
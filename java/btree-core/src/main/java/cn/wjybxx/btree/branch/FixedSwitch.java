@@ -16,6 +16,7 @@
 package cn.wjybxx.btree.branch;
 
 import cn.wjybxx.btree.Task;
+import cn.wjybxx.btree.TaskSnapshotReader;
 
 /**
  * 展开的switch
@@ -39,6 +40,16 @@ public class FixedSwitch<T> extends Switch<T> {
     @Override
     protected void beforeEnter() {
         super.beforeEnter();
+        initChildren();
+    }
+
+    @Override
+    protected void readSnapshot(TaskSnapshotReader reader) {
+        super.readSnapshot(reader);
+        initChildren(); // 分支需要在恢复子节点之前展开
+    }
+
+    private void initChildren() {
         if (children.isEmpty()) {
             addChildIfNotNull(branch1);
             addChildIfNotNull(branch2);
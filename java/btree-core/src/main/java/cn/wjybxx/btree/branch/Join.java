@@ -15,16 +15,27 @@
  */
 package cn.wjybxx.btree.branch;
 
+import cn.wjybxx.btree.ChildCancelScope;
+import cn.wjybxx.btree.ParallelLeafTask;
 import cn.wjybxx.btree.Task;
+import cn.wjybxx.btree.TaskSnapshotReader;
+import cn.wjybxx.btree.TaskSnapshotWriter;
 import cn.wjybxx.btree.branch.join.JoinSequence;
+import cn.wjybxx.sequential.UniScheduledExecutor;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Join
  * 1.在得出结果之前不会重复执行已完成的任务。
- * 2.默认为子节点分配独立的取消令牌
+ * 2.默认为子节点分配独立的取消令牌 -- 令牌由{@link ChildCancelScope}分配，并在重启时复用
+ * 3.开启{@link #parallelCompute}时，本帧待执行的{@link ParallelLeafTask}子节点的计算将提交到ForkJoin线程池并行执行，
+ * 之后仍在心跳线程按子节点顺序执行，因此{@link JoinPolicy}不需要考虑线程安全问题。
  *
  * @author wjybxx
  * date - 2023/12/2
@@ -32,6 +43,8 @@ import java.util.List;
 public class Join<T> extends Parallel<T> {
 
     protected JoinPolicy<T> policy;
+    /** 是否并行计算{@link ParallelLeafTask}子节点 -- 适用于计算量大且彼此独立的子节点 */
+    protected boolean parallelCompute;
 
     /** 子节点的重入id -- 判断本轮是否需要执行 */
     protected transient int[] childPrevReentryIds;
@@ -39,6 +52,12 @@ public class Join<T> extends Parallel<T> {
     protected transient int completedCount;
     /** 成功完成的子节点 */
     protected transient int succeededCount;
+    /** 子节点的取消域 -- 首次运行时创建 */
+    private transient ChildCancelScope childCancelScope;
+    /** 并行计算使用的线程池 -- 为null时使用{@link ForkJoinPool#commonPool()} */
+    private transient ForkJoinPool forkJoinPool;
+    /** 本帧待计算的子节点 -- 避免每帧创建 */
+    private transient List<ParallelLeafTask<T>> computeList;
 
     @Override
     public void resetForRestart() {
@@ -71,13 +90,21 @@ public class Join<T> extends Parallel<T> {
         if (childPrevReentryIds == null || childPrevReentryIds.length != children.size()) {
             childPrevReentryIds = new int[children.size()];
         }
+        openChildCancelScope();
         for (int i = 0; i < children.size(); i++) {
             Task<T> child = children.get(i);
-            child.setCancelToken(cancelToken.newChild()); // child默认可读取取消
+            child.setCancelToken(childCancelScope.acquire()); // child默认可读取取消
             childPrevReentryIds[i] = child.getReentryId();
         }
     }
 
+    private void openChildCancelScope() {
+        if (childCancelScope == null) {
+            childCancelScope = new ChildCancelScope();
+        }
+        childCancelScope.open(cancelToken);
+    }
+
     @Override
     protected void execute() {
         final List<Task<T>> children = this.children;
@@ -86,6 +113,9 @@ public class Join<T> extends Parallel<T> {
         }
         final int[] childPrevReentryIds = this.childPrevReentryIds;
         final int reentryId = getReentryId();
+        if (parallelCompute && children.size() > 1) {
+            computeChildren(children, childPrevReentryIds);
+        }
         for (int i = 0; i < children.size(); i++) {
             final Task<T> child = children.get(i);
             final boolean started = child.isExited(childPrevReentryIds[i]);
@@ -102,19 +132,129 @@ public class Join<T> extends Parallel<T> {
         }
     }
 
+    /** 并行执行本帧待执行子节点的计算，全部完成后返回 */
+    private void computeChildren(List<Task<T>> children, int[] childPrevReentryIds) {
+        List<ParallelLeafTask<T>> computeList = this.computeList;
+        if (computeList == null) {
+            computeList = this.computeList = new ArrayList<>(children.size());
+        }
+        for (int i = 0; i < children.size(); i++) {
+            final Task<T> child = children.get(i);
+            if (!(child instanceof ParallelLeafTask<T> parallelTask)) {
+                continue;
+            }
+            final boolean started = child.isExited(childPrevReentryIds[i]);
+            if (started && child.isCompleted()) {
+                continue;
+            }
+            computeList.add(parallelTask);
+        }
+        try {
+            if (computeList.size() == 1) {
+                computeList.get(0).parallelCompute(this); // 单个任务不值得切换线程
+            } else if (computeList.size() > 1) {
+                ForkJoinPool pool = forkJoinPool == null ? ForkJoinPool.commonPool() : forkJoinPool;
+                pool.invoke(new ComputeAction<>(this, computeList, 0, computeList.size()));
+            }
+        } finally {
+            computeList.clear();
+        }
+    }
+
+    /** 二分拆分计算任务，以便空闲线程窃取 */
+    private static class ComputeAction<T> extends RecursiveAction {
+
+        final Task<T> context;
+        final List<ParallelLeafTask<T>> tasks;
+        final int from;
+        final int to;
+
+        ComputeAction(Task<T> context, List<ParallelLeafTask<T>> tasks, int from, int to) {
+            this.context = context;
+            this.tasks = tasks;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                tasks.get(from).parallelCompute(context);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new ComputeAction<>(context, tasks, from, mid),
+                    new ComputeAction<>(context, tasks, mid, to));
+        }
+    }
+
     @Override
     protected void onChildCompleted(Task<T> child) {
+        markDirty();
         completedCount++;
         if (child.isSucceeded()) {
             succeededCount++;
         }
-        cancelToken.unregister(child.getCancelToken()); // 删除分配的token
-        child.getCancelToken().reset();
+        childCancelScope.release(child.getCancelToken()); // 回收分配的token
         child.setCancelToken(null);
 
         policy.onChildCompleted(this, child);
     }
 
+    @Override
+    protected void exit() {
+        if (childCancelScope != null) {
+            childCancelScope.close();
+        }
+        super.exit();
+    }
+
+    @Override
+    protected void onMigrated(@Nullable UniScheduledExecutor executor, int frameDelta) {
+        super.onMigrated(executor, frameDelta);
+        if (childCancelScope != null) {
+            childCancelScope.setExecutor(executor);
+        }
+    }
+
+    @Override
+    protected void writeSnapshot(TaskSnapshotWriter writer) {
+        super.writeSnapshot(writer);
+        writer.writeInt(completedCount);
+        writer.writeInt(succeededCount);
+        writer.writeIntArray(childPrevReentryIds);
+    }
+
+    @Override
+    protected void readSnapshot(TaskSnapshotReader reader) {
+        super.readSnapshot(reader);
+        if (policy == null) {
+            policy = JoinSequence.getInstance();
+        }
+        completedCount = reader.readInt();
+        succeededCount = reader.readInt();
+        childPrevReentryIds = reader.readIntArray();
+    }
+
+    @Override
+    protected void onSnapshotRestored() {
+        super.onSnapshotRestored();
+        if (!isRunning()) {
+            return;
+        }
+        // 本轮未完成的子节点持有独立的取消令牌
+        final List<Task<T>> children = this.children;
+        openChildCancelScope();
+        for (int i = 0; i < children.size(); i++) {
+            final Task<T> child = children.get(i);
+            final boolean started = child.isExited(childPrevReentryIds[i]);
+            if (started && child.isCompleted()) {
+                continue;
+            }
+            child.setCancelToken(childCancelScope.acquire());
+        }
+    }
+
     @Override
     protected void onEventImpl(@Nonnull Object event) {
         policy.onEvent(this, event);
@@ -147,4 +287,20 @@ public class Join<T> extends Parallel<T> {
         this.policy = policy;
     }
 
+    public boolean isParallelCompute() {
+        return parallelCompute;
+    }
+
+    public void setParallelCompute(boolean parallelCompute) {
+        this.parallelCompute = parallelCompute;
+    }
+
+    public ForkJoinPool getForkJoinPool() {
+        return forkJoinPool;
+    }
+
+    public void setForkJoinPool(ForkJoinPool forkJoinPool) {
+        this.forkJoinPool = forkJoinPool;
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,241 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btree.branch;
+
+import cn.wjybxx.btree.Task;
+import cn.wjybxx.btree.loader.PrototypeShared;
+
+import java.util.Arrays;
+
+/**
+ * 按键分派的switch
+ * 1.{@link Switch}依次测试子节点的条件，分支较多时开销较大；该节点通过{@link #keySelector}读取一次键，然后查表选择分支。
+ * 2.{@link #keys}与children一一对应，keys[i]是第i个子节点的键；键不可以重复。
+ * 3.键比较密集时使用数组索引，否则使用开放寻址的哈希表。
+ * 4.分派表是不可变的，在原型上构建一次，拷贝得到的实例通过{@link PrototypeShared}共享原型的表；修改键、默认分支或子节点数量时重建。
+ * 5.选中的分支仍需要通过自身的条件，条件失败时尝试默认分支；没有可运行的分支时失败。
+ * 6.默认分支通过{@link #defaultIndex}指定，它也可以拥有自己的键。
+ *
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+public class KeyedSwitch<T> extends Switch<T> implements PrototypeShared {
+
+    /** 键的选择器 */
+    private SwitchKeySelector<T> keySelector;
+    /** 子节点对应的键 -- 不对外暴露，避免原地修改导致分派表过期 */
+    private int[] keys;
+    /** 默认分支的索引，-1表示没有默认分支 */
+    private int defaultIndex = -1;
+
+    /** 分派表，为null时表示需要构建 */
+    private transient DispatchTable table;
+
+    public KeyedSwitch() {
+    }
+
+    @Override
+    protected boolean selectChild() {
+        if (keySelector == null) {
+            throw new IllegalStateException("keySelector is null");
+        }
+        int index = getTable().indexOf(keySelector.selectKey(this));
+        if (index >= 0 && trySelect(index)) {
+            return true;
+        }
+        return defaultIndex >= 0 && defaultIndex != index && trySelect(defaultIndex);
+    }
+
+    private boolean trySelect(int index) {
+        Task<T> child = children.get(index);
+        if (!template_checkGuard(child.getGuard())) {
+            child.setGuardFailed(null); // 不接收通知
+            return false;
+        }
+        this.runningChild = child;
+        this.runningIndex = index;
+        markDirty();
+        return true;
+    }
+
+    @Override
+    public void shareFrom(Object prototype) {
+        KeyedSwitch<?> that = (KeyedSwitch<?>) prototype;
+        DispatchTable table = that.getSharedTable();
+        // 构建表失败时由副本在运行时构建，以便在运行时报告错误
+        this.table = (table != null && table.childCount == children.size()) ? table : null;
+    }
+
+    /** 原型可能在多个线程上同时被拷贝，因此加锁构建；表是不可变的，可以安全地共享 */
+    private synchronized DispatchTable getSharedTable() {
+        DispatchTable table = this.table;
+        if (table == null || table.childCount != children.size()) {
+            try {
+                table = this.table = DispatchTable.build(keys, defaultIndex, children.size());
+            } catch (IllegalStateException e) {
+                return null;
+            }
+        }
+        return table;
+    }
+
+    private DispatchTable getTable() {
+        DispatchTable table = this.table;
+        if (table == null || table.childCount != children.size()) {
+            table = this.table = DispatchTable.build(keys, defaultIndex, children.size());
+        }
+        return table;
+    }
+
+    /**
+     * 查询键对应的child索引
+     *
+     * @return 不存在时返回-1
+     */
+    public final int indexOfKey(int key) {
+        return getTable().indexOf(key);
+    }
+
+    /**
+     * 构建分派表
+     * 通常不需要手动调用，首次拷贝或首次运行时会自动构建；可以在加载时调用以提前检查配置。
+     */
+    public final void buildTable() {
+        table = DispatchTable.build(keys, defaultIndex, children.size());
+    }
+
+    /** 不可变的分派表 */
+    private static final class DispatchTable {
+
+        /** 构建表时的child数量，用于检测结构变化 */
+        final int childCount;
+        /** 哈希表的键，为null时表示使用数组索引 */
+        final int[] tableKeys;
+        /** 键对应的child索引，-1表示空 */
+        final int[] tableValues;
+        /** 数组索引时为最小的键，哈希表时为掩码 */
+        final int tableOffset;
+
+        DispatchTable(int childCount, int[] tableKeys, int[] tableValues, int tableOffset) {
+            this.childCount = childCount;
+            this.tableKeys = tableKeys;
+            this.tableValues = tableValues;
+            this.tableOffset = tableOffset;
+        }
+
+        int indexOf(int key) {
+            final int[] tableKeys = this.tableKeys;
+            final int[] tableValues = this.tableValues;
+            if (tableKeys == null) {
+                long slot = (long) key - tableOffset;
+                return (slot < 0 || slot >= tableValues.length) ? -1 : tableValues[(int) slot];
+            }
+            for (int slot = mix(key) & tableOffset; ; slot = (slot + 1) & tableOffset) {
+                int index = tableValues[slot];
+                if (index < 0 || tableKeys[slot] == key) {
+                    return index;
+                }
+            }
+        }
+
+        static DispatchTable build(int[] keys, int defaultIndex, int childCount) {
+            if (keys == null ? childCount != 0 : keys.length != childCount) {
+                throw new IllegalStateException("keys.length != childCount, keys: %s, childCount: %d"
+                        .formatted(Arrays.toString(keys), childCount));
+            }
+            if (defaultIndex >= childCount) {
+                throw new IllegalStateException("defaultIndex out of range, defaultIndex: %d, childCount: %d"
+                        .formatted(defaultIndex, childCount));
+            }
+            if (childCount == 0) {
+                return new DispatchTable(0, null, new int[0], 0);
+            }
+            int minKey = Integer.MAX_VALUE;
+            int maxKey = Integer.MIN_VALUE;
+            for (int key : keys) {
+                minKey = Math.min(minKey, key);
+                maxKey = Math.max(maxKey, key);
+            }
+            long span = (long) maxKey - minKey + 1;
+            if (span <= 4L * childCount + 8) {
+                int[] tableValues = new int[(int) span];
+                Arrays.fill(tableValues, -1);
+                for (int idx = 0; idx < childCount; idx++) {
+                    int slot = keys[idx] - minKey;
+                    if (tableValues[slot] >= 0) {
+                        throw new IllegalStateException("duplicate key: " + keys[idx]);
+                    }
+                    tableValues[slot] = idx;
+                }
+                return new DispatchTable(childCount, null, tableValues, minKey);
+            }
+            // 负载因子不超过0.5
+            int capacity = Integer.highestOneBit(childCount * 2 - 1) << 1;
+            int mask = capacity - 1;
+            int[] tableKeys = new int[capacity];
+            int[] tableValues = new int[capacity];
+            Arrays.fill(tableValues, -1);
+            for (int idx = 0; idx < childCount; idx++) {
+                int key = keys[idx];
+                int slot = mix(key) & mask;
+                while (tableValues[slot] >= 0) {
+                    if (tableKeys[slot] == key) {
+                        throw new IllegalStateException("duplicate key: " + key);
+                    }
+                    slot = (slot + 1) & mask;
+                }
+                tableKeys[slot] = key;
+                tableValues[slot] = idx;
+            }
+            return new DispatchTable(childCount, tableKeys, tableValues, mask);
+        }
+
+        private static int mix(int key) {
+            int h = key * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+
+    //
+
+    public SwitchKeySelector<T> getKeySelector() {
+        return keySelector;
+    }
+
+    public void setKeySelector(SwitchKeySelector<T> keySelector) {
+        this.keySelector = keySelector;
+    }
+
+    /** @return 键的副本，修改返回的数组不影响当前节点 */
+    public int[] getKeys() {
+        return keys == null ? null : keys.clone();
+    }
+
+    /** @param keys 键，当前节点保存其副本 */
+    public void setKeys(int[] keys) {
+        this.keys = keys == null ? null : keys.clone();
+        this.table = null;
+    }
+
+    public int getDefaultIndex() {
+        return defaultIndex;
+    }
+
+    public void setDefaultIndex(int defaultIndex) {
+        this.defaultIndex = defaultIndex;
+        this.table = null;
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btree.branch;
+
+import cn.wjybxx.btree.InputVersionSource;
+
+import java.util.List;
+
+/**
+ * 声明了输入的评分器
+ * 1.评分只依赖声明的黑板键和实体属性，输入的版本号未变化时复用缓存的评分 -- 可参考{@link cn.wjybxx.btree.ObservedCondition}。
+ * 2.两个列表都为null时表示未声明输入，每次都重新评分；声明为空列表则表示评分是常量。
+ *
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+public abstract class ObservedScorer<T> implements UtilityScorer<T> {
+
+    /** 依赖的黑板键 */
+    private List<String> blackboardKeys;
+    /** 依赖的实体属性 */
+    private List<String> entityKeys;
+    /** 评分的上界 */
+    private float maxScore = Float.POSITIVE_INFINITY;
+
+    public ObservedScorer() {
+    }
+
+    public ObservedScorer(List<String> blackboardKeys, List<String> entityKeys) {
+        this.blackboardKeys = blackboardKeys;
+        this.entityKeys = entityKeys;
+    }
+
+    @Override
+    public long getInputVersion(UtilitySelector<T> selector, int index) {
+        if (blackboardKeys == null && entityKeys == null) {
+            return -1;
+        }
+        long bbVersion = InputVersionSource.sumInputVersion(selector.getBlackboard(), blackboardKeys);
+        if (bbVersion < 0) {
+            return -1;
+        }
+        long entityVersion = InputVersionSource.sumInputVersion(selector.getEntity(), entityKeys);
+        if (entityVersion < 0) {
+            return -1;
+        }
+        return (bbVersion + entityVersion) & Long.MAX_VALUE;
+    }
+
+    @Override
+    public float getMaxScore() {
+        return maxScore;
+    }
+
+    public void setMaxScore(float maxScore) {
+        this.maxScore = maxScore;
+    }
+
+    public List<String> getBlackboardKeys() {
+        return blackboardKeys;
+    }
+
+    public void setBlackboardKeys(List<String> blackboardKeys) {
+        this.blackboardKeys = blackboardKeys;
+    }
+
+    public List<String> getEntityKeys() {
+        return entityKeys;
+    }
+
+    public void setEntityKeys(List<String> entityKeys) {
+        this.entityKeys = entityKeys;
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btree.branch;
+
+/**
+ * 重置失败退避的事件
+ * {@link Selector}收到该事件时，清除子节点的失败记录，使其可以立即重新运行；事件仍会转发给运行中的子节点。
+ *
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+public final class ResetBackoffEvent {
+
+    /** 重置所有子节点 */
+    public static final ResetBackoffEvent ALL = new ResetBackoffEvent(-1);
+
+    /** 子节点的索引，-1表示所有子节点 */
+    private final int childIndex;
+
+    public ResetBackoffEvent(int childIndex) {
+        this.childIndex = childIndex;
+    }
+
+    public int getChildIndex() {
+        return childIndex;
+    }
+}
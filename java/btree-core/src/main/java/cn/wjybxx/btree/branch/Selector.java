@@ -16,17 +16,49 @@
 
 package cn.wjybxx.btree.branch;
 
+import cn.wjybxx.btree.InputVersionSource;
 import cn.wjybxx.btree.Task;
+import cn.wjybxx.btree.TaskSnapshotReader;
+import cn.wjybxx.btree.TaskSnapshotWriter;
 import cn.wjybxx.btree.TaskStatus;
+import cn.wjybxx.btree.loader.PrototypeShared;
+import cn.wjybxx.sequential.UniScheduledExecutor;
 
+import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.Arrays;
 import java.util.List;
 
 /**
+ * 选择节点
+ * 1.开启{@link #adaptiveOrder}后，子节点将按照{@link ChildOrderStats}统计的耗时和成功率排序执行，统计数据由同一原型的所有副本共享。
+ * 2.{@link #failureBackoff}大于0时，失败的子节点在之后的若干帧内被跳过，连续失败时跳过的帧数翻倍（指数退避），成功后清除。
+ * 3.{@link #backoffResetKeys}中的黑板键变化，或收到{@link ResetBackoffEvent}时，提前结束退避。
+ * 退避记录不会因为{@link #resetForRestart()}清除，否则祖先节点的自动重置会使退避失效。
+ * 4.所有子节点都在退避中时，Selector直接失败。
+ *
  * @author wjybxx
  * date - 2023/11/26
  */
-public class Selector<T> extends SingleRunningChildBranch<T> {
+public class Selector<T> extends SingleRunningChildBranch<T> implements PrototypeShared {
+
+    /** 是否按照统计数据自适应调整子节点的执行顺序 -- 只有不关心子节点顺序时才可以开启 */
+    private boolean adaptiveOrder;
+    /** 失败后跳过的帧数，连续失败时翻倍；小于等于0表示不跳过 */
+    private int failureBackoff;
+    /** 跳过的最大帧数，小于等于0表示不限制 */
+    private int maxFailureBackoff;
+    /** 退避依赖的黑板键 -- 任一键变化时结束所有子节点的退避；黑板需要实现{@link InputVersionSource} */
+    private List<String> backoffResetKeys;
+
+    /** 自适应顺序的统计数据 -- 拷贝时引用原型的统计数据，否则首次使用时创建 */
+    private transient ChildOrderStats orderStats;
+    /** 子节点退避结束的帧号（不含） */
+    private transient int[] backoffUntilFrames;
+    /** 子节点连续失败的次数 */
+    private transient int[] failStreaks;
+    /** 上次检查时退避依赖的黑板键的版本号 */
+    private transient long backoffVersion;
 
     public Selector() {
     }
@@ -39,6 +71,25 @@ public class Selector<T> extends SingleRunningChildBranch<T> {
         super(first, second);
     }
 
+    @Override
+    protected void beforeEnter() {
+        super.beforeEnter();
+        if (adaptiveOrder) {
+            beginAdaptiveOrder(getOrderStats());
+        }
+        if (failureBackoff > 0) {
+            checkBackoffResetKeys();
+        }
+    }
+
+    @Override
+    protected void enter(int reentryId) {
+        super.enter(reentryId);
+        if (failureBackoff > 0 && !children.isEmpty() && !hasNextChild()) {
+            setFailed(TaskStatus.ERROR); // 所有子节点都在退避中
+        }
+    }
+
     @Override
     protected void onChildCompleted(Task<T> child) {
         runningChild = null;
@@ -46,12 +97,183 @@ public class Selector<T> extends SingleRunningChildBranch<T> {
             setCancelled();
             return;
         }
+        recordChildResult(child);
+        if (failureBackoff > 0) {
+            recordBackoff(runningIndex, child.isSucceeded());
+        }
         if (child.isSucceeded()) {
             setSuccess();
-        } else if (isAllChildCompleted()) {
+        } else if (failureBackoff > 0 ? !hasNextChild() : isAllChildCompleted()) {
             setFailed(TaskStatus.ERROR);
         } else if (!isExecuting()) {
             template_execute();
         }
     }
-}
\ No newline at end of file
+
+    @Override
+    public boolean canHandleEvent(@Nonnull Object event) {
+        return event instanceof ResetBackoffEvent || super.canHandleEvent(event);
+    }
+
+    @Override
+    protected void onEventImpl(@Nonnull Object event) {
+        if (event instanceof ResetBackoffEvent resetEvent) {
+            resetFailureBackoff(resetEvent.getChildIndex());
+        }
+        super.onEventImpl(event);
+    }
+
+    @Override
+    protected void onMigrated(@Nullable UniScheduledExecutor executor, int frameDelta) {
+        super.onMigrated(executor, frameDelta);
+        if (backoffUntilFrames != null) {
+            for (int i = 0; i < backoffUntilFrames.length; i++) {
+                if (backoffUntilFrames[i] != 0) {
+                    backoffUntilFrames[i] += frameDelta;
+                }
+            }
+        }
+    }
+
+    @Override
+    protected void writeSnapshot(TaskSnapshotWriter writer) {
+        super.writeSnapshot(writer);
+        if (adaptiveOrder) {
+            writeChildOrder(writer);
+        }
+        if (failureBackoff > 0) {
+            writer.writeIntArray(backoffUntilFrames);
+            writer.writeIntArray(failStreaks);
+            writer.writeLong(backoffVersion);
+        }
+    }
+
+    @Override
+    protected void readSnapshot(TaskSnapshotReader reader) {
+        super.readSnapshot(reader);
+        if (adaptiveOrder) {
+            readChildOrder(reader, getOrderStats());
+        }
+        if (failureBackoff > 0) {
+            backoffUntilFrames = reader.readIntArray();
+            failStreaks = reader.readIntArray();
+            backoffVersion = reader.readLong();
+        }
+    }
+
+    // region 失败退避
+
+    @Override
+    protected boolean isChildSkipped(int index) {
+        final int[] backoffUntilFrames = this.backoffUntilFrames;
+        return failureBackoff > 0 && backoffUntilFrames != null && index < backoffUntilFrames.length
+                && getCurFrame() < backoffUntilFrames[index];
+    }
+
+    private void recordBackoff(int index, boolean succeeded) {
+        final int childCount = children.size();
+        if (backoffUntilFrames == null || backoffUntilFrames.length != childCount) {
+            backoffUntilFrames = new int[childCount];
+            failStreaks = new int[childCount];
+        }
+        if (succeeded) {
+            backoffUntilFrames[index] = 0;
+            failStreaks[index] = 0;
+            return;
+        }
+        int streak = ++failStreaks[index];
+        long frames = (long) failureBackoff << Math.min(streak - 1, 30);
+        if (maxFailureBackoff > 0) {
+            frames = Math.min(frames, maxFailureBackoff);
+        }
+        frames = Math.min(frames, Integer.MAX_VALUE / 2);
+        backoffUntilFrames[index] = getCurFrame() + 1 + (int) frames;
+    }
+
+    /** 检查退避依赖的黑板键，变化时结束所有子节点的退避 */
+    private void checkBackoffResetKeys() {
+        if (backoffResetKeys == null || backoffResetKeys.isEmpty()) {
+            return;
+        }
+        long version = InputVersionSource.sumInputVersion(getBlackboard(), backoffResetKeys);
+        if (version >= 0 && version != backoffVersion) {
+            backoffVersion = version;
+            resetFailureBackoff(-1);
+        }
+    }
+
+    /**
+     * 清除子节点的失败记录，使其可以立即重新运行
+     *
+     * @param index 子节点的索引，-1表示所有子节点
+     */
+    public final void resetFailureBackoff(int index) {
+        if (backoffUntilFrames == null) {
+            return;
+        }
+        if (index < 0) {
+            Arrays.fill(backoffUntilFrames, 0);
+            Arrays.fill(failStreaks, 0);
+        } else if (index < backoffUntilFrames.length) {
+            backoffUntilFrames[index] = 0;
+            failStreaks[index] = 0;
+        }
+    }
+
+    /** 子节点是否在退避中 */
+    public final boolean isBackingOff(int index) {
+        return isChildSkipped(index);
+    }
+
+    // endregion
+
+    @Override
+    public void shareFrom(Object prototype) {
+        orderStats = adaptiveOrder ? ((Selector<?>) prototype).getSharedOrderStats() : null;
+    }
+
+    private ChildOrderStats getOrderStats() {
+        ChildOrderStats orderStats = this.orderStats;
+        return orderStats != null ? orderStats : getSharedOrderStats();
+    }
+
+    /** 原型可能在多个线程上同时被拷贝，因此加锁创建 */
+    private synchronized ChildOrderStats getSharedOrderStats() {
+        if (orderStats == null) {
+            orderStats = new ChildOrderStats();
+        }
+        return orderStats;
+    }
+
+    public boolean isAdaptiveOrder() {
+        return adaptiveOrder;
+    }
+
+    public void setAdaptiveOrder(boolean adaptiveOrder) {
+        this.adaptiveOrder = adaptiveOrder;
+    }
+
+    public int getFailureBackoff() {
+        return failureBackoff;
+    }
+
+    public void setFailureBackoff(int failureBackoff) {
+        this.failureBackoff = failureBackoff;
+    }
+
+    public int getMaxFailureBackoff() {
+        return maxFailureBackoff;
+    }
+
+    public void setMaxFailureBackoff(int maxFailureBackoff) {
+        this.maxFailureBackoff = maxFailureBackoff;
+    }
+
+    public List<String> getBackoffResetKeys() {
+        return backoffResetKeys;
+    }
+
+    public void setBackoffResetKeys(List<String> backoffResetKeys) {
+        this.backoffResetKeys = backoffResetKeys;
+    }
+}
@@ -16,8 +16,11 @@
 package cn.wjybxx.btree.branch;
 
 import cn.wjybxx.btree.Task;
+import cn.wjybxx.btree.TaskSnapshotReader;
+import cn.wjybxx.btree.TaskSnapshotWriter;
 import cn.wjybxx.btree.TaskStatus;
 import cn.wjybxx.btree.leaf.Success;
+import cn.wjybxx.btree.loader.PrototypeShared;
 
 import javax.annotation.Nullable;
 import java.util.List;
@@ -28,11 +31,12 @@ import java.util.List;
  * 如果{@link #required}等于1，则等同于{@link Selector}；
  * 如果{@link #required}等于{@code children.size}，则在所有child成功之后成功 -- 默认不会提前失败。
  * 如果{@link #required}大于{@code children.size}，则在所有child运行完成之后失败 -- 默认不会提前失败。
+ * 开启{@link #adaptiveOrder}后，子节点将按照{@link ChildOrderStats}统计的耗时和成功率排序执行，统计数据由同一原型的所有副本共享。
  *
  * @author wjybxx
  * date - 2023/11/26
  */
-public class SelectorN<T> extends SingleRunningChildBranch<T> {
+public class SelectorN<T> extends SingleRunningChildBranch<T> implements PrototypeShared {
 
     /** 需要达成的次数 */
     private int required = 1;
@@ -40,6 +44,10 @@ public class SelectorN<T> extends SingleRunningChildBranch<T> {
     private boolean failFast;
     /** 当前计数 */
     private transient int count;
+    /** 是否按照统计数据自适应调整子节点的执行顺序 -- 只有不关心子节点顺序时才可以开启 */
+    private boolean adaptiveOrder;
+    /** 自适应顺序的统计数据 -- 拷贝时引用原型的统计数据，否则首次使用时创建 */
+    private transient ChildOrderStats orderStats;
 
     public SelectorN() {
     }
@@ -62,6 +70,9 @@ public class SelectorN<T> extends SingleRunningChildBranch<T> {
     protected void beforeEnter() {
         super.beforeEnter();
         count = 0;
+        if (adaptiveOrder) {
+            beginAdaptiveOrder(getOrderStats());
+        }
     }
 
     @Override
@@ -83,6 +94,8 @@ public class SelectorN<T> extends SingleRunningChildBranch<T> {
             setCancelled();
             return;
         }
+        recordChildResult(child);
+        markDirty();
         if (child.isSucceeded() && ++count >= required) {
             setSuccess();
         } else if (isAllChildCompleted() || checkFailFast()) {
@@ -92,6 +105,42 @@ public class SelectorN<T> extends SingleRunningChildBranch<T> {
         }
     }
 
+    @Override
+    protected void writeSnapshot(TaskSnapshotWriter writer) {
+        super.writeSnapshot(writer);
+        writer.writeInt(count);
+        if (adaptiveOrder) {
+            writeChildOrder(writer);
+        }
+    }
+
+    @Override
+    protected void readSnapshot(TaskSnapshotReader reader) {
+        super.readSnapshot(reader);
+        count = reader.readInt();
+        if (adaptiveOrder) {
+            readChildOrder(reader, getOrderStats());
+        }
+    }
+
+    @Override
+    public void shareFrom(Object prototype) {
+        orderStats = adaptiveOrder ? ((SelectorN<?>) prototype).getSharedOrderStats() : null;
+    }
+
+    private ChildOrderStats getOrderStats() {
+        ChildOrderStats orderStats = this.orderStats;
+        return orderStats != null ? orderStats : getSharedOrderStats();
+    }
+
+    /** 原型可能在多个线程上同时被拷贝，因此加锁创建 */
+    private synchronized ChildOrderStats getSharedOrderStats() {
+        if (orderStats == null) {
+            orderStats = new ChildOrderStats();
+        }
+        return orderStats;
+    }
+
     private boolean checkFailFast() {
         return failFast && (children.size() - getCompletedCount() < required - count);
     }
@@ -111,4 +160,12 @@ public class SelectorN<T> extends SingleRunningChildBranch<T> {
     public void setFailFast(boolean failFast) {
         this.failFast = failFast;
     }
+
+    public boolean isAdaptiveOrder() {
+        return adaptiveOrder;
+    }
+
+    public void setAdaptiveOrder(boolean adaptiveOrder) {
+        this.adaptiveOrder = adaptiveOrder;
+    }
 }
@@ -16,21 +16,42 @@
 package cn.wjybxx.btree.branch;
 
 import cn.wjybxx.btree.Task;
+import cn.wjybxx.btree.TaskEntry;
+import cn.wjybxx.btree.TaskSnapshotReader;
+import cn.wjybxx.btree.TaskSnapshotWriter;
+import cn.wjybxx.sequential.UniScheduledExecutor;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
 import java.util.List;
+import java.util.random.RandomGenerator;
 
 /**
  * 服务并发节点
  * 1.其中第一个任务为主要任务，其余任务为后台服务。
  * 2.每次所有任务都会执行一次，但总是根据第一个任务执行结果返回结果。
  * 3.外部事件将派发给主要任务。
+ * 4.可以通过{@link #serviceIntervals}指定服务的运行间隔（帧），未到期的服务不会运行；未指定时每帧运行所有服务。
+ * 5.{@link #jitterPhase}为true时，服务的首次运行延迟一个随机的相位，以避免大量实体的服务在同一帧运行。
+ * 6.收到{@link ServiceTriggerEvent}时，指定的服务在下一次心跳时运行，之后重新按照间隔运行。
+ * 7.运行中（跨帧）的服务也只在到期时执行。
  *
  * @author wjybxx
  * date - 2023/11/26
  */
 public class ServiceParallel<T> extends Parallel<T> {
 
+    /** 服务的运行间隔（帧），与服务一一对应（不含主要任务）；小于等于1表示每帧运行 */
+    private int[] serviceIntervals;
+    /** 是否随机化服务的相位 -- 随机数来自{@link TaskEntry#getRandom()} */
+    private boolean jitterPhase = true;
+
+    /** 服务下次运行的帧号 */
+    private transient int[] nextRunFrames;
+    /** 最近的服务到期帧号 -- 未到期时不遍历服务 */
+    private transient int nextDueFrame;
+
     public ServiceParallel() {
     }
 
@@ -38,15 +59,27 @@ public class ServiceParallel<T> extends Parallel<T> {
         super(children);
     }
 
+    @Override
+    protected void enter(int reentryId) {
+        super.enter(reentryId);
+        if (serviceIntervals != null) {
+            initSchedule();
+        }
+    }
+
     @Override
     protected void execute() {
         final List<Task<T>> children = this.children;
         final Task<T> mainTask = children.get(0);
         template_runChild(mainTask);
 
-        for (int idx = 1; idx < children.size(); idx++) {
-            Task<T> child = children.get(idx);
-            template_runHook(child);
+        if (serviceIntervals == null) {
+            for (int idx = 1; idx < children.size(); idx++) {
+                Task<T> child = children.get(idx);
+                template_runHook(child);
+            }
+        } else if (getCurFrame() >= nextDueFrame) {
+            runDueServices();
         }
 
         if (mainTask.isCompleted()) {
@@ -64,6 +97,128 @@ public class ServiceParallel<T> extends Parallel<T> {
 
     @Override
     protected void onEventImpl(@Nonnull Object event) {
+        if (event instanceof ServiceTriggerEvent triggerEvent && nextRunFrames != null) {
+            trigger(triggerEvent.getServiceIndex());
+        }
         children.get(0).onEvent(event);
     }
+
+    @Override
+    protected void onMigrated(@Nullable UniScheduledExecutor executor, int frameDelta) {
+        super.onMigrated(executor, frameDelta);
+        if (nextRunFrames != null) {
+            for (int i = 0; i < nextRunFrames.length; i++) {
+                nextRunFrames[i] += frameDelta;
+            }
+            nextDueFrame += frameDelta;
+        }
+    }
+
+    @Override
+    protected void writeSnapshot(TaskSnapshotWriter writer) {
+        super.writeSnapshot(writer);
+        if (serviceIntervals != null) {
+            writer.writeIntArray(nextRunFrames);
+            writer.writeInt(nextDueFrame);
+        }
+    }
+
+    @Override
+    protected void readSnapshot(TaskSnapshotReader reader) {
+        super.readSnapshot(reader);
+        if (serviceIntervals != null) {
+            nextRunFrames = reader.readIntArray();
+            nextDueFrame = reader.readInt();
+        }
+    }
+
+    // region 调度
+
+    /** 初始化服务的下次运行帧号 */
+    private void initSchedule() {
+        final int serviceCount = children.size() - 1;
+        if (serviceIntervals.length != serviceCount) {
+            throw new IllegalStateException("serviceIntervals.length != serviceCount, serviceIntervals: %s, serviceCount: %d"
+                    .formatted(Arrays.toString(serviceIntervals), serviceCount));
+        }
+        if (nextRunFrames == null || nextRunFrames.length != serviceCount) {
+            nextRunFrames = new int[serviceCount];
+        }
+        final int curFrame = getCurFrame();
+        final RandomGenerator random = jitterPhase ? getTaskEntry().getRandom() : null;
+        int minNext = Integer.MAX_VALUE;
+        for (int i = 0; i < serviceCount; i++) {
+            int interval = serviceIntervals[i];
+            int phase = (random != null && interval > 1) ? random.nextInt(interval) : 0;
+            nextRunFrames[i] = curFrame + phase;
+            minNext = Math.min(minNext, nextRunFrames[i]);
+        }
+        nextDueFrame = minNext;
+    }
+
+    private void runDueServices() {
+        final List<Task<T>> children = this.children;
+        if (nextRunFrames.length != children.size() - 1) { // 结构变化
+            initSchedule();
+        }
+        final int[] nextRunFrames = this.nextRunFrames;
+        final int curFrame = getCurFrame();
+        int minNext = Integer.MAX_VALUE;
+        for (int i = 0; i < nextRunFrames.length; i++) {
+            if (nextRunFrames[i] <= curFrame) {
+                template_runHook(children.get(i + 1));
+                nextRunFrames[i] = curFrame + Math.max(1, serviceIntervals[i]);
+            }
+            minNext = Math.min(minNext, nextRunFrames[i]);
+        }
+        nextDueFrame = minNext;
+    }
+
+    /**
+     * 使服务在下一次心跳时运行
+     *
+     * @param serviceIndex 服务的索引（不含主要任务），-1表示所有服务
+     */
+    public final void trigger(int serviceIndex) {
+        final int[] nextRunFrames = this.nextRunFrames;
+        if (nextRunFrames == null) {
+            return;
+        }
+        final int curFrame = getCurFrame(); // 下一次心跳的帧号一定大于当前帧号
+        if (serviceIndex < 0) {
+            Arrays.fill(nextRunFrames, curFrame);
+        } else if (serviceIndex < nextRunFrames.length) {
+            nextRunFrames[serviceIndex] = curFrame;
+        } else {
+            return;
+        }
+        nextDueFrame = curFrame;
+    }
+
+    /**
+     * 服务下次运行的帧号
+     *
+     * @param serviceIndex 服务的索引（不含主要任务）
+     */
+    public final int getNextRunFrame(int serviceIndex) {
+        return nextRunFrames == null ? -1 : nextRunFrames[serviceIndex];
+    }
+
+    // endregion
+
+    public int[] getServiceIntervals() {
+        return serviceIntervals;
+    }
+
+    public void setServiceIntervals(int[] serviceIntervals) {
+        this.serviceIntervals = serviceIntervals;
+    }
+
+    public boolean isJitterPhase() {
+        return jitterPhase;
+    }
+
+    public void setJitterPhase(boolean jitterPhase) {
+        this.jitterPhase = jitterPhase;
+    }
 }
\ No newline at end of file
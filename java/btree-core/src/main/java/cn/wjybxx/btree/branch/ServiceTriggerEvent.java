@@ -0,0 +1,40 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btree.branch;
+
+/**
+ * 触发服务的事件
+ * {@link ServiceParallel}收到该事件时，指定的服务将在下一次心跳时运行，而不必等待间隔；事件仍会转发给主要任务。
+ *
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+public final class ServiceTriggerEvent {
+
+    /** 触发所有服务 */
+    public static final ServiceTriggerEvent ALL = new ServiceTriggerEvent(-1);
+
+    /** 服务的索引（从0开始，不含主要任务），-1表示所有服务 */
+    private final int serviceIndex;
+
+    public ServiceTriggerEvent(int serviceIndex) {
+        this.serviceIndex = serviceIndex;
+    }
+
+    public int getServiceIndex() {
+        return serviceIndex;
+    }
+}
@@ -17,6 +17,8 @@ package cn.wjybxx.btree.branch;
 
 import cn.wjybxx.btree.BranchTask;
 import cn.wjybxx.btree.Task;
+import cn.wjybxx.btree.TaskSnapshotReader;
+import cn.wjybxx.btree.TaskSnapshotWriter;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -26,6 +28,10 @@ import java.util.List;
  * 非并行分支节点抽象(最多只有一个运行中的子节点)
  * 如果{@link #execute()}方法是有循环体的，那么一定要注意：
  * 只有循环的尾部运行child才是安全的，如果在运行child后还读写其它数据，可能导致bug(小心递归)。
+ * <p>
+ * 自适应顺序：子类可以在{@link #beforeEnter()}中调用{@link #beginAdaptiveOrder(ChildOrderStats)}，
+ * 之后子节点将按照统计数据给出的顺序执行，{@link #runningIndex}仍然是子节点的真实索引。
+ * 只有不关心子节点顺序的节点才可以开启，例如：查找任意可执行行为的Selector。
  *
  * @author wjybxx
  * date - 2023/11/26
@@ -37,6 +43,17 @@ public abstract class SingleRunningChildBranch<T> extends BranchTask<T> {
     /** 运行中的子节点索引 */
     protected transient int runningIndex = -1;
 
+    /** 自适应顺序的统计数据，为null时按照索引顺序执行 */
+    private transient ChildOrderStats orderStats;
+    /** 本轮的执行顺序 -- 开始时从统计数据拷贝，运行期间不变 */
+    private transient int[] childOrder;
+    /** 自适应顺序下已开始执行的子节点数 */
+    private transient int startedCount;
+    /** 运行中的子节点的累计耗时 */
+    private transient long runningCost;
+    /** 子节点开始执行的时间，0表示不在执行中 */
+    private transient long runStartNanos;
+
     public SingleRunningChildBranch() {
     }
 
@@ -57,12 +74,12 @@ public abstract class SingleRunningChildBranch<T> extends BranchTask<T> {
 
     /** 已完成的子节点数量 */
     public int getCompletedCount() {
-        return runningIndex + 1;
+        return orderStats != null ? startedCount : runningIndex + 1;
     }
 
     @Override
     public boolean isAllChildCompleted() {
-        return runningIndex + 1 >= children.size();
+        return getCompletedCount() >= children.size();
     }
 
     // endregion
@@ -73,6 +90,8 @@ public abstract class SingleRunningChildBranch<T> extends BranchTask<T> {
         super.resetForRestart();
         runningChild = null;
         runningIndex = -1;
+        orderStats = null;
+        startedCount = 0;
     }
 
     @Override
@@ -80,6 +99,10 @@ public abstract class SingleRunningChildBranch<T> extends BranchTask<T> {
         // 这里不调用super是安全的
         runningChild = null;
         runningIndex = -1;
+        orderStats = null;
+        if (isPrefetchSubtree()) {
+            prefetchSubtrees();
+        }
     }
 
     @Override
@@ -88,6 +111,28 @@ public abstract class SingleRunningChildBranch<T> extends BranchTask<T> {
         runningChild = null;
     }
 
+    @Override
+    protected void writeSnapshot(TaskSnapshotWriter writer) {
+        super.writeSnapshot(writer);
+        writer.writeInt(runningIndex);
+    }
+
+    @Override
+    protected void readSnapshot(TaskSnapshotReader reader) {
+        super.readSnapshot(reader);
+        runningIndex = reader.readInt();
+    }
+
+    @Override
+    protected void onSnapshotRestored() {
+        super.onSnapshotRestored();
+        if (runningIndex >= 0 && runningIndex < children.size() && children.get(runningIndex).isRunning()) {
+            runningChild = children.get(runningIndex);
+        } else {
+            runningChild = null;
+        }
+    }
+
     @Override
     protected void stopRunningChildren() {
         Task.stop(runningChild);
@@ -108,7 +153,11 @@ public abstract class SingleRunningChildBranch<T> extends BranchTask<T> {
             if (runningChild == null) {
                 this.runningChild = runningChild = nextChild();
             }
-            template_runChild(runningChild);
+            if (orderStats != null) {
+                runChildTimed(runningChild);
+            } else {
+                template_runChild(runningChild);
+            }
             if (checkCancel(reentryId)) { // 得出结果或被取消
                 return;
             }
@@ -121,15 +170,138 @@ public abstract class SingleRunningChildBranch<T> extends BranchTask<T> {
     }
 
     protected Task<T> nextChild() {
+        if (orderStats != null) {
+            final int[] childOrder = this.childOrder;
+            while (startedCount < childOrder.length) {
+                int index = childOrder[startedCount++];
+                if (isChildSkipped(index)) {
+                    continue;
+                }
+                runningIndex = index;
+                runningCost = 0;
+                markDirty();
+                return children.get(index);
+            }
+            throw new IllegalStateException(illegalStateMsg());
+        }
         // 避免状态错误的情况下修改了index
-        int nextIndex = runningIndex + 1;
-        if (nextIndex < children.size()) {
+        for (int nextIndex = runningIndex + 1; nextIndex < children.size(); nextIndex++) {
+            if (isChildSkipped(nextIndex)) {
+                continue;
+            }
             runningIndex = nextIndex;
+            markDirty();
             return children.get(nextIndex);
         }
         throw new IllegalStateException(illegalStateMsg());
     }
 
+    /**
+     * 是否跳过给定的子节点
+     * 1.被跳过的子节点不会运行，也不会通知完成，但计入{@link #getCompletedCount()}。
+     * 2.子类重写该方法后，应当使用{@link #hasNextChild()}判断是否还有可运行的子节点。
+     *
+     * @param index 子节点的索引
+     */
+    protected boolean isChildSkipped(int index) {
+        return false;
+    }
+
+    /** 是否还有未运行且未被跳过的子节点 */
+    protected final boolean hasNextChild() {
+        if (orderStats != null) {
+            for (int i = startedCount; i < childOrder.length; i++) {
+                if (!isChildSkipped(childOrder[i])) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        for (int i = runningIndex + 1; i < children.size(); i++) {
+            if (!isChildSkipped(i)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void runChildTimed(Task<T> child) {
+        runStartNanos = System.nanoTime();
+        template_runChild(child);
+        if (runStartNanos != 0) { // 子节点未完成
+            runningCost += System.nanoTime() - runStartNanos;
+            runStartNanos = 0;
+        }
+    }
+
+    // region 自适应顺序
+
+    /**
+     * 开启自适应顺序 -- 子类在{@link #beforeEnter()}中调用
+     *
+     * @param stats 统计数据，通常按原型共享
+     */
+    protected final void beginAdaptiveOrder(ChildOrderStats stats) {
+        final int childCount = children.size();
+        stats.ensureChildCount(childCount);
+        if (childOrder == null || childOrder.length != childCount) {
+            childOrder = new int[childCount];
+        }
+        stats.copyOrder(childOrder);
+        orderStats = stats;
+        startedCount = 0;
+        runningCost = 0;
+        runStartNanos = 0;
+    }
+
+    /** 是否开启了自适应顺序 */
+    public final boolean isAdaptiveOrderActive() {
+        return orderStats != null;
+    }
+
+    /**
+     * 记录子节点的执行结果 -- 子类在子节点正常完成时调用，被取消的子节点不应该记录
+     */
+    protected final void recordChildResult(Task<T> child) {
+        if (orderStats == null) {
+            return;
+        }
+        long cost = runningCost;
+        if (runStartNanos != 0) {
+            cost += System.nanoTime() - runStartNanos;
+            runStartNanos = 0;
+        }
+        runningCost = 0;
+        orderStats.record(runningIndex, child.isSucceeded(), cost);
+    }
+
+    /** 写入本轮的执行顺序，需要与{@link #readChildOrder(TaskSnapshotReader, ChildOrderStats)}配对 */
+    protected final void writeChildOrder(TaskSnapshotWriter writer) {
+        writer.writeInt(startedCount);
+        writer.writeIntArray(orderStats != null ? childOrder : null);
+    }
+
+    /**
+     * 读取本轮的执行顺序
+     *
+     * @param stats 统计数据，快照中有执行顺序时使用
+     */
+    protected final void readChildOrder(TaskSnapshotReader reader, ChildOrderStats stats) {
+        startedCount = reader.readInt();
+        int[] order = reader.readIntArray();
+        if (order != null) {
+            stats.ensureChildCount(order.length);
+            childOrder = order;
+            orderStats = stats;
+        } else {
+            orderStats = null;
+        }
+        runningCost = 0;
+        runStartNanos = 0;
+    }
+
+    // endregion
+
     protected final String illegalStateMsg() {
         return "numChildren: %d, currentIndex: %d".formatted(children.size(), runningIndex);
     }
@@ -35,7 +35,12 @@ public class Switch<T> extends SingleRunningChildBranch<T> {
         template_runChildDirectly(runningChild);
     }
 
-    private boolean selectChild() {
+    /**
+     * 选择要运行的分支，选中时需要设置{@link #runningChild}和{@link #runningIndex}
+     *
+     * @return 如果没有可运行的分支则返回false
+     */
+    protected boolean selectChild() {
         for (int idx = 0; idx < children.size(); idx++) {
             Task<T> child = children.get(idx);
             if (!template_checkGuard(child.getGuard())) {
@@ -44,6 +49,7 @@ public class Switch<T> extends SingleRunningChildBranch<T> {
             }
             this.runningChild = child;
             this.runningIndex = idx;
+            markDirty();
             return true;
         }
         return false;
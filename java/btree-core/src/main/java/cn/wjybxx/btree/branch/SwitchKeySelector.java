@@ -0,0 +1,35 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btree.branch;
+
+/**
+ * {@link KeyedSwitch}的键选择器
+ * 1.通常从黑板中读取一个枚举或整数，枚举可以返回ordinal或自定义的编号。
+ * 2.选择器是配置，不要在选择器上缓存运行时数据 -- 同一个选择器可能被多棵树共享。
+ *
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+@FunctionalInterface
+public interface SwitchKeySelector<T> {
+
+    /**
+     * @param task 当前执行的switch节点，可通过它访问黑板和实体
+     * @return 用于选择分支的键
+     */
+    int selectKey(KeyedSwitch<T> task);
+
+}
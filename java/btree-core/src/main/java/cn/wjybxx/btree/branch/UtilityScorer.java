@@ -0,0 +1,54 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btree.branch;
+
+/**
+ * 效用评分器
+ * 1.评分器与{@link UtilitySelector}的子节点一一对应，评分越高越优先；评分小于等于0表示不可选择。
+ * 2.实现{@link #getInputVersion(UtilitySelector, int)}后，输入未变化时将复用缓存的评分。
+ * 3.实现{@link #getMaxScore()}后，选择器可以跳过不可能胜出的子节点 -- 评分不可以超过该值。
+ *
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+public interface UtilityScorer<T> {
+
+    /**
+     * 计算评分
+     *
+     * @param selector 选择器，用于获取黑板等数据
+     * @param index    子节点的索引
+     */
+    float score(UtilitySelector<T> selector, int index);
+
+    /**
+     * 评分的上界
+     * 该值在构建评估顺序时读取，运行时不应该改变。
+     */
+    default float getMaxScore() {
+        return Float.POSITIVE_INFINITY;
+    }
+
+    /**
+     * 评分依赖的输入的版本号
+     *
+     * @return 版本号，-1表示不支持脏检查，每次评估时都重新评分
+     */
+    default long getInputVersion(UtilitySelector<T> selector, int index) {
+        return -1;
+    }
+
+}
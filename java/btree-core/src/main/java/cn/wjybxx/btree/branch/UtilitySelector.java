@@ -0,0 +1,269 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btree.branch;
+
+import cn.wjybxx.btree.Task;
+import cn.wjybxx.btree.TaskSnapshotReader;
+import cn.wjybxx.btree.TaskSnapshotWriter;
+import cn.wjybxx.btree.TaskStatus;
+import cn.wjybxx.sequential.UniScheduledExecutor;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 效用选择节点
+ * 1.{@link #scorers}与children一一对应，每次评估时选择评分最高的子节点运行；没有评分大于0的子节点时失败。
+ * 2.运行中的子节点评分会加上{@link #hysteresis}，其它子节点需要超过该分数才能替换它，以避免频繁切换。
+ * 3.每隔{@link #rescoreInterval}帧重新评估一次，运行中的子节点完成前，两次评估之间直接运行该子节点。
+ * 4.评分会被缓存，评分器声明了输入版本号时，只有输入变化的子节点会重新评分。
+ * 5.子节点按评分上界从高到低评估，当剩余子节点的上界不能胜出时提前结束评估。
+ * 6.新选择的子节点需要通过自身的条件，条件失败时跳过该子节点。
+ * 7.运行中的子节点完成时，选择器以子节点的状态完成。
+ *
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+public class UtilitySelector<T> extends SingleRunningChildBranch<T> {
+
+    /** 子节点的评分器 */
+    private List<UtilityScorer<T>> scorers;
+    /** 运行中子节点的评分加成 */
+    private float hysteresis;
+    /** 重新评估的间隔帧数，小于等于0表示每帧评估 */
+    private int rescoreInterval;
+
+    /** 评估顺序 -- 按评分上界降序 */
+    private transient int[] evalOrder;
+    /** 评估顺序中对应的评分上界 */
+    private transient float[] evalMaxScores;
+    /** 缓存的评分 */
+    private transient float[] cachedScores;
+    /** 缓存评分时的输入版本号，-1表示无效 */
+    private transient long[] cachedVersions;
+    /** 构建评估顺序时的child数量，用于检测结构变化 */
+    private transient int tableChildCount = -1;
+    /** 上次评估的帧号 */
+    private transient int lastEvalFrame;
+    /** 调用评分器的次数 -- 统计信息 */
+    private transient long scoreCount;
+
+    public UtilitySelector() {
+    }
+
+    // region logic
+
+    @Override
+    public void resetForRestart() {
+        super.resetForRestart();
+        invalidateScores();
+        lastEvalFrame = 0;
+    }
+
+    @Override
+    protected void beforeEnter() {
+        super.beforeEnter();
+        if (tableChildCount != children.size()) {
+            buildTable();
+        }
+    }
+
+    @Override
+    protected void execute() {
+        final Task<T> runningChild = this.runningChild;
+        if (runningChild != null && rescoreInterval > 0 && getCurFrame() - lastEvalFrame < rescoreInterval) {
+            template_runChild(runningChild);
+            return;
+        }
+        lastEvalFrame = getCurFrame();
+        final int childIndex = evaluate();
+        if (runningChild != null && childIndex != runningIndex) {
+            runningChild.stop();
+            this.runningChild = null;
+            this.runningIndex = -1;
+        }
+        if (childIndex < 0) {
+            setFailed(TaskStatus.ERROR);
+            return;
+        }
+        if (runningIndex != childIndex) {
+            markDirty();
+        }
+        Task<T> childToRun = children.get(childIndex);
+        this.runningChild = childToRun;
+        this.runningIndex = childIndex;
+        template_runChild(childToRun);
+    }
+
+    /**
+     * 评估子节点
+     *
+     * @return 评分最高的子节点索引，没有可选择的子节点时返回-1
+     */
+    private int evaluate() {
+        if (tableChildCount != children.size()) {
+            buildTable();
+        }
+        int bestIndex = -1;
+        float bestScore = 0;
+        if (runningChild != null) {
+            float score = scoreOf(runningIndex);
+            if (score > 0) {
+                bestIndex = runningIndex;
+                bestScore = score + hysteresis;
+            }
+        }
+        final int[] evalOrder = this.evalOrder;
+        final float[] evalMaxScores = this.evalMaxScores;
+        for (int i = 0; i < evalOrder.length; i++) {
+            if (evalMaxScores[i] <= bestScore) {
+                break; // 剩余的子节点不可能胜出
+            }
+            int index = evalOrder[i];
+            if (index == runningIndex && runningChild != null) {
+                continue;
+            }
+            float score = scoreOf(index);
+            if (score > bestScore && checkGuard(index)) {
+                bestIndex = index;
+                bestScore = score;
+            }
+        }
+        return bestIndex;
+    }
+
+    private boolean checkGuard(int index) {
+        Task<T> child = children.get(index);
+        if (!template_checkGuard(child.getGuard())) {
+            child.setGuardFailed(null); // 不接收通知
+            return false;
+        }
+        return true;
+    }
+
+    private float scoreOf(int index) {
+        UtilityScorer<T> scorer = scorers.get(index);
+        long version = scorer.getInputVersion(this, index);
+        if (version >= 0 && version == cachedVersions[index]) {
+            return cachedScores[index];
+        }
+        float score = scorer.score(this, index);
+        scoreCount++;
+        cachedScores[index] = score;
+        cachedVersions[index] = version;
+        return score;
+    }
+
+    /** 清除缓存的评分 -- 评分依赖未声明的数据变化时可调用该方法 */
+    public final void invalidateScores() {
+        if (cachedVersions != null) {
+            Arrays.fill(cachedVersions, -1);
+        }
+    }
+
+    /**
+     * 构建评估顺序
+     * 通常不需要手动调用，首次运行或评分器变化时会自动构建；加载器可以在加载时调用，以避免运行时构建。
+     */
+    public final void buildTable() {
+        final List<UtilityScorer<T>> scorers = this.scorers;
+        final int childCount = children.size();
+        if (scorers == null ? childCount != 0 : scorers.size() != childCount) {
+            throw new IllegalStateException("scorers.size != childCount, scorers: %d, childCount: %d"
+                    .formatted(scorers == null ? 0 : scorers.size(), childCount));
+        }
+        Integer[] order = new Integer[childCount];
+        for (int i = 0; i < childCount; i++) {
+            if (scorers.get(i) == null) {
+                throw new IllegalStateException("scorer is null, index: " + i);
+            }
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Float.compare(scorers.get(b).getMaxScore(), scorers.get(a).getMaxScore()));
+
+        int[] evalOrder = new int[childCount];
+        float[] evalMaxScores = new float[childCount];
+        for (int i = 0; i < childCount; i++) {
+            evalOrder[i] = order[i];
+            evalMaxScores[i] = scorers.get(order[i]).getMaxScore();
+        }
+        this.evalOrder = evalOrder;
+        this.evalMaxScores = evalMaxScores;
+        this.cachedScores = new float[childCount];
+        this.cachedVersions = new long[childCount];
+        Arrays.fill(cachedVersions, -1);
+        this.tableChildCount = childCount;
+    }
+
+    @Override
+    protected void onChildCompleted(Task<T> child) {
+        runningChild = null;
+        setCompleted(child.getStatus(), true);
+    }
+
+    @Override
+    protected void onMigrated(@Nullable UniScheduledExecutor executor, int frameDelta) {
+        super.onMigrated(executor, frameDelta);
+        lastEvalFrame += frameDelta;
+    }
+
+    @Override
+    protected void writeSnapshot(TaskSnapshotWriter writer) {
+        super.writeSnapshot(writer);
+        writer.writeInt(lastEvalFrame);
+    }
+
+    @Override
+    protected void readSnapshot(TaskSnapshotReader reader) {
+        super.readSnapshot(reader);
+        lastEvalFrame = reader.readInt();
+        invalidateScores();
+    }
+
+    // endregion
+
+    /** 调用评分器的次数 */
+    public long getScoreCount() {
+        return scoreCount;
+    }
+
+    public List<UtilityScorer<T>> getScorers() {
+        return scorers;
+    }
+
+    /** 修改评分器后将在下次评估时重建评估顺序 */
+    public void setScorers(List<UtilityScorer<T>> scorers) {
+        this.scorers = scorers;
+        this.tableChildCount = -1;
+    }
+
+    public float getHysteresis() {
+        return hysteresis;
+    }
+
+    public void setHysteresis(float hysteresis) {
+        this.hysteresis = hysteresis;
+    }
+
+    public int getRescoreInterval() {
+        return rescoreInterval;
+    }
+
+    public void setRescoreInterval(int rescoreInterval) {
+        this.rescoreInterval = rescoreInterval;
+    }
+}
@@ -0,0 +1,342 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btree.branch;
+
+import cn.wjybxx.btree.Task;
+import cn.wjybxx.btree.TaskEntry;
+import cn.wjybxx.btree.TaskSnapshotReader;
+import cn.wjybxx.btree.TaskSnapshotWriter;
+import cn.wjybxx.btree.TaskStatus;
+
+import java.util.Arrays;
+import java.util.random.RandomGenerator;
+
+/**
+ * 按权重随机选择子节点
+ * 1.{@link #weights}与children一一对应，为null时等概率；权重为0的子节点不会被选中。
+ * 2.使用别名表（Alias Method）选择子节点，选择的开销为O(1)，与子节点数量无关；表在首次运行或权重变化时构建。
+ * 3.随机数从{@link TaskEntry#getRandom()}获取，设置Entry的随机数生成器即可重现随机行为。
+ * 4.默认只运行选中的子节点，结果即为该子节点的结果；
+ * 开启{@link #excludeFailed}时，子节点失败后会排除该子节点并重新选择，直到成功或没有可选的子节点 -- 类似按权重排序的Selector。
+ * 5.排除子节点后通过拒绝采样选择，多次拒绝后退化为线性选择，因此排除的子节点较多时开销为O(n)。
+ *
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+public class WeightedRandomSelector<T> extends SingleRunningChildBranch<T> {
+
+    /** 拒绝采样的最大次数 */
+    private static final int MAX_REJECT_COUNT = 8;
+
+    /** 子节点的权重，为null时等概率 */
+    private float[] weights;
+    /** 子节点失败时是否排除该子节点并重新选择 */
+    private boolean excludeFailed;
+
+    /** 别名表的概率 */
+    private transient double[] aliasProbs;
+    /** 别名表的别名 */
+    private transient int[] aliasIndices;
+    /** 权重大于0的子节点数 */
+    private transient int candidateCount;
+    /** 构建表时的child数量，用于检测结构变化 */
+    private transient int tableChildCount = -1;
+
+    /** 本轮被排除的子节点 */
+    private transient boolean[] excluded;
+    /** 本轮被排除的子节点数 -- 只统计权重大于0的 */
+    private transient int excludedCount;
+    /** 本轮已运行的子节点数 */
+    private transient int triedCount;
+
+    public WeightedRandomSelector() {
+    }
+
+    // region logic
+
+    @Override
+    public void resetForRestart() {
+        super.resetForRestart();
+        resetExcluded();
+    }
+
+    @Override
+    protected void beforeEnter() {
+        super.beforeEnter();
+        if (tableChildCount != children.size()) {
+            buildTable();
+        }
+        resetExcluded();
+    }
+
+    private void resetExcluded() {
+        if (excluded != null) {
+            Arrays.fill(excluded, false);
+        }
+        excludedCount = 0;
+        triedCount = 0;
+    }
+
+    @Override
+    protected void enter(int reentryId) {
+        super.enter(reentryId);
+        if (candidateCount == 0) {
+            setFailed(TaskStatus.ERROR);
+        }
+    }
+
+    @Override
+    protected Task<T> nextChild() {
+        int index = selectIndex(getTaskEntry().getRandom());
+        if (index < 0) {
+            throw new IllegalStateException(illegalStateMsg());
+        }
+        runningIndex = index;
+        triedCount++;
+        markDirty();
+        return children.get(index);
+    }
+
+    @Override
+    protected void onChildCompleted(Task<T> child) {
+        runningChild = null;
+        if (child.isCancelled()) {
+            setCancelled();
+            return;
+        }
+        if (child.isSucceeded()) {
+            setSuccess();
+            return;
+        }
+        if (!excludeFailed) {
+            setCompleted(child.getStatus(), true);
+            return;
+        }
+        exclude(runningIndex);
+        if (excludedCount >= candidateCount) {
+            setFailed(TaskStatus.ERROR);
+        } else if (!isExecuting()) {
+            template_execute();
+        }
+    }
+
+    private void exclude(int index) {
+        if (excluded == null || excluded.length != children.size()) {
+            excluded = new boolean[children.size()];
+        }
+        if (!excluded[index]) {
+            excluded[index] = true;
+            excludedCount++;
+        }
+    }
+
+    @Override
+    public int getCompletedCount() {
+        return triedCount - (runningChild != null ? 1 : 0);
+    }
+
+    @Override
+    public boolean isAllChildCompleted() {
+        return excludedCount >= candidateCount;
+    }
+
+    @Override
+    protected void writeSnapshot(TaskSnapshotWriter writer) {
+        super.writeSnapshot(writer);
+        writer.writeInt(triedCount);
+        writer.writeIntArray(excludedIndices());
+    }
+
+    @Override
+    protected void readSnapshot(TaskSnapshotReader reader) {
+        super.readSnapshot(reader);
+        if (tableChildCount != children.size()) {
+            buildTable();
+        }
+        resetExcluded();
+        triedCount = reader.readInt();
+        int[] indices = reader.readIntArray();
+        if (indices != null) {
+            for (int index : indices) {
+                exclude(index);
+            }
+        }
+    }
+
+    private int[] excludedIndices() {
+        int[] indices = new int[excludedCount];
+        for (int i = 0, j = 0; j < excludedCount; i++) {
+            if (excluded[i]) {
+                indices[j++] = i;
+            }
+        }
+        return indices;
+    }
+
+    // endregion
+
+    // region alias
+
+    private float weightOf(int index) {
+        return weights == null ? 1f : weights[index];
+    }
+
+    /**
+     * 选择一个子节点
+     *
+     * @return 没有可选的子节点时返回-1
+     */
+    public final int selectIndex(RandomGenerator random) {
+        if (tableChildCount != children.size()) {
+            buildTable();
+        }
+        if (excludedCount >= candidateCount) {
+            return -1;
+        }
+        final boolean[] excluded = this.excluded;
+        if (excludedCount == 0) {
+            return nextAlias(random);
+        }
+        for (int i = 0; i < MAX_REJECT_COUNT; i++) {
+            int index = nextAlias(random);
+            if (!excluded[index]) {
+                return index;
+            }
+        }
+        return nextLinear(random);
+    }
+
+    private int nextAlias(RandomGenerator random) {
+        int index = random.nextInt(aliasProbs.length);
+        return random.nextDouble() < aliasProbs[index] ? index : aliasIndices[index];
+    }
+
+    /** 在未排除的子节点中线性选择 */
+    private int nextLinear(RandomGenerator random) {
+        final boolean[] excluded = this.excluded;
+        final int childCount = children.size();
+        double remainWeight = 0;
+        for (int i = 0; i < childCount; i++) {
+            if (!excluded[i]) {
+                remainWeight += weightOf(i);
+            }
+        }
+        double r = random.nextDouble() * remainWeight;
+        int last = -1;
+        for (int i = 0; i < childCount; i++) {
+            float weight = weightOf(i);
+            if (excluded[i] || weight <= 0) {
+                continue;
+            }
+            last = i;
+            r -= weight;
+            if (r < 0) {
+                return i;
+            }
+        }
+        return last; // 浮点误差
+    }
+
+    /**
+     * 构建别名表（Vose算法）
+     * 通常不需要手动调用，首次运行或权重变化时会自动构建；加载器可以在加载时调用，以避免运行时构建。
+     */
+    public final void buildTable() {
+        final float[] weights = this.weights;
+        final int childCount = children.size();
+        if (weights != null && weights.length != childCount) {
+            throw new IllegalStateException("weights.length != childCount, weights: %s, childCount: %d"
+                    .formatted(Arrays.toString(weights), childCount));
+        }
+        double totalWeight = 0;
+        int candidateCount = 0;
+        int firstCandidate = -1;
+        for (int i = 0; i < childCount; i++) {
+            float weight = weightOf(i);
+            if (!(weight >= 0) || Float.isInfinite(weight)) {
+                throw new IllegalStateException("invalid weight: " + weight + ", index: " + i);
+            }
+            if (weight > 0) {
+                totalWeight += weight;
+                candidateCount++;
+                if (firstCandidate < 0) firstCandidate = i;
+            }
+        }
+        double[] probs = new double[childCount];
+        int[] aliases = new int[childCount];
+        if (candidateCount > 0) {
+            double[] scaled = new double[childCount];
+            int[] small = new int[childCount];
+            int[] large = new int[childCount];
+            int smallSize = 0;
+            int largeSize = 0;
+            for (int i = 0; i < childCount; i++) {
+                scaled[i] = weightOf(i) * childCount / totalWeight;
+                if (scaled[i] < 1) {
+                    small[smallSize++] = i;
+                } else {
+                    large[largeSize++] = i;
+                }
+            }
+            while (smallSize > 0 && largeSize > 0) {
+                int s = small[--smallSize];
+                int l = large[--largeSize];
+                probs[s] = scaled[s];
+                aliases[s] = l;
+                scaled[l] = (scaled[l] + scaled[s]) - 1;
+                if (scaled[l] < 1) {
+                    small[smallSize++] = l;
+                } else {
+                    large[largeSize++] = l;
+                }
+            }
+            while (largeSize > 0) {
+                int l = large[--largeSize];
+                probs[l] = 1;
+                aliases[l] = l;
+            }
+            while (smallSize > 0) { // 浮点误差导致的剩余
+                int s = small[--smallSize];
+                probs[s] = weightOf(s) > 0 ? 1 : 0;
+                aliases[s] = weightOf(s) > 0 ? s : firstCandidate;
+            }
+        }
+        this.aliasProbs = probs;
+        this.aliasIndices = aliases;
+        this.candidateCount = candidateCount;
+        this.tableChildCount = childCount;
+    }
+
+    // endregion
+
+    public float[] getWeights() {
+        return weights;
+    }
+
+    /** 修改权重后将在下次选择时重建别名表 */
+    public void setWeights(float[] weights) {
+        this.weights = weights;
+        this.tableChildCount = -1;
+    }
+
+    public boolean isExcludeFailed() {
+        return excludeFailed;
+    }
+
+    public void setExcludeFailed(boolean excludeFailed) {
+        this.excludeFailed = excludeFailed;
+    }
+}
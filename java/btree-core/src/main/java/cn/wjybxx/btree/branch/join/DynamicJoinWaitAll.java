@@ -0,0 +1,65 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btree.branch.join;
+
+import cn.wjybxx.btree.Task;
+import cn.wjybxx.btree.branch.DynamicJoin;
+import cn.wjybxx.btree.branch.DynamicJoinPolicy;
+
+/**
+ * 等待所有数据处理完成，然后成功
+ *
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+public class DynamicJoinWaitAll<T> implements DynamicJoinPolicy<T> {
+
+    private static final DynamicJoinWaitAll<?> INSTANCE = new DynamicJoinWaitAll<>();
+
+    @SuppressWarnings("unchecked")
+    public static <T> DynamicJoinWaitAll<T> getInstance() {
+        return (DynamicJoinWaitAll<T>) INSTANCE;
+    }
+
+    @Override
+    public void resetForRestart() {
+
+    }
+
+    @Override
+    public void beforeEnter(DynamicJoin<T> join) {
+
+    }
+
+    @Override
+    public void enter(DynamicJoin<T> join) {
+        if (join.isAllItemCompleted()) {
+            join.setSuccess();
+        }
+    }
+
+    @Override
+    public void onChildCompleted(DynamicJoin<T> join, Task<T> child, Object item) {
+        if (join.isAllItemCompleted()) {
+            join.setSuccess();
+        }
+    }
+
+    @Override
+    public void onEvent(DynamicJoin<T> join, Object event) {
+
+    }
+}
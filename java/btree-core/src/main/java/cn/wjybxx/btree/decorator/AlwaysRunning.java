@@ -17,6 +17,8 @@ package cn.wjybxx.btree.decorator;
 
 import cn.wjybxx.btree.Decorator;
 import cn.wjybxx.btree.Task;
+import cn.wjybxx.btree.TaskSnapshotReader;
+import cn.wjybxx.btree.TaskSnapshotWriter;
 
 /**
  * 在子节点完成之后仍返回运行。
@@ -52,6 +54,18 @@ public class AlwaysRunning<T> extends Decorator<T> {
         template_runChild(child);
     }
 
+    @Override
+    protected void writeSnapshot(TaskSnapshotWriter writer) {
+        super.writeSnapshot(writer);
+        writer.writeInt(childPrevReentryId);
+    }
+
+    @Override
+    protected void readSnapshot(TaskSnapshotReader reader) {
+        super.readSnapshot(reader);
+        childPrevReentryId = reader.readInt();
+    }
+
     @Override
     protected void onChildCompleted(Task<T> child) {
         if (child.isCancelled()) { // 不响应其它状态，但还是需要响应取消...
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btree.decorator;
+
+import cn.wjybxx.btree.Decorator;
+import cn.wjybxx.btree.Task;
+import cn.wjybxx.btree.TaskSnapshotReader;
+import cn.wjybxx.btree.TaskSnapshotWriter;
+
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * 延迟实例化的子树（占位节点）
+ * 1.子树在第一次运行时才通过{@link #factory}创建，用于减少很少执行的大分支占用的内存。
+ * 2.如果{@link #releaseOnReset}为true，则在{@link #resetForRestart()}时释放子树，下次运行时重新创建。
+ * 3.占位节点通常由加载器创建，被替换节点的前置条件会上移到占位节点，以避免为了检查条件而实例化子树。
+ * 4.该节点不在编辑器中使用，因此不生成Codec；factory应该是无状态的，拷贝时共享。
+ *
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+public class LazySubtree<T> extends Decorator<T> {
+
+    /** 子树的工厂 -- 每次调用返回新的子树 */
+    private Supplier<? extends Task<T>> factory;
+    /** 重置时是否释放子树 */
+    private boolean releaseOnReset;
+
+    public LazySubtree() {
+    }
+
+    public LazySubtree(Supplier<? extends Task<T>> factory) {
+        this.factory = factory;
+    }
+
+    @Override
+    protected void enter(int reentryId) {
+        if (child == null) {
+            materialize();
+        }
+    }
+
+    @Override
+    protected void execute() {
+        template_runChild(child);
+    }
+
+    @Override
+    protected void onChildCompleted(Task<T> child) {
+        setCompleted(child.getStatus(), true);
+    }
+
+    @Override
+    public void resetForRestart() {
+        // 需要在重置前释放，重置后taskEntry为null，无法通知结构变化
+        if (releaseOnReset && child != null) {
+            if (isRunning()) {
+                stop();
+            }
+            removeChild(0);
+        }
+        super.resetForRestart();
+    }
+
+    /** 子树是否已实例化 */
+    public final boolean isMaterialized() {
+        return child != null;
+    }
+
+    /** 立即实例化子树 */
+    public final void materialize() {
+        if (child != null) {
+            return;
+        }
+        Task<T> subtree = Objects.requireNonNull(factory.get(), "subtree");
+        addChild(subtree);
+    }
+
+    @Override
+    protected void writeSnapshot(TaskSnapshotWriter writer) {
+        super.writeSnapshot(writer);
+        writer.writeBool(child != null);
+    }
+
+    @Override
+    protected void readSnapshot(TaskSnapshotReader reader) {
+        super.readSnapshot(reader);
+        // 需要先挂载子树才能恢复子树的数据
+        if (reader.readBool()) {
+            materialize();
+        }
+    }
+
+    // region
+
+    public Supplier<? extends Task<T>> getFactory() {
+        return factory;
+    }
+
+    public void setFactory(Supplier<? extends Task<T>> factory) {
+        this.factory = factory;
+    }
+
+    public boolean isReleaseOnReset() {
+        return releaseOnReset;
+    }
+
+    public void setReleaseOnReset(boolean releaseOnReset) {
+        this.releaseOnReset = releaseOnReset;
+    }
+
+    // endregion
+}
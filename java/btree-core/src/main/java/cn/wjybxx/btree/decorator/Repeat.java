@@ -16,6 +16,8 @@
 package cn.wjybxx.btree.decorator;
 
 import cn.wjybxx.btree.Task;
+import cn.wjybxx.btree.TaskSnapshotReader;
+import cn.wjybxx.btree.TaskSnapshotWriter;
 
 /**
  * 重复N次
@@ -69,11 +71,26 @@ public class Repeat<T> extends LoopDecorator<T> {
             case MODE_ONLY_FAILED -> child.isFailed();
             default -> false;
         };
-        if (match && ++count >= required) {
-            setSuccess();
+        if (match) {
+            markDirty();
+            if (++count >= required) {
+                setSuccess();
+            }
         }
     }
 
+    @Override
+    protected void writeSnapshot(TaskSnapshotWriter writer) {
+        super.writeSnapshot(writer);
+        writer.writeInt(count);
+    }
+
+    @Override
+    protected void readSnapshot(TaskSnapshotReader reader) {
+        super.readSnapshot(reader);
+        count = reader.readInt();
+    }
+
     public int getCountMode() {
         return countMode;
     }
@@ -17,9 +17,24 @@ package cn.wjybxx.btree.decorator;
 
 import cn.wjybxx.btree.Decorator;
 import cn.wjybxx.btree.Task;
+import cn.wjybxx.btree.TaskEntry;
+import cn.wjybxx.btree.TaskSnapshotReader;
+import cn.wjybxx.btree.TaskSnapshotWriter;
+import cn.wjybxx.btree.TaskStatus;
+import cn.wjybxx.btree.TreeLoader;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * 子树引用
+ * 1.子树在首次运行时加载；父节点启用{@link Task#MASK_PREFETCH_SUBTREE}时，会在父节点进入时预取。
+ * 2.如果启用了异步加载，则在加载完成前保持运行状态，每帧检查加载结果；加载失败时以{@link TaskStatus#ERROR}失败。
+ * 3.如果{@link #releaseThreshold}大于0，父节点连续重启指定次数而子树未运行时，将释放子树，下次运行时重新加载。
+ * 4.内存紧张时，可通过{@link #releaseAll(Task)}释放未运行的子树；原型数据由加载器缓存，重新加载的开销通常只是拷贝。
+ * 5.空闲次数不写入快照。
  *
  * @author wjybxx
  * date - 2023/11/26
@@ -27,6 +42,15 @@ import cn.wjybxx.btree.Task;
 public class SubtreeRef<T> extends Decorator<T> {
 
     private String subtreeName;
+    /** 是否异步加载子树 */
+    private boolean asyncLoad;
+    /** 父节点连续重启多少次而子树未运行时释放子树，0表示不释放 */
+    private int releaseThreshold;
+
+    /** 正在加载的子树 */
+    private transient CompletableFuture<Task<T>> loadFuture;
+    /** 父节点连续重启而子树未运行的次数 */
+    private transient int idleRestarts;
 
     public SubtreeRef() {
     }
@@ -37,22 +61,171 @@ public class SubtreeRef<T> extends Decorator<T> {
 
     @Override
     protected void enter(int reentryId) {
-        if (child == null) {
-            Task<T> rootTask = getTaskEntry().getTreeLoader().loadRootTask(subtreeName);
-            addChild(rootTask);
+        idleRestarts = 0;
+        if (child != null || (asyncLoad && loadFuture != null)) { // 可能已预取
+            return;
+        }
+        if (asyncLoad) {
+            loadFuture = getTaskEntry().getTreeLoader().loadRootTaskAsync(subtreeName);
+            return;
+        }
+        Task<T> rootTask = null;
+        if (loadFuture != null) {
+            // 同步加载时在当前帧等待预取的结果；预取失败则重新加载，以抛出真实的异常
+            CompletableFuture<Task<T>> future = loadFuture;
+            loadFuture = null;
+            try {
+                rootTask = future.join();
+            } catch (CancellationException | CompletionException ignore) {
+            }
+        }
+        if (rootTask == null) {
+            rootTask = getTaskEntry().getTreeLoader().loadRootTask(subtreeName);
         }
+        addChild(rootTask);
     }
 
     @Override
     protected void execute() {
+        if (child == null) {
+            if (loadFuture == null) { // 从快照恢复或迁移后，需要重新加载
+                loadFuture = getTaskEntry().getTreeLoader().loadRootTaskAsync(subtreeName);
+            }
+            if (!loadFuture.isDone()) {
+                return;
+            }
+            CompletableFuture<Task<T>> future = loadFuture;
+            loadFuture = null;
+            Task<T> rootTask;
+            try {
+                rootTask = future.join();
+            } catch (CancellationException | CompletionException e) {
+                logger.warn("load subtree failed, name: " + subtreeName, e);
+                setFailed(TaskStatus.ERROR);
+                return;
+            }
+            addChild(rootTask);
+        }
         template_runChild(child);
     }
 
+    @Override
+    protected void exit() {
+        loadFuture = null; // 丢弃未完成的加载
+    }
+
     @Override
     protected void onChildCompleted(Task<T> child) {
         setCompleted(child.getStatus(), true);
     }
 
+    @Override
+    public void resetForRestart() {
+        super.resetForRestart();
+        idleRestarts = 0;
+    }
+
+    // region 预取和释放
+
+    /** 子树是否已加载 */
+    public final boolean isLoaded() {
+        return child != null;
+    }
+
+    /**
+     * 预取子树
+     * 1.通过{@link TreeLoader#loadRootTaskAsync(String)}加载，结果在运行时挂载，因此总是安全的。
+     * 2.如果子树已加载或正在加载，则什么也不做。
+     * 3.节点未运行时可能还未绑定Entry，因此由调用者提供加载器。
+     * 4.同步加载模式下，进入时在当前帧等待预取的结果。
+     */
+    @Override
+    public final void prefetch(TreeLoader treeLoader) {
+        if (child == null && loadFuture == null && !isRunning()) {
+            loadFuture = treeLoader.loadRootTaskAsync(subtreeName);
+        }
+    }
+
+    /**
+     * 释放子树 -- 运行中不可释放
+     *
+     * @return 如果释放了子树或未完成的预取则返回true
+     */
+    public final boolean release() {
+        return release(getTaskEntry());
+    }
+
+    /**
+     * 释放子树 -- 运行中不可释放
+     * 未运行的节点通常未绑定Entry，因此由调用者指定树所属的Entry，以通知结构变化。
+     *
+     * @param taskEntry 树所属的Entry
+     * @return 如果释放了子树或未完成的预取则返回true
+     */
+    public final boolean release(@Nullable TaskEntry<?> taskEntry) {
+        if (isRunning() || (child == null && loadFuture == null)) {
+            return false;
+        }
+        loadFuture = null;
+        if (child != null) {
+            if (child.getStatus() != TaskStatus.NEW) {
+                child.resetForRestart();
+            }
+            removeChild(0);
+            if (taskEntry != getTaskEntry()) {
+                onStructureChanged(taskEntry);
+            }
+        }
+        idleRestarts = 0;
+        return true;
+    }
+
+    @Override
+    protected void onIdleRestart(@Nullable TaskEntry<T> taskEntry) {
+        if (releaseThreshold > 0 && ++idleRestarts >= releaseThreshold) {
+            release(taskEntry);
+        }
+    }
+
+    /**
+     * 释放给定树中所有未运行的子树，通常在内存紧张时调用
+     *
+     * @param root 通常为{@link TaskEntry}；其它节点未运行时可能未绑定Entry，将无法通知结构变化
+     * @return 释放的子树数量
+     */
+    public static int releaseAll(Task<?> root) {
+        return releaseAll(root, root.getTaskEntry());
+    }
+
+    private static int releaseAll(Task<?> root, @Nullable TaskEntry<?> taskEntry) {
+        if (root instanceof SubtreeRef<?> subtreeRef && !subtreeRef.isRunning()) {
+            return subtreeRef.release(taskEntry) ? 1 : 0;
+        }
+        int count = 0;
+        for (int idx = 0, n = root.getChildCount(); idx < n; idx++) {
+            count += releaseAll(root.getChild(idx), taskEntry);
+        }
+        return count;
+    }
+
+    // endregion
+
+    @Override
+    protected void writeSnapshot(TaskSnapshotWriter writer) {
+        super.writeSnapshot(writer);
+        writer.writeBool(child != null);
+    }
+
+    @Override
+    protected void readSnapshot(TaskSnapshotReader reader) {
+        super.readSnapshot(reader);
+        // 子树是运行时加载的，需要先挂载才能恢复子树的数据
+        if (reader.readBool() && child == null) {
+            Task<T> rootTask = reader.getTaskEntry().getTreeLoader().loadRootTask(subtreeName);
+            addChild(rootTask);
+        }
+    }
+
     public String getSubtreeName() {
         return subtreeName;
     }
@@ -60,4 +233,20 @@ public class SubtreeRef<T> extends Decorator<T> {
     public void setSubtreeName(String subtreeName) {
         this.subtreeName = subtreeName;
     }
+
+    public boolean isAsyncLoad() {
+        return asyncLoad;
+    }
+
+    public void setAsyncLoad(boolean asyncLoad) {
+        this.asyncLoad = asyncLoad;
+    }
+
+    public int getReleaseThreshold() {
+        return releaseThreshold;
+    }
+
+    public void setReleaseThreshold(int releaseThreshold) {
+        this.releaseThreshold = releaseThreshold;
+    }
 }
\ No newline at end of file
@@ -21,8 +21,14 @@ import cn.wjybxx.btree.Task;
 import cn.wjybxx.btree.TaskStatus;
 
 import javax.annotation.Nonnull;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
+ * 切换状态
+ * 如果启用了异步加载，则在下一个状态加载完成前保持运行状态，每帧检查加载结果；加载失败时以{@link TaskStatus#ERROR}失败。
+ *
  * @author wjybxx
  * date - 2023/12/1
  */
@@ -41,6 +47,11 @@ public class ChangeStateTask<T> extends LeafTask<T> {
     private String machineName;
     /** 延迟模式 */
     private int delayMode;
+    /** 是否异步加载下一个状态 */
+    private boolean asyncLoad;
+
+    /** 正在加载的状态 */
+    private transient CompletableFuture<Task<T>> loadFuture;
 
     public ChangeStateTask() {
     }
@@ -55,7 +66,11 @@ public class ChangeStateTask<T> extends LeafTask<T> {
             if (ObjectUtils.isEmpty(nextStateGuid)) {
                 throw new IllegalStateException("guid is empty");
             }
-            nextState = getTaskEntry().getTreeLoader().loadRootTask(nextStateGuid);
+            if (!asyncLoad) {
+                nextState = getTaskEntry().getTreeLoader().loadRootTask(nextStateGuid);
+            } else if (!pollNextState()) {
+                return;
+            }
         }
         if (stateProps != null) {
             nextState.setSharedProps(stateProps);
@@ -82,6 +97,31 @@ public class ChangeStateTask<T> extends LeafTask<T> {
         }
     }
 
+    /** @return 是否已加载到下一个状态；如果返回false，调用者应立即退出 */
+    private boolean pollNextState() {
+        if (loadFuture == null) {
+            loadFuture = getTaskEntry().getTreeLoader().loadRootTaskAsync(nextStateGuid);
+        }
+        if (!loadFuture.isDone()) {
+            return false;
+        }
+        CompletableFuture<Task<T>> future = loadFuture;
+        loadFuture = null;
+        try {
+            nextState = future.join();
+            return true;
+        } catch (CancellationException | CompletionException e) {
+            logger.warn("load state failed, guid: " + nextStateGuid, e);
+            setFailed(TaskStatus.ERROR);
+            return false;
+        }
+    }
+
+    @Override
+    protected void exit() {
+        loadFuture = null; // 丢弃未完成的加载
+    }
+
     @Override
     protected void onEventImpl(@Nonnull Object event) {
 
@@ -129,6 +169,14 @@ public class ChangeStateTask<T> extends LeafTask<T> {
         this.delayMode = delayMode;
     }
 
+    public boolean isAsyncLoad() {
+        return asyncLoad;
+    }
+
+    public void setAsyncLoad(boolean asyncLoad) {
+        this.asyncLoad = asyncLoad;
+    }
+
     public int getCurStateResult() {
         return curStateResult;
     }
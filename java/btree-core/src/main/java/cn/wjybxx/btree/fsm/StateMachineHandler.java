@@ -16,6 +16,7 @@
 package cn.wjybxx.btree.fsm;
 
 import cn.wjybxx.btree.Task;
+import cn.wjybxx.btree.TreeLoader;
 
 /**
  * @author wjybxx
@@ -64,4 +65,27 @@ public interface StateMachineHandler<T> {
      */
     boolean onNextStateAbsent(StateMachineTask<T> stateMachineTask, Task<T> preState);
 
-}
\ No newline at end of file
+    /**
+     * 获取状态的唯一标识 -- 用于创建快照
+     * 1.初始状态由状态机自身处理，不会调用该方法。
+     * 2.返回null表示不支持快照。
+     *
+     * @param stateMachineTask 状态机
+     * @param state            当前状态、待切换的状态或undo/redo队列中的状态
+     * @return 状态id，通常是状态树的guid
+     */
+    default String getStateId(StateMachineTask<T> stateMachineTask, Task<T> state) {
+        return null;
+    }
+
+    /**
+     * 根据状态id加载状态 -- 用于从快照恢复
+     *
+     * @param stateMachineTask 状态机
+     * @param stateId          {@link #getStateId(StateMachineTask, Task)}返回的id
+     * @return 新的状态对象；返回null表示通过{@link TreeLoader}加载，即id为状态树的guid
+     */
+    default Task<T> loadState(StateMachineTask<T> stateMachineTask, String stateId) {
+        return null;
+    }
+}
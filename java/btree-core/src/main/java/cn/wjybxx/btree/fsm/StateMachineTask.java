@@ -19,11 +19,14 @@ import cn.wjybxx.base.ObjectUtils;
 import cn.wjybxx.base.collection.BoundedArrayDeque;
 import cn.wjybxx.base.collection.DequeOverflowBehavior;
 import cn.wjybxx.base.collection.EmptyDequeue;
+import cn.wjybxx.btree.ChildCancelScope;
 import cn.wjybxx.btree.Decorator;
 import cn.wjybxx.btree.Task;
+import cn.wjybxx.btree.TaskSnapshotReader;
+import cn.wjybxx.btree.TaskSnapshotWriter;
 import cn.wjybxx.btree.TaskStatus;
 import cn.wjybxx.btree.branch.Join;
-import cn.wjybxx.sequential.UniCancelTokenSource;
+import cn.wjybxx.sequential.UniScheduledExecutor;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -40,6 +43,9 @@ import java.util.Objects;
  */
 public class StateMachineTask<T> extends Decorator<T> {
 
+    /** 初始状态在快照中的id */
+    private static final String INIT_STATE_ID = "$initState";
+
     /** 状态机名字 */
     private String name;
     /** 无可用状态时状态码 -- 默认成功退出更安全 */
@@ -52,7 +58,8 @@ public class StateMachineTask<T> extends Decorator<T> {
     private transient Task<T> tempNextState;
     private transient Deque<Task<T>> undoQueue = EmptyDequeue.getInstance();
     private transient Deque<Task<T>> redoQueue = EmptyDequeue.getInstance();
-    private transient UniCancelTokenSource childCancelToken;
+    /** 状态的取消域 -- 状态可独立取消 */
+    private transient ChildCancelScope childCancelScope;
 
     private transient StateMachineListener<T> listener;
     private transient StateMachineHandler<T> stateMachineHandler;
@@ -72,7 +79,10 @@ public class StateMachineTask<T> extends Decorator<T> {
     /** 丢弃未切换的临时状态 */
     public final Task<T> discardTempNextState() {
         Task<T> r = tempNextState;
-        if (r != null) tempNextState = null;
+        if (r != null) {
+            tempNextState = null;
+            markDirty();
+        }
         return r;
     }
 
@@ -217,6 +227,7 @@ public class StateMachineTask<T> extends Decorator<T> {
         changeStateArgs = checkArgs(changeStateArgs);
         nextState.setControlData(changeStateArgs);
         tempNextState = nextState;
+        markDirty();
         if (!isRunning()) {
             return;
         }
@@ -268,7 +279,7 @@ public class StateMachineTask<T> extends Decorator<T> {
     @Override
     protected void beforeEnter() {
         super.beforeEnter();
-        childCancelToken = cancelToken.newChild();
+        openChildCancelScope();
         if (stateMachineHandler != null) {
             stateMachineHandler.beforeEnter(this);
         }
@@ -285,7 +296,7 @@ public class StateMachineTask<T> extends Decorator<T> {
             tempNextState.setControlData(ChangeStateArgs.PLAIN);
         }
         if (child != null) {
-            child.setCancelToken(childCancelToken);
+            bindStateContext(child);
         }
     }
 
@@ -297,6 +308,9 @@ public class StateMachineTask<T> extends Decorator<T> {
         tempNextState = null;
         undoQueue.clear();
         redoQueue.clear();
+        if (childCancelScope != null) {
+            childCancelScope.close();
+        }
         super.exit();
     }
 
@@ -306,6 +320,7 @@ public class StateMachineTask<T> extends Decorator<T> {
         Task<T> nextState = this.tempNextState;
         if (nextState != null && isReady(curState, nextState)) {
             this.tempNextState = null;
+            markDirty();
             if (!template_checkGuard(nextState.getGuard())) { // 下个状态无效
                 nextState.setGuardFailed(null);
                 if (stateMachineHandler != null) { // 通知特殊情况
@@ -314,6 +329,7 @@ public class StateMachineTask<T> extends Decorator<T> {
             } else {
                 if (curState != null) {
                     curState.stop();
+                    unbindStateContext(curState); // stop不会通知，需要在这里回收令牌
                 }
                 ChangeStateArgs changeStateArgs = (ChangeStateArgs) nextState.getControlData();
                 switch (changeStateArgs.cmd) {
@@ -340,8 +356,7 @@ public class StateMachineTask<T> extends Decorator<T> {
                 notifyChangeState(curState, nextState);
 
                 curState = nextState;
-                cancelToken.thenTransferTo(childCancelToken);
-                curState.setCancelToken(cancelToken); // state可独立取消 -- 可复用cancelToken
+                bindStateContext(curState);
                 curState.setControlData(null);
                 if (child != null) {
                     setChild(0, curState);
@@ -357,12 +372,27 @@ public class StateMachineTask<T> extends Decorator<T> {
         template_runChildDirectly(curState); // 继续运行或新状态enter；在尾部才能保证安全
     }
 
+    private void openChildCancelScope() {
+        if (childCancelScope == null) {
+            childCancelScope = new ChildCancelScope();
+        }
+        childCancelScope.open(cancelToken);
+    }
+
+    private void bindStateContext(Task<T> curState) {
+        curState.setCancelToken(childCancelScope.acquire()); // state可独立取消
+    }
+
+    private void unbindStateContext(Task<T> state) {
+        childCancelScope.release(state.getCancelToken());
+        state.setCancelToken(null);
+    }
+
     @Override
     protected void onChildCompleted(Task<T> child) {
         assert this.child == child;
-        cancelToken.unregister(childCancelToken);
-        childCancelToken.reset();
-        child.setCancelToken(null);
+        markDirty();
+        unbindStateContext(child);
 
         if (tempNextState == null) {
             if (stateMachineHandler != null && stateMachineHandler.onNextStateAbsent(this, child)) {
@@ -385,6 +415,123 @@ public class StateMachineTask<T> extends Decorator<T> {
         }
     }
 
+    @Override
+    protected void onMigrated(@Nullable UniScheduledExecutor executor, int frameDelta) {
+        super.onMigrated(executor, frameDelta);
+        if (childCancelScope != null) {
+            childCancelScope.setExecutor(executor);
+        }
+        // 延迟到指定帧的切换命令需要调整帧号
+        if (tempNextState != null && tempNextState.getControlData() instanceof ChangeStateArgs changeStateArgs
+                && changeStateArgs.delayMode == ChangeStateArgs.DELAY_NEXT_FRAME && changeStateArgs.frame >= 0) {
+            tempNextState.setControlData(changeStateArgs.withFrame(changeStateArgs.frame + frameDelta));
+        }
+    }
+
+    // region 快照
+
+    @Override
+    protected void writeSnapshot(TaskSnapshotWriter writer) {
+        super.writeSnapshot(writer);
+        writeState(writer, child);
+        writeState(writer, tempNextState);
+        if (tempNextState != null) {
+            ChangeStateArgs changeStateArgs = (ChangeStateArgs) tempNextState.getControlData();
+            writer.writeInt(changeStateArgs.cmd);
+            writer.writeInt(changeStateArgs.delayMode);
+            writer.writeInt(changeStateArgs.frame);
+        }
+        writer.writeInt(undoQueue.size());
+        for (Task<T> state : undoQueue) {
+            writeState(writer, state);
+        }
+        writer.writeInt(redoQueue.size());
+        for (Task<T> state : redoQueue) {
+            writeState(writer, state);
+        }
+    }
+
+    /** 注意：{@link ChangeStateArgs#extraInfo}不会保存 */
+    @Override
+    protected void readSnapshot(TaskSnapshotReader reader) {
+        super.readSnapshot(reader);
+        Task<T> curState = readState(reader);
+        if (curState != null) {
+            if (child != null) {
+                removeChild(0);
+            }
+            addChild(curState);
+        }
+        tempNextState = readState(reader);
+        if (tempNextState != null) {
+            int cmd = reader.readInt();
+            int delayMode = reader.readInt();
+            int frame = reader.readInt();
+            ChangeStateArgs prototype = switch (cmd) {
+                case ChangeStateArgs.CMD_UNDO -> ChangeStateArgs.UNDO;
+                case ChangeStateArgs.CMD_REDO -> ChangeStateArgs.REDO;
+                default -> ChangeStateArgs.PLAIN;
+            };
+            tempNextState.setControlData(prototype.withDelayMode(delayMode).withFrame(frame));
+        }
+        undoQueue.clear();
+        for (int i = 0, size = reader.readInt(); i < size; i++) {
+            undoQueue.offerLast(readState(reader));
+        }
+        redoQueue.clear();
+        for (int i = 0, size = reader.readInt(); i < size; i++) {
+            redoQueue.offerLast(readState(reader));
+        }
+    }
+
+    @Override
+    protected void onSnapshotRestored() {
+        super.onSnapshotRestored();
+        if (!isRunning()) {
+            return;
+        }
+        openChildCancelScope();
+        if (child != null) {
+            bindStateContext(child);
+        }
+    }
+
+    private void writeState(TaskSnapshotWriter writer, Task<T> state) {
+        if (state == null) {
+            writer.writeString(null);
+            return;
+        }
+        if (state == initState) {
+            writer.writeString(INIT_STATE_ID);
+            return;
+        }
+        String stateId = stateMachineHandler == null ? null : stateMachineHandler.getStateId(this, state);
+        if (stateId == null) {
+            throw new IllegalStateException("stateId is absent, stateMachine: " + name);
+        }
+        writer.writeString(stateId);
+    }
+
+    private Task<T> readState(TaskSnapshotReader reader) {
+        String stateId = reader.readString();
+        if (stateId == null) {
+            return null;
+        }
+        if (INIT_STATE_ID.equals(stateId)) {
+            if (initStateProps != null) {
+                initState.setSharedProps(initStateProps);
+            }
+            return initState;
+        }
+        Task<T> state = stateMachineHandler == null ? null : stateMachineHandler.loadState(this, stateId);
+        if (state == null) {
+            state = reader.getTaskEntry().getTreeLoader().loadRootTask(stateId);
+        }
+        return state;
+    }
+
+    // endregion
+
     protected final void onNoChildRunning() {
         if (noneChildStatus != TaskStatus.RUNNING) {
             setCompleted(noneChildStatus, false);
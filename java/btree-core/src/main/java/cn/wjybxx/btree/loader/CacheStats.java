@@ -0,0 +1,101 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btree.loader;
+
+/**
+ * 缓存的统计信息快照
+ *
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+public final class CacheStats {
+
+    private final long hitCount;
+    private final long missCount;
+    private final long loadSuccessCount;
+    private final long loadFailureCount;
+    private final long totalLoadTime;
+    private final long evictionCount;
+
+    public CacheStats(long hitCount, long missCount,
+                      long loadSuccessCount, long loadFailureCount,
+                      long totalLoadTime, long evictionCount) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.loadSuccessCount = loadSuccessCount;
+        this.loadFailureCount = loadFailureCount;
+        this.totalLoadTime = totalLoadTime;
+        this.evictionCount = evictionCount;
+    }
+
+    /** 请求次数 */
+    public long requestCount() {
+        return hitCount + missCount;
+    }
+
+    /** 命中次数 */
+    public long hitCount() {
+        return hitCount;
+    }
+
+    /** 未命中次数 -- 等待其它线程加载的请求也计为未命中 */
+    public long missCount() {
+        return missCount;
+    }
+
+    public double hitRate() {
+        long requestCount = requestCount();
+        return requestCount == 0 ? 1.0 : (double) hitCount / requestCount;
+    }
+
+    /** 成功加载的次数 -- 目标不存在也计为成功 */
+    public long loadSuccessCount() {
+        return loadSuccessCount;
+    }
+
+    /** 加载失败(抛出异常)的次数 */
+    public long loadFailureCount() {
+        return loadFailureCount;
+    }
+
+    /** 加载的总耗时，单位纳秒 */
+    public long totalLoadTime() {
+        return totalLoadTime;
+    }
+
+    /** 平均每次加载的耗时，单位纳秒 */
+    public double averageLoadPenalty() {
+        long loadCount = loadSuccessCount + loadFailureCount;
+        return loadCount == 0 ? 0.0 : (double) totalLoadTime / loadCount;
+    }
+
+    /** 因容量限制而被淘汰的缓存数 */
+    public long evictionCount() {
+        return evictionCount;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStats{" +
+                "hitCount=" + hitCount +
+                ", missCount=" + missCount +
+                ", loadSuccessCount=" + loadSuccessCount +
+                ", loadFailureCount=" + loadFailureCount +
+                ", totalLoadTime=" + totalLoadTime +
+                ", evictionCount=" + evictionCount +
+                '}';
+    }
+}
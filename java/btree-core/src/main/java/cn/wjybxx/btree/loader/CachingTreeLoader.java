@@ -0,0 +1,470 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btree.loader;
+
+import cn.wjybxx.btree.Task;
+import cn.wjybxx.btree.TreeLoader;
+import cn.wjybxx.btree.decorator.LazySubtree;
+
+import javax.annotation.Nullable;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * 带缓存的加载器
+ * 1.缓存的是原型对象，每次加载都通过{@link ObjectCopier}返回新的实例，原型对象不会泄露给外部。
+ * 2.按照估算的节点数限制内存，超出上限时按照LRU淘汰；单个对象超出上限时不缓存。
+ * 3.同一个对象的并发加载会被合并，只有一个线程真正执行加载(包括解析Entry)，其它线程等待结果；按照名字和guid的加载也会被合并。
+ * 4.如果被代理的Loader实现了{@link TreeLoader#tryLoadEntry(String)}，则同时按照名字和guid缓存。
+ * 5.{@link #loadManyFromFile(String, boolean, Predicate)}不走缓存，通常只在启动时调用。
+ * 6.异步加载时，命中缓存则在调用线程拷贝，否则在{@link #setAsyncExecutor(Executor)}指定的线程池中加载。
+ * 7.可以指定延迟实例化的子树，这些子树在原型中会被替换为{@link LazySubtree}，第一次运行时才拷贝。
+ * 8.可以指定{@link TaskInterner}，使不同原型中配置相同的子树共享同一份原型。
+ * 9.可以指定{@link TreeOptimizer}，在缓存前优化原型，优化先于延迟实例化和驻留执行。
+ *
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+public class CachingTreeLoader implements TreeLoader {
+
+    private final TreeLoader delegate;
+    private final ObjectCopier copier;
+    private final long maximumWeight;
+    /** 需要延迟实例化的子树 */
+    private final Predicate<? super Task<?>> lazyFilter;
+    /** 延迟实例化的子树在重置时是否释放 */
+    private final boolean releaseOnReset;
+
+    /** 主键 -> 缓存项，按照访问顺序排序 */
+    private final LinkedHashMap<String, CacheNode> lruMap = new LinkedHashMap<>(16, 0.75f, true);
+    /** 所有的键(名字和guid) -> 缓存项 */
+    private final HashMap<String, CacheNode> keyMap = new HashMap<>();
+    /** 缓存项的总权重 -- 由lruMap的锁保护 */
+    private long weightedSize;
+    /** 异步加载使用的线程池 */
+    private volatile Executor asyncExecutor = ForkJoinPool.commonPool();
+    /** 原型的驻留器 */
+    private volatile TaskInterner interner;
+    /** 原型的优化器 */
+    private volatile TreeOptimizer optimizer;
+    /** 正在加载的对象 */
+    private final ConcurrentHashMap<String, CompletableFuture<CacheNode>> loadingMap = new ConcurrentHashMap<>();
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder loadSuccessCount = new LongAdder();
+    private final LongAdder loadFailureCount = new LongAdder();
+    private final LongAdder totalLoadTime = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+
+    /**
+     * @param delegate      真实的加载器
+     * @param copier        原型对象的拷贝器
+     * @param maximumWeight 缓存的最大权重，默认为节点数
+     */
+    public CachingTreeLoader(TreeLoader delegate, ObjectCopier copier, long maximumWeight) {
+        this(delegate, copier, maximumWeight, null, false);
+    }
+
+    /**
+     * @param delegate       真实的加载器
+     * @param copier         原型对象的拷贝器
+     * @param maximumWeight  缓存的最大权重，默认为节点数
+     * @param lazyFilter     需要延迟实例化的子树，根节点和条件节点不会被延迟
+     * @param releaseOnReset 延迟实例化的子树在重置时是否释放
+     */
+    public CachingTreeLoader(TreeLoader delegate, ObjectCopier copier, long maximumWeight,
+                             @Nullable Predicate<? super Task<?>> lazyFilter, boolean releaseOnReset) {
+        if (maximumWeight < 0) {
+            throw new IllegalArgumentException("maximumWeight: " + maximumWeight);
+        }
+        this.delegate = Objects.requireNonNull(delegate, "delegate");
+        this.copier = Objects.requireNonNull(copier, "copier");
+        this.maximumWeight = maximumWeight;
+        this.lazyFilter = lazyFilter;
+        this.releaseOnReset = releaseOnReset;
+    }
+
+    // region load
+
+    @Nullable
+    @Override
+    public Object tryLoadObject(String nameOrGuid) {
+        Objects.requireNonNull(nameOrGuid, "nameOrGuid");
+        CacheNode node = getIfPresent(nameOrGuid);
+        if (node != null) {
+            hitCount.increment();
+        } else {
+            missCount.increment();
+            node = getOrLoad(nameOrGuid);
+            if (node == null) {
+                return null;
+            }
+        }
+        return copier.copy(node.prototype);
+    }
+
+    @Override
+    public CompletableFuture<Object> loadObjectAsync(String nameOrGuid) {
+        Objects.requireNonNull(nameOrGuid, "nameOrGuid");
+        CacheNode node = getIfPresent(nameOrGuid);
+        if (node != null) {
+            hitCount.increment();
+            return CompletableFuture.completedFuture(copier.copy(node.prototype));
+        }
+        return CompletableFuture.supplyAsync(() -> loadObject(nameOrGuid), asyncExecutor);
+    }
+
+    @Nullable
+    @Override
+    public IEntry tryLoadEntry(String nameOrGuid) {
+        return delegate.tryLoadEntry(nameOrGuid);
+    }
+
+    @Override
+    public List<Object> loadManyFromFile(String fileName, boolean sharable, @Nullable Predicate<? super IEntry> filter) {
+        return delegate.loadManyFromFile(fileName, sharable, filter);
+    }
+
+    private CacheNode getOrLoad(String nameOrGuid) {
+        CompletableFuture<CacheNode> future = new CompletableFuture<>();
+        CompletableFuture<CacheNode> existing = loadingMap.putIfAbsent(nameOrGuid, future);
+        if (existing != null) {
+            return join(existing);
+        }
+        try {
+            // 可能在检查缓存和注册Future之间完成了加载
+            CacheNode node = getIfPresent(nameOrGuid);
+            if (node == null) {
+                node = resolveAndLoad(nameOrGuid, future);
+            }
+            future.complete(node);
+            return node;
+        } catch (Throwable e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            loadingMap.remove(nameOrGuid, future);
+        }
+    }
+
+    /**
+     * 解析Entry并加载 -- 在nameOrGuid的合并加载中执行，因此Entry只解析一次
+     * 解析后以Entry的名字作为别名再次注册，使按照名字和guid的并发加载也只解码一次。
+     */
+    private CacheNode resolveAndLoad(String nameOrGuid, CompletableFuture<CacheNode> future) {
+        final long startTime = System.nanoTime();
+        IEntry entry;
+        try {
+            entry = delegate.tryLoadEntry(nameOrGuid);
+        } catch (Throwable e) {
+            loadFailureCount.increment();
+            totalLoadTime.add(System.nanoTime() - startTime);
+            throw e;
+        }
+        String key = (entry != null && entry.getName() != null) ? entry.getName() : nameOrGuid;
+        if (key.equals(nameOrGuid)) {
+            return loadAndPut(key, entry, startTime);
+        }
+        CompletableFuture<CacheNode> existing = loadingMap.putIfAbsent(key, future);
+        if (existing != null) {
+            totalLoadTime.add(System.nanoTime() - startTime);
+            return join(existing);
+        }
+        try {
+            return loadAndPut(key, entry, startTime);
+        } finally {
+            loadingMap.remove(key, future);
+        }
+    }
+
+    @Nullable
+    private CacheNode loadAndPut(String key, @Nullable IEntry entry, long startTime) {
+        CacheNode node = getIfPresent(key);
+        if (node != null) {
+            totalLoadTime.add(System.nanoTime() - startTime);
+            return node;
+        }
+        node = load(key, entry, startTime);
+        return node == null ? null : put(node);
+    }
+
+    /** @param startTime 解析Entry的开始时间，解析的耗时也计入加载耗时 */
+    private CacheNode load(String key, @Nullable IEntry entry, long startTime) {
+        final TaskInterner interner = this.interner;
+        final TreeOptimizer optimizer = this.optimizer;
+        try {
+            CacheNode node;
+            if (entry != null) {
+                // Entry的数据是共享的，我们只读不写，因此可以直接作为原型；需要修改原型时则拷贝一份
+                Object prototype = entry.getRoot();
+                if ((lazyFilter != null || interner != null || optimizer != null) && prototype instanceof Task<?>) {
+                    prototype = copier.copy(prototype);
+                }
+                String name = Objects.requireNonNullElse(entry.getName(), key);
+                node = new CacheNode(name, entry.getGuid(), prototype);
+            } else {
+                Object prototype = delegate.tryLoadObject(key);
+                node = prototype == null ? null : new CacheNode(key, null, prototype);
+            }
+            if (node != null) {
+                if (optimizer != null) {
+                    node.prototype = optimizer.optimize(node.prototype);
+                }
+                // 延迟的子树仍然由原型持有，因此在替换前计算权重
+                node.weight = Math.max(1, weigh(node.prototype));
+                if (lazyFilter != null && node.prototype instanceof Task<?> rootTask) {
+                    deflate(rootTask);
+                }
+                if (interner != null) {
+                    node.prototype = interner.intern(node.prototype);
+                }
+            }
+            loadSuccessCount.increment();
+            return node;
+        } catch (Throwable e) {
+            loadFailureCount.increment();
+            throw e;
+        } finally {
+            totalLoadTime.add(System.nanoTime() - startTime);
+        }
+    }
+
+    private static CacheNode join(CompletableFuture<CacheNode> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (cause instanceof Error error) {
+                throw error;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 估算原型对象的权重
+     * 默认情况下，Task的权重为树中的节点数(包含条件节点)，其它对象为1。
+     */
+    protected int weigh(Object prototype) {
+        if (prototype instanceof Task<?> task) {
+            return countNodes(task);
+        }
+        return 1;
+    }
+
+    private static int countNodes(Task<?> task) {
+        int count = 1;
+        if (task.getGuard() != null) {
+            count += countNodes(task.getGuard());
+        }
+        for (int idx = 0, childCount = task.getChildCount(); idx < childCount; idx++) {
+            count += countNodes(task.getChild(idx));
+        }
+        return count;
+    }
+
+    /** 将标记的子树替换为占位节点 */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private void deflate(Task<?> task) {
+        for (int idx = 0, childCount = task.getChildCount(); idx < childCount; idx++) {
+            Task<?> child = task.getChild(idx);
+            deflate(child); // 先处理嵌套的子树
+            if (lazyFilter.test(child)) {
+                ((Task) task).setChild(idx, newPlaceholder(child));
+            }
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private LazySubtree<?> newPlaceholder(Task subtree) {
+        // 前置条件上移到占位节点，避免为了检查条件而实例化子树
+        Task guard = subtree.getGuard();
+        subtree.setGuard(null);
+
+        final ObjectCopier copier = this.copier;
+        LazySubtree placeholder = new LazySubtree<>(() -> (Task) copier.copy(subtree));
+        placeholder.setGuard(guard);
+        placeholder.setReleaseOnReset(releaseOnReset);
+        return placeholder;
+    }
+
+    // endregion
+
+    // region cache
+
+    @Nullable
+    private CacheNode getIfPresent(String key) {
+        synchronized (lruMap) {
+            CacheNode node = keyMap.get(key);
+            if (node != null) {
+                lruMap.get(node.name); // 更新访问顺序
+            }
+            return node;
+        }
+    }
+
+    /** @return 最终缓存的对象 -- 可能已按照别名加载 */
+    private CacheNode put(CacheNode node) {
+        if (node.weight > maximumWeight) {
+            return node;
+        }
+        synchronized (lruMap) {
+            CacheNode existing = keyMap.get(node.name);
+            if (existing == null && node.guid != null) {
+                existing = keyMap.get(node.guid);
+            }
+            if (existing != null) {
+                return existing;
+            }
+            lruMap.put(node.name, node);
+            keyMap.put(node.name, node);
+            if (node.guid != null) {
+                keyMap.put(node.guid, node);
+            }
+            weightedSize += node.weight;
+            evictIfNeed();
+        }
+        return node;
+    }
+
+    private void evictIfNeed() {
+        Iterator<CacheNode> itr = lruMap.values().iterator();
+        while (weightedSize > maximumWeight && itr.hasNext()) {
+            CacheNode eldest = itr.next();
+            itr.remove();
+            removeKeys(eldest);
+            evictionCount.increment();
+        }
+    }
+
+    private void removeKeys(CacheNode node) {
+        keyMap.remove(node.name, node);
+        if (node.guid != null) {
+            keyMap.remove(node.guid, node);
+        }
+        weightedSize -= node.weight;
+    }
+
+    /** 删除指定名字或guid的缓存 -- 通常用于热更新 */
+    public void invalidate(String nameOrGuid) {
+        synchronized (lruMap) {
+            CacheNode node = keyMap.get(nameOrGuid);
+            if (node != null) {
+                lruMap.remove(node.name);
+                removeKeys(node);
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (lruMap) {
+            lruMap.clear();
+            keyMap.clear();
+            weightedSize = 0;
+        }
+    }
+
+    /** 缓存的对象数 */
+    public int estimatedSize() {
+        synchronized (lruMap) {
+            return lruMap.size();
+        }
+    }
+
+    /** 缓存的总权重 */
+    public long weightedSize() {
+        synchronized (lruMap) {
+            return weightedSize;
+        }
+    }
+
+    public long getMaximumWeight() {
+        return maximumWeight;
+    }
+
+    public TreeLoader getDelegate() {
+        return delegate;
+    }
+
+    public ObjectCopier getCopier() {
+        return copier;
+    }
+
+    public Executor getAsyncExecutor() {
+        return asyncExecutor;
+    }
+
+    public void setAsyncExecutor(Executor asyncExecutor) {
+        this.asyncExecutor = Objects.requireNonNull(asyncExecutor, "asyncExecutor");
+    }
+
+    @Nullable
+    public TaskInterner getInterner() {
+        return interner;
+    }
+
+    /** 设置原型的驻留器，只对之后加载的原型生效 */
+    public void setInterner(@Nullable TaskInterner interner) {
+        this.interner = interner;
+    }
+
+    @Nullable
+    public TreeOptimizer getOptimizer() {
+        return optimizer;
+    }
+
+    /** 设置原型的优化器，只对之后加载的原型生效 */
+    public void setOptimizer(@Nullable TreeOptimizer optimizer) {
+        this.optimizer = optimizer;
+    }
+
+    /** 获取统计信息的快照 */
+    public CacheStats stats() {
+        return new CacheStats(hitCount.sum(), missCount.sum(),
+                loadSuccessCount.sum(), loadFailureCount.sum(),
+                totalLoadTime.sum(), evictionCount.sum());
+    }
+
+    // endregion
+
+    private static class CacheNode {
+
+        final String name;
+        final String guid;
+        Object prototype;
+        int weight;
+
+        CacheNode(String name, String guid, Object prototype) {
+            this.name = name;
+            this.guid = guid;
+            this.prototype = prototype;
+        }
+    }
+}
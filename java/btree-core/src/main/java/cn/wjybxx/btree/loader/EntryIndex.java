@@ -0,0 +1,312 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btree.loader;
+
+import cn.wjybxx.btree.Task;
+import cn.wjybxx.btree.TreeLoader;
+
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * 入口元数据索引
+ * 1.索引只包含入口的名字、guid、类型、标记和所在文件，查询时不会解码任何Root对象。
+ * 2.构建索引时需要通过{@link TreeLoader#loadManyFromFile(String, boolean, Predicate)}扫描文件，过滤器总是返回false，
+ * 因此不会拷贝Root对象；但文件本身仍需被解码一次，因此索引应当构建一次后缓存到磁盘。
+ * 3.{@link #loadOrBuild(Path, TreeLoader, Map)}按照源文件的大小和修改时间判断缓存是否有效，只重新扫描变化的文件。
+ * 4.索引是不可变的，可以在线程间共享。
+ *
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+public final class EntryIndex {
+
+    /** 'BTEI' */
+    private static final int MAGIC = 0x42544549;
+    private static final int VERSION = 1;
+    /** 没有源文件信息时的时间戳 */
+    private static final long UNKNOWN_STAMP = -1;
+
+    /** 文件名 -> 文件的索引，保持文件的顺序 */
+    private final Map<String, FileRecord> fileMap;
+    private final List<EntryMeta> entries;
+    private final Map<String, EntryMeta> nameMap;
+    private final Map<String, EntryMeta> guidMap;
+    private final Map<Integer, List<EntryMeta>> typeMap;
+
+    private EntryIndex(Map<String, FileRecord> fileMap) {
+        this.fileMap = fileMap;
+
+        List<EntryMeta> entries = new ArrayList<>();
+        Map<String, EntryMeta> nameMap = new HashMap<>();
+        Map<String, EntryMeta> guidMap = new HashMap<>();
+        Map<Integer, List<EntryMeta>> typeMap = new HashMap<>();
+        for (FileRecord fileRecord : fileMap.values()) {
+            for (EntryMeta entry : fileRecord.entries) {
+                entries.add(entry);
+                if (entry.getName() != null) {
+                    nameMap.putIfAbsent(entry.getName(), entry);
+                }
+                if (entry.getGuid() != null) {
+                    guidMap.putIfAbsent(entry.getGuid(), entry);
+                }
+                typeMap.computeIfAbsent(entry.getType(), k -> new ArrayList<>()).add(entry);
+            }
+        }
+        typeMap.replaceAll((k, list) -> List.copyOf(list));
+        this.entries = List.copyOf(entries);
+        this.nameMap = nameMap;
+        this.guidMap = guidMap;
+        this.typeMap = typeMap;
+    }
+
+    // region 构建
+
+    /**
+     * 扫描给定的文件构建索引（不缓存）
+     *
+     * @param loader    文件的加载器
+     * @param fileNames 要扫描的文件
+     */
+    public static EntryIndex build(TreeLoader loader, Collection<String> fileNames) {
+        Map<String, FileRecord> fileMap = new LinkedHashMap<>();
+        for (String fileName : fileNames) {
+            fileMap.put(fileName, new FileRecord(UNKNOWN_STAMP, UNKNOWN_STAMP, scan(loader, fileName)));
+        }
+        return new EntryIndex(fileMap);
+    }
+
+    /**
+     * 加载磁盘上的索引，并重新扫描变化的文件；如果有文件变化，则将新的索引写回磁盘
+     * 1.索引文件通常放在源文件的目录下。
+     * 2.索引文件不存在或已损坏时，重新扫描所有文件。
+     * 3.源文件中不存在的文件会从索引中删除。
+     *
+     * @param indexFile   索引文件的路径
+     * @param loader      源文件的加载器
+     * @param sourceFiles 文件名 -> 源文件的路径，文件名为加载器使用的名字
+     */
+    public static EntryIndex loadOrBuild(Path indexFile, TreeLoader loader, Map<String, Path> sourceFiles) throws IOException {
+        Map<String, FileRecord> cached;
+        try {
+            cached = read(indexFile).fileMap;
+        } catch (NoSuchFileException e) {
+            cached = Map.of();
+        } catch (IOException | RuntimeException e) {
+            Task.logger.warn("read entry index failed, rebuild, path: " + indexFile, e);
+            cached = Map.of();
+        }
+
+        boolean changed = cached.size() != sourceFiles.size();
+        Map<String, FileRecord> fileMap = new LinkedHashMap<>();
+        for (Map.Entry<String, Path> e : sourceFiles.entrySet()) {
+            String fileName = e.getKey();
+            Path path = e.getValue();
+            long size = Files.size(path);
+            long lastModified = Files.getLastModifiedTime(path).toMillis();
+
+            FileRecord fileRecord = cached.get(fileName);
+            if (fileRecord == null || fileRecord.size != size || fileRecord.lastModified != lastModified) {
+                fileRecord = new FileRecord(size, lastModified, scan(loader, fileName));
+                changed = true;
+            }
+            fileMap.put(fileName, fileRecord);
+        }
+        EntryIndex index = new EntryIndex(fileMap);
+        if (changed) {
+            index.write(indexFile);
+        }
+        return index;
+    }
+
+    private static List<EntryMeta> scan(TreeLoader loader, String fileName) {
+        List<EntryMeta> result = new ArrayList<>();
+        loader.loadManyFromFile(fileName, true, entry -> {
+            result.add(EntryMeta.of(entry, fileName));
+            return false;
+        });
+        return List.copyOf(result);
+    }
+
+    // endregion
+
+    // region 读写
+
+    /** 从磁盘读取索引 */
+    public static EntryIndex read(Path indexFile) throws IOException {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            if (input.readInt() != MAGIC) {
+                throw new IOException("invalid entry index: " + indexFile);
+            }
+            int version = input.readInt();
+            if (version != VERSION) {
+                throw new IOException("unsupported entry index version: " + version);
+            }
+            int fileCount = input.readInt();
+            Map<String, FileRecord> fileMap = new LinkedHashMap<>();
+            for (int i = 0; i < fileCount; i++) {
+                String fileName = input.readUTF();
+                long size = input.readLong();
+                long lastModified = input.readLong();
+                int entryCount = input.readInt();
+                List<EntryMeta> entries = new ArrayList<>(entryCount);
+                for (int j = 0; j < entryCount; j++) {
+                    String name = readNullableString(input);
+                    String guid = readNullableString(input);
+                    int type = input.readInt();
+                    int flags = input.readInt();
+                    entries.add(new EntryMeta(name, guid, fileName, type, flags));
+                }
+                fileMap.put(fileName, new FileRecord(size, lastModified, List.copyOf(entries)));
+            }
+            return new EntryIndex(fileMap);
+        }
+    }
+
+    /** 将索引写入磁盘 -- 先写入临时文件再替换，避免读到写了一半的文件 */
+    public void write(Path indexFile) throws IOException {
+        Path parent = indexFile.toAbsolutePath().getParent();
+        Path tempFile = Files.createTempFile(parent, indexFile.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+                output.writeInt(MAGIC);
+                output.writeInt(VERSION);
+                output.writeInt(fileMap.size());
+                for (Map.Entry<String, FileRecord> e : fileMap.entrySet()) {
+                    FileRecord fileRecord = e.getValue();
+                    output.writeUTF(e.getKey());
+                    output.writeLong(fileRecord.size);
+                    output.writeLong(fileRecord.lastModified);
+                    output.writeInt(fileRecord.entries.size());
+                    for (EntryMeta entry : fileRecord.entries) {
+                        writeNullableString(output, entry.getName());
+                        writeNullableString(output, entry.getGuid());
+                        output.writeInt(entry.getType());
+                        output.writeInt(entry.getFlags());
+                    }
+                }
+            }
+            Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    private static void writeNullableString(DataOutputStream output, String value) throws IOException {
+        output.writeBoolean(value != null);
+        if (value != null) {
+            output.writeUTF(value);
+        }
+    }
+
+    private static String readNullableString(DataInputStream input) throws IOException {
+        return input.readBoolean() ? input.readUTF() : null;
+    }
+
+    // endregion
+
+    // region 查询
+
+    /** 所有的入口，按照文件顺序排序 */
+    public List<EntryMeta> getEntries() {
+        return entries;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /** 索引包含的文件 */
+    public Set<String> getFileNames() {
+        return Collections.unmodifiableSet(fileMap.keySet());
+    }
+
+    /** 查询文件中的入口 */
+    public List<EntryMeta> getEntriesOfFile(String fileName) {
+        FileRecord fileRecord = fileMap.get(fileName);
+        return fileRecord == null ? List.of() : fileRecord.entries;
+    }
+
+    /** 按照名字或guid查询 -- 先按照名字查询 */
+    @Nullable
+    public EntryMeta find(String nameOrGuid) {
+        EntryMeta entry = nameMap.get(nameOrGuid);
+        return entry != null ? entry : guidMap.get(nameOrGuid);
+    }
+
+    /** 查询给定类型的入口 */
+    public List<EntryMeta> findByType(int type) {
+        return typeMap.getOrDefault(type, List.of());
+    }
+
+    /** 查询包含全部给定标记的入口 */
+    public List<EntryMeta> findByFlags(int flags) {
+        return filter(entry -> entry.hasFlags(flags));
+    }
+
+    /** 查询给定类型且包含全部给定标记的入口 */
+    public List<EntryMeta> query(int type, int flags) {
+        List<EntryMeta> result = new ArrayList<>();
+        for (EntryMeta entry : findByType(type)) {
+            if (entry.hasFlags(flags)) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    public List<EntryMeta> filter(Predicate<? super EntryMeta> filter) {
+        List<EntryMeta> result = new ArrayList<>();
+        for (EntryMeta entry : entries) {
+            if (filter.test(entry)) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    // endregion
+
+    private static class FileRecord {
+
+        final long size;
+        final long lastModified;
+        final List<EntryMeta> entries;
+
+        FileRecord(long size, long lastModified, List<EntryMeta> entries) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.entries = entries;
+        }
+    }
+}
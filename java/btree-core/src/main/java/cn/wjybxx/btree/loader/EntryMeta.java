@@ -0,0 +1,100 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btree.loader;
+
+import cn.wjybxx.btree.TreeLoader;
+
+import java.util.Objects;
+
+/**
+ * 入口对象的元数据 -- 不包含Root对象
+ *
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+public final class EntryMeta {
+
+    private final String name;
+    private final String guid;
+    private final String fileName;
+    private final int type;
+    private final int flags;
+
+    public EntryMeta(String name, String guid, String fileName, int type, int flags) {
+        this.name = name;
+        this.guid = guid;
+        this.fileName = Objects.requireNonNull(fileName, "fileName");
+        this.type = type;
+        this.flags = flags;
+    }
+
+    public static EntryMeta of(TreeLoader.IEntry entry, String fileName) {
+        return new EntryMeta(entry.getName(), entry.getGuid(), fileName, entry.getType(), entry.getFlags());
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getGuid() {
+        return guid;
+    }
+
+    /** 入口所在的文件 */
+    public String getFileName() {
+        return fileName;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    /** 是否包含全部给定的标记 */
+    public boolean hasFlags(int flags) {
+        return (this.flags & flags) == flags;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof EntryMeta that)) return false;
+        return type == that.type
+                && flags == that.flags
+                && Objects.equals(name, that.name)
+                && Objects.equals(guid, that.guid)
+                && fileName.equals(that.fileName);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(name, guid, fileName, type, flags);
+    }
+
+    @Override
+    public String toString() {
+        return "EntryMeta{" +
+                "name='" + name + '\'' +
+                ", guid='" + guid + '\'' +
+                ", fileName='" + fileName + '\'' +
+                ", type=" + type +
+                ", flags=" + flags +
+                '}';
+    }
+}
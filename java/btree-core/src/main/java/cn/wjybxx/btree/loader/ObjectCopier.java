@@ -0,0 +1,39 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btree.loader;
+
+/**
+ * 对象拷贝器
+ * 1.用于从原型对象创建新的实例，通常是深拷贝行为树的配置数据和结构。
+ * 2.实现不应该拷贝Task的运行时数据，拷贝得到的Task应该处于新建状态。
+ * 3.实现必须是线程安全的，原型对象可能在多个线程上同时被拷贝。
+ * 4.实现应当在拷贝完对象后调用{@link PrototypeShared#shareFrom(Object)}，使副本引用原型上的共享数据。
+ *
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+@FunctionalInterface
+public interface ObjectCopier {
+
+    /**
+     * 拷贝对象
+     *
+     * @param prototype 原型对象，不可以修改
+     * @return 新的实例
+     */
+    Object copy(Object prototype);
+
+}
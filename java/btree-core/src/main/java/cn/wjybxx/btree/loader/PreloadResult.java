@@ -0,0 +1,77 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btree.loader;
+
+import java.util.Map;
+
+/**
+ * 批量预加载的结果
+ * 1.结果是不可变的，且按照请求的顺序排序。
+ * 2.每个入口单独记录异常，一个失败不影响其它的加载；文件中部分入口失败时，文件仍包含加载成功的入口。
+ * 3.文件本身的异常和文件中入口的异常分开记录，避免文件名和入口名冲突时互相覆盖。
+ *
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+public final class PreloadResult<V> {
+
+    private final Map<String, V> loaded;
+    private final Map<String, Throwable> errors;
+    private final Map<String, Map<String, Throwable>> entryErrors;
+    private final long elapsedNanos;
+
+    PreloadResult(Map<String, V> loaded, Map<String, Throwable> errors,
+                  Map<String, Map<String, Throwable>> entryErrors, long elapsedNanos) {
+        this.loaded = loaded;
+        this.errors = errors;
+        this.entryErrors = entryErrors;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /** 加载成功的对象；key为文件名或入口的名字 */
+    public Map<String, V> getLoaded() {
+        return loaded;
+    }
+
+    /** 加载失败的异常；key为文件名或入口的名字，与请求的key一致 */
+    public Map<String, Throwable> getErrors() {
+        return errors;
+    }
+
+    /** 文件中解码失败的入口；key为文件名，value为入口名字到异常的映射 -- 只在预加载文件时存在 */
+    public Map<String, Map<String, Throwable>> getEntryErrors() {
+        return entryErrors;
+    }
+
+    public boolean hasErrors() {
+        return !errors.isEmpty() || !entryErrors.isEmpty();
+    }
+
+    /** 总耗时，单位纳秒 */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "PreloadResult{" +
+                "loaded=" + loaded.size() +
+                ", errors=" + errors.keySet() +
+                ", entryErrors=" + entryErrors.keySet() +
+                ", elapsedNanos=" + elapsedNanos +
+                '}';
+    }
+}
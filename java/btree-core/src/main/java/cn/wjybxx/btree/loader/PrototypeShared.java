@@ -0,0 +1,36 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btree.loader;
+
+/**
+ * 与原型共享数据的对象
+ * 1.{@link ObjectCopier}拷贝完对象的字段后调用{@link #shareFrom(Object)}，副本可以引用原型上的transient数据，例如统计数据和查找表。
+ * 2.共享的数据挂在原型上，随原型一起释放：原型被缓存淘汰或重新加载后，新原型的副本使用新的数据。
+ * 3.原型可能在多个线程上同时被拷贝，共享的数据也可能被多个线程同时访问，因此必须是不可变的或线程安全的。
+ *
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+public interface PrototypeShared {
+
+    /**
+     * 引用原型上的共享数据
+     *
+     * @param prototype 拷贝的源对象，与当前对象的类型相同
+     */
+    void shareFrom(Object prototype);
+
+}
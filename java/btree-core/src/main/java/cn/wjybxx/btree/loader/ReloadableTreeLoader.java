@@ -0,0 +1,337 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btree.loader;
+
+import cn.wjybxx.btree.Task;
+import cn.wjybxx.btree.TaskEntry;
+import cn.wjybxx.btree.TaskEntryHandler;
+import cn.wjybxx.btree.TreeLoader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * 支持热更新的加载器
+ * <p>
+ * 1.加载器持有每棵树的原型，每次加载都通过{@link ObjectCopier}返回新的实例。
+ * 2.重新加载文件时，先在调用线程（通常是后台线程）解码，再逐个原子地替换原型，并递增树的版本号。
+ * 3.正在运行的{@link TaskEntry}不会被修改，而是在安全点切换到新的定义：
+ * <ul>
+ *     <li>{@link #trySwap(TaskEntry)}：Entry未运行时（新建或已完成）替换根节点</li>
+ *     <li>{@link #bindSwapOnCompleted(TaskEntry)}：Entry每次完成后自动替换根节点</li>
+ *     <li>状态机切换状态时通过加载器加载新状态，因此切换状态天然是安全点，不需要额外处理</li>
+ * </ul>
+ * 4.缓存和对象池可通过{@link #getVersion(String)}和{@link TaskEntry#getTreeVersion()}判断实例是否过期。
+ * 5.被代理的加载器在{@link #loadManyFromFile(String, boolean, Predicate)}时必须重新读取文件，不能缓存。
+ *
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+public class ReloadableTreeLoader implements TreeLoader, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReloadableTreeLoader.class);
+
+    private final TreeLoader delegate;
+    private final ObjectCopier copier;
+    /** name和guid到原型的映射 */
+    private final ConcurrentHashMap<String, Prototype> prototypeMap = new ConcurrentHashMap<>();
+    /** 全局版本号 -- 任意树重新加载时递增 */
+    private final AtomicLong globalVersion = new AtomicLong();
+
+    private volatile WatchService watchService;
+
+    public ReloadableTreeLoader(TreeLoader delegate, ObjectCopier copier) {
+        this.delegate = Objects.requireNonNull(delegate, "delegate");
+        this.copier = Objects.requireNonNull(copier, "copier");
+    }
+
+    // region load
+
+    @Nullable
+    @Override
+    public Object tryLoadObject(String nameOrGuid) {
+        Prototype prototype = getPrototype(nameOrGuid);
+        return prototype == null ? null : copier.copy(prototype.value);
+    }
+
+    @Nullable
+    @Override
+    public IEntry tryLoadEntry(String nameOrGuid) {
+        return delegate.tryLoadEntry(nameOrGuid);
+    }
+
+    @Override
+    public List<Object> loadManyFromFile(String fileName, boolean sharable, @Nullable Predicate<? super IEntry> filter) {
+        return delegate.loadManyFromFile(fileName, sharable, filter);
+    }
+
+    /** 加载行为树，并记录树的版本号 */
+    @Override
+    public <T> TaskEntry<T> loadTree(String treeName) {
+        Prototype prototype = getPrototype(treeName);
+        if (prototype == null) {
+            throw new IllegalArgumentException("target tree is absent, name: " + treeName);
+        }
+        TaskEntry<T> taskEntry = new TaskEntry<>(treeName, castRoot(treeName, copier.copy(prototype.value)), null, null, this);
+        taskEntry.setTreeVersion(prototype.version);
+        return taskEntry;
+    }
+
+    @Nullable
+    private Prototype getPrototype(String nameOrGuid) {
+        Prototype prototype = prototypeMap.get(nameOrGuid);
+        if (prototype != null) {
+            return prototype;
+        }
+        // 首次加载 -- 并发加载时以先注册的为准
+        IEntry entry = delegate.tryLoadEntry(nameOrGuid);
+        if (entry != null) {
+            prototype = new Prototype(entry.getRoot(), 1);
+            Prototype existing = prototypeMap.putIfAbsent(entry.getName(), prototype);
+            if (existing != null) {
+                return existing;
+            }
+            if (entry.getGuid() != null) {
+                prototypeMap.putIfAbsent(entry.getGuid(), prototype);
+            }
+            return prototype;
+        }
+        Object value = delegate.tryLoadObject(nameOrGuid);
+        if (value == null) {
+            return null;
+        }
+        prototype = new Prototype(value, 1);
+        Prototype existing = prototypeMap.putIfAbsent(nameOrGuid, prototype);
+        return existing != null ? existing : prototype;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Task<T> castRoot(String treeName, Object root) {
+        if (!(root instanceof Task<?>)) {
+            throw new IllegalArgumentException("target object is not a task, name: " + treeName);
+        }
+        return (Task<T>) root;
+    }
+
+    // endregion
+
+    // region reload
+
+    /**
+     * 重新加载文件中的所有入口，并替换原型
+     * 该方法会在当前线程解码，通常应该在后台线程调用。
+     *
+     * @return 替换的入口名字
+     */
+    public List<String> reloadFile(String fileName) {
+        List<IEntry> entries = new ArrayList<>();
+        // 过滤器返回false，Loader不会拷贝入口对象
+        delegate.loadManyFromFile(fileName, true, entry -> {
+            entries.add(entry);
+            return false;
+        });
+        List<String> names = new ArrayList<>(entries.size());
+        for (IEntry entry : entries) {
+            Object root = Objects.requireNonNull(entry.getRoot(), "root");
+            Prototype prototype = prototypeMap.compute(entry.getName(),
+                    (k, old) -> new Prototype(root, old == null ? 1 : old.version + 1));
+            if (entry.getGuid() != null) {
+                prototypeMap.put(entry.getGuid(), prototype);
+            }
+            names.add(entry.getName());
+        }
+        if (!names.isEmpty()) {
+            globalVersion.incrementAndGet();
+        }
+        return names;
+    }
+
+    /** 在给定的线程池中重新加载文件 */
+    public CompletableFuture<List<String>> reloadFileAsync(String fileName, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> reloadFile(fileName), executor);
+    }
+
+    /**
+     * 监听目录下文件的变化，并在后台线程重新加载
+     * 1.同一批事件中的同一个文件只加载一次。
+     * 2.加载失败只打印日志，原型保持不变。
+     *
+     * @param directory      要监听的目录
+     * @param fileNameMapper 将变化的文件转换为{@link #reloadFile(String)}的文件名，返回null表示忽略
+     */
+    public synchronized void watch(Path directory, Function<? super Path, String> fileNameMapper) throws IOException {
+        if (watchService != null) {
+            throw new IllegalStateException("already watching");
+        }
+        WatchService service = FileSystems.getDefault().newWatchService();
+        directory.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        watchService = service;
+
+        Thread thread = new Thread(() -> watchLoop(service, directory, fileNameMapper), "btree-reloader");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void watchLoop(WatchService service, Path directory, Function<? super Path, String> fileNameMapper) {
+        while (true) {
+            WatchKey key;
+            try {
+                key = service.take();
+                // 编辑器保存文件时通常产生多个事件，稍等片刻合并
+                TimeUnit.MILLISECONDS.sleep(50);
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            Set<String> fileNames = new LinkedHashSet<>();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.context() instanceof Path path) {
+                    String fileName = fileNameMapper.apply(directory.resolve(path));
+                    if (fileName != null) {
+                        fileNames.add(fileName);
+                    }
+                }
+            }
+            for (String fileName : fileNames) {
+                try {
+                    List<String> names = reloadFile(fileName);
+                    logger.info("reload file: {}, entries: {}", fileName, names);
+                } catch (Exception e) {
+                    logger.warn("reload file caught exception, fileName: " + fileName, e);
+                }
+            }
+            if (!key.reset()) {
+                return;
+            }
+        }
+    }
+
+    /** 停止监听文件 */
+    @Override
+    public synchronized void close() throws IOException {
+        WatchService service = watchService;
+        if (service != null) {
+            watchService = null;
+            service.close();
+        }
+    }
+
+    // endregion
+
+    // region version
+
+    /**
+     * 获取树的版本号
+     *
+     * @return 如果树尚未加载则返回0
+     */
+    public int getVersion(String nameOrGuid) {
+        Prototype prototype = prototypeMap.get(nameOrGuid);
+        return prototype == null ? 0 : prototype.version;
+    }
+
+    /** 全局版本号 -- 可用于快速判断是否有任何树被重新加载 */
+    public long getGlobalVersion() {
+        return globalVersion.get();
+    }
+
+    /** Entry是否使用的是旧版本的定义 */
+    public boolean isStale(TaskEntry<?> taskEntry) {
+        Prototype prototype = prototypeMap.get(taskEntry.getName());
+        return prototype != null && prototype.version != taskEntry.getTreeVersion();
+    }
+
+    /**
+     * 如果Entry未运行且定义已过期，则替换为新的定义
+     * 替换后Entry的状态不变，下次{@link TaskEntry#update(int)}时运行新的根节点。
+     *
+     * @return 是否替换了根节点
+     */
+    public <T> boolean trySwap(TaskEntry<T> taskEntry) {
+        if (taskEntry.isRunning() || !isStale(taskEntry)) {
+            return false;
+        }
+        Prototype prototype = prototypeMap.get(taskEntry.getName());
+        Task<T> rootTask = castRoot(taskEntry.getName(), copier.copy(prototype.value));
+        taskEntry.setRootTask(rootTask);
+        taskEntry.setTreeVersion(prototype.version);
+        return true;
+    }
+
+    /**
+     * 在Entry每次完成后自动切换到最新的定义
+     * 会包装Entry当前的{@link TaskEntryHandler}，切换在原Handler之后执行。
+     */
+    public <T> void bindSwapOnCompleted(TaskEntry<T> taskEntry) {
+        TaskEntryHandler<T> handler = taskEntry.getHandler();
+        if (handler instanceof SwapOnCompletedHandler<T> swapHandler && swapHandler.loader == this) {
+            return;
+        }
+        taskEntry.setHandler(new SwapOnCompletedHandler<>(this, handler));
+    }
+
+    // endregion
+
+    private static class Prototype {
+
+        final Object value;
+        final int version;
+
+        Prototype(Object value, int version) {
+            this.value = value;
+            this.version = version;
+        }
+    }
+
+    private static class SwapOnCompletedHandler<T> implements TaskEntryHandler<T> {
+
+        final ReloadableTreeLoader loader;
+        final TaskEntryHandler<T> handler;
+
+        SwapOnCompletedHandler(ReloadableTreeLoader loader, TaskEntryHandler<T> handler) {
+            this.loader = loader;
+            this.handler = handler;
+        }
+
+        @Override
+        public void onCompleted(TaskEntry<T> taskEntry) {
+            if (handler != null) {
+                handler.onCompleted(taskEntry);
+            }
+            loader.trySwap(taskEntry);
+        }
+    }
+}
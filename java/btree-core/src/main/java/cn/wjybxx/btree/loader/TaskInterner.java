@@ -0,0 +1,225 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btree.loader;
+
+import cn.wjybxx.btree.Task;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.lang.reflect.InaccessibleObjectException;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * 原型树的内容驻留（去重）
+ * 1.按照节点的类型、配置字段(非transient字段)和子节点计算子树的哈希，配置相同的子树只保留一份原型。
+ * 2.驻留是自底向上进行的，子节点和条件节点先被替换为驻留的实例，因此父节点只需要按引用比较子节点。
+ * 3.驻留池是跨文件共享的，同一个Interner处理的所有原型都会互相去重。
+ * 4.驻留后同一个节点可能出现在树中的多个位置，因此<b>驻留后的树只能作为原型</b>，必须通过{@link ObjectCopier}拷贝后运行；
+ * Task包含运行时状态和父节点引用，因此运行时的实例无法共享。
+ * 5.未重写equals的配置对象按照引用比较，因此只有引用相同时才被视为相同；无法反射访问的类型不驻留。
+ * 6.驻留会修改传入的原型，调用者需要确保原型没有被共享；该类是线程安全的。
+ * 7.驻留池只弱引用驻留的实例，原型被缓存淘汰或重新加载后，不再被任何原型引用的子树可以被回收，池中的条目随之清除。
+ *
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+public class TaskInterner {
+
+    private static final Field[] NOT_INTERNABLE = new Field[0];
+
+    /** 配置字段缓存 */
+    private static final ClassValue<Field[]> configFields = new ClassValue<>() {
+        @Override
+        protected Field[] computeValue(Class<?> type) {
+            return findConfigFields(type);
+        }
+    };
+
+    /** 子树的配置 -> 驻留的实例 */
+    private final HashMap<Key, InternedRef> pool = new HashMap<>();
+    /** 已被回收的驻留实例 */
+    private final ReferenceQueue<Task<?>> queue = new ReferenceQueue<>();
+    /** 被替换的节点数 */
+    private long hitCount;
+    /** 处理过的节点数 */
+    private long nodeCount;
+
+    /**
+     * 驻留给定的原型
+     *
+     * @param prototype 原型对象，非Task类型直接返回
+     * @return 驻留后的原型，可能是之前驻留的实例
+     */
+    public synchronized Object intern(Object prototype) {
+        if (prototype instanceof Task<?> task) {
+            expungeStaleEntries();
+            return internTask(task);
+        }
+        return prototype;
+    }
+
+    /** 驻留池中的节点数 */
+    public synchronized int getPoolSize() {
+        expungeStaleEntries();
+        return pool.size();
+    }
+
+    /** 被替换为驻留实例的节点数 */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /** 处理过的节点总数 */
+    public synchronized long getNodeCount() {
+        return nodeCount;
+    }
+
+    /** 清空驻留池 -- 已驻留的原型不受影响 */
+    public synchronized void clear() {
+        pool.clear(); // 队列中残留的引用在删除时不会匹配新的条目
+    }
+
+    /** 删除实例已被回收的条目 -- 条目的key引用着子节点，删除后子树才能被回收 */
+    private void expungeStaleEntries() {
+        Reference<? extends Task<?>> ref;
+        while ((ref = queue.poll()) != null) {
+            InternedRef internedRef = (InternedRef) ref;
+            pool.remove(internedRef.key, internedRef);
+        }
+    }
+
+    private Task<?> internTask(Task<?> task) {
+        nodeCount++;
+        Field[] fields = configFields.get(task.getClass());
+        if (fields == NOT_INTERNABLE) {
+            return task;
+        }
+        Object[] values = new Object[fields.length + 1];
+        values[0] = task.getClass();
+        try {
+            for (int idx = 0; idx < fields.length; idx++) {
+                Field field = fields[idx];
+                Object value = field.get(task);
+                Object interned = internValue(value);
+                if (interned != value) {
+                    field.set(task, interned);
+                }
+                values[idx + 1] = interned;
+            }
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+        Key key = new Key(values);
+        InternedRef ref = pool.get(key);
+        Task<?> existing = ref == null ? null : ref.get();
+        if (existing != null) {
+            hitCount++;
+            return existing;
+        }
+        pool.put(key, new InternedRef(task, key, queue));
+        return task;
+    }
+
+    /** 驻留字段的值，Task按引用比较，因此只需要替换为驻留的实例 */
+    private Object internValue(Object value) {
+        if (value instanceof Task<?> task) {
+            return internTask(task);
+        }
+        if (value instanceof List<?> list) {
+            internElements(list);
+        } else if (value instanceof Object[] array) {
+            for (int idx = 0; idx < array.length; idx++) {
+                if (array[idx] instanceof Task<?> task) {
+                    array[idx] = internTask(task);
+                }
+            }
+        }
+        return value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void internElements(List<?> list) {
+        List<Object> objectList = (List<Object>) list;
+        for (int idx = 0, size = objectList.size(); idx < size; idx++) {
+            if (objectList.get(idx) instanceof Task<?> task) {
+                Task<?> interned = internTask(task);
+                if (interned != task) {
+                    objectList.set(idx, interned);
+                }
+            }
+        }
+    }
+
+    private static Field[] findConfigFields(Class<?> type) {
+        List<Field> result = new ArrayList<>();
+        try {
+            for (Class<?> clazz = type; clazz != Object.class; clazz = clazz.getSuperclass()) {
+                for (Field field : clazz.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)) {
+                        continue;
+                    }
+                    field.setAccessible(true);
+                    result.add(field);
+                }
+            }
+        } catch (InaccessibleObjectException e) {
+            return NOT_INTERNABLE;
+        }
+        return result.toArray(Field[]::new);
+    }
+
+    /** 驻留实例的弱引用，记录key以便在回收后删除条目 */
+    private static class InternedRef extends WeakReference<Task<?>> {
+
+        final Key key;
+
+        InternedRef(Task<?> referent, Key key, ReferenceQueue<Task<?>> queue) {
+            super(referent, queue);
+            this.key = key;
+        }
+    }
+
+    /** 按照内容比较的配置 -- 首个元素为类型 */
+    private static class Key {
+
+        final Object[] values;
+        final int hash;
+
+        Key(Object[] values) {
+            this.values = values;
+            this.hash = Arrays.deepHashCode(values);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof Key that)) return false;
+            return hash == that.hash && Arrays.deepEquals(values, that.values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,376 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btree.loader;
+
+import cn.wjybxx.btree.BranchTask;
+import cn.wjybxx.btree.ConditionTask;
+import cn.wjybxx.btree.Task;
+import cn.wjybxx.btree.TaskStatus;
+import cn.wjybxx.btree.TreeLoader;
+import cn.wjybxx.btree.branch.ConditionSequence;
+import cn.wjybxx.btree.branch.Selector;
+import cn.wjybxx.btree.branch.Sequence;
+import cn.wjybxx.btree.decorator.AlwaysSuccess;
+import cn.wjybxx.btree.decorator.Inverter;
+import cn.wjybxx.btree.decorator.SubtreeRef;
+import cn.wjybxx.btree.leaf.Failure;
+import cn.wjybxx.btree.leaf.Success;
+
+import javax.annotation.Nullable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 加载期的行为树优化器 -- 将树改写为等价但层级更少的形状
+ * 1.展开嵌套的{@link Sequence}和{@link Selector}。
+ * 2.折叠{@code Inverter(Inverter(x))}和{@code AlwaysSuccess(Success)}。
+ * 3.内联加载期已知的{@link SubtreeRef}。
+ * 4.删除恒为true的guard。
+ * 5.将{@link Sequence}中连续的{@link ConditionTask}合并为{@link ConditionSequence}。
+ * <p>
+ * 优化保证最终状态（包括失败码）和运行帧数不变，但不保证树的结构不变，因此：
+ * 1.只改写确切的类型，不改写子类；带有guard或flags的中间节点不会被删除，非默认配置的{@link Selector}不会被展开。
+ * 2.优化后的树不能与优化前的树互相恢复快照。
+ * 3.优化会修改传入的树，通常在原型上执行一次。
+ * 4.内联使用的加载器不能是正在加载该树的{@link CachingTreeLoader}，否则循环引用可能导致死锁；通常传入被代理的加载器。
+ *
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+public class TreeOptimizer {
+
+    /** 展开嵌套的Sequence和Selector */
+    public static final int FLATTEN = 1;
+    /** 折叠冗余的装饰器 */
+    public static final int FOLD_DECORATOR = 1 << 1;
+    /** 内联子树 */
+    public static final int INLINE_SUBTREE = 1 << 2;
+    /** 删除恒为true的guard */
+    public static final int DROP_CONSTANT_GUARD = 1 << 3;
+    /** 合并连续的条件节点 */
+    public static final int FUSE_CONDITION = 1 << 4;
+    /** 所有优化 */
+    public static final int ALL = FLATTEN | FOLD_DECORATOR | INLINE_SUBTREE | DROP_CONSTANT_GUARD | FUSE_CONDITION;
+
+    private final int options;
+    private final TreeLoader subtreeLoader;
+
+    /**
+     * @param options       启用的优化
+     * @param subtreeLoader 内联子树使用的加载器，为null时不内联
+     */
+    public TreeOptimizer(int options, @Nullable TreeLoader subtreeLoader) {
+        this.options = subtreeLoader == null ? (options & ~INLINE_SUBTREE) : options;
+        this.subtreeLoader = subtreeLoader;
+    }
+
+    public int getOptions() {
+        return options;
+    }
+
+    /**
+     * 优化给定的对象
+     *
+     * @param prototype 非Task类型直接返回
+     * @return 优化后的对象，根节点可能被替换
+     */
+    public Object optimize(Object prototype) {
+        if (prototype instanceof Task<?> task) {
+            return rewrite(task, new ArrayDeque<>());
+        }
+        return prototype;
+    }
+
+    /**
+     * 优化给定的树
+     *
+     * @return 优化后的根节点，可能被替换
+     */
+    public <T> Task<T> optimize(Task<T> rootTask) {
+        return rewrite(rootTask, new ArrayDeque<>());
+    }
+
+    /**
+     * 自底向上改写
+     *
+     * @param inlining 正在内联的子树，用于检测循环引用
+     */
+    private <T> Task<T> rewrite(Task<T> task, ArrayDeque<String> inlining) {
+        Task<T> guard = task.getGuard();
+        if (guard != null) {
+            guard = rewrite(guard, inlining);
+            if (isEnabled(DROP_CONSTANT_GUARD) && isConstantTrue(guard)) {
+                guard = null;
+            }
+            task.setGuard(guard);
+        }
+        for (int idx = 0, childCount = task.getChildCount(); idx < childCount; idx++) {
+            Task<T> child = task.getChild(idx);
+            Task<T> newChild = rewrite(child, inlining);
+            if (newChild != child) {
+                task.setChild(idx, newChild);
+            }
+        }
+
+        Class<?> type = task.getClass();
+        if (type == Sequence.class || type == Selector.class) {
+            BranchTask<T> branch = (BranchTask<T>) task;
+            if (isEnabled(FLATTEN)) {
+                flatten(branch);
+            }
+            if (type == Sequence.class && isEnabled(FUSE_CONDITION)) {
+                fuseConditions(branch);
+            }
+            return task;
+        }
+        if (type == SubtreeRef.class && isEnabled(INLINE_SUBTREE)) {
+            return inline((SubtreeRef<T>) task, inlining);
+        }
+        if (type == Inverter.class && isEnabled(FOLD_DECORATOR)) {
+            return foldInverter((Inverter<T>) task);
+        }
+        if (type == AlwaysSuccess.class && isEnabled(FOLD_DECORATOR)) {
+            return foldAlwaysSuccess((AlwaysSuccess<T>) task);
+        }
+        return task;
+    }
+
+    private boolean isEnabled(int option) {
+        return (options & option) != 0;
+    }
+
+    /** 是否是可以删除的中间节点 */
+    private static boolean isPlain(Task<?> task) {
+        return task.getGuard() == null && task.getFlags() == 0;
+    }
+
+    /** 将wrapper替换为target，wrapper的guard转移到target上 */
+    private static <T> Task<T> replace(Task<T> wrapper, Task<T> target) {
+        if (wrapper.getFlags() != 0) {
+            return wrapper;
+        }
+        Task<T> guard = wrapper.getGuard();
+        if (guard != null) {
+            if (target.getGuard() != null) {
+                return wrapper;
+            }
+            wrapper.setGuard(null);
+            target.setGuard(guard);
+        }
+        return target;
+    }
+
+    // region 展开
+
+    /** 同类型的子节点直接提升；空分支在运行时会抛出异常，不能删除 */
+    private static <T> void flatten(BranchTask<T> branch) {
+        if (!hasDefaultConfig(branch)) {
+            return;
+        }
+        List<Task<T>> children = branch.getChildren();
+        boolean changed = false;
+        for (Task<T> child : children) {
+            if (isFlattenable(branch, child)) {
+                changed = true;
+                break;
+            }
+        }
+        if (!changed) {
+            return;
+        }
+        List<Task<T>> newChildren = new ArrayList<>(children.size() + 4);
+        for (Task<T> child : children) {
+            if (isFlattenable(branch, child)) {
+                // 子节点已经展开，因此只需要展开一层
+                newChildren.addAll(((BranchTask<T>) child).getChildren());
+            } else {
+                newChildren.add(child);
+            }
+        }
+        branch.setChildren(newChildren);
+    }
+
+    private static boolean isFlattenable(BranchTask<?> branch, Task<?> child) {
+        return child.getClass() == branch.getClass() && isPlain(child) && hasDefaultConfig(child) && child.getChildCount() > 0;
+    }
+
+    /**
+     * 分支是否为默认配置
+     * Selector的失败退避和自适应顺序作用于自身的子节点，展开后将作用于不同的子节点集合，因此父子节点都必须是默认配置。
+     */
+    private static boolean hasDefaultConfig(Task<?> branch) {
+        if (branch instanceof Selector<?> selector) {
+            List<String> backoffResetKeys = selector.getBackoffResetKeys();
+            return !selector.isAdaptiveOrder()
+                    && selector.getFailureBackoff() == 0
+                    && selector.getMaxFailureBackoff() == 0
+                    && (backoffResetKeys == null || backoffResetKeys.isEmpty());
+        }
+        return true;
+    }
+
+    /** 连续两个及以上的条件节点才合并 */
+    private static <T> void fuseConditions(BranchTask<T> sequence) {
+        List<Task<T>> children = sequence.getChildren();
+        List<Task<T>> newChildren = null;
+        int idx = 0;
+        while (idx < children.size()) {
+            int end = idx;
+            while (end < children.size() && isFusibleCondition(children.get(end))) {
+                end++;
+            }
+            if (end - idx >= 2) {
+                if (newChildren == null) {
+                    newChildren = new ArrayList<>(children.subList(0, idx));
+                }
+                newChildren.add(newConditionSequence(children.subList(idx, end)));
+                idx = end;
+            } else {
+                if (newChildren != null) {
+                    newChildren.add(children.get(idx));
+                }
+                idx++;
+            }
+        }
+        if (newChildren != null) {
+            sequence.setChildren(newChildren);
+        }
+    }
+
+    private static boolean isFusibleCondition(Task<?> task) {
+        return (task instanceof ConditionTask<?> || task.getClass() == ConditionSequence.class) && isPlain(task);
+    }
+
+    /** 嵌套的条件序列直接展开 */
+    private static <T> ConditionSequence<T> newConditionSequence(List<Task<T>> conditions) {
+        List<Task<T>> children = new ArrayList<>(conditions.size());
+        for (Task<T> condition : conditions) {
+            if (condition instanceof ConditionSequence<T> conditionSequence) {
+                children.addAll(conditionSequence.getChildren());
+            } else {
+                children.add(condition);
+            }
+        }
+        return new ConditionSequence<>(children);
+    }
+
+    // endregion
+
+    // region 折叠
+
+    /** {@code Inverter(Inverter(x))} -- 只有x的失败码固定为ERROR时才等价 */
+    private static <T> Task<T> foldInverter(Inverter<T> outer) {
+        if (!(outer.getChild() instanceof Inverter<T> inner)
+                || inner.getClass() != Inverter.class
+                || !isPlain(inner)) {
+            return outer;
+        }
+        Task<T> target = inner.getChild();
+        if (target == null || !failsWithError(target)) {
+            return outer;
+        }
+        Task<T> result = replace(outer, target);
+        if (result == target) {
+            outer.removeChild(0);
+            inner.removeChild(0);
+        }
+        return result;
+    }
+
+    /** 失败时的状态码是否固定为ERROR，且不会因为guard失败 */
+    private static boolean failsWithError(Task<?> task) {
+        if (task.getGuard() != null) {
+            return false;
+        }
+        if (task instanceof ConditionTask<?>) {
+            return true;
+        }
+        Class<?> type = task.getClass();
+        if (type == Failure.class) {
+            return TaskStatus.toFailure(((Failure<?>) task).getFailureStatus()) == TaskStatus.ERROR;
+        }
+        return type == Inverter.class || type == Selector.class || type == Success.class;
+    }
+
+    /** {@code AlwaysSuccess(Success)}或无子节点的AlwaysSuccess */
+    private static <T> Task<T> foldAlwaysSuccess(AlwaysSuccess<T> task) {
+        Task<T> child = task.getChild();
+        if (child == null) {
+            return replace(task, new Success<>());
+        }
+        if (child.getClass() != Success.class || !isPlain(child)) {
+            return task;
+        }
+        Task<T> result = replace(task, child);
+        if (result == child) {
+            task.removeChild(0);
+        }
+        return result;
+    }
+
+    /** 恒为true的条件 */
+    private static boolean isConstantTrue(Task<?> guard) {
+        if (guard.getGuard() != null) {
+            return false;
+        }
+        Class<?> type = guard.getClass();
+        if (type == Success.class) {
+            return true;
+        }
+        if (type == Inverter.class) {
+            Task<?> child = ((Inverter<?>) guard).getChild();
+            return child != null && child.getClass() == Failure.class && child.getGuard() == null;
+        }
+        if (type == AlwaysSuccess.class) {
+            Task<?> child = ((AlwaysSuccess<?>) guard).getChild();
+            return child == null || isConstantTrue(child);
+        }
+        return false;
+    }
+
+    // endregion
+
+    // region 内联
+
+    private <T> Task<T> inline(SubtreeRef<T> subtreeRef, ArrayDeque<String> inlining) {
+        String subtreeName = subtreeRef.getSubtreeName();
+        if (subtreeName == null
+                || subtreeRef.isAsyncLoad()
+                || subtreeRef.getReleaseThreshold() > 0
+                || subtreeRef.getChild() != null
+                || inlining.contains(subtreeName)) {
+            return subtreeRef;
+        }
+        Task<T> rootTask = subtreeLoader.tryLoadRootTask(subtreeName);
+        if (rootTask == null) {
+            return subtreeRef; // 运行时报错
+        }
+        inlining.push(subtreeName);
+        try {
+            rootTask = rewrite(rootTask, inlining);
+        } finally {
+            inlining.pop();
+        }
+        Task<T> result = replace(subtreeRef, rootTask);
+        if (result == subtreeRef) {
+            subtreeRef.addChild(rootTask); // 不能删除时预先挂载
+        }
+        return result;
+    }
+
+    // endregion
+}
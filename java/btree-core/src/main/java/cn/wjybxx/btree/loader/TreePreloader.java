@@ -0,0 +1,200 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btree.loader;
+
+import cn.wjybxx.btree.TreeLoader;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Predicate;
+
+/**
+ * 批量预加载器 -- 用于在启动时并行解码大量的文件或入口
+ * 1.加载任务在{@link ForkJoinPool}中执行，因此{@link TreeLoader}必须是线程安全的。
+ * 2.每个入口单独捕获异常(包括{@link Error})，结果中会记录所有失败的入口，而不是遇见第一个异常就终止；
+ * 但{@link VirtualMachineError}(如OOM)表示虚拟机已不可靠，会直接抛出，终止预加载。
+ * 3.所有任务完成后才构建结果，结果是不可变的，可以安全地发布给其它线程。
+ * 4.预加载{@link CachingTreeLoader}的入口可以预热缓存。
+ *
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+public final class TreePreloader {
+
+    private final TreeLoader loader;
+    private final ForkJoinPool pool;
+
+    public TreePreloader(TreeLoader loader) {
+        this(loader, ForkJoinPool.commonPool());
+    }
+
+    public TreePreloader(TreeLoader loader, ForkJoinPool pool) {
+        this.loader = Objects.requireNonNull(loader, "loader");
+        this.pool = Objects.requireNonNull(pool, "pool");
+    }
+
+    /**
+     * 并行加载多个文件中的入口对象
+     * 1.加载时共享对象(sharable为true)，返回的对象应当被视为只读的原型。
+     * 2.入口在过滤器中通过{@link TreeLoader.IEntry#getRoot()}逐个解码，单个入口失败不影响同文件的其它入口。
+     *
+     * @param fileNames 文件名
+     * @param filter    入口过滤器，可通过{@link #filterByType(int)}和{@link #filterByFlags(int)}创建
+     * @return loaded和errors的key为文件名；entryErrors的key为文件名，value为入口名字到异常的映射
+     */
+    public PreloadResult<List<Object>> preloadFiles(Collection<String> fileNames,
+                                                    @Nullable Predicate<? super TreeLoader.IEntry> filter) {
+        return invoke(fileNames, (fileName, entryErrors) -> {
+            List<Object> objects = new ArrayList<>();
+            loader.loadManyFromFile(fileName, true, entry -> {
+                if (filter != null && !filter.test(entry)) {
+                    return false;
+                }
+                try {
+                    objects.add(entry.getRoot());
+                } catch (Throwable e) {
+                    rethrowIfFatal(e);
+                    entryErrors.put(entry.getName(), e);
+                }
+                return false; // 已自行解码，不需要加载器再次解码
+            });
+            return Collections.unmodifiableList(objects);
+        });
+    }
+
+    /**
+     * 并行加载多个入口对象 -- 通过{@link TreeLoader#loadObject(String)}加载
+     *
+     * @param namesOrGuids 入口对象的名字或guid
+     * @return key为名字或guid
+     */
+    public PreloadResult<Object> preloadEntries(Collection<String> namesOrGuids) {
+        return invoke(namesOrGuids, (nameOrGuid, entryErrors) -> loader.loadObject(nameOrGuid));
+    }
+
+    private <V> PreloadResult<V> invoke(Collection<String> keys, LoadFunction<V> function) {
+        final long startTime = System.nanoTime();
+        final String[] keyArray = keys.toArray(String[]::new);
+        final Object[] values = new Object[keyArray.length];
+        final Throwable[] errors = new Throwable[keyArray.length];
+        @SuppressWarnings("unchecked") final Map<String, Throwable>[] entryErrors = new Map[keyArray.length];
+        pool.invoke(new LoadAction(keyArray, values, errors, entryErrors, function, 0, keyArray.length));
+
+        // invoke返回后，所有任务的结果对当前线程可见
+        Map<String, V> loadedMap = new LinkedHashMap<>();
+        Map<String, Throwable> errorMap = new LinkedHashMap<>();
+        Map<String, Map<String, Throwable>> entryErrorMap = new LinkedHashMap<>();
+        for (int idx = 0; idx < keyArray.length; idx++) {
+            if (errors[idx] != null) {
+                errorMap.put(keyArray[idx], errors[idx]);
+            } else {
+                @SuppressWarnings("unchecked") V value = (V) values[idx];
+                loadedMap.put(keyArray[idx], value);
+            }
+            if (entryErrors[idx] != null) {
+                entryErrorMap.put(keyArray[idx], Collections.unmodifiableMap(entryErrors[idx]));
+            }
+        }
+        return new PreloadResult<>(Collections.unmodifiableMap(loadedMap),
+                Collections.unmodifiableMap(errorMap),
+                Collections.unmodifiableMap(entryErrorMap),
+                System.nanoTime() - startTime);
+    }
+
+    /** 虚拟机错误不应被记录后继续执行 */
+    private static void rethrowIfFatal(Throwable e) {
+        if (e instanceof VirtualMachineError vmError) {
+            throw vmError;
+        }
+    }
+
+    // region filter
+
+    /** 只加载指定类型的入口 */
+    public static Predicate<TreeLoader.IEntry> filterByType(int type) {
+        return entry -> entry.getType() == type;
+    }
+
+    /** 只加载包含全部给定标记的入口 */
+    public static Predicate<TreeLoader.IEntry> filterByFlags(int flags) {
+        return entry -> (entry.getFlags() & flags) == flags;
+    }
+
+    // endregion
+
+    @FunctionalInterface
+    private interface LoadFunction<V> {
+
+        /**
+         * @param key         文件名或入口的名字
+         * @param entryErrors 用于记录单个入口的异常，不影响key的加载结果
+         */
+        V load(String key, Map<String, Throwable> entryErrors);
+    }
+
+    private static class LoadAction extends RecursiveAction {
+
+        final String[] keys;
+        final Object[] values;
+        final Throwable[] errors;
+        final Map<String, Throwable>[] entryErrors;
+        final LoadFunction<?> function;
+        final int from;
+        final int to;
+
+        LoadAction(String[] keys, Object[] values, Throwable[] errors, Map<String, Throwable>[] entryErrors,
+                   LoadFunction<?> function, int from, int to) {
+            this.keys = keys;
+            this.values = values;
+            this.errors = errors;
+            this.entryErrors = entryErrors;
+            this.function = function;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new LoadAction(keys, values, errors, entryErrors, function, from, mid),
+                        new LoadAction(keys, values, errors, entryErrors, function, mid, to));
+                return;
+            }
+            if (from < to) {
+                // 捕获Throwable，避免Error中断整个预加载
+                Map<String, Throwable> entryErrorMap = new LinkedHashMap<>();
+                try {
+                    values[from] = function.load(keys[from], entryErrorMap);
+                } catch (Throwable e) {
+                    rethrowIfFatal(e);
+                    errors[from] = e;
+                }
+                if (!entryErrorMap.isEmpty()) {
+                    entryErrors[from] = entryErrorMap;
+                }
+            }
+        }
+    }
+}
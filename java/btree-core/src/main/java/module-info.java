@@ -15,6 +15,7 @@ module wjybxx.btree.core {
     exports cn.wjybxx.btree.decorator;
     exports cn.wjybxx.btree.fsm;
     exports cn.wjybxx.btree.leaf;
+    exports cn.wjybxx.btree.loader;
 
     opens cn.wjybxx.btree;
     opens cn.wjybxx.btree.branch;
@@ -22,4 +23,5 @@ module wjybxx.btree.core {
     opens cn.wjybxx.btree.decorator;
     opens cn.wjybxx.btree.fsm;
     opens cn.wjybxx.btree.leaf;
+    opens cn.wjybxx.btree.loader;
 }
\ No newline at end of file
@@ -0,0 +1,265 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btree;
+
+import cn.wjybxx.btree.branch.ChildOrderStats;
+import cn.wjybxx.btree.branch.Selector;
+import cn.wjybxx.btree.branch.SelectorN;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 自适应子节点顺序测试
+ *
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+public class AdaptiveOrderTest {
+
+    private static final int WARMUP_COUNT = 200;
+
+    /** 昂贵且失败，较廉价且失败，廉价且成功 -- 失败的分支有一定耗时，避免计时噪声改变顺序 */
+    private static void addChildren(Task<Blackboard> branch) {
+        branch.addChild(new CountLeaf(false, 200_000));
+        branch.addChild(new CountLeaf(false, 20_000));
+        branch.addChild(new CountLeaf(true, 0));
+    }
+
+    private static TaskEntry<Blackboard> newTree(Task<Blackboard> root) {
+        return new TaskEntry<>("Main", root, new Blackboard(), null, TreeLoader.nullLoader());
+    }
+
+    private static Selector<Blackboard> newAdaptiveSelector() {
+        Selector<Blackboard> selector = new Selector<>();
+        selector.setAdaptiveOrder(true);
+        addChildren(selector);
+        return selector;
+    }
+
+    private static int runCount(Task<Blackboard> branch, int index) {
+        return ((CountLeaf) branch.getChild(index)).runCount;
+    }
+
+    @Test
+    void testSelector() {
+        Selector<Blackboard> selector = new Selector<>();
+        selector.setAdaptiveOrder(true);
+        addChildren(selector);
+        TaskEntry<Blackboard> taskEntry = newTree(selector);
+        for (int i = 0; i < WARMUP_COUNT; i++) {
+            taskEntry.update(i);
+            Assertions.assertTrue(taskEntry.isSucceeded());
+        }
+        int expensiveCount = runCount(selector, 0);
+        for (int i = 0; i < 100; i++) {
+            taskEntry.update(WARMUP_COUNT + i);
+            Assertions.assertTrue(taskEntry.isSucceeded());
+            Assertions.assertEquals(2, selector.getRunningIndex());
+            Assertions.assertEquals(1, selector.getCompletedCount());
+        }
+        Assertions.assertEquals(expensiveCount, runCount(selector, 0)); // 昂贵的失败分支不再执行
+    }
+
+    @Test
+    void testDefaultOrder() {
+        Selector<Blackboard> selector = new Selector<>();
+        addChildren(selector);
+        TaskEntry<Blackboard> taskEntry = newTree(selector);
+        for (int i = 0; i < 10; i++) {
+            taskEntry.update(i);
+        }
+        Assertions.assertFalse(selector.isAdaptiveOrderActive());
+        Assertions.assertEquals(10, runCount(selector, 0));
+        Assertions.assertEquals(3, selector.getCompletedCount());
+    }
+
+    @Test
+    void testSharedStats() {
+        Selector<Blackboard> prototype = newAdaptiveSelector();
+        Selector<Blackboard> first = newAdaptiveSelector();
+        first.shareFrom(prototype);
+        TaskEntry<Blackboard> firstEntry = newTree(first);
+        for (int i = 0; i < WARMUP_COUNT; i++) {
+            firstEntry.update(i);
+        }
+
+        // 同一原型的其它副本直接使用统计出的顺序
+        Selector<Blackboard> second = newAdaptiveSelector();
+        second.shareFrom(prototype);
+        TaskEntry<Blackboard> secondEntry = newTree(second);
+        secondEntry.update(0);
+        Assertions.assertTrue(secondEntry.isSucceeded());
+        Assertions.assertEquals(0, runCount(second, 0));
+        Assertions.assertEquals(1, runCount(second, 2));
+
+        // 其它原型的统计数据是独立的
+        Selector<Blackboard> other = newAdaptiveSelector();
+        other.shareFrom(newAdaptiveSelector());
+        TaskEntry<Blackboard> otherEntry = newTree(other);
+        otherEntry.update(0);
+        Assertions.assertEquals(1, runCount(other, 0));
+    }
+
+    /** 多线程并发记录不丢失计数 */
+    @Test
+    void testConcurrentRecord() throws InterruptedException {
+        final int threadCount = 4;
+        final int recordCount = 10_000;
+        ChildOrderStats stats = new ChildOrderStats(8);
+        stats.ensureChildCount(3);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            threads.add(Thread.ofPlatform().start(() -> {
+                for (int i = 0; i < recordCount; i++) {
+                    stats.record(i % 3, i % 3 == 2, (i % 3 + 1) * 100L);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long totalRuns = 0;
+        for (int i = 0; i < 3; i++) {
+            totalRuns += stats.getRunCount(i);
+        }
+        Assertions.assertEquals((long) threadCount * recordCount, totalRuns);
+        Assertions.assertEquals(stats.getRunCount(2), stats.getSuccessCount(2));
+        Assertions.assertEquals(stats.getRunCount(0) * 100, stats.getCostNanos(0));
+
+        stats.reorder();
+        int[] order = new int[3];
+        stats.copyOrder(order);
+        Assertions.assertArrayEquals(new int[]{2, 0, 1}, order);
+    }
+
+    /** 并发更新顺序时，读取到的顺序总是完整的排列 */
+    @Test
+    void testConcurrentCopyOrder() throws InterruptedException {
+        final int childCount = 64;
+        final int recordCount = 20_000;
+        ChildOrderStats stats = new ChildOrderStats(1);
+        stats.ensureChildCount(childCount);
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicInteger invalidCount = new AtomicInteger();
+        List<Thread> readers = new ArrayList<>();
+        for (int t = 0; t < 2; t++) {
+            readers.add(Thread.ofPlatform().start(() -> {
+                int[] order = new int[childCount];
+                while (running.get()) {
+                    stats.copyOrder(order);
+                    long mask = 0;
+                    for (int index : order) {
+                        mask |= 1L << index;
+                    }
+                    if (mask != -1L) {
+                        invalidCount.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < 2; t++) {
+            final long seed = t;
+            writers.add(Thread.ofPlatform().start(() -> {
+                Random random = new Random(seed);
+                for (int i = 0; i < recordCount; i++) {
+                    stats.record(random.nextInt(childCount), random.nextBoolean(), random.nextInt(1000));
+                }
+            }));
+        }
+        for (Thread thread : writers) {
+            thread.join();
+        }
+        running.set(false);
+        for (Thread thread : readers) {
+            thread.join();
+        }
+        Assertions.assertEquals(0, invalidCount.get());
+    }
+
+    @Test
+    void testSelectorN() {
+        SelectorN<Blackboard> selector = new SelectorN<>();
+        selector.setAdaptiveOrder(true);
+        selector.setRequired(2);
+        addChildren(selector);
+        selector.addChild(new CountLeaf(true, 0));
+        TaskEntry<Blackboard> taskEntry = newTree(selector);
+        for (int i = 0; i < WARMUP_COUNT; i++) {
+            taskEntry.update(i);
+            Assertions.assertTrue(taskEntry.isSucceeded());
+        }
+        int expensiveCount = runCount(selector, 0);
+        for (int i = 0; i < 100; i++) {
+            taskEntry.update(WARMUP_COUNT + i);
+            Assertions.assertTrue(taskEntry.isSucceeded());
+            Assertions.assertEquals(2, selector.getCompletedCount());
+        }
+        Assertions.assertEquals(expensiveCount, runCount(selector, 0));
+    }
+
+    @Test
+    void testReorder() {
+        ChildOrderStats stats = new ChildOrderStats(1);
+        stats.ensureChildCount(3);
+        stats.record(0, false, 1000);
+        stats.record(1, true, 1000);
+        stats.record(2, true, 10);
+        int[] order = new int[3];
+        stats.copyOrder(order);
+        Assertions.assertArrayEquals(new int[]{2, 1, 0}, order);
+    }
+
+    private static class CountLeaf extends LeafTask<Blackboard> {
+
+        final boolean success;
+        final long spinNanos;
+        int runCount;
+
+        CountLeaf(boolean success, long spinNanos) {
+            this.success = success;
+            this.spinNanos = spinNanos;
+        }
+
+        @Override
+        protected void execute() {
+            runCount++;
+            if (spinNanos > 0) {
+                long deadline = System.nanoTime() + spinNanos;
+                while (System.nanoTime() < deadline) {
+                    Thread.onSpinWait();
+                }
+            }
+            if (success) {
+                setSuccess();
+            } else {
+                setFailed(TaskStatus.ERROR);
+            }
+        }
+
+        @Override
+        protected void onEventImpl(@Nonnull Object event) {
+
+        }
+    }
+}
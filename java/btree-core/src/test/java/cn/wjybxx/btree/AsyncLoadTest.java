@@ -0,0 +1,139 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btree;
+
+import cn.wjybxx.btree.branch.Sequence;
+import cn.wjybxx.btree.decorator.SubtreeRef;
+import cn.wjybxx.btree.fsm.ChangeStateArgs;
+import cn.wjybxx.btree.fsm.ChangeStateTask;
+import cn.wjybxx.btree.fsm.StateMachineTask;
+import cn.wjybxx.btree.leaf.WaitFrame;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 异步加载测试
+ *
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+public class AsyncLoadTest {
+
+    @Test
+    void testSubtreeRef() {
+        AsyncLoader loader = new AsyncLoader();
+        SubtreeRef<Blackboard> subtreeRef = new SubtreeRef<>("wait");
+        subtreeRef.setAsyncLoad(true);
+        TaskEntry<Blackboard> taskEntry = newTaskEntry(subtreeRef, loader);
+
+        taskEntry.update(0);
+        taskEntry.update(1);
+        Assertions.assertTrue(subtreeRef.isRunning());
+        Assertions.assertNull(subtreeRef.getChild());
+
+        loader.complete("wait", new WaitFrame<>(2));
+        for (int frame = 2; !taskEntry.isCompleted(); frame++) {
+            taskEntry.update(frame);
+        }
+        Assertions.assertTrue(taskEntry.isSucceeded());
+        Assertions.assertEquals(4, taskEntry.getRunFrames());
+    }
+
+    @Test
+    void testSubtreeRefFailed() {
+        AsyncLoader loader = new AsyncLoader();
+        SubtreeRef<Blackboard> subtreeRef = new SubtreeRef<>("wait");
+        subtreeRef.setAsyncLoad(true);
+        TaskEntry<Blackboard> taskEntry = newTaskEntry(subtreeRef, loader);
+
+        taskEntry.update(0);
+        loader.futureMap.get("wait").completeExceptionally(new IllegalArgumentException("absent"));
+        taskEntry.update(1);
+        Assertions.assertEquals(TaskStatus.ERROR, taskEntry.getStatus());
+    }
+
+    @Test
+    void testChangeState() {
+        AsyncLoader loader = new AsyncLoader();
+        ChangeStateTask<Blackboard> changeStateTask = new ChangeStateTask<>();
+        changeStateTask.setNextStateGuid("B");
+        changeStateTask.setDelayMode(ChangeStateArgs.DELAY_CURRENT_COMPLETED);
+        changeStateTask.setAsyncLoad(true);
+        Sequence<Blackboard> stateA = new Sequence<>();
+        stateA.addChild(changeStateTask);
+
+        StateMachineTask<Blackboard> stateMachine = new StateMachineTask<>();
+        stateMachine.setNoneChildStatus(TaskStatus.SUCCESS);
+        stateMachine.setInitState(stateA);
+        TaskEntry<Blackboard> taskEntry = newTaskEntry(stateMachine, loader);
+
+        taskEntry.update(0);
+        taskEntry.update(1);
+        Assertions.assertTrue(changeStateTask.isRunning());
+        Assertions.assertSame(stateA, stateMachine.getCurState());
+
+        WaitFrame<Blackboard> stateB = new WaitFrame<>(1);
+        loader.complete("B", stateB);
+        taskEntry.update(2);
+        Assertions.assertTrue(stateA.isSucceeded());
+        for (int frame = 3; !taskEntry.isCompleted(); frame++) {
+            taskEntry.update(frame);
+        }
+        Assertions.assertTrue(stateB.isSucceeded());
+    }
+
+    @Test
+    void testChangeStateFailed() {
+        AsyncLoader loader = new AsyncLoader();
+        ChangeStateTask<Blackboard> changeStateTask = new ChangeStateTask<>();
+        changeStateTask.setNextStateGuid("B");
+        changeStateTask.setAsyncLoad(true);
+
+        Sequence<Blackboard> root = new Sequence<>();
+        root.addChild(changeStateTask);
+        TaskEntry<Blackboard> taskEntry = newTaskEntry(root, loader);
+
+        taskEntry.update(0);
+        loader.futureMap.get("B").completeExceptionally(new IllegalArgumentException("absent"));
+        taskEntry.update(1);
+        Assertions.assertEquals(TaskStatus.ERROR, changeStateTask.getStatus());
+        Assertions.assertTrue(taskEntry.isFailed());
+    }
+
+    private static TaskEntry<Blackboard> newTaskEntry(Task<Blackboard> root, TreeLoader loader) {
+        return new TaskEntry<>("Main", root, new Blackboard(), null, loader);
+    }
+
+    /** 由测试手动完成加载 */
+    /** 异步加载的结果由测试手动完成 */
+    private static class AsyncLoader extends BtreeTestUtil.MapTreeLoader {
+
+        final Map<String, CompletableFuture<Object>> futureMap = new HashMap<>();
+
+        void complete(String name, Object value) {
+            futureMap.get(name).complete(value);
+        }
+
+        @Override
+        public CompletableFuture<Object> loadObjectAsync(String nameOrGuid) {
+            return futureMap.computeIfAbsent(nameOrGuid, k -> new CompletableFuture<>());
+        }
+    }
+}
@@ -16,10 +16,22 @@
 package cn.wjybxx.btree;
 
 import cn.wjybxx.base.ex.InfiniteLoopException;
+import cn.wjybxx.btree.branch.Sequence;
 import cn.wjybxx.btree.decorator.Inverter;
+import cn.wjybxx.btree.decorator.LazySubtree;
+import cn.wjybxx.btree.leaf.Failure;
 import cn.wjybxx.btree.leaf.WaitFrame;
 
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.random.RandomGenerator;
 
 /**
@@ -80,4 +92,193 @@ class BtreeTestUtil {
         }
         branch.shuffleChild(); // 打乱child
     }
-}
\ No newline at end of file
+
+    /** 测试用的拷贝器 -- 只支持测试用到的节点 */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public static Object copyTask(Object prototype) {
+        Task src = (Task) prototype;
+        Task dest;
+        if (src instanceof WaitFrame<?> waitFrame) {
+            dest = new WaitFrame<>(waitFrame.getRequired());
+        } else if (src instanceof Failure<?>) {
+            dest = new Failure<>();
+        } else if (src instanceof Inverter<?>) {
+            dest = new Inverter<>();
+        } else if (src instanceof LazySubtree<?> lazySubtree) {
+            LazySubtree copied = new LazySubtree<>(lazySubtree.getFactory());
+            copied.setReleaseOnReset(lazySubtree.isReleaseOnReset());
+            dest = copied;
+        } else {
+            dest = new Sequence<>();
+        }
+        if (src.getGuard() != null) {
+            dest.setGuard((Task) copyTask(src.getGuard()));
+        }
+        if (!(src instanceof LazySubtree<?>)) {
+            for (int idx = 0; idx < src.getChildCount(); idx++) {
+                dest.addChild((Task) copyTask(src.getChild(idx)));
+            }
+        }
+        return dest;
+    }
+
+    /**
+     * 测试用的加载器 -- 按照名字注册对象的工厂，每次解码都创建新的对象
+     * 1.未指定文件名的入口属于{@link #DEFAULT_FILE}文件。
+     * 2.重复注册同一个名字时覆盖旧的入口，可用于模拟文件修改。
+     */
+    static class MapTreeLoader implements TreeLoader {
+
+        static final String DEFAULT_FILE = "main";
+
+        private final Map<String, MapEntry> entryMap = new LinkedHashMap<>();
+        private final Map<String, MapEntry> guidMap = new HashMap<>();
+        /** 解码的对象名字，按照解码顺序 */
+        private final List<String> loadedNames = new ArrayList<>();
+        /** 扫描的文件名，按照扫描顺序 */
+        private final List<String> scannedFiles = new ArrayList<>();
+        /** 未注册的名字使用的工厂 */
+        private Function<String, ?> fallback;
+
+        MapTreeLoader put(String name, Supplier<?> factory) {
+            return put(DEFAULT_FILE, name, null, 0, 0, factory);
+        }
+
+        MapTreeLoader put(String name, @Nullable String guid, Supplier<?> factory) {
+            return put(DEFAULT_FILE, name, guid, 0, 0, factory);
+        }
+
+        synchronized MapTreeLoader put(String fileName, String name, @Nullable String guid, int type, int flags, Supplier<?> factory) {
+            MapEntry entry = new MapEntry(fileName, name, guid, type, flags, factory);
+            MapEntry existing = entryMap.put(name, entry);
+            if (existing != null && existing.guid != null) {
+                guidMap.remove(existing.guid);
+            }
+            if (guid != null) {
+                guidMap.put(guid, entry);
+            }
+            return this;
+        }
+
+        MapTreeLoader setFallback(Function<String, ?> fallback) {
+            this.fallback = fallback;
+            return this;
+        }
+
+        synchronized List<String> loadedNames() {
+            return List.copyOf(loadedNames);
+        }
+
+        synchronized int loadCount() {
+            return loadedNames.size();
+        }
+
+        synchronized int loadCount(String name) {
+            return (int) loadedNames.stream().filter(name::equals).count();
+        }
+
+        synchronized List<String> scannedFiles() {
+            return List.copyOf(scannedFiles);
+        }
+
+        synchronized void clearScannedFiles() {
+            scannedFiles.clear();
+        }
+
+        @Nullable
+        private synchronized MapEntry findEntry(String nameOrGuid) {
+            MapEntry entry = entryMap.get(nameOrGuid);
+            return entry != null ? entry : guidMap.get(nameOrGuid);
+        }
+
+        private Object decode(String name, Supplier<?> factory) {
+            synchronized (this) {
+                loadedNames.add(name);
+            }
+            return factory.get(); // 工厂可能阻塞，不能持有锁
+        }
+
+        @Nullable
+        @Override
+        public Object tryLoadObject(String nameOrGuid) {
+            MapEntry entry = findEntry(nameOrGuid);
+            if (entry != null) {
+                return entry.getRoot();
+            }
+            Function<String, ?> fallback = this.fallback;
+            if (fallback == null) {
+                return null;
+            }
+            return decode(nameOrGuid, () -> fallback.apply(nameOrGuid));
+        }
+
+        @Nullable
+        @Override
+        public IEntry tryLoadEntry(String nameOrGuid) {
+            return findEntry(nameOrGuid);
+        }
+
+        @Override
+        public List<Object> loadManyFromFile(String fileName, boolean sharable, @Nullable Predicate<? super IEntry> filter) {
+            List<MapEntry> entries;
+            synchronized (this) {
+                scannedFiles.add(fileName);
+                entries = entryMap.values().stream()
+                        .filter(e -> e.fileName.equals(fileName))
+                        .toList();
+            }
+            List<Object> result = new ArrayList<>(entries.size());
+            for (MapEntry entry : entries) {
+                if (filter == null || filter.test(entry)) {
+                    result.add(entry.getRoot());
+                }
+            }
+            return result;
+        }
+
+        /** 入口的根节点在每次获取时解码 */
+        private class MapEntry implements IEntry {
+
+            final String fileName;
+            final String name;
+            final String guid;
+            final int type;
+            final int flags;
+            final Supplier<?> factory;
+
+            MapEntry(String fileName, String name, String guid, int type, int flags, Supplier<?> factory) {
+                this.fileName = fileName;
+                this.name = name;
+                this.guid = guid;
+                this.type = type;
+                this.flags = flags;
+                this.factory = factory;
+            }
+
+            @Override
+            public String getName() {
+                return name;
+            }
+
+            @Override
+            public String getGuid() {
+                return guid;
+            }
+
+            @Override
+            public int getFlags() {
+                return flags;
+            }
+
+            @Override
+            public int getType() {
+                return type;
+            }
+
+            @Override
+            public Object getRoot() {
+                return decode(name, factory);
+            }
+        }
+    }
+}
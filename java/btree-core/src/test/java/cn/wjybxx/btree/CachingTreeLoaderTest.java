@@ -0,0 +1,234 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btree;
+
+import cn.wjybxx.btree.branch.Sequence;
+import cn.wjybxx.btree.leaf.WaitFrame;
+import cn.wjybxx.btree.loader.CacheStats;
+import cn.wjybxx.btree.loader.CachingTreeLoader;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+public class CachingTreeLoaderTest {
+
+    @Test
+    void testCopyAndStats() {
+        BtreeTestUtil.MapTreeLoader delegate = newLoader(null);
+        CachingTreeLoader loader = new CachingTreeLoader(delegate, BtreeTestUtil::copyTask, 100);
+
+        Task<Blackboard> first = loader.loadRootTask("seq3");
+        Task<Blackboard> second = loader.loadRootTask("seq3");
+        Assertions.assertNotSame(first, second);
+        Assertions.assertEquals(3, second.getChildCount());
+        Assertions.assertNull(loader.tryLoadObject("absent"));
+        Assertions.assertEquals(1, delegate.loadCount("seq3"));
+        Assertions.assertEquals(4, loader.weightedSize());
+
+        CacheStats stats = loader.stats();
+        Assertions.assertEquals(1, stats.hitCount());
+        Assertions.assertEquals(2, stats.missCount());
+        Assertions.assertEquals(2, stats.loadSuccessCount());
+
+        // 运行不影响原型
+        TaskEntry<Blackboard> entry = BtreeTestUtil.newTaskEntry(first);
+        BtreeTestUtil.untilCompleted(entry);
+        Assertions.assertTrue(loader.loadRootTask("seq3").getChild(0).getStatus() == TaskStatus.NEW);
+    }
+
+    @Test
+    void testGuidAlias() {
+        BtreeTestUtil.MapTreeLoader delegate = newLoader("guid-");
+        CachingTreeLoader loader = new CachingTreeLoader(delegate, BtreeTestUtil::copyTask, 100);
+        loader.loadRootTask("seq2");
+        loader.loadRootTask("guid-seq2");
+        Assertions.assertEquals(1, delegate.loadCount("seq2"));
+        Assertions.assertEquals(1, loader.stats().hitCount());
+        Assertions.assertEquals(1, loader.estimatedSize());
+
+        loader.invalidate("guid-seq2");
+        Assertions.assertEquals(0, loader.estimatedSize());
+        Assertions.assertEquals(0, loader.weightedSize());
+    }
+
+    @Test
+    void testEvictLru() {
+        BtreeTestUtil.MapTreeLoader delegate = newLoader(null);
+        CachingTreeLoader loader = new CachingTreeLoader(delegate, BtreeTestUtil::copyTask, 7);
+        loader.loadRootTask("seq3"); // 4
+        loader.loadRootTask("seq2"); // 3
+        loader.loadRootTask("seq3"); // seq2变为最久未使用
+        loader.loadRootTask("wait"); // 1，淘汰seq2
+        Assertions.assertEquals(1, loader.stats().evictionCount());
+        Assertions.assertEquals(5, loader.weightedSize());
+
+        loader.loadRootTask("seq3");
+        Assertions.assertEquals(1, delegate.loadCount("seq3"));
+        loader.loadRootTask("seq2");
+        Assertions.assertEquals(2, delegate.loadCount("seq2"));
+
+        // 超过上限的对象不缓存
+        CachingTreeLoader small = new CachingTreeLoader(delegate, BtreeTestUtil::copyTask, 2);
+        small.loadRootTask("seq3");
+        Assertions.assertEquals(0, small.estimatedSize());
+    }
+
+    @Test
+    void testConcurrentLoad() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        BtreeTestUtil.MapTreeLoader delegate = newLoader(null, () -> {
+            try {
+                latch.await(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return newSequence(3);
+        });
+        CachingTreeLoader loader = new CachingTreeLoader(delegate, BtreeTestUtil::copyTask, 100);
+
+        int threadCount = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<Future<Task<Blackboard>>> futures = new ArrayList<>();
+            for (int i = 0; i < threadCount; i++) {
+                futures.add(executor.submit(() -> loader.loadRootTask("seq3")));
+            }
+            Thread.sleep(50);
+            latch.countDown();
+            for (Future<Task<Blackboard>> future : futures) {
+                Assertions.assertEquals(3, future.get().getChildCount());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        Assertions.assertEquals(1, delegate.loadCount("seq3"));
+    }
+
+    @Test
+    void testConcurrentLoadByNameAndGuid() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        BtreeTestUtil.MapTreeLoader delegate = newLoader("guid-", () -> {
+            try {
+                latch.await(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return newSequence(3);
+        });
+        CachingTreeLoader loader = new CachingTreeLoader(delegate, BtreeTestUtil::copyTask, 100);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Task<Blackboard>>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                String key = (i % 2 == 0) ? "seq3" : "guid-seq3";
+                futures.add(executor.submit(() -> loader.loadRootTask(key)));
+            }
+            Thread.sleep(50);
+            latch.countDown();
+            for (Future<Task<Blackboard>> future : futures) {
+                Assertions.assertEquals(3, future.get().getChildCount());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        // 名字和guid的加载被合并，只解码一次
+        Assertions.assertEquals(1, delegate.loadCount("seq3"));
+        Assertions.assertEquals(1, loader.estimatedSize());
+    }
+
+    /** Entry的解析也在合并加载中执行，并计入统计 */
+    @Test
+    void testConcurrentResolve() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicInteger resolveCount = new AtomicInteger();
+        BtreeTestUtil.MapTreeLoader delegate = new BtreeTestUtil.MapTreeLoader() {
+            @Nullable
+            @Override
+            public IEntry tryLoadEntry(String nameOrGuid) {
+                resolveCount.incrementAndGet();
+                try {
+                    latch.await(1, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                if (nameOrGuid.equals("broken")) {
+                    throw new IllegalStateException("bad entry: broken");
+                }
+                return super.tryLoadEntry(nameOrGuid);
+            }
+        };
+        delegate.put("seq3", null, () -> newSequence(3));
+        CachingTreeLoader loader = new CachingTreeLoader(delegate, BtreeTestUtil::copyTask, 100);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Task<Blackboard>>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                futures.add(executor.submit(() -> loader.loadRootTask("seq3")));
+            }
+            Thread.sleep(50);
+            latch.countDown();
+            for (Future<Task<Blackboard>> future : futures) {
+                Assertions.assertEquals(3, future.get().getChildCount());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        Assertions.assertEquals(1, resolveCount.get());
+
+        Assertions.assertThrows(IllegalStateException.class, () -> loader.loadRootTask("broken"));
+        CacheStats stats = loader.stats();
+        Assertions.assertEquals(1, stats.loadSuccessCount());
+        Assertions.assertEquals(1, stats.loadFailureCount());
+        Assertions.assertTrue(stats.totalLoadTime() >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    /** 注册测试用的树，guidPrefix不为null时同时注册guid */
+    private static BtreeTestUtil.MapTreeLoader newLoader(@Nullable String guidPrefix) {
+        return newLoader(guidPrefix, () -> newSequence(3));
+    }
+
+    private static BtreeTestUtil.MapTreeLoader newLoader(@Nullable String guidPrefix, Supplier<?> seq3Factory) {
+        BtreeTestUtil.MapTreeLoader loader = new BtreeTestUtil.MapTreeLoader();
+        loader.put("wait", guidPrefix == null ? null : guidPrefix + "wait", () -> new WaitFrame<>(1));
+        loader.put("seq2", guidPrefix == null ? null : guidPrefix + "seq2", () -> newSequence(2));
+        loader.put("seq3", guidPrefix == null ? null : guidPrefix + "seq3", seq3Factory);
+        return loader;
+    }
+
+    private static Sequence<Blackboard> newSequence(int childCount) {
+        Sequence<Blackboard> sequence = new Sequence<>();
+        for (int i = 0; i < childCount; i++) {
+            sequence.addChild(new WaitFrame<>(1));
+        }
+        return sequence;
+    }
+}
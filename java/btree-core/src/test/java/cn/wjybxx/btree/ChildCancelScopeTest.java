@@ -0,0 +1,122 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btree;
+
+import cn.wjybxx.btree.branch.Join;
+import cn.wjybxx.btree.branch.join.JoinWaitAll;
+import cn.wjybxx.btree.fsm.StateMachineTask;
+import cn.wjybxx.btree.leaf.WaitFrame;
+import cn.wjybxx.sequential.UniCancelTokenSource;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * 子节点取消域测试
+ *
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+public class ChildCancelScopeTest {
+
+    private static final int CHILD_COUNT = 10;
+
+    private static TaskEntry<Blackboard> newJoinTree() {
+        Join<Blackboard> join = new Join<>();
+        join.setPolicy(JoinWaitAll.getInstance());
+        for (int i = 0; i < CHILD_COUNT; i++) {
+            join.addChild(new WaitFrame<>(3 + i));
+        }
+        return BtreeTestUtil.newTaskEntry(join);
+    }
+
+    @Test
+    void testReuseTokens() {
+        TaskEntry<Blackboard> taskEntry = newJoinTree();
+        Task<Blackboard> join = taskEntry.getRootTask();
+        Set<UniCancelTokenSource> tokens = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int round = 0; round < 5; round++) {
+            taskEntry.update(0);
+            for (int i = 0; i < CHILD_COUNT; i++) {
+                UniCancelTokenSource token = join.getChild(i).getCancelToken();
+                Assertions.assertNotSame(join.getCancelToken(), token);
+                tokens.add(token);
+            }
+            BtreeTestUtil.untilCompleted(taskEntry);
+            Assertions.assertTrue(taskEntry.isSucceeded());
+            taskEntry.resetForRestart();
+        }
+        Assertions.assertEquals(CHILD_COUNT, tokens.size());
+    }
+
+    @Test
+    void testCancelOneChild() {
+        TaskEntry<Blackboard> taskEntry = newJoinTree();
+        Task<Blackboard> join = taskEntry.getRootTask();
+        taskEntry.update(0);
+        join.getChild(1).getCancelToken().cancel(1);
+        taskEntry.update(1);
+
+        Assertions.assertTrue(join.getChild(1).isCancelled());
+        Assertions.assertFalse(join.getCancelToken().isCancelling());
+        for (int i = 0; i < CHILD_COUNT; i++) {
+            if (i != 1) {
+                Assertions.assertTrue(join.getChild(i).isRunning());
+            }
+        }
+    }
+
+    @Test
+    void testCancelParent() {
+        TaskEntry<Blackboard> taskEntry = newJoinTree();
+        Task<Blackboard> join = taskEntry.getRootTask();
+        taskEntry.update(0);
+        taskEntry.update(1);
+        taskEntry.update(2); // 第一个子节点已完成，令牌已回收
+
+        taskEntry.getCancelToken().cancel(1);
+        for (int i = 1; i < CHILD_COUNT; i++) {
+            Assertions.assertTrue(join.getChild(i).getCancelToken().isCancelling());
+        }
+        taskEntry.update(3);
+        Assertions.assertTrue(taskEntry.isCancelled());
+
+        // 重启后令牌是干净的
+        taskEntry.resetForRestart();
+        taskEntry.update(0);
+        for (int i = 0; i < CHILD_COUNT; i++) {
+            Assertions.assertFalse(join.getChild(i).getCancelToken().isCancelling());
+        }
+    }
+
+    @Test
+    void testCancelCurState() {
+        StateMachineTask<Blackboard> stateMachine = new StateMachineTask<>();
+        stateMachine.setInitState(new WaitFrame<>(100));
+        TaskEntry<Blackboard> taskEntry = BtreeTestUtil.newTaskEntry(stateMachine);
+        taskEntry.update(0);
+        Task<Blackboard> state = stateMachine.getCurState();
+        Assertions.assertNotSame(stateMachine.getCancelToken(), state.getCancelToken());
+
+        stateMachine.cancelCurState(1);
+        taskEntry.update(1);
+        Assertions.assertTrue(state.isCancelled());
+        Assertions.assertFalse(taskEntry.getCancelToken().isCancelling());
+    }
+}
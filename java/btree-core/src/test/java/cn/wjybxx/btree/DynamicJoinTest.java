@@ -0,0 +1,174 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btree;
+
+import cn.wjybxx.btree.branch.DynamicJoin;
+import cn.wjybxx.btree.branch.join.DynamicJoinSequence;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import javax.annotation.Nonnull;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * 动态Join测试
+ *
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+public class DynamicJoinTest {
+
+    private static final int ITEM_COUNT = 5000;
+    private static final int CONCURRENCY = 16;
+
+    private static BtreeTestUtil.MapTreeLoader newLoader(ItemStats stats) {
+        return new BtreeTestUtil.MapTreeLoader().setFallback(name -> new ItemTask(stats));
+    }
+
+    private static DynamicJoin<Blackboard> newJoin(List<Integer> items) {
+        DynamicJoin<Blackboard> join = new DynamicJoin<>();
+        join.setSubtreeName("item");
+        join.setMaxConcurrency(CONCURRENCY);
+        join.setSource(task -> items.iterator());
+        return join;
+    }
+
+    @Test
+    void testFanOut() {
+        ItemStats stats = new ItemStats();
+        BtreeTestUtil.MapTreeLoader loader = newLoader(stats);
+        List<Integer> items = IntStream.range(0, ITEM_COUNT).boxed().toList();
+        DynamicJoin<Blackboard> join = newJoin(items);
+        TaskEntry<Blackboard> taskEntry = new TaskEntry<>("Main", join, new Blackboard(), null, loader);
+
+        int frame = 0;
+        while (!taskEntry.isCompleted()) {
+            taskEntry.update(frame++);
+            Assertions.assertTrue(join.getChildCount() <= CONCURRENCY);
+            Assertions.assertTrue(join.getRunningCount() <= CONCURRENCY);
+            Assertions.assertTrue(frame < ITEM_COUNT);
+        }
+        Assertions.assertTrue(taskEntry.isSucceeded());
+        Assertions.assertEquals(ITEM_COUNT, join.getCompletedCount());
+        Assertions.assertEquals(ITEM_COUNT, stats.runCount);
+        Assertions.assertEquals(ITEM_COUNT - ITEM_COUNT / 7 - 1, join.getSucceededCount());
+        Assertions.assertEquals(CONCURRENCY, loader.loadCount()); // 实例被复用
+        Assertions.assertEquals(CONCURRENCY, stats.maxRunning);
+        join.childStream().forEach(child -> Assertions.assertNull(child.getControlData()));
+
+        // 重启后不重新加载
+        taskEntry.resetForRestart();
+        for (frame = 0; !taskEntry.isCompleted(); frame++) {
+            taskEntry.update(frame);
+        }
+        Assertions.assertEquals(ITEM_COUNT, join.getCompletedCount());
+        Assertions.assertEquals(CONCURRENCY, loader.loadCount());
+    }
+
+    @Test
+    void testFailFast() {
+        ItemStats stats = new ItemStats();
+        BtreeTestUtil.MapTreeLoader loader = newLoader(stats);
+        DynamicJoin<Blackboard> join = newJoin(IntStream.range(1, 100).boxed().toList());
+        join.setPolicy(DynamicJoinSequence.getInstance());
+        TaskEntry<Blackboard> taskEntry = new TaskEntry<>("Main", join, new Blackboard(), null, loader);
+        BtreeTestUtil.untilCompleted(taskEntry);
+
+        Assertions.assertTrue(taskEntry.isFailed());
+        Assertions.assertTrue(join.getCompletedCount() < 99);
+        Assertions.assertEquals(0, join.getRunningCount());
+        join.childStream().forEach(child -> {
+            Assertions.assertFalse(child.isRunning());
+            Assertions.assertNull(child.getControlData());
+        });
+    }
+
+    @Test
+    void testEmpty() {
+        ItemStats stats = new ItemStats();
+        BtreeTestUtil.MapTreeLoader loader = newLoader(stats);
+        DynamicJoin<Blackboard> join = newJoin(Collections.emptyList());
+        TaskEntry<Blackboard> taskEntry = new TaskEntry<>("Main", join, new Blackboard(), null, loader);
+        taskEntry.update(0);
+        Assertions.assertTrue(taskEntry.isSucceeded());
+        Assertions.assertEquals(0, loader.loadCount());
+    }
+
+    @Test
+    void testSnapshotUnsupported() {
+        ItemStats stats = new ItemStats();
+        BtreeTestUtil.MapTreeLoader loader = newLoader(stats);
+        DynamicJoin<Blackboard> join = newJoin(IntStream.range(1, 20).boxed().toList());
+        TaskEntry<Blackboard> taskEntry = new TaskEntry<>("Main", join, new Blackboard(), null, loader);
+        taskEntry.update(0);
+        Assertions.assertTrue(join.isRunning());
+        Assertions.assertThrows(IllegalStateException.class, () -> TaskSnapshots.snapshot(taskEntry));
+
+        // 完成后可以写入快照
+        for (int frame = 1; !taskEntry.isCompleted(); frame++) {
+            taskEntry.update(frame);
+        }
+        Assertions.assertNotNull(TaskSnapshots.snapshot(taskEntry));
+    }
+
+    /** 等待item % 5帧，item能被7整除时失败 */
+    private static class ItemTask extends LeafTask<Blackboard> {
+
+        final ItemStats stats;
+
+        ItemTask(ItemStats stats) {
+            this.stats = stats;
+        }
+
+        @Override
+        protected void enter(int reentryId) {
+            stats.runCount++;
+            stats.running++;
+            stats.maxRunning = Math.max(stats.maxRunning, stats.running);
+        }
+
+        @Override
+        protected void execute() {
+            int item = (Integer) getControlData();
+            if (getRunFrames() >= item % 5) {
+                if (item % 7 == 0) {
+                    setFailed(TaskStatus.ERROR);
+                } else {
+                    setSuccess();
+                }
+            }
+        }
+
+        @Override
+        protected void exit() {
+            stats.running--;
+        }
+
+        @Override
+        protected void onEventImpl(@Nonnull Object event) {
+
+        }
+    }
+
+    private static class ItemStats {
+
+        int runCount;
+        int running;
+        int maxRunning;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btree;
+
+import cn.wjybxx.btree.loader.EntryIndex;
+import cn.wjybxx.btree.loader.EntryMeta;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+public class EntryIndexTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testQuery() {
+        BtreeTestUtil.MapTreeLoader loader = newLoader();
+        EntryIndex index = EntryIndex.build(loader, List.of("npc", "boss"));
+        Assertions.assertEquals(5, index.size());
+        Assertions.assertEquals(List.of("npc", "boss"), new ArrayList<>(index.getFileNames()));
+
+        Assertions.assertEquals("boss", index.find("boss_1").getFileName());
+        Assertions.assertEquals("npc_0", index.find("guid_npc_0").getName());
+        Assertions.assertNull(index.find("absent"));
+
+        Assertions.assertEquals(3, index.findByType(1).size());
+        Assertions.assertEquals(List.of("npc_1", "boss_1"), names(index.findByFlags(2)));
+        Assertions.assertEquals(List.of("npc_1"), names(index.query(1, 2)));
+        Assertions.assertEquals(2, index.getEntriesOfFile("boss").size());
+    }
+
+    @Test
+    void testLoadOrBuild() throws IOException {
+        BtreeTestUtil.MapTreeLoader loader = newLoader();
+        Map<String, Path> sourceFiles = new LinkedHashMap<>();
+        for (String fileName : List.of("npc", "boss")) {
+            Path path = tempDir.resolve(fileName + ".json");
+            Files.writeString(path, fileName);
+            sourceFiles.put(fileName, path);
+        }
+        Path indexFile = tempDir.resolve("entry.index");
+
+        EntryIndex index = EntryIndex.loadOrBuild(indexFile, loader, sourceFiles);
+        Assertions.assertTrue(Files.exists(indexFile));
+        Assertions.assertEquals(List.of("npc", "boss"), loader.scannedFiles());
+
+        // 文件未变化时不扫描
+        loader.clearScannedFiles();
+        EntryIndex cached = EntryIndex.loadOrBuild(indexFile, loader, sourceFiles);
+        Assertions.assertTrue(loader.scannedFiles().isEmpty());
+        Assertions.assertEquals(index.getEntries(), cached.getEntries());
+
+        // 只扫描变化的文件
+        Path bossPath = sourceFiles.get("boss");
+        Files.setLastModifiedTime(bossPath, FileTime.fromMillis(Files.getLastModifiedTime(bossPath).toMillis() + 1000));
+        putMeta(loader, "boss", "boss_2", 2, 0);
+        EntryIndex updated = EntryIndex.loadOrBuild(indexFile, loader, sourceFiles);
+        Assertions.assertEquals(List.of("boss"), loader.scannedFiles());
+        Assertions.assertEquals(6, updated.size());
+        Assertions.assertEquals(6, EntryIndex.read(indexFile).size());
+
+        // 损坏的索引重新构建
+        Files.write(indexFile, new byte[]{1, 2, 3});
+        loader.clearScannedFiles();
+        Assertions.assertEquals(6, EntryIndex.loadOrBuild(indexFile, loader, sourceFiles).size());
+        Assertions.assertEquals(List.of("npc", "boss"), loader.scannedFiles());
+    }
+
+    private static List<String> names(List<EntryMeta> entries) {
+        return entries.stream().map(EntryMeta::getName).toList();
+    }
+
+    private static BtreeTestUtil.MapTreeLoader newLoader() {
+        BtreeTestUtil.MapTreeLoader loader = new BtreeTestUtil.MapTreeLoader();
+        putMeta(loader, "npc", "npc_0", 1, 1);
+        putMeta(loader, "npc", "npc_1", 1, 3);
+        putMeta(loader, "npc", "npc_2", 2, 0);
+        putMeta(loader, "boss", "boss_0", 1, 0);
+        putMeta(loader, "boss", "boss_1", 2, 2);
+        return loader;
+    }
+
+    /** 建立索引时不应该解码根节点 */
+    private static void putMeta(BtreeTestUtil.MapTreeLoader loader, String fileName, String name, int type, int flags) {
+        loader.put(fileName, name, "guid_" + name, type, flags, () -> {
+            throw new AssertionError("root should not be decoded");
+        });
+    }
+}
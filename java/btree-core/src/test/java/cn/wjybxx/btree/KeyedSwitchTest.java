@@ -0,0 +1,160 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btree;
+
+import cn.wjybxx.btree.branch.KeyedSwitch;
+import cn.wjybxx.btree.leaf.Failure;
+import cn.wjybxx.btree.leaf.Success;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+public class KeyedSwitchTest {
+
+    private static final String KEY = "key";
+
+    private static KeyedSwitch<Blackboard> newSwitch(int[] keys, int[] guardCounter) {
+        KeyedSwitch<Blackboard> branch = new KeyedSwitch<>();
+        branch.setKeySelector(task -> (Integer) task.getBlackboard().get(KEY));
+        branch.setKeys(keys);
+        for (int idx = 0; idx < keys.length; idx++) {
+            branch.addChild(new Success<Blackboard>().setGuard(new CountedCondition(guardCounter, true)));
+        }
+        return branch;
+    }
+
+    private static int run(KeyedSwitch<Blackboard> branch, int key) {
+        TaskEntry<Blackboard> taskEntry = BtreeTestUtil.newTaskEntry(branch);
+        taskEntry.getBlackboard().put(KEY, key);
+        BtreeTestUtil.untilCompleted(taskEntry);
+        return taskEntry.isSucceeded() ? branch.getRunningIndex() : -1;
+    }
+
+    @Test
+    void testDenseKeys() {
+        int[] keys = new int[30];
+        for (int idx = 0; idx < keys.length; idx++) {
+            keys[idx] = keys.length - idx; // 乱序
+        }
+        int[] guardCounter = new int[1];
+        KeyedSwitch<Blackboard> branch = newSwitch(keys, guardCounter);
+        for (int idx = 0; idx < keys.length; idx++) {
+            Assertions.assertEquals(idx, run(branch, keys[idx]));
+        }
+        // 每次只测试选中分支的条件
+        Assertions.assertEquals(keys.length, guardCounter[0]);
+        Assertions.assertEquals(-1, run(branch, 0));
+        Assertions.assertEquals(-1, run(branch, 1000));
+    }
+
+    @Test
+    void testSparseKeys() {
+        int[] keys = {-1_000_000, 7, 123_456, Integer.MAX_VALUE, Integer.MIN_VALUE, 0, 99, 1 << 20};
+        KeyedSwitch<Blackboard> branch = newSwitch(keys, new int[1]);
+        for (int idx = 0; idx < keys.length; idx++) {
+            Assertions.assertEquals(idx, run(branch, keys[idx]));
+        }
+        Assertions.assertEquals(-1, run(branch, 8));
+        Assertions.assertEquals(-1, branch.indexOfKey(Integer.MAX_VALUE - 1));
+    }
+
+    @Test
+    void testDefaultBranch() {
+        KeyedSwitch<Blackboard> branch = newSwitch(new int[]{1, 2}, new int[1]);
+        branch.addChild(new Failure<>());
+        branch.setKeys(new int[]{1, 2, 3});
+        branch.setDefaultIndex(2);
+        Assertions.assertEquals(0, run(branch, 1));
+        Assertions.assertEquals(-1, run(branch, 5)); // 默认分支失败
+        Assertions.assertEquals(2, branch.getRunningIndex());
+
+        // 选中分支的条件失败时运行默认分支
+        branch.getChild(1).setGuard(new CountedCondition(new int[1], false));
+        Assertions.assertEquals(-1, run(branch, 2));
+        Assertions.assertEquals(TaskStatus.GUARD_FAILED, branch.getChild(1).getStatus());
+        Assertions.assertEquals(2, branch.getRunningIndex());
+    }
+
+    @Test
+    void testIllegalKeys() {
+        KeyedSwitch<Blackboard> duplicate = newSwitch(new int[]{1, 2, 1}, new int[1]);
+        Assertions.assertThrows(IllegalStateException.class, duplicate::buildTable);
+
+        KeyedSwitch<Blackboard> mismatch = newSwitch(new int[]{1, 2}, new int[1]);
+        mismatch.addChild(new Success<>());
+        Assertions.assertThrows(IllegalStateException.class, mismatch::buildTable);
+    }
+
+    /** 键不会被外部原地修改 */
+    @Test
+    void testKeysCopied() {
+        int[] keys = {1, 2, 3};
+        KeyedSwitch<Blackboard> branch = newSwitch(keys, new int[1]);
+        Assertions.assertEquals(2, run(branch, 3));
+        keys[2] = 4;
+        branch.getKeys()[2] = 5;
+        Assertions.assertArrayEquals(new int[]{1, 2, 3}, branch.getKeys());
+        Assertions.assertEquals(2, branch.indexOfKey(3));
+        Assertions.assertEquals(-1, branch.indexOfKey(4));
+
+        branch.setKeys(keys);
+        Assertions.assertEquals(2, branch.indexOfKey(4));
+        Assertions.assertEquals(-1, branch.indexOfKey(3));
+    }
+
+    /** 副本共享原型的分派表，副本修改配置后使用自己的表 */
+    @Test
+    void testShareFrom() {
+        int[] keys = {10, 20, 30};
+        KeyedSwitch<Blackboard> prototype = newSwitch(keys, new int[1]);
+        KeyedSwitch<Blackboard> first = newSwitch(keys, new int[1]);
+        first.shareFrom(prototype);
+        Assertions.assertEquals(1, run(first, 20));
+
+        KeyedSwitch<Blackboard> second = newSwitch(keys, new int[1]);
+        second.shareFrom(prototype);
+        second.setKeys(new int[]{30, 20, 10});
+        Assertions.assertEquals(2, run(second, 10));
+        Assertions.assertEquals(0, run(first, 10));
+        Assertions.assertEquals(0, prototype.indexOfKey(10));
+
+        // 原型的配置错误时，副本在运行时报告错误
+        KeyedSwitch<Blackboard> broken = newSwitch(new int[]{1, 1}, new int[1]);
+        KeyedSwitch<Blackboard> brokenCopy = newSwitch(new int[]{1, 1}, new int[1]);
+        brokenCopy.shareFrom(broken);
+        Assertions.assertThrows(IllegalStateException.class, () -> brokenCopy.indexOfKey(1));
+    }
+
+    private static class CountedCondition extends ConditionTask<Blackboard> {
+
+        final int[] counter;
+        final boolean result;
+
+        CountedCondition(int[] counter, boolean result) {
+            this.counter = counter;
+            this.result = result;
+        }
+
+        @Override
+        protected boolean test() {
+            counter[0]++;
+            return result;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btree;
+
+import cn.wjybxx.btree.branch.Sequence;
+import cn.wjybxx.btree.decorator.LazySubtree;
+import cn.wjybxx.btree.leaf.Failure;
+import cn.wjybxx.btree.leaf.WaitFrame;
+import cn.wjybxx.btree.loader.CachingTreeLoader;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+public class LazySubtreeTest {
+
+    private static Sequence<Blackboard> newSubtree() {
+        Sequence<Blackboard> subtree = new Sequence<>();
+        subtree.addChild(new WaitFrame<>(2));
+        subtree.addChild(new WaitFrame<>(1));
+        subtree.addChild(new WaitFrame<>(1));
+        return subtree;
+    }
+
+    private static Sequence<Blackboard> newTree(Task<Blackboard> subtree) {
+        Sequence<Blackboard> root = new Sequence<>();
+        root.addChild(new WaitFrame<>(1));
+        root.addChild(subtree);
+        return root;
+    }
+
+    @Test
+    void testSameBehavior() {
+        TaskEntry<Blackboard> expected = BtreeTestUtil.newTaskEntry(newTree(newSubtree()));
+        BtreeTestUtil.untilCompleted(expected);
+
+        AtomicInteger counter = new AtomicInteger();
+        LazySubtree<Blackboard> lazySubtree = new LazySubtree<>(() -> {
+            counter.incrementAndGet();
+            return newSubtree();
+        });
+        TaskEntry<Blackboard> taskEntry = BtreeTestUtil.newTaskEntry(newTree(lazySubtree));
+        taskEntry.update(0);
+        Assertions.assertFalse(lazySubtree.isMaterialized());
+
+        BtreeTestUtil.untilCompleted(taskEntry);
+        Assertions.assertTrue(taskEntry.isSucceeded());
+        Assertions.assertEquals(expected.getRunFrames(), taskEntry.getRunFrames());
+        Assertions.assertEquals(1, counter.get());
+    }
+
+    @Test
+    void testReleaseOnReset() {
+        AtomicInteger counter = new AtomicInteger();
+        LazySubtree<Blackboard> lazySubtree = new LazySubtree<>(() -> {
+            counter.incrementAndGet();
+            return newSubtree();
+        });
+        lazySubtree.setReleaseOnReset(true);
+        TaskEntry<Blackboard> taskEntry = BtreeTestUtil.newTaskEntry(newTree(lazySubtree));
+        BtreeTestUtil.untilCompleted(taskEntry);
+        Assertions.assertTrue(lazySubtree.isMaterialized());
+
+        taskEntry.getRootTask().resetForRestart();
+        Assertions.assertFalse(lazySubtree.isMaterialized());
+        taskEntry.resetForRestart();
+        BtreeTestUtil.untilCompleted(taskEntry);
+        Assertions.assertTrue(taskEntry.isSucceeded());
+        Assertions.assertEquals(2, counter.get());
+    }
+
+    @Test
+    void testReleaseThenDeltaSnapshot() {
+        LazySubtree<Blackboard> lazySubtree = new LazySubtree<>(LazySubtreeTest::newSubtree);
+        lazySubtree.setReleaseOnReset(true);
+        TaskEntry<Blackboard> taskEntry = BtreeTestUtil.newTaskEntry(newTree(lazySubtree));
+        BtreeTestUtil.untilCompleted(taskEntry);
+        byte[] base = TaskSnapshots.snapshot(taskEntry);
+
+        // 释放子树改变了结构，增量快照应退化为全量快照
+        taskEntry.resetForRestart();
+        taskEntry.update(0);
+        byte[] delta = TaskSnapshots.snapshotDelta(taskEntry);
+        Assertions.assertFalse(TaskSnapshots.isDelta(delta));
+        byte[] merged = TaskSnapshots.merge(base, delta);
+
+        LazySubtree<Blackboard> restoredSubtree = new LazySubtree<>(LazySubtreeTest::newSubtree);
+        restoredSubtree.setReleaseOnReset(true);
+        TaskEntry<Blackboard> restored = BtreeTestUtil.newTaskEntry(newTree(restoredSubtree));
+        TaskSnapshots.restore(restored, merged);
+        Assertions.assertFalse(restoredSubtree.isMaterialized());
+        for (int frame = 1; !taskEntry.isCompleted(); frame++) {
+            taskEntry.update(frame);
+            restored.update(frame);
+            Assertions.assertEquals(taskEntry.getStatus(), restored.getStatus());
+        }
+        Assertions.assertTrue(restored.isSucceeded());
+    }
+
+    @Test
+    void testLoaderOption() {
+        Predicate<Task<?>> lazyFilter = task -> task.getChildCount() == 3;
+        CachingTreeLoader loader = new CachingTreeLoader(newLoader(), BtreeTestUtil::copyTask, 100, lazyFilter, false);
+
+        // 子树被替换为占位节点，前置条件上移
+        Task<Blackboard> rootTask = loader.loadRootTask("guarded");
+        LazySubtree<?> placeholder = (LazySubtree<?>) rootTask.getChild(1);
+        Assertions.assertFalse(placeholder.isMaterialized());
+        Assertions.assertInstanceOf(Failure.class, placeholder.getGuard());
+
+        TaskEntry<Blackboard> taskEntry = BtreeTestUtil.newTaskEntry(rootTask);
+        BtreeTestUtil.untilCompleted(taskEntry);
+        Assertions.assertTrue(taskEntry.isFailed());
+        Assertions.assertFalse(placeholder.isMaterialized());
+
+        // 运行到子树时才实例化
+        rootTask = loader.loadRootTask("normal");
+        taskEntry = BtreeTestUtil.newTaskEntry(rootTask);
+        BtreeTestUtil.untilCompleted(taskEntry);
+        Assertions.assertTrue(taskEntry.isSucceeded());
+        Assertions.assertTrue(((LazySubtree<?>) rootTask.getChild(1)).isMaterialized());
+        Assertions.assertEquals(3, rootTask.getChild(1).getChild(0).getChildCount());
+        Assertions.assertEquals(7 + 6, loader.weightedSize()); // 占位节点不计入，延迟的子树计入
+    }
+
+    private static BtreeTestUtil.MapTreeLoader newLoader() {
+        return new BtreeTestUtil.MapTreeLoader().setFallback(name -> {
+            Sequence<Blackboard> subtree = newSubtree();
+            if (name.equals("guarded")) {
+                subtree.setGuard(new Failure<>());
+            }
+            return newTree(subtree);
+        });
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btree;
+
+import cn.wjybxx.btree.branch.ActiveSelector;
+import cn.wjybxx.btree.leaf.Running;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+/**
+ * 脏检查的ActiveSelector测试
+ *
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+public class ObservedConditionTest {
+
+    private static TaskEntry<Blackboard> newTree(boolean observed, int[] counter) {
+        ActiveSelector<Blackboard> selector = new ActiveSelector<>();
+        selector.addChild(new Running<Blackboard>().setGuard(newGuard("a", observed, counter)));
+        selector.addChild(new Running<Blackboard>().setGuard(newGuard("b", observed, counter)));
+        selector.addChild(new Running<>());
+        return new TaskEntry<>("Main", selector, new VersionedBlackboard(), null, TreeLoader.nullLoader());
+    }
+
+    private static Task<Blackboard> newGuard(String key, boolean observed, int[] counter) {
+        KeyCondition condition = new KeyCondition(key, counter);
+        if (observed) {
+            condition.setBlackboardKeys(List.of(key));
+        }
+        return condition;
+    }
+
+    @Test
+    void testReuseDecision() {
+        int[] counter = new int[1];
+        TaskEntry<Blackboard> taskEntry = newTree(true, counter);
+        ActiveSelector<Blackboard> selector = (ActiveSelector<Blackboard>) taskEntry.getRootTask();
+        taskEntry.update(0);
+        Assertions.assertEquals(2, selector.getRunningIndex());
+        Assertions.assertEquals(2, counter[0]);
+
+        for (int frame = 1; frame < 10; frame++) {
+            taskEntry.update(frame);
+        }
+        Assertions.assertEquals(2, counter[0]); // 输入未变化，不重新测试
+        Assertions.assertEquals(2, selector.getRunningIndex());
+
+        // 无关的key不触发测试
+        taskEntry.getBlackboard().put("c", true);
+        taskEntry.update(10);
+        Assertions.assertEquals(2, counter[0]);
+
+        Task<Blackboard> preChild = selector.getChild(2);
+        taskEntry.getBlackboard().put("b", true);
+        taskEntry.update(11);
+        Assertions.assertEquals(4, counter[0]);
+        Assertions.assertEquals(1, selector.getRunningIndex());
+        Assertions.assertTrue(preChild.isCancelled());
+
+        // 运行中节点之后的条件不影响决策
+        taskEntry.update(12);
+        Assertions.assertEquals(4, counter[0]);
+
+        taskEntry.getBlackboard().put("a", true);
+        taskEntry.update(13);
+        Assertions.assertEquals(5, counter[0]);
+        Assertions.assertEquals(0, selector.getRunningIndex());
+    }
+
+    @Test
+    void testNotObserved() {
+        int[] counter = new int[1];
+        TaskEntry<Blackboard> taskEntry = newTree(false, counter);
+        for (int frame = 0; frame < 10; frame++) {
+            taskEntry.update(frame);
+        }
+        Assertions.assertEquals(20, counter[0]);
+    }
+
+    @Test
+    void testSameResult() {
+        // 脏检查的结果应该与每帧测试一致
+        TaskEntry<Blackboard> observed = newTree(true, new int[1]);
+        TaskEntry<Blackboard> expected = newTree(false, new int[1]);
+        for (int frame = 0; frame < 200; frame++) {
+            if (BtreeTestUtil.random.nextInt(4) == 0) {
+                String key = BtreeTestUtil.random.nextBoolean() ? "a" : "b";
+                Boolean value = BtreeTestUtil.random.nextBoolean();
+                observed.getBlackboard().put(key, value);
+                expected.getBlackboard().put(key, value);
+            }
+            observed.update(frame);
+            expected.update(frame);
+            Assertions.assertEquals(((ActiveSelector<?>) expected.getRootTask()).getRunningIndex(),
+                    ((ActiveSelector<?>) observed.getRootTask()).getRunningIndex());
+        }
+    }
+
+    private static class KeyCondition extends ObservedCondition<Blackboard> {
+
+        final String key;
+        final int[] counter;
+
+        KeyCondition(String key, int[] counter) {
+            this.key = key;
+            this.counter = counter;
+        }
+
+        @Override
+        protected boolean test() {
+            counter[0]++;
+            return Boolean.TRUE.equals(getBlackboard().get(key));
+        }
+    }
+}
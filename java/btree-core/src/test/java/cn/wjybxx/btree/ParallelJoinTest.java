@@ -0,0 +1,219 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btree;
+
+import cn.wjybxx.btree.branch.Join;
+import cn.wjybxx.btree.branch.JoinPolicy;
+import cn.wjybxx.btree.leaf.Success;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import javax.annotation.Nonnull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+/**
+ * Join并行计算测试
+ *
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+public class ParallelJoinTest {
+
+    private static final int CHILD_COUNT = 8;
+    private static ForkJoinPool pool;
+
+    @BeforeAll
+    static void beforeAll() {
+        pool = new ForkJoinPool(4);
+    }
+
+    @AfterAll
+    static void afterAll() {
+        pool.shutdownNow();
+    }
+
+    private static TaskEntry<Blackboard> newTree(boolean parallel, List<Integer> completedList) {
+        Join<Blackboard> join = new Join<>();
+        join.setParallelCompute(parallel);
+        join.setForkJoinPool(pool);
+        join.setPolicy(new RecordPolicy(completedList));
+        for (int i = 0; i < CHILD_COUNT; i++) {
+            join.addChild(new ScoreTask(i, 1 + (CHILD_COUNT - i) % 3));
+        }
+        join.addChild(new Success<>()); // 普通子节点不受影响
+
+        Blackboard blackboard = new Blackboard();
+        blackboard.put("seed", 31);
+        return new TaskEntry<>("Main", join, blackboard, null, TreeLoader.nullLoader());
+    }
+
+    private static void run(TaskEntry<Blackboard> taskEntry) {
+        for (int frame = 0; frame < 10 && !taskEntry.isCompleted(); frame++) {
+            taskEntry.update(frame);
+        }
+        Assertions.assertTrue(taskEntry.isSucceeded());
+    }
+
+    @Test
+    void testParallelCompute() {
+        List<Integer> completedList = new ArrayList<>();
+        TaskEntry<Blackboard> taskEntry = newTree(true, completedList);
+        run(taskEntry);
+
+        Join<?> join = (Join<?>) taskEntry.getRootTask();
+        Thread mainThread = Thread.currentThread();
+        for (int i = 0; i < CHILD_COUNT; i++) {
+            ScoreTask child = (ScoreTask) join.getChild(i);
+            Assertions.assertEquals(child.maxFrames, child.computeThreads.size());
+            // 只有一个待计算的子节点时在心跳线程计算
+            for (Thread thread : child.computeThreads) {
+                Assertions.assertTrue(thread instanceof ForkJoinWorkerThread || thread == mainThread);
+            }
+            Assertions.assertSame(mainThread, child.applyThread);
+        }
+        long workerComputeCount = join.childStream()
+                .filter(e -> e instanceof ScoreTask)
+                .flatMap(e -> ((ScoreTask) e).computeThreads.stream())
+                .filter(e -> e instanceof ForkJoinWorkerThread)
+                .count();
+        Assertions.assertTrue(workerComputeCount > 0);
+    }
+
+    @Test
+    void testSameResult() {
+        List<Integer> expected = new ArrayList<>();
+        TaskEntry<Blackboard> sequential = newTree(false, expected);
+        run(sequential);
+
+        List<Integer> completedList = new ArrayList<>();
+        TaskEntry<Blackboard> parallel = newTree(true, completedList);
+        run(parallel);
+
+        // 完成通知的顺序是确定的
+        Assertions.assertEquals(expected, completedList);
+        for (int i = 0; i < CHILD_COUNT; i++) {
+            ScoreTask a = (ScoreTask) sequential.getRootTask().getChild(i);
+            ScoreTask b = (ScoreTask) parallel.getRootTask().getChild(i);
+            Assertions.assertEquals(a.score, b.score);
+        }
+    }
+
+    @Test
+    void testRestart() {
+        List<Integer> completedList = new ArrayList<>();
+        TaskEntry<Blackboard> taskEntry = newTree(true, completedList);
+        run(taskEntry);
+        List<Integer> firstRun = new ArrayList<>(completedList);
+
+        completedList.clear();
+        taskEntry.resetForRestart();
+        run(taskEntry);
+        Assertions.assertEquals(firstRun, completedList);
+    }
+
+    private static class ScoreTask extends ParallelLeafTask<Blackboard> {
+
+        final int id;
+        final int maxFrames;
+        final List<Thread> computeThreads = new ArrayList<>();
+        Thread applyThread;
+        long partial;
+        long score;
+        int computeCount;
+
+        ScoreTask(int id, int maxFrames) {
+            this.id = id;
+            this.maxFrames = maxFrames;
+        }
+
+        @Override
+        public void resetForRestart() {
+            super.resetForRestart();
+            score = 0;
+            computeCount = 0;
+            computeThreads.clear();
+        }
+
+        @Override
+        protected void compute(Task<Blackboard> context) {
+            computeThreads.add(Thread.currentThread());
+            int seed = (Integer) context.getBlackboard().get("seed");
+            long r = seed + id;
+            for (int i = 0; i < 10000; i++) {
+                r = r * 6364136223846793005L + 1442695040888963407L;
+            }
+            partial = r;
+        }
+
+        @Override
+        protected int applyResult() {
+            applyThread = Thread.currentThread();
+            score += partial;
+            if (++computeCount >= maxFrames) {
+                return TaskStatus.SUCCESS;
+            }
+            return TaskStatus.RUNNING;
+        }
+
+        @Override
+        protected void onEventImpl(@Nonnull Object event) {
+
+        }
+    }
+
+    private static class RecordPolicy implements JoinPolicy<Blackboard> {
+
+        final List<Integer> completedList;
+
+        RecordPolicy(List<Integer> completedList) {
+            this.completedList = completedList;
+        }
+
+        @Override
+        public void resetForRestart() {
+
+        }
+
+        @Override
+        public void beforeEnter(Join<Blackboard> join) {
+
+        }
+
+        @Override
+        public void enter(Join<Blackboard> join) {
+
+        }
+
+        @Override
+        public void onChildCompleted(Join<Blackboard> join, Task<Blackboard> child) {
+            completedList.add(join.indexChild(child));
+            if (join.isAllChildCompleted()) {
+                join.setSuccess();
+            }
+        }
+
+        @Override
+        public void onEvent(Join<Blackboard> join, Object event) {
+
+        }
+    }
+}
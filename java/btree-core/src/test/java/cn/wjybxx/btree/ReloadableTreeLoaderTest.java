@@ -0,0 +1,91 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btree;
+
+import cn.wjybxx.btree.leaf.WaitFrame;
+import cn.wjybxx.btree.loader.ReloadableTreeLoader;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+public class ReloadableTreeLoaderTest {
+
+    @Test
+    void testReloadAndSwap() {
+        BtreeTestUtil.MapTreeLoader fileLoader = new BtreeTestUtil.MapTreeLoader();
+        putWait(fileLoader, "a", 3);
+        ReloadableTreeLoader loader = new ReloadableTreeLoader(fileLoader, BtreeTestUtil::copyTask);
+
+        TaskEntry<Blackboard> taskEntry = loader.loadTree("a");
+        taskEntry.setBlackboard(new Blackboard());
+        Assertions.assertEquals(1, taskEntry.getTreeVersion());
+        taskEntry.update(0);
+
+        putWait(fileLoader, "a", 5);
+        Assertions.assertEquals(List.of("a"), loader.reloadFile("main"));
+        Assertions.assertEquals(2, loader.getVersion("a"));
+        Assertions.assertEquals(1, loader.getGlobalVersion());
+        Assertions.assertTrue(loader.isStale(taskEntry));
+        // 运行中不切换
+        Assertions.assertFalse(loader.trySwap(taskEntry));
+
+        for (int frame = 1; !taskEntry.isCompleted(); frame++) {
+            taskEntry.update(frame);
+        }
+        Assertions.assertEquals(3, taskEntry.getRunFrames());
+        Assertions.assertTrue(loader.trySwap(taskEntry));
+        Assertions.assertFalse(loader.isStale(taskEntry));
+        Assertions.assertEquals(5, ((WaitFrame<?>) taskEntry.getRootTask()).getRequired());
+        // 新加载的实例使用新的定义
+        Assertions.assertEquals(5, ((WaitFrame<?>) loader.loadRootTask("a")).getRequired());
+    }
+
+    @Test
+    void testSwapOnCompleted() {
+        BtreeTestUtil.MapTreeLoader fileLoader = new BtreeTestUtil.MapTreeLoader();
+        putWait(fileLoader, "a", 2);
+        ReloadableTreeLoader loader = new ReloadableTreeLoader(fileLoader, BtreeTestUtil::copyTask);
+
+        TaskEntry<Blackboard> taskEntry = loader.loadTree("a");
+        taskEntry.setBlackboard(new Blackboard());
+        List<Integer> completedVersions = new ArrayList<>();
+        taskEntry.setHandler(entry -> completedVersions.add(entry.getTreeVersion()));
+        loader.bindSwapOnCompleted(taskEntry);
+
+        taskEntry.update(0);
+        putWait(fileLoader, "a", 4);
+        loader.reloadFile("main");
+        BtreeTestUtil.untilCompleted(taskEntry);
+        Assertions.assertEquals(2, taskEntry.getRunFrames());
+        Assertions.assertEquals(2, taskEntry.getTreeVersion());
+
+        taskEntry.resetForRestart();
+        BtreeTestUtil.untilCompleted(taskEntry);
+        Assertions.assertEquals(4, taskEntry.getRunFrames());
+        Assertions.assertEquals(List.of(1, 2), completedVersions);
+    }
+
+    /** 模拟修改文件，入口的根节点为WaitFrame */
+    private static void putWait(BtreeTestUtil.MapTreeLoader loader, String name, int required) {
+        loader.put(name, () -> new WaitFrame<>(required));
+    }
+}
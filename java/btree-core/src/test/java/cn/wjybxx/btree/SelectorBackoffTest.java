@@ -0,0 +1,176 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btree;
+
+import cn.wjybxx.btree.branch.ResetBackoffEvent;
+import cn.wjybxx.btree.branch.Selector;
+import cn.wjybxx.btree.leaf.Success;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Selector失败退避测试
+ *
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+public class SelectorBackoffTest {
+
+    private static TaskEntry<Blackboard> newTree(Selector<Blackboard> selector) {
+        return new TaskEntry<>("Main", selector, new VersionedBlackboard(), null, TreeLoader.nullLoader());
+    }
+
+    private static Selector<Blackboard> newSelector(int failureBackoff, boolean withFallback) {
+        Selector<Blackboard> selector = new Selector<>();
+        selector.setFailureBackoff(failureBackoff);
+        selector.addChild(new CoverLeaf());
+        if (withFallback) {
+            selector.addChild(new Success<>());
+        }
+        return selector;
+    }
+
+    private static List<Integer> runFrames(Selector<Blackboard> selector) {
+        return ((CoverLeaf) selector.getChild(0)).runFrames;
+    }
+
+    @Test
+    void testExponentialBackoff() {
+        Selector<Blackboard> selector = newSelector(2, true);
+        TaskEntry<Blackboard> taskEntry = newTree(selector);
+        for (int frame = 0; frame < 20; frame++) {
+            taskEntry.update(frame);
+            Assertions.assertTrue(taskEntry.isSucceeded());
+        }
+        // 跳过2帧、4帧、8帧
+        Assertions.assertEquals(List.of(0, 3, 8, 17), runFrames(selector));
+    }
+
+    @Test
+    void testMaxBackoff() {
+        Selector<Blackboard> selector = newSelector(2, true);
+        selector.setMaxFailureBackoff(3);
+        TaskEntry<Blackboard> taskEntry = newTree(selector);
+        for (int frame = 0; frame < 16; frame++) {
+            taskEntry.update(frame);
+        }
+        Assertions.assertEquals(List.of(0, 3, 7, 11, 15), runFrames(selector));
+    }
+
+    @Test
+    void testAllBackingOff() {
+        Selector<Blackboard> selector = newSelector(5, false);
+        TaskEntry<Blackboard> taskEntry = newTree(selector);
+        taskEntry.update(0);
+        Assertions.assertTrue(taskEntry.isFailed());
+
+        taskEntry.update(1);
+        Assertions.assertTrue(taskEntry.isFailed());
+        Assertions.assertTrue(selector.isBackingOff(0));
+        Assertions.assertEquals(List.of(0), runFrames(selector));
+    }
+
+    @Test
+    void testSuccessClearsStreak() {
+        Selector<Blackboard> selector = newSelector(1, true);
+        TaskEntry<Blackboard> taskEntry = newTree(selector);
+        taskEntry.update(0); // 失败，跳过1帧
+        taskEntry.update(1);
+        taskEntry.getBlackboard().put("cover", true);
+        taskEntry.update(2); // 成功
+        Assertions.assertEquals(0, selector.getRunningIndex());
+        taskEntry.getBlackboard().put("cover", false);
+        taskEntry.update(3); // 重新从1帧开始退避
+        taskEntry.update(4);
+        taskEntry.update(5);
+        Assertions.assertEquals(List.of(0, 2, 3, 5), runFrames(selector));
+    }
+
+    @Test
+    void testResetByBlackboard() {
+        Selector<Blackboard> selector = newSelector(100, true);
+        selector.setBackoffResetKeys(List.of("coverVersion"));
+        TaskEntry<Blackboard> taskEntry = newTree(selector);
+        taskEntry.update(0);
+        taskEntry.update(1);
+        Assertions.assertTrue(selector.isBackingOff(0));
+
+        taskEntry.getBlackboard().put("other", 1);
+        taskEntry.update(2);
+        taskEntry.getBlackboard().put("coverVersion", 1);
+        taskEntry.update(3);
+        Assertions.assertEquals(List.of(0, 3), runFrames(selector));
+    }
+
+    @Test
+    void testResetByEvent() {
+        Selector<Blackboard> selector = newSelector(100, false);
+        TaskEntry<Blackboard> taskEntry = newTree(selector);
+        taskEntry.update(0);
+        taskEntry.update(1);
+        Assertions.assertTrue(taskEntry.isFailed());
+
+        taskEntry.onEvent(ResetBackoffEvent.ALL);
+        taskEntry.update(2);
+        Assertions.assertEquals(List.of(0, 2), runFrames(selector));
+    }
+
+    @Test
+    void testKeepAfterReset() {
+        Selector<Blackboard> selector = newSelector(100, true);
+        TaskEntry<Blackboard> taskEntry = newTree(selector);
+        taskEntry.update(0);
+        taskEntry.resetForRestart();
+        taskEntry.update(1);
+        Assertions.assertTrue(selector.isBackingOff(0));
+        Assertions.assertEquals(List.of(0), runFrames(selector));
+    }
+
+    @Test
+    void testDisabled() {
+        Selector<Blackboard> selector = newSelector(0, true);
+        TaskEntry<Blackboard> taskEntry = newTree(selector);
+        for (int frame = 0; frame < 5; frame++) {
+            taskEntry.update(frame);
+        }
+        Assertions.assertEquals(List.of(0, 1, 2, 3, 4), runFrames(selector));
+    }
+
+    /** 黑板中有掩体时成功 */
+    private static class CoverLeaf extends LeafTask<Blackboard> {
+
+        final List<Integer> runFrames = new ArrayList<>();
+
+        @Override
+        protected void execute() {
+            runFrames.add(getCurFrame());
+            if (Boolean.TRUE.equals(getBlackboard().get("cover"))) {
+                setSuccess();
+            } else {
+                setFailed(TaskStatus.ERROR);
+            }
+        }
+
+        @Override
+        protected void onEventImpl(@Nonnull Object event) {
+
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btree;
+
+import cn.wjybxx.btree.branch.ServiceParallel;
+import cn.wjybxx.btree.branch.ServiceTriggerEvent;
+import cn.wjybxx.btree.leaf.Running;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+/**
+ * 服务运行间隔测试
+ *
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+public class ServiceIntervalTest {
+
+    private static ServiceParallel<Blackboard> newParallel(int serviceCount) {
+        ServiceParallel<Blackboard> parallel = new ServiceParallel<>();
+        parallel.addChild(new Running<>());
+        for (int i = 0; i < serviceCount; i++) {
+            parallel.addChild(new ServiceLeaf());
+        }
+        return parallel;
+    }
+
+    private static TaskEntry<Blackboard> newTree(ServiceParallel<Blackboard> parallel) {
+        return new TaskEntry<>("Main", parallel, new Blackboard(), null, TreeLoader.nullLoader());
+    }
+
+    private static List<Integer> runFrames(ServiceParallel<Blackboard> parallel, int serviceIndex) {
+        return ((ServiceLeaf) parallel.getChild(serviceIndex + 1)).runFrames;
+    }
+
+    @Test
+    void testEveryFrame() {
+        ServiceParallel<Blackboard> parallel = newParallel(2);
+        TaskEntry<Blackboard> taskEntry = newTree(parallel);
+        for (int frame = 0; frame < 10; frame++) {
+            taskEntry.update(frame);
+        }
+        Assertions.assertEquals(10, runFrames(parallel, 0).size());
+        Assertions.assertEquals(10, runFrames(parallel, 1).size());
+    }
+
+    @Test
+    void testInterval() {
+        ServiceParallel<Blackboard> parallel = newParallel(3);
+        parallel.setServiceIntervals(new int[]{1, 5, 30});
+        parallel.setJitterPhase(false);
+        TaskEntry<Blackboard> taskEntry = newTree(parallel);
+        for (int frame = 0; frame < 60; frame++) {
+            taskEntry.update(frame);
+        }
+        Assertions.assertEquals(60, runFrames(parallel, 0).size());
+        Assertions.assertEquals(List.of(0, 5, 10, 15, 20, 25, 30, 35, 40, 45, 50, 55), runFrames(parallel, 1));
+        Assertions.assertEquals(List.of(0, 30), runFrames(parallel, 2));
+        Assertions.assertEquals(60, parallel.getNextRunFrame(2));
+    }
+
+    @Test
+    void testJitterPhase() {
+        SplittableRandom random = new SplittableRandom(1024);
+        Set<Integer> phases = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            ServiceParallel<Blackboard> parallel = newParallel(1);
+            parallel.setServiceIntervals(new int[]{10});
+            TaskEntry<Blackboard> taskEntry = newTree(parallel);
+            taskEntry.setRandom(random);
+            for (int frame = 0; frame < 60; frame++) {
+                taskEntry.update(frame);
+            }
+            List<Integer> runFrames = runFrames(parallel, 0);
+            Assertions.assertEquals(6, runFrames.size());
+            int phase = runFrames.get(0);
+            Assertions.assertTrue(phase < 10);
+            for (int j = 0; j < runFrames.size(); j++) {
+                Assertions.assertEquals(phase + j * 10, runFrames.get(j));
+            }
+            phases.add(phase);
+        }
+        Assertions.assertTrue(phases.size() > 5); // 实体之间的服务不在同一帧运行
+    }
+
+    @Test
+    void testTrigger() {
+        ServiceParallel<Blackboard> parallel = newParallel(2);
+        parallel.setServiceIntervals(new int[]{30, 30});
+        parallel.setJitterPhase(false);
+        TaskEntry<Blackboard> taskEntry = newTree(parallel);
+        for (int frame = 0; frame < 40; frame++) {
+            if (frame == 6) {
+                taskEntry.onEvent(new ServiceTriggerEvent(1));
+            }
+            taskEntry.update(frame);
+        }
+        Assertions.assertEquals(List.of(0, 30), runFrames(parallel, 0));
+        Assertions.assertEquals(List.of(0, 6, 36), runFrames(parallel, 1));
+    }
+
+    @Test
+    void testIntervalMismatch() {
+        ServiceParallel<Blackboard> parallel = newParallel(2);
+        parallel.setServiceIntervals(new int[]{5});
+        TaskEntry<Blackboard> taskEntry = newTree(parallel);
+        Assertions.assertThrows(IllegalStateException.class, () -> taskEntry.update(0));
+    }
+
+    private static class ServiceLeaf extends LeafTask<Blackboard> {
+
+        final List<Integer> runFrames = new ArrayList<>();
+
+        @Override
+        protected void execute() {
+            runFrames.add(getCurFrame());
+            setSuccess();
+        }
+
+        @Override
+        protected void onEventImpl(@Nonnull Object event) {
+
+        }
+    }
+}
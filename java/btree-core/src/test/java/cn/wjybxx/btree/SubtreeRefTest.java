@@ -0,0 +1,178 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btree;
+
+import cn.wjybxx.btree.branch.Sequence;
+import cn.wjybxx.btree.decorator.SubtreeRef;
+import cn.wjybxx.btree.leaf.Failure;
+import cn.wjybxx.btree.leaf.WaitFrame;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 子树的预取和释放测试
+ *
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+public class SubtreeRefTest {
+
+    @Test
+    void testPrefetch() {
+        BtreeTestUtil.MapTreeLoader loader = newLoader();
+        Sequence<Blackboard> sequence = new Sequence<>();
+        sequence.setFlags(Task.MASK_PREFETCH_SUBTREE);
+        sequence.addChild(new WaitFrame<>(3));
+        SubtreeRef<Blackboard> subtreeRef = new SubtreeRef<>("wait");
+        sequence.addChild(subtreeRef);
+        TaskEntry<Blackboard> taskEntry = newTaskEntry(sequence, loader);
+
+        taskEntry.update(0);
+        Assertions.assertEquals(List.of("wait"), loader.loadedNames());
+        Assertions.assertTrue(subtreeRef.getStatus() == TaskStatus.NEW);
+        for (int frame = 1; !taskEntry.isCompleted(); frame++) {
+            taskEntry.update(frame);
+        }
+        Assertions.assertTrue(taskEntry.isSucceeded());
+        Assertions.assertTrue(subtreeRef.isLoaded());
+        Assertions.assertEquals(5, taskEntry.getRunFrames());
+        // 已加载的子树不重复预取
+        Assertions.assertEquals(1, loader.loadCount());
+    }
+
+    @Test
+    void testReleaseThreshold() {
+        BtreeTestUtil.MapTreeLoader loader = newLoader();
+        Sequence<Blackboard> sequence = new Sequence<>();
+        sequence.addChild(new WaitFrame<>(1));
+        SubtreeRef<Blackboard> subtreeRef = new SubtreeRef<>("wait");
+        subtreeRef.setReleaseThreshold(2);
+        sequence.addChild(subtreeRef);
+        TaskEntry<Blackboard> taskEntry = newTaskEntry(sequence, loader);
+
+        BtreeTestUtil.untilCompleted(taskEntry);
+        Assertions.assertTrue(subtreeRef.isLoaded());
+
+        // 之后的运行都不会执行到子树
+        sequence.setChild(0, new Failure<>());
+        for (int idleCount = 0; idleCount < 2; idleCount++) {
+            taskEntry.resetForRestart();
+            BtreeTestUtil.untilCompleted(taskEntry);
+            Assertions.assertTrue(taskEntry.isFailed());
+            Assertions.assertTrue(subtreeRef.isLoaded(), "idleCount: " + idleCount);
+        }
+        taskEntry.resetForRestart();
+        Assertions.assertFalse(subtreeRef.isLoaded());
+        Assertions.assertEquals(1, loader.loadCount());
+    }
+
+    @Test
+    void testSyncLoadAfterPrefetch() {
+        // 预取的结果在之后的帧才完成
+        BtreeTestUtil.MapTreeLoader loader = new BtreeTestUtil.MapTreeLoader() {
+            @Override
+            public CompletableFuture<Object> loadObjectAsync(String nameOrGuid) {
+                Executor executor = CompletableFuture.delayedExecutor(50, TimeUnit.MILLISECONDS);
+                return CompletableFuture.supplyAsync(() -> loadObject(nameOrGuid), executor);
+            }
+        }.setFallback(name -> new WaitFrame<>(2));
+        Sequence<Blackboard> sequence = new Sequence<>();
+        sequence.setFlags(Task.MASK_PREFETCH_SUBTREE);
+        SubtreeRef<Blackboard> subtreeRef = new SubtreeRef<>("wait");
+        sequence.addChild(subtreeRef);
+        TaskEntry<Blackboard> taskEntry = newTaskEntry(sequence, loader);
+
+        // 同步加载不跨帧等待
+        taskEntry.update(0);
+        Assertions.assertTrue(subtreeRef.isLoaded());
+        Assertions.assertTrue(subtreeRef.getChild(0).isRunning());
+        Assertions.assertEquals(1, loader.loadCount());
+    }
+
+    @Test
+    void testReleaseThenDeltaSnapshot() {
+        BtreeTestUtil.MapTreeLoader loader = newLoader();
+        Sequence<Blackboard> sequence = new Sequence<>();
+        sequence.addChild(new WaitFrame<>(1));
+        SubtreeRef<Blackboard> subtreeRef = new SubtreeRef<>("wait");
+        subtreeRef.setReleaseThreshold(1);
+        sequence.addChild(subtreeRef);
+        TaskEntry<Blackboard> taskEntry = newTaskEntry(sequence, loader);
+        BtreeTestUtil.untilCompleted(taskEntry);
+
+        sequence.setChild(0, new Failure<>());
+        taskEntry.resetForRestart();
+        BtreeTestUtil.untilCompleted(taskEntry);
+        Assertions.assertTrue(subtreeRef.isLoaded());
+        byte[] base = TaskSnapshots.snapshot(taskEntry);
+
+        // 子树在未绑定Entry时被释放，增量快照应退化为全量快照
+        taskEntry.resetForRestart();
+        Assertions.assertFalse(subtreeRef.isLoaded());
+        taskEntry.update(0);
+        byte[] delta = TaskSnapshots.snapshotDelta(taskEntry);
+        Assertions.assertFalse(TaskSnapshots.isDelta(delta));
+        Assertions.assertArrayEquals(delta, TaskSnapshots.merge(base, delta));
+
+        // releaseAll同理
+        sequence.setChild(0, new WaitFrame<>(1));
+        taskEntry.resetForRestart();
+        BtreeTestUtil.untilCompleted(taskEntry);
+        taskEntry.resetForRestart();
+        byte[] base2 = TaskSnapshots.snapshot(taskEntry);
+        Assertions.assertEquals(1, SubtreeRef.releaseAll(taskEntry));
+        byte[] delta2 = TaskSnapshots.snapshotDelta(taskEntry);
+        Assertions.assertFalse(TaskSnapshots.isDelta(delta2));
+        Assertions.assertArrayEquals(delta2, TaskSnapshots.merge(base2, delta2));
+    }
+
+    @Test
+    void testReleaseAll() {
+        BtreeTestUtil.MapTreeLoader loader = newLoader();
+        Sequence<Blackboard> sequence = new Sequence<>();
+        sequence.addChild(new SubtreeRef<>("wait"));
+        sequence.addChild(new SubtreeRef<>("wait"));
+        sequence.addChild(new WaitFrame<>(5));
+        TaskEntry<Blackboard> taskEntry = newTaskEntry(sequence, loader);
+
+        for (int frame = 0; frame < 4; frame++) {
+            taskEntry.update(frame);
+        }
+        Assertions.assertTrue(sequence.getChild(1).isRunning());
+        // 运行中的子树不释放
+        Assertions.assertEquals(1, SubtreeRef.releaseAll(taskEntry));
+        Assertions.assertFalse(((SubtreeRef<?>) sequence.getChild(0)).isLoaded());
+        Assertions.assertTrue(((SubtreeRef<?>) sequence.getChild(1)).isLoaded());
+
+        for (int frame = 4; !taskEntry.isCompleted(); frame++) {
+            taskEntry.update(frame);
+        }
+        Assertions.assertTrue(taskEntry.isSucceeded());
+    }
+
+    private static TaskEntry<Blackboard> newTaskEntry(Task<Blackboard> root, TreeLoader loader) {
+        return new TaskEntry<>("Main", root, new Blackboard(), null, loader);
+    }
+
+    private static BtreeTestUtil.MapTreeLoader newLoader() {
+        return new BtreeTestUtil.MapTreeLoader().setFallback(name -> new WaitFrame<>(2));
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btree;
+
+import cn.wjybxx.btree.branch.Sequence;
+import cn.wjybxx.btree.leaf.WaitFrame;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 行为树迁移测试
+ *
+ * @author wjybxx
+ * date - 2024/6/4
+ */
+public class TaskEntryMigrateTest {
+
+    private static TaskEntry<Blackboard> newTree() {
+        WaitFrame<Blackboard> first = new WaitFrame<>(4);
+        first.setFlags(Task.MASK_AUTO_LISTEN_CANCEL);
+        Sequence<Blackboard> sequence = new Sequence<>();
+        sequence.addChild(first);
+        sequence.addChild(new WaitFrame<>(3));
+        return BtreeTestUtil.newTaskEntry(sequence);
+    }
+
+    @Test
+    void testMigrate() throws Exception {
+        TaskEntry<Blackboard> expected = newTree();
+        BtreeTestUtil.untilCompleted(expected);
+
+        TaskEntry<Blackboard> taskEntry = newTree();
+        taskEntry.update(0);
+        taskEntry.update(1);
+        taskEntry.detach();
+        Assertions.assertThrows(IllegalStateException.class, () -> taskEntry.update(2));
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(() -> {
+                taskEntry.attach(null, 1000);
+                for (int frame = 1001; !taskEntry.isCompleted(); frame++) {
+                    taskEntry.update(frame);
+                }
+            }).get();
+        } finally {
+            executor.shutdown();
+        }
+        Assertions.assertTrue(taskEntry.isSucceeded());
+        Assertions.assertEquals(expected.getRunFrames(), taskEntry.getRunFrames());
+        Assertions.assertEquals(1000 + expected.getExitFrame() - 1, taskEntry.getExitFrame());
+    }
+
+    @Test
+    void testCancelWhenDetached() {
+        TaskEntry<Blackboard> taskEntry = newTree();
+        taskEntry.update(0);
+        taskEntry.detach();
+
+        // 分离期间不响应取消
+        Task<Blackboard> first = taskEntry.getRootTask().getChild(0);
+        taskEntry.getCancelToken().cancel(1);
+        Assertions.assertTrue(first.isRunning());
+
+        taskEntry.attach(null, 100);
+        Assertions.assertTrue(first.isCancelled());
+        Assertions.assertTrue(taskEntry.isCancelled());
+    }
+}
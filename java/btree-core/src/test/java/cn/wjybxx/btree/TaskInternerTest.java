@@ -0,0 +1,135 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btree;
+
+import cn.wjybxx.btree.branch.Sequence;
+import cn.wjybxx.btree.decorator.Inverter;
+import cn.wjybxx.btree.leaf.Failure;
+import cn.wjybxx.btree.leaf.WaitFrame;
+import cn.wjybxx.btree.loader.CachingTreeLoader;
+import cn.wjybxx.btree.loader.TaskInterner;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+
+/**
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+public class TaskInternerTest {
+
+    private static WaitFrame<Blackboard> newGuarded(int required) {
+        WaitFrame<Blackboard> waitFrame = new WaitFrame<>(required);
+        waitFrame.setGuard(new Inverter<>(new Failure<>()));
+        return waitFrame;
+    }
+
+    private static Sequence<Blackboard> newPatrol() {
+        Sequence<Blackboard> sequence = new Sequence<>();
+        sequence.addChild(new WaitFrame<>(1));
+        sequence.addChild(new WaitFrame<>(1));
+        return sequence;
+    }
+
+    private static Sequence<Blackboard> newTree1() {
+        Sequence<Blackboard> root = new Sequence<>();
+        root.addChild(newGuarded(2));
+        root.addChild(newPatrol());
+        return root;
+    }
+
+    private static Sequence<Blackboard> newTree2() {
+        Sequence<Blackboard> root = new Sequence<>();
+        root.addChild(newPatrol());
+        root.addChild(newGuarded(3));
+        return root;
+    }
+
+    @Test
+    void testIntern() {
+        TaskInterner interner = new TaskInterner();
+        Sequence<Blackboard> tree1 = newTree1();
+        Sequence<Blackboard> tree2 = newTree2();
+        Assertions.assertSame(tree1, interner.intern(tree1));
+        Assertions.assertSame(tree2, interner.intern(tree2));
+
+        // 跨树共享相同的子树和条件
+        Assertions.assertSame(tree1.getChild(1), tree2.getChild(0));
+        Assertions.assertSame(tree1.getChild(0).getGuard(), tree2.getChild(1).getGuard());
+        Assertions.assertNotSame(tree1.getChild(0), tree2.getChild(1));
+        // 同一棵树中的相同节点也会共享
+        Assertions.assertSame(tree1.getChild(1).getChild(0), tree1.getChild(1).getChild(1));
+
+        // tree1: root, guarded, inverter, failure, patrol, wait1, wait1
+        // tree2: root, patrol, wait1, wait1, guarded, inverter, failure
+        Assertions.assertEquals(14, interner.getNodeCount());
+        Assertions.assertEquals(8, interner.getPoolSize());
+        Assertions.assertEquals(6, interner.getHitCount());
+        Assertions.assertSame(tree1, interner.intern(newTree1()));
+    }
+
+    @Test
+    void testRunCopies() {
+        TaskInterner interner = new TaskInterner();
+        interner.intern(newTree1());
+        Object prototype = interner.intern(newTree2());
+
+        @SuppressWarnings("unchecked") Task<Blackboard> copied = (Task<Blackboard>) BtreeTestUtil.copyTask(prototype);
+        TaskEntry<Blackboard> actual = BtreeTestUtil.newTaskEntry(copied);
+        TaskEntry<Blackboard> expected = BtreeTestUtil.newTaskEntry(newTree2());
+        BtreeTestUtil.untilCompleted(actual);
+        BtreeTestUtil.untilCompleted(expected);
+        Assertions.assertTrue(actual.isSucceeded());
+        Assertions.assertEquals(expected.getRunFrames(), actual.getRunFrames());
+    }
+
+    @Test
+    void testCachingLoader() {
+        BtreeTestUtil.MapTreeLoader delegate = new BtreeTestUtil.MapTreeLoader()
+                .put("a", TaskInternerTest::newTree1)
+                .put("b", TaskInternerTest::newTree2);
+        CachingTreeLoader loader = new CachingTreeLoader(delegate, BtreeTestUtil::copyTask, 100);
+        TaskInterner interner = new TaskInterner();
+        loader.setInterner(interner);
+
+        Task<Blackboard> tree1 = loader.loadRootTask("a");
+        Task<Blackboard> tree2 = loader.loadRootTask("b");
+        Assertions.assertEquals(8, interner.getPoolSize());
+        Assertions.assertEquals(6, interner.getHitCount());
+        // 运行时的实例是独立的
+        Assertions.assertNotSame(tree1.getChild(1), tree2.getChild(0));
+        Assertions.assertNotSame(tree1.getChild(1).getChild(0), tree1.getChild(1).getChild(1));
+    }
+
+    /** 驻留池不持有原型，原型被丢弃后池中的条目被清除 */
+    @Test
+    void testReleaseUnreferenced() throws InterruptedException {
+        TaskInterner interner = new TaskInterner();
+        Sequence<Blackboard> retained = newPatrol();
+        interner.intern(retained);
+        interner.intern(newTree1());
+        interner.intern(newTree2());
+        Assertions.assertEquals(8, interner.getPoolSize());
+
+        // 子树在父节点的条目删除后才能被回收，因此需要多次GC
+        for (int i = 0; i < 100 && interner.getPoolSize() > 2; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        Assertions.assertEquals(2, interner.getPoolSize()); // patrol, wait1
+        Assertions.assertSame(retained, interner.intern(newPatrol()));
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btree;
+
+import cn.wjybxx.btree.branch.Join;
+import cn.wjybxx.btree.branch.SelectorN;
+import cn.wjybxx.btree.branch.Sequence;
+import cn.wjybxx.btree.decorator.Inverter;
+import cn.wjybxx.btree.decorator.Repeat;
+import cn.wjybxx.btree.decorator.SubtreeRef;
+import cn.wjybxx.btree.fsm.ChangeStateArgs;
+import cn.wjybxx.btree.fsm.ChangeStateTask;
+import cn.wjybxx.btree.fsm.StateMachineHandler;
+import cn.wjybxx.btree.fsm.StateMachineTask;
+import cn.wjybxx.btree.leaf.WaitFrame;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * 快照测试：在任意帧保存快照，恢复到新树后，两棵树的后续运行过程应该完全一致
+ *
+ * @author wjybxx
+ * date - 2024/6/3
+ */
+public class TaskSnapshotTest {
+
+    private static TaskEntry<Blackboard> newJoinTree() {
+        Repeat<Blackboard> repeat = new Repeat<>();
+        repeat.setRequired(3);
+        repeat.setChild(new WaitFrame<>(2));
+
+        Sequence<Blackboard> sequence = new Sequence<>();
+        sequence.addChild(new WaitFrame<>(1));
+        sequence.addChild(new WaitFrame<>(3));
+        sequence.addChild(new SubtreeRef<>("wait"));
+
+        SelectorN<Blackboard> selectorN = new SelectorN<>();
+        selectorN.setRequired(2);
+        selectorN.addChild(new Inverter<>(new WaitFrame<>(2)));
+        selectorN.addChild(new WaitFrame<>(1));
+        selectorN.addChild(new WaitFrame<>(4));
+
+        Join<Blackboard> join = new Join<>();
+        join.addChild(new WaitFrame<>(5));
+        join.addChild(repeat);
+        join.addChild(sequence);
+        join.addChild(selectorN);
+        return newTaskEntry(join);
+    }
+
+    private static TaskEntry<Blackboard> newStateMachineTree() {
+        StateMachineTask<Blackboard> stateMachine = new StateMachineTask<>();
+        stateMachine.setName("RootStateMachine");
+        stateMachine.setInitState(newState("A", 2, "B", ChangeStateArgs.DELAY_CURRENT_COMPLETED));
+        stateMachine.setUndoQueueSize(5);
+        stateMachine.setStateMachineHandler(new StateMachineHandler<>() {
+            @Override
+            public boolean onNextStateAbsent(StateMachineTask<Blackboard> stateMachineTask, Task<Blackboard> preState) {
+                return false;
+            }
+
+            @Override
+            public String getStateId(StateMachineTask<Blackboard> stateMachineTask, Task<Blackboard> state) {
+                return ((IdSequence<Blackboard>) state).id;
+            }
+        });
+        return newTaskEntry(stateMachine);
+    }
+
+    private static TaskEntry<Blackboard> newTaskEntry(Task<Blackboard> root) {
+        return new TaskEntry<>("Main", root, new Blackboard(), null, newLoader());
+    }
+
+    @Test
+    void testJoin() {
+        testAllFrames(TaskSnapshotTest::newJoinTree);
+    }
+
+    @Test
+    void testStateMachine() {
+        testAllFrames(TaskSnapshotTest::newStateMachineTree);
+    }
+
+    @Test
+    void testStructureMismatch() {
+        TaskEntry<Blackboard> origin = newJoinTree();
+        origin.update(0);
+        origin.update(1);
+        byte[] data = TaskSnapshots.snapshot(origin);
+        Assertions.assertThrows(IllegalStateException.class,
+                () -> TaskSnapshots.restore(newStateMachineTree(), data));
+    }
+
+    @Test
+    void testDeltaJoin() {
+        testDelta(TaskSnapshotTest::newJoinTree);
+    }
+
+    @Test
+    void testDeltaStateMachine() {
+        testDelta(TaskSnapshotTest::newStateMachineTree);
+    }
+
+    @Test
+    void testDeltaOnlyDirty() {
+        TaskEntry<Blackboard> origin = newJoinTree();
+        origin.update(0);
+        byte[] full = TaskSnapshots.snapshot(origin);
+        origin.update(1);
+        byte[] delta = TaskSnapshots.snapshotDelta(origin);
+        Assertions.assertTrue(TaskSnapshots.isDelta(delta));
+        Assertions.assertTrue(delta.length < full.length);
+        // 没有变化时只有头尾
+        byte[] empty = TaskSnapshots.snapshotDelta(origin);
+        Assertions.assertTrue(TaskSnapshots.isDelta(empty));
+        Assertions.assertTrue(empty.length < delta.length);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> TaskSnapshots.restore(newJoinTree(), delta));
+    }
+
+    /** 每一帧写入增量快照并合并，合并后的快照应该和全量快照恢复出相同的树 */
+    private static void testDelta(Supplier<TaskEntry<Blackboard>> factory) {
+        TaskEntry<Blackboard> origin = factory.get();
+        byte[] merged = TaskSnapshots.snapshot(origin);
+        for (int frame = 0; !origin.isCompleted(); frame++) {
+            origin.update(frame);
+            merged = TaskSnapshots.merge(merged, TaskSnapshots.snapshotDelta(origin));
+
+            TaskEntry<Blackboard> copy = factory.get();
+            TaskSnapshots.restore(copy, merged);
+            Assertions.assertEquals(signature(origin), signature(copy), "frame: " + frame);
+            // 全量快照也会作为下一次增量的基础，内容相同则不影响
+            Assertions.assertArrayEquals(TaskSnapshots.snapshot(origin), merged, "frame: " + frame);
+        }
+    }
+
+    /** 在每一帧都尝试保存和恢复，然后对比后续的运行过程 */
+    private static void testAllFrames(Supplier<TaskEntry<Blackboard>> factory) {
+        int totalFrames = runToCompleted(factory.get());
+        for (int snapshotFrame = 0; snapshotFrame < totalFrames; snapshotFrame++) {
+            TaskEntry<Blackboard> origin = factory.get();
+            for (int frame = 0; frame < snapshotFrame; frame++) {
+                origin.update(frame);
+            }
+            TaskEntry<Blackboard> copy = factory.get();
+            TaskSnapshots.restore(copy, TaskSnapshots.snapshot(origin));
+            Assertions.assertEquals(signature(origin), signature(copy));
+
+            for (int frame = snapshotFrame; !origin.isCompleted(); frame++) {
+                origin.update(frame);
+                copy.update(frame);
+                Assertions.assertEquals(signature(origin), signature(copy), "snapshotFrame: " + snapshotFrame);
+            }
+            Assertions.assertTrue(copy.isCompleted());
+        }
+    }
+
+    private static int runToCompleted(TaskEntry<Blackboard> entry) {
+        int frame = 0;
+        while (!entry.isCompleted()) {
+            entry.update(frame++);
+            if (frame > 200) throw new AssertionError("infinite loop");
+        }
+        return frame;
+    }
+
+    /** 先序遍历所有节点的运行时状态 */
+    private static List<String> signature(Task<?> root) {
+        List<String> result = new ArrayList<>();
+        appendSignature(root, result);
+        return result;
+    }
+
+    private static void appendSignature(Task<?> task, List<String> result) {
+        result.add("%s-%d-%d-%d-%d".formatted(task.getClass().getSimpleName(), task.getStatus(),
+                task.getEnterFrame(), task.getExitFrame(), task.getReentryId()));
+        if (task instanceof StateMachineTask<?> stateMachineTask) {
+            result.add("undo-" + stateMachineTask.getUndoQueue().size());
+        }
+        for (int idx = 0; idx < task.getChildCount(); idx++) {
+            appendSignature(task.getChild(idx), result);
+        }
+    }
+
+    private static IdSequence<Blackboard> newState(String id, int waitFrames, @Nullable String nextState, int delayMode) {
+        IdSequence<Blackboard> state = new IdSequence<>(id);
+        state.addChild(new WaitFrame<>(waitFrames));
+        if (nextState != null) {
+            ChangeStateTask<Blackboard> changeStateTask = new ChangeStateTask<>();
+            changeStateTask.setNextStateGuid(nextState);
+            changeStateTask.setDelayMode(delayMode);
+            state.addChild(changeStateTask);
+            if (delayMode == ChangeStateArgs.DELAY_NEXT_FRAME) {
+                state.addChild(new WaitFrame<>(2)); // 在切换前保持运行
+            }
+        }
+        return state;
+    }
+
+    private static class IdSequence<T> extends Sequence<T> {
+
+        final String id;
+
+        IdSequence(String id) {
+            this.id = id;
+        }
+    }
+
+    private static BtreeTestUtil.MapTreeLoader newLoader() {
+        return new BtreeTestUtil.MapTreeLoader()
+                .put("wait", () -> new WaitFrame<>(2))
+                .put("B", () -> newState("B", 3, "C", ChangeStateArgs.DELAY_NEXT_FRAME))
+                .put("C", () -> newState("C", 1, null, 0));
+    }
+}
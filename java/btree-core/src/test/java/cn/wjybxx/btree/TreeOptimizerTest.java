@@ -0,0 +1,303 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btree;
+
+import cn.wjybxx.btree.branch.ConditionSequence;
+import cn.wjybxx.btree.branch.Selector;
+import cn.wjybxx.btree.branch.Sequence;
+import cn.wjybxx.btree.decorator.AlwaysSuccess;
+import cn.wjybxx.btree.decorator.Inverter;
+import cn.wjybxx.btree.decorator.SubtreeRef;
+import cn.wjybxx.btree.leaf.Failure;
+import cn.wjybxx.btree.leaf.Success;
+import cn.wjybxx.btree.leaf.WaitFrame;
+import cn.wjybxx.btree.loader.TreeOptimizer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * 优化器测试：优化前后的树运行结果应该完全一致
+ *
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+public class TreeOptimizerTest {
+
+    private static final int SUBTREE_COUNT = 3;
+
+    @Test
+    void testFlatten() {
+        Sequence<Blackboard> root = new Sequence<>();
+        root.addChild(new Sequence<>(new WaitFrame<>(1), new WaitFrame<>(2)));
+        Sequence<Blackboard> guarded = new Sequence<>(new WaitFrame<>(1), null);
+        guarded.setGuard(new Condition<>(true));
+        root.addChild(guarded);
+        root.addChild(new Selector<>(new WaitFrame<>(1), null));
+
+        Task<Blackboard> optimized = newOptimizer().optimize(root);
+        Assertions.assertSame(root, optimized);
+        Assertions.assertEquals(4, root.getChildCount());
+        Assertions.assertInstanceOf(WaitFrame.class, root.getChild(0));
+        Assertions.assertSame(guarded, root.getChild(2));
+    }
+
+    @Test
+    void testFold() {
+        Inverter<Blackboard> inverter = new Inverter<>(new Inverter<>(new Condition<>(true)));
+        inverter.setGuard(new Condition<>(false));
+        Task<Blackboard> optimized = newOptimizer().optimize(inverter);
+        Assertions.assertInstanceOf(Condition.class, optimized);
+        Assertions.assertInstanceOf(Condition.class, optimized.getGuard());
+
+        // 失败码不确定时不折叠
+        Inverter<Blackboard> inverter2 = new Inverter<>(new Inverter<>(new WaitFrame<>(1)));
+        Assertions.assertSame(inverter2, newOptimizer().optimize(inverter2));
+
+        Task<Blackboard> alwaysSuccess = newOptimizer().optimize(new AlwaysSuccess<>(new Success<>()));
+        Assertions.assertInstanceOf(Success.class, alwaysSuccess);
+    }
+
+    @Test
+    void testConstantGuard() {
+        WaitFrame<Blackboard> waitFrame = new WaitFrame<>(1);
+        waitFrame.setGuard(new Inverter<>(new Failure<>()));
+        newOptimizer().optimize(waitFrame);
+        Assertions.assertNull(waitFrame.getGuard());
+
+        waitFrame.setGuard(new AlwaysSuccess<>(new Success<>()));
+        newOptimizer().optimize(waitFrame);
+        Assertions.assertNull(waitFrame.getGuard());
+    }
+
+    @Test
+    void testFuseCondition() {
+        Sequence<Blackboard> root = new Sequence<>();
+        root.addChild(new Condition<>(true));
+        root.addChild(new Sequence<>(new Condition<>(true), new Condition<>(false)));
+        root.addChild(new WaitFrame<>(1));
+        root.addChild(new Condition<>(true));
+
+        newOptimizer().optimize(root);
+        Assertions.assertEquals(3, root.getChildCount());
+        Assertions.assertInstanceOf(ConditionSequence.class, root.getChild(0));
+        Assertions.assertEquals(3, root.getChild(0).getChildCount());
+        Assertions.assertInstanceOf(Condition.class, root.getChild(2));
+
+        TaskEntry<Blackboard> taskEntry = BtreeTestUtil.newTaskEntry(root);
+        taskEntry.update(0);
+        Assertions.assertTrue(taskEntry.isFailed());
+    }
+
+    @Test
+    void testInline() {
+        TreeOptimizer optimizer = new TreeOptimizer(TreeOptimizer.ALL, newLoader());
+        Sequence<Blackboard> root = new Sequence<>();
+        root.addChild(new SubtreeRef<>("s0"));
+        root.addChild(new SubtreeRef<>("absent"));
+        optimizer.optimize(root);
+        Assertions.assertFalse(containsSubtreeRef(root.getChild(0)));
+        Assertions.assertInstanceOf(SubtreeRef.class, root.getChild(root.getChildCount() - 1));
+
+        // 循环引用不内联
+        Task<Blackboard> cyclic = optimizer.optimize(new SubtreeRef<>("cyclic"));
+        Assertions.assertTrue(containsSubtreeRef(cyclic));
+    }
+
+    /** 差分测试：随机生成树，对比优化前后的运行结果 */
+    @Test
+    void testDifferential() {
+        TreeOptimizer optimizer = new TreeOptimizer(TreeOptimizer.ALL, newLoader());
+        int originNodes = 0;
+        int optimizedNodes = 0;
+        for (int seed = 0; seed < 1000; seed++) {
+            Task<Blackboard> origin = randomTree(new Random(seed), 4);
+            Task<Blackboard> optimized = optimizer.optimize(randomTree(new Random(seed), 4));
+            // 内联会增加节点数，因此不计入
+            originNodes += countNodes(origin);
+            optimizedNodes += countNodes(newOptimizer().optimize(randomTree(new Random(seed), 4)));
+
+            TaskEntry<Blackboard> expected = newTaskEntry(origin);
+            TaskEntry<Blackboard> actual = newTaskEntry(optimized);
+            for (int frame = 0; !expected.isCompleted(); frame++) {
+                expected.update(frame);
+                actual.update(frame);
+                Assertions.assertEquals(expected.getStatus(), actual.getStatus(), "seed: " + seed + ", frame: " + frame);
+                if (frame > 200) throw new AssertionError("infinite loop");
+            }
+            Assertions.assertEquals(expected.getExitFrame(), actual.getExitFrame(), "seed: " + seed);
+        }
+        Assertions.assertTrue(optimizedNodes < originNodes);
+    }
+
+    /** 差分测试：带有退避或自适应顺序的Selector不展开，且父节点的配置不作用于孙节点 */
+    @Test
+    void testSelectorConfigNotFlattened() {
+        List<Supplier<Task<Blackboard>>> factories = List.of(
+                () -> { // 子节点退避
+                    Selector<Blackboard> child = new Selector<>(new Inverter<>(new WaitFrame<>(2)), null);
+                    child.setFailureBackoff(4);
+                    return new Selector<>(child, new Success<>());
+                },
+                () -> { // 父节点退避
+                    Selector<Blackboard> root = new Selector<>(new Selector<>(new Inverter<>(new WaitFrame<>(2)), new Success<>()), null);
+                    root.setFailureBackoff(4);
+                    return root;
+                },
+                () -> { // 子节点自适应顺序
+                    Selector<Blackboard> child = new Selector<>(new Inverter<>(new WaitFrame<>(3)), new WaitFrame<>(1));
+                    child.setAdaptiveOrder(true);
+                    return new Selector<>(new Inverter<>(new WaitFrame<>(1)), child);
+                });
+        for (int idx = 0; idx < factories.size(); idx++) {
+            Task<Blackboard> origin = factories.get(idx).get();
+            Task<Blackboard> optimized = newOptimizer().optimize(factories.get(idx).get());
+            Assertions.assertEquals(countNodes(origin), countNodes(optimized), "case: " + idx);
+
+            TaskEntry<Blackboard> expected = newTaskEntry(origin);
+            TaskEntry<Blackboard> actual = newTaskEntry(optimized);
+            for (int round = 0; round < 100; round++) {
+                for (int frame = 0; !expected.isCompleted(); frame++) {
+                    expected.update(frame);
+                    actual.update(frame);
+                    Assertions.assertEquals(expected.getStatus(), actual.getStatus(), "case: " + idx + ", round: " + round);
+                    if (frame > 200) throw new AssertionError("infinite loop");
+                }
+                Assertions.assertEquals(expected.getExitFrame(), actual.getExitFrame(), "case: " + idx + ", round: " + round);
+                expected.resetForRestart();
+                actual.resetForRestart();
+            }
+        }
+    }
+
+    /** 不内联子树 */
+    private static TreeOptimizer newOptimizer() {
+        return new TreeOptimizer(TreeOptimizer.ALL, null);
+    }
+
+    private static TaskEntry<Blackboard> newTaskEntry(Task<Blackboard> root) {
+        return new TaskEntry<>("Main", root, new Blackboard(), null, newLoader());
+    }
+
+    private static boolean containsSubtreeRef(Task<?> task) {
+        if (task instanceof SubtreeRef<?>) return true;
+        for (int idx = 0; idx < task.getChildCount(); idx++) {
+            if (containsSubtreeRef(task.getChild(idx))) return true;
+        }
+        return false;
+    }
+
+    private static int countNodes(Task<?> task) {
+        int count = 1;
+        if (task.getGuard() != null) {
+            count += countNodes(task.getGuard());
+        }
+        for (int idx = 0; idx < task.getChildCount(); idx++) {
+            count += countNodes(task.getChild(idx));
+        }
+        return count;
+    }
+
+    // region 随机树
+
+    private static Task<Blackboard> randomTree(Random random, int depth) {
+        return randomTree(random, depth, true);
+    }
+
+    /** @param allowRef 是否可以引用子树 -- 子树不再引用子树，避免无限递归 */
+    private static Task<Blackboard> randomTree(Random random, int depth, boolean allowRef) {
+        Task<Blackboard> task = randomTask(random, depth, allowRef);
+        if (random.nextInt(5) == 0) {
+            task.setGuard(randomGuard(random));
+        }
+        return task;
+    }
+
+    private static Task<Blackboard> randomTask(Random random, int depth, boolean allowRef) {
+        if (depth == 0 || random.nextInt(4) == 0) {
+            return switch (random.nextInt(6)) {
+                case 0 -> new WaitFrame<>(random.nextInt(3));
+                case 1 -> new Success<>();
+                case 2 -> {
+                    Failure<Blackboard> failure = new Failure<>();
+                    failure.setFailureStatus(random.nextBoolean() ? 0 : TaskStatus.ERROR + 3);
+                    yield failure;
+                }
+                case 3 -> allowRef ? new SubtreeRef<>("s" + random.nextInt(SUBTREE_COUNT)) : new Success<>();
+                default -> new Condition<>(random.nextBoolean());
+            };
+        }
+        return switch (random.nextInt(6)) {
+            case 0, 1 -> {
+                Sequence<Blackboard> sequence = new Sequence<>();
+                addRandomChildren(random, depth, allowRef, sequence);
+                yield sequence;
+            }
+            case 2 -> {
+                Selector<Blackboard> selector = new Selector<>();
+                addRandomChildren(random, depth, allowRef, selector);
+                yield selector;
+            }
+            case 3 -> new Inverter<>(randomTree(random, depth - 1, allowRef));
+            case 4 -> new Inverter<>(new Inverter<>(randomTree(random, depth - 1, allowRef)));
+            default -> random.nextBoolean() ? new AlwaysSuccess<>(new Success<>()) : new AlwaysSuccess<>(randomTree(random, depth - 1, allowRef));
+        };
+    }
+
+    private static void addRandomChildren(Random random, int depth, boolean allowRef, BranchTask<Blackboard> branch) {
+        for (int idx = 0, count = 1 + random.nextInt(4); idx < count; idx++) {
+            branch.addChild(randomTree(random, depth - 1, allowRef));
+        }
+    }
+
+    private static Task<Blackboard> randomGuard(Random random) {
+        return switch (random.nextInt(4)) {
+            case 0 -> new Success<>();
+            case 1 -> new Inverter<>(new Failure<>());
+            case 2 -> new AlwaysSuccess<>();
+            default -> new Condition<>(random.nextInt(3) > 0);
+        };
+    }
+
+    // endregion
+
+    private static class Condition<T> extends ConditionTask<T> {
+
+        final boolean result;
+
+        Condition(boolean result) {
+            this.result = result;
+        }
+
+        @Override
+        protected boolean test() {
+            return result;
+        }
+    }
+
+    private static BtreeTestUtil.MapTreeLoader newLoader() {
+        BtreeTestUtil.MapTreeLoader loader = new BtreeTestUtil.MapTreeLoader();
+        loader.put("cyclic", () -> new Sequence<>(new WaitFrame<>(1), new SubtreeRef<>("cyclic")));
+        for (int idx = 0; idx < SUBTREE_COUNT; idx++) {
+            int seed = -idx - 1;
+            loader.put("s" + idx, () -> randomTree(new Random(seed), 3, false));
+        }
+        return loader;
+    }
+}
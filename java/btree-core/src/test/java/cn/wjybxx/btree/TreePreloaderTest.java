@@ -0,0 +1,194 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btree;
+
+import cn.wjybxx.btree.leaf.WaitFrame;
+import cn.wjybxx.btree.loader.PreloadResult;
+import cn.wjybxx.btree.loader.TreePreloader;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Predicate;
+
+/**
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+public class TreePreloaderTest {
+
+    private static final int fileCount = 32;
+    private static final int entryCountPerFile = 4;
+
+    @Test
+    void testPreloadFiles() {
+        List<String> fileNames = new ArrayList<>();
+        for (int i = 0; i < fileCount; i++) {
+            fileNames.add("file" + i);
+        }
+        fileNames.add("broken");
+        fileNames.add("shadow");
+        fileNames.add("unreadable");
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            TreePreloader preloader = new TreePreloader(newLoader(), pool);
+            PreloadResult<List<Object>> result = preloader.preloadFiles(fileNames, TreePreloader.filterByType(1));
+            Assertions.assertEquals(fileCount + 2, result.getLoaded().size());
+            Assertions.assertEquals(fileNames.subList(0, fileCount + 2), List.copyOf(result.getLoaded().keySet()));
+            for (int i = 0; i < fileCount; i++) {
+                List<Object> objects = result.getLoaded().get(fileNames.get(i));
+                Assertions.assertEquals(entryCountPerFile / 2, objects.size());
+                Assertions.assertThrows(UnsupportedOperationException.class, () -> objects.add(null));
+            }
+
+            // 失败按入口记录，同文件的其它入口正常加载；Error也不会中断预加载
+            Assertions.assertEquals(1, result.getLoaded().get("broken").size());
+            Assertions.assertEquals(Set.of("unreadable"), result.getErrors().keySet());
+            Assertions.assertTrue(result.getErrors().get("unreadable") instanceof UncheckedIOException);
+            Assertions.assertEquals(Set.of("broken", "shadow"), result.getEntryErrors().keySet());
+            Map<String, Throwable> brokenErrors = result.getEntryErrors().get("broken");
+            Assertions.assertEquals(Set.of("broken-0", "broken-2"), brokenErrors.keySet());
+            Assertions.assertTrue(brokenErrors.get("broken-0") instanceof IllegalStateException);
+            Assertions.assertTrue(brokenErrors.get("broken-2") instanceof AssertionError);
+            // 入口名与文件名相同时不会互相覆盖
+            Assertions.assertTrue(result.getEntryErrors().get("shadow").get("unreadable") instanceof IllegalStateException);
+            Assertions.assertTrue(result.hasErrors());
+
+            PreloadResult<List<Object>> flagsResult = preloader.preloadFiles(List.of("file0"), TreePreloader.filterByFlags(2));
+            Assertions.assertEquals(entryCountPerFile / 2, flagsResult.getLoaded().get("file0").size());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void testPreloadEntries() {
+        TreePreloader preloader = new TreePreloader(newLoader());
+        PreloadResult<Object> result = preloader.preloadEntries(List.of("file0-0", "absent", "file3-1"));
+        Assertions.assertEquals(2, result.getLoaded().size());
+        Assertions.assertTrue(result.getErrors().get("absent") instanceof IllegalArgumentException);
+
+        PreloadResult<Object> brokenResult = preloader.preloadEntries(List.of("broken-2", "broken-1"));
+        Assertions.assertEquals(Set.of("broken-1"), brokenResult.getLoaded().keySet());
+        Assertions.assertTrue(brokenResult.getErrors().get("broken-2") instanceof AssertionError);
+        Assertions.assertTrue(brokenResult.getEntryErrors().isEmpty());
+    }
+
+    /** 虚拟机错误不会被记录，而是终止预加载 */
+    @Test
+    void testVirtualMachineError() {
+        BtreeTestUtil.MapTreeLoader loader = newLoader();
+        loader.put("oom", "oom-0", "oom-0", 1, 0, () -> {
+            throw new OutOfMemoryError("oom-0");
+        });
+        TreePreloader preloader = new TreePreloader(loader);
+        Assertions.assertThrows(OutOfMemoryError.class, () -> preloader.preloadFiles(List.of("file0", "oom"), null));
+        Assertions.assertThrows(OutOfMemoryError.class, () -> preloader.preloadEntries(List.of("file0-0", "oom-0")));
+    }
+
+    /**
+     * 启动耗时随线程数的变化 -- 每个入口的解码模拟为固定的CPU耗时
+     * 基准测试，默认不运行，通过{@code -Dgroups=benchmark -DexcludedGroups=}运行
+     */
+    @Tag("benchmark")
+    @Test
+    void testScaling() {
+        final int entryCount = 256;
+        final long spinNanos = 200_000;
+        BtreeTestUtil.MapTreeLoader loader = new BtreeTestUtil.MapTreeLoader();
+        List<String> fileNames = new ArrayList<>();
+        for (int i = 0; i < entryCount; i++) {
+            String fileName = "spin" + i;
+            fileNames.add(fileName);
+            loader.put(fileName, fileName, fileName, 0, 0, () -> {
+                long deadline = System.nanoTime() + spinNanos;
+                while (System.nanoTime() < deadline) {
+                    Thread.onSpinWait();
+                }
+                return new WaitFrame<>(1);
+            });
+        }
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        int parallelism = Math.min(4, cores);
+        long serialNanos = preloadNanos(loader, fileNames, 1);
+        long parallelNanos = preloadNanos(loader, fileNames, parallelism);
+        String message = "entries: %d, 1 thread: %dns, %d threads: %dns, cores: %d"
+                .formatted(entryCount, serialNanos, parallelism, parallelNanos, cores);
+
+        // 单线程的耗时不低于各入口耗时之和
+        Assertions.assertTrue(serialNanos >= entryCount * spinNanos, message);
+        if (parallelism > 1) {
+            Assertions.assertTrue(parallelNanos * 1.5 < serialNanos, message);
+        }
+    }
+
+    private static long preloadNanos(BtreeTestUtil.MapTreeLoader loader, List<String> fileNames, int parallelism) {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            TreePreloader preloader = new TreePreloader(loader, pool);
+            preloader.preloadFiles(fileNames, null); // 预热
+            PreloadResult<List<Object>> result = preloader.preloadFiles(fileNames, null);
+            Assertions.assertFalse(result.hasErrors());
+            return result.getElapsedNanos();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * 每个文件包含4个入口，类型为0和1交替；broken文件的部分入口解码失败，unreadable文件无法读取；
+     * shadow文件包含一个与unreadable文件同名的失败入口
+     */
+    private static BtreeTestUtil.MapTreeLoader newLoader() {
+        BtreeTestUtil.MapTreeLoader loader = new BtreeTestUtil.MapTreeLoader() {
+            @Override
+            public List<Object> loadManyFromFile(String fileName, boolean sharable, @Nullable Predicate<? super IEntry> filter) {
+                if (fileName.equals("unreadable")) {
+                    throw new UncheckedIOException(new IOException("unreadable file"));
+                }
+                return super.loadManyFromFile(fileName, sharable, filter);
+            }
+        };
+        for (int fileIdx = 0; fileIdx < fileCount; fileIdx++) {
+            String fileName = "file" + fileIdx;
+            for (int i = 0; i < entryCountPerFile; i++) {
+                String name = fileName + "-" + i;
+                loader.put(fileName, name, name, i % 2, (i % 2) * 2, () -> new WaitFrame<>(1));
+            }
+        }
+        loader.put("broken", "broken-0", "broken-0", 1, 0, () -> {
+            throw new IllegalStateException("bad entry: broken-0");
+        });
+        loader.put("broken", "broken-1", "broken-1", 1, 0, () -> new WaitFrame<>(1));
+        loader.put("broken", "broken-2", "broken-2", 1, 0, () -> {
+            throw new AssertionError("bad entry: broken-2");
+        });
+        loader.put("shadow", "unreadable", "shadow-0", 1, 0, () -> {
+            throw new IllegalStateException("bad entry: unreadable");
+        });
+        return loader;
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btree;
+
+import cn.wjybxx.btree.branch.ObservedScorer;
+import cn.wjybxx.btree.branch.UtilityScorer;
+import cn.wjybxx.btree.branch.UtilitySelector;
+import cn.wjybxx.btree.leaf.Running;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 效用选择测试
+ *
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+public class UtilitySelectorTest {
+
+    private static final String[] KEYS = {"a", "b", "c"};
+
+    private static TaskEntry<Blackboard> newTree(UtilitySelector<Blackboard> selector) {
+        return new TaskEntry<>("Main", selector, new VersionedBlackboard(), null, TreeLoader.nullLoader());
+    }
+
+    private static UtilitySelector<Blackboard> newSelector(boolean observed) {
+        UtilitySelector<Blackboard> selector = new UtilitySelector<>();
+        List<UtilityScorer<Blackboard>> scorers = new ArrayList<>();
+        for (String key : KEYS) {
+            selector.addChild(new Running<>());
+            KeyScorer scorer = new KeyScorer(key);
+            if (observed) {
+                scorer.setBlackboardKeys(List.of(key));
+            }
+            scorers.add(scorer);
+        }
+        selector.setScorers(scorers);
+        return selector;
+    }
+
+    private static void putScores(TaskEntry<Blackboard> taskEntry, float a, float b, float c) {
+        taskEntry.getBlackboard().put("a", a);
+        taskEntry.getBlackboard().put("b", b);
+        taskEntry.getBlackboard().put("c", c);
+    }
+
+    @Test
+    void testHighestScore() {
+        UtilitySelector<Blackboard> selector = newSelector(false);
+        TaskEntry<Blackboard> taskEntry = newTree(selector);
+        putScores(taskEntry, 0.2f, 0.9f, 0.5f);
+        taskEntry.update(0);
+        Assertions.assertEquals(1, selector.getRunningIndex());
+
+        Task<Blackboard> preChild = selector.getChild(1);
+        taskEntry.getBlackboard().put("c", 1.0f);
+        taskEntry.update(1);
+        Assertions.assertEquals(2, selector.getRunningIndex());
+        Assertions.assertTrue(preChild.isCancelled());
+
+        putScores(taskEntry, 0, 0, 0);
+        taskEntry.update(2);
+        Assertions.assertTrue(taskEntry.isFailed());
+    }
+
+    @Test
+    void testCachedScore() {
+        UtilitySelector<Blackboard> selector = newSelector(true);
+        TaskEntry<Blackboard> taskEntry = newTree(selector);
+        putScores(taskEntry, 0.2f, 0.9f, 0.5f);
+        taskEntry.update(0);
+        Assertions.assertEquals(3, selector.getScoreCount());
+
+        for (int frame = 1; frame < 10; frame++) {
+            taskEntry.update(frame);
+        }
+        Assertions.assertEquals(3, selector.getScoreCount()); // 输入未变化
+
+        taskEntry.getBlackboard().put("a", 0.95f);
+        taskEntry.update(10);
+        Assertions.assertEquals(4, selector.getScoreCount()); // 只重新评估变化的子节点
+        Assertions.assertEquals(0, selector.getRunningIndex());
+    }
+
+    @Test
+    void testHysteresis() {
+        UtilitySelector<Blackboard> selector = newSelector(false);
+        selector.setHysteresis(0.1f);
+        TaskEntry<Blackboard> taskEntry = newTree(selector);
+        putScores(taskEntry, 0.5f, 0.2f, 0.2f);
+        taskEntry.update(0);
+        Assertions.assertEquals(0, selector.getRunningIndex());
+
+        taskEntry.getBlackboard().put("b", 0.55f);
+        taskEntry.update(1);
+        Assertions.assertEquals(0, selector.getRunningIndex()); // 未超过加成后的分数
+
+        taskEntry.getBlackboard().put("b", 0.7f);
+        taskEntry.update(2);
+        Assertions.assertEquals(1, selector.getRunningIndex());
+
+        taskEntry.getBlackboard().put("a", 0.75f);
+        taskEntry.update(3);
+        Assertions.assertEquals(1, selector.getRunningIndex());
+    }
+
+    @Test
+    void testPruning() {
+        UtilitySelector<Blackboard> selector = newSelector(false);
+        float[] maxScores = {0.3f, 1.0f, 0.5f};
+        for (int i = 0; i < maxScores.length; i++) {
+            ((KeyScorer) selector.getScorers().get(i)).setMaxScore(maxScores[i]);
+        }
+        TaskEntry<Blackboard> taskEntry = newTree(selector);
+        putScores(taskEntry, 0.3f, 0.8f, 0.5f);
+        taskEntry.update(0);
+        Assertions.assertEquals(1, selector.getRunningIndex());
+        Assertions.assertEquals(1, selector.getScoreCount()); // 其它子节点的上界都低于0.8
+
+        taskEntry.getBlackboard().put("b", 0.4f);
+        taskEntry.update(1);
+        Assertions.assertEquals(2, selector.getRunningIndex());
+        Assertions.assertEquals(3, selector.getScoreCount());
+    }
+
+    @Test
+    void testRescoreInterval() {
+        UtilitySelector<Blackboard> selector = newSelector(false);
+        selector.setRescoreInterval(5);
+        TaskEntry<Blackboard> taskEntry = newTree(selector);
+        putScores(taskEntry, 0.2f, 0.9f, 0.5f);
+        for (int frame = 0; frame < 10; frame++) {
+            taskEntry.update(frame);
+        }
+        Assertions.assertEquals(6, selector.getScoreCount()); // 第0帧和第5帧
+    }
+
+    @Test
+    void testSameResult() {
+        // 缓存评分的结果应该与每帧评分一致
+        UtilitySelector<Blackboard> observedSelector = newSelector(true);
+        UtilitySelector<Blackboard> expectedSelector = newSelector(false);
+        observedSelector.setHysteresis(0.05f);
+        expectedSelector.setHysteresis(0.05f);
+        TaskEntry<Blackboard> observed = newTree(observedSelector);
+        TaskEntry<Blackboard> expected = newTree(expectedSelector);
+        putScores(observed, 0.5f, 0.5f, 0.5f);
+        putScores(expected, 0.5f, 0.5f, 0.5f);
+        for (int frame = 0; frame < 200; frame++) {
+            if (BtreeTestUtil.random.nextInt(3) == 0) {
+                String key = KEYS[BtreeTestUtil.random.nextInt(KEYS.length)];
+                Float value = BtreeTestUtil.random.nextFloat();
+                observed.getBlackboard().put(key, value);
+                expected.getBlackboard().put(key, value);
+            }
+            observed.update(frame);
+            expected.update(frame);
+            Assertions.assertEquals(expectedSelector.getRunningIndex(), observedSelector.getRunningIndex());
+        }
+        Assertions.assertTrue(observedSelector.getScoreCount() < expectedSelector.getScoreCount());
+    }
+
+    private static class KeyScorer extends ObservedScorer<Blackboard> {
+
+        final String key;
+
+        KeyScorer(String key) {
+            this.key = key;
+        }
+
+        @Override
+        public float score(UtilitySelector<Blackboard> selector, int index) {
+            Object value = selector.getBlackboard().get(key);
+            return value == null ? 0 : (Float) value;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btree;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 支持输入版本号的黑板
+ *
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+class VersionedBlackboard extends Blackboard implements InputVersionSource {
+
+    private final Map<Object, Long> versionMap = new HashMap<>();
+    private long version;
+
+    @Override
+    public Object put(String key, Object value) {
+        versionMap.put(key, ++version);
+        return super.put(key, value);
+    }
+
+    @Override
+    public long getInputVersion(Object key) {
+        return versionMap.getOrDefault(key, 0L);
+    }
+}
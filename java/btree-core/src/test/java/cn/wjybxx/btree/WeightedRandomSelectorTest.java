@@ -0,0 +1,179 @@
+/*
+ * Copyright 2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.wjybxx.btree;
+
+import cn.wjybxx.btree.branch.WeightedRandomSelector;
+import cn.wjybxx.btree.leaf.Failure;
+import cn.wjybxx.btree.leaf.Success;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * 权重随机选择测试
+ *
+ * @author wjybxx
+ * date - 2024/6/5
+ */
+public class WeightedRandomSelectorTest {
+
+    private static final int SAMPLE_COUNT = 100_000;
+
+    private static TaskEntry<Blackboard> newTree(WeightedRandomSelector<Blackboard> selector, long seed) {
+        TaskEntry<Blackboard> taskEntry = new TaskEntry<>("Main", selector, new Blackboard(), null, TreeLoader.nullLoader());
+        taskEntry.setRandom(new SplittableRandom(seed));
+        return taskEntry;
+    }
+
+    @Test
+    void testDistribution() {
+        float[] weights = {1, 2, 0, 7};
+        WeightedRandomSelector<Blackboard> selector = new WeightedRandomSelector<>();
+        for (int i = 0; i < weights.length; i++) {
+            selector.addChild(new Success<>());
+        }
+        selector.setWeights(weights);
+
+        int[] counts = new int[weights.length];
+        SplittableRandom random = new SplittableRandom(1024);
+        for (int i = 0; i < SAMPLE_COUNT; i++) {
+            counts[selector.selectIndex(random)]++;
+        }
+        Assertions.assertEquals(0, counts[2]);
+        for (int i = 0; i < weights.length; i++) {
+            double expected = weights[i] / 10.0;
+            Assertions.assertEquals(expected, counts[i] / (double) SAMPLE_COUNT, 0.01);
+        }
+    }
+
+    @Test
+    void testRunTree() {
+        WeightedRandomSelector<Blackboard> selector = new WeightedRandomSelector<>();
+        selector.addChild(new Success<>());
+        selector.addChild(new Success<>());
+        selector.setWeights(new float[]{1, 3});
+        TaskEntry<Blackboard> taskEntry = newTree(selector, 1024);
+
+        int[] counts = new int[2];
+        for (int i = 0; i < 10000; i++) {
+            taskEntry.update(i);
+            Assertions.assertTrue(taskEntry.isSucceeded());
+            counts[selector.getRunningIndex()]++;
+        }
+        Assertions.assertEquals(0.25, counts[0] / 10000.0, 0.02);
+
+        // 权重变化后重建别名表
+        selector.setWeights(new float[]{0, 1});
+        for (int i = 0; i < 100; i++) {
+            taskEntry.update(10000 + i);
+            Assertions.assertEquals(1, selector.getRunningIndex());
+        }
+    }
+
+    @Test
+    void testUniform() {
+        WeightedRandomSelector<Blackboard> selector = new WeightedRandomSelector<>();
+        for (int i = 0; i < 5; i++) {
+            selector.addChild(new Success<>());
+        }
+        int[] counts = new int[5];
+        SplittableRandom random = new SplittableRandom(7);
+        for (int i = 0; i < SAMPLE_COUNT; i++) {
+            counts[selector.selectIndex(random)]++;
+        }
+        for (int count : counts) {
+            Assertions.assertEquals(0.2, count / (double) SAMPLE_COUNT, 0.01);
+        }
+    }
+
+    @Test
+    void testReproducible() {
+        List<Integer> first = runSequence(42);
+        List<Integer> second = runSequence(42);
+        Assertions.assertEquals(first, second);
+    }
+
+    private static List<Integer> runSequence(long seed) {
+        WeightedRandomSelector<Blackboard> selector = new WeightedRandomSelector<>();
+        for (int i = 0; i < 6; i++) {
+            selector.addChild(new Success<>());
+        }
+        selector.setWeights(new float[]{3, 1, 4, 1, 5, 9});
+        TaskEntry<Blackboard> taskEntry = newTree(selector, seed);
+        List<Integer> result = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            taskEntry.update(i);
+            result.add(selector.getRunningIndex());
+        }
+        return result;
+    }
+
+    @Test
+    void testFailurePropagated() {
+        WeightedRandomSelector<Blackboard> selector = new WeightedRandomSelector<>();
+        selector.addChild(new Failure<>());
+        selector.addChild(new Success<>());
+        selector.setWeights(new float[]{1, 0});
+        TaskEntry<Blackboard> taskEntry = newTree(selector, 1);
+        taskEntry.update(0);
+        Assertions.assertTrue(taskEntry.isFailed());
+        Assertions.assertEquals(1, selector.getCompletedCount());
+    }
+
+    @Test
+    void testExcludeFailed() {
+        WeightedRandomSelector<Blackboard> selector = new WeightedRandomSelector<>();
+        selector.setExcludeFailed(true);
+        for (int i = 0; i < 7; i++) {
+            selector.addChild(new Failure<>());
+        }
+        selector.addChild(new Success<>());
+        TaskEntry<Blackboard> taskEntry = newTree(selector, 2048);
+        for (int i = 0; i < 1000; i++) {
+            taskEntry.update(i);
+            Assertions.assertTrue(taskEntry.isSucceeded());
+            Assertions.assertEquals(7, selector.getRunningIndex());
+            Assertions.assertTrue(selector.getCompletedCount() <= 8);
+        }
+    }
+
+    @Test
+    void testAllExcluded() {
+        WeightedRandomSelector<Blackboard> selector = new WeightedRandomSelector<>();
+        selector.setExcludeFailed(true);
+        for (int i = 0; i < 20; i++) {
+            selector.addChild(new Failure<>());
+        }
+        selector.setWeights(new float[]{1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 0, 100});
+        TaskEntry<Blackboard> taskEntry = newTree(selector, 3);
+        taskEntry.update(0);
+        Assertions.assertTrue(taskEntry.isFailed());
+        Assertions.assertEquals(19, selector.getCompletedCount()); // 权重为0的不会被选中
+    }
+
+    @Test
+    void testNoCandidate() {
+        WeightedRandomSelector<Blackboard> selector = new WeightedRandomSelector<>();
+        selector.addChild(new Success<>());
+        selector.setWeights(new float[]{0});
+        TaskEntry<Blackboard> taskEntry = newTree(selector, 4);
+        taskEntry.update(0);
+        Assertions.assertTrue(taskEntry.isFailed());
+    }
+}